@@ -15,6 +15,86 @@ public final class ApplicationProperties {
 
     public static final String MAX_MESSAGES_FROM_PULL = "max.number.messages.pull";
 
+    public static final String TIMING_WHEEL_TICK_MILLIS = "timing.wheel.tick.millis";
+
+    public static final String TIMING_WHEEL_SIZE = "timing.wheel.size";
+
+    public static final String INFLIGHT_TABLE_SHARDS = "inflight.table.shards";
+
+    public static final String MEMORY_QUEUE_STORAGE = "memory.queue.storage";
+
+    public static final String MEMORY_QUEUE_SLAB_BYTES = "memory.queue.slab.bytes";
+
+    public static final String MEMORY_QUEUE_SHARDS = "memory.queue.shards";
+
+    public static final String MEMORY_QUEUE_SHARD_SELECTION = "memory.queue.shard.selection";
+
+    public static final String MEMORY_QUEUE_TYPE = "memory.queue.type";
+
+    public static final String MEMORY_QUEUE_RING_CAPACITY = "memory.queue.ring.capacity";
+
+    public static final String MEMORY_QUEUE_MAX_MESSAGES = "memory.queue.max.messages";
+
+    public static final String MEMORY_QUEUE_MAX_BYTES = "memory.queue.max.bytes";
+
+    public static final String MEMORY_QUEUE_BUDGET_BYTES = "memory.queue.budget.bytes";
+
+    public static final String MEMORY_QUEUE_OVERFLOW_POLICY = "memory.queue.overflow.policy";
+
+    public static final String MEMORY_QUEUE_BLOCK_TIMEOUT_MILLIS = "memory.queue.block.timeout.millis";
+
+    public static final String MEMORY_QUEUE_SPILL_DIRECTORY = "memory.queue.spill.directory";
+
+    public static final String MEMORY_QUEUE_SPILL_SEGMENT_BYTES = "memory.queue.spill.segment.bytes";
+
+    public static final String TIERED_QUEUE_DIRECTORY = "tiered.queue.directory";
+
+    public static final String TIERED_QUEUE_MEMORY_MESSAGES = "tiered.queue.memory.messages";
+
+    public static final String TIERED_QUEUE_MEMORY_BYTES = "tiered.queue.memory.bytes";
+
+    public static final String TIERED_QUEUE_PAGE_IN_PERCENT = "tiered.queue.page.in.percent";
+
+    public static final String FILE_QUEUE_DIRECTORY = "file.queue.directory";
+
+    public static final String FILE_QUEUE_SEGMENT_BYTES = "file.queue.segment.bytes";
+
+    public static final String FILE_QUEUE_IO_MODE = "file.queue.io.mode";
+
+    public static final String FILE_QUEUE_DURABILITY = "file.queue.durability";
+
+    public static final String FILE_QUEUE_GROUP_COMMIT_MILLIS = "file.queue.group.commit.millis";
+
+    public static final String FILE_QUEUE_GROUP_COMMIT_MESSAGES = "file.queue.group.commit.messages";
+
+    public static final String FILE_QUEUE_COMPACTION_MILLIS = "file.queue.compaction.millis";
+
+    public static final String FILE_QUEUE_COMPACTION_BYTES_PER_SECOND = "file.queue.compaction.bytes.per.second";
+
+    public static final String SQS_PREFETCH_MESSAGES = "sqs.prefetch.messages";
+
+    public static final String SQS_PREFETCH_WAIT_SECONDS = "sqs.prefetch.wait.seconds";
+
+    public static final String SQS_SEND_BATCHES_IN_FLIGHT = "sqs.send.batches.in.flight";
+
+    public static final String SQS_SEND_LINGER_MILLIS = "sqs.send.linger.millis";
+
+    public static final String SQS_RETRY_MAX_ATTEMPTS = "sqs.retry.max.attempts";
+
+    public static final String SQS_RETRY_BASE_DELAY_MILLIS = "sqs.retry.base.delay.millis";
+
+    public static final String SQS_RETRY_MAX_DELAY_MILLIS = "sqs.retry.max.delay.millis";
+
+    public static final String SQS_RETRY_BUDGET_RATIO = "sqs.retry.budget.ratio";
+
+    public static final String SQS_RATE_LIMIT_PER_SECOND = "sqs.rate.limit.per.second";
+
+    public static final String SQS_SPILL_DIRECTORY = "sqs.spill.directory";
+
+    public static final String SQS_SPILL_SEGMENT_BYTES = "sqs.spill.segment.bytes";
+
+    public static final String SQS_SPILL_LATENCY_SLO_MILLIS = "sqs.spill.latency.slo.millis";
+
     /**
      * Private Constructor to restrict the instantiation of this class
      */
@@ -0,0 +1,381 @@
+package com.example.consumer;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.example.pojo.ChangeVisibilityBatchRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.service.QueueService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Prefetches the messages of a queue for a set of consumers, sizing its local buffer and its pulls from the
+ * observed processing time and pull latency.
+ * <p>
+ * Consumers take messages from the buffer and report when they are done with each. From the processing time
+ * and the number of consumers the prefetcher knows how fast messages are consumed; it keeps enough of them
+ * buffered to last a pull round trip, plus one per consumer, and pulls only what is missing. The buffer is
+ * also kept small enough that a message is handed out within half of its visibility timeout, counted from its
+ * pull, leaving the other half to process it; a message still buffered after half of its timeout is dropped
+ * rather than handed out.
+ * <p>
+ * The decisions are exposed as metrics: the target depth of the buffer, the last pull batch size, and the
+ * estimates they are based on.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class AdaptivePrefetcher implements Closeable {
+
+    /** Weight of a new sample in the moving averages of the processing time and the pull latency */
+    static final double EWMA_WEIGHT = 0.2;
+
+    /** Share of the visibility timeout a message may spend being pulled and buffered */
+    static final double VISIBILITY_SAFETY_RATIO = 0.5;
+
+    /** Longest wait of a fetcher with a full buffer before it checks the target depth again */
+    static final long FULL_BUFFER_WAIT_MILLIS = 100;
+
+    private final QueueService queueService;
+
+    private final String queueUrl;
+
+    private final int consumers;
+
+    /** Most messages buffered whatever the estimates */
+    private final int capacity;
+
+    /** Most messages of a pull */
+    private final int maxBatchSize;
+
+    private final int visibilityTimeout;
+
+    private final int waitTimeSeconds;
+
+    private final BlockingQueue<Prefetched> buffer = new LinkedBlockingQueue<>();
+
+    /** When each message being processed was handed out, indexed by receipt handle */
+    private final ConcurrentMap<String, Long> handedOut = new ConcurrentHashMap<>();
+
+    /** Wakes the fetcher up when a message is taken */
+    private final Object takenSignal = new Object();
+
+    private final ExecutorService fetcher = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("prefetch-%d").build());
+
+    private volatile boolean closed;
+
+    /** Moving average of the processing time of a message, NaN until a message was processed */
+    private double processingNanos = Double.NaN;
+
+    /** Moving average of the latency of the pulls returning messages, NaN until one returned */
+    private double pullLatencyNanos = Double.NaN;
+
+    private volatile int targetDepth;
+
+    private volatile int batchSize;
+
+    private final AtomicLong pullCount = new AtomicLong();
+
+    private final AtomicLong emptyPullCount = new AtomicLong();
+
+    private final AtomicLong processedCount = new AtomicLong();
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * Instantiates a new prefetcher and starts fetching.
+     *
+     * @param queueService the queue service
+     * @param queueUrl the queue URL
+     * @param consumers the number of consumers taking messages
+     * @param capacity the most messages buffered
+     * @param maxBatchSize the most messages of a pull
+     * @param visibilityTimeout the visibility timeout of the pulled messages, in seconds
+     * @param waitTimeSeconds the long poll wait time of the pulls
+     */
+    public AdaptivePrefetcher(final QueueService queueService, final String queueUrl, final int consumers,
+            final int capacity, final int maxBatchSize, final int visibilityTimeout, final int waitTimeSeconds) {
+        checkArgument(queueService != null);
+        checkArgument(queueUrl != null);
+        checkArgument(consumers > 0);
+        checkArgument(capacity > 0);
+        checkArgument(maxBatchSize > 0);
+        checkArgument(visibilityTimeout > 0);
+        checkArgument(waitTimeSeconds >= 0);
+        this.queueService = queueService;
+        this.queueUrl = queueUrl;
+        this.consumers = consumers;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.visibilityTimeout = visibilityTimeout;
+        this.waitTimeSeconds = waitTimeSeconds;
+        this.targetDepth = Math.min(consumers, capacity);
+        fetcher.execute(new Runnable() {
+            public void run() {
+                fetch();
+            }
+        });
+    }
+
+    /**
+     * Takes a prefetched message, waiting for one if the buffer is empty. Messages buffered for more than half
+     * of their visibility timeout are dropped instead of being returned.
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return the message, or null if none arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Message take(final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkState(!closed, "The prefetcher is closed");
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            final Prefetched prefetched = buffer.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (prefetched == null) {
+                return null;
+            }
+            synchronized (takenSignal) {
+                takenSignal.notifyAll();
+            }
+            final long now = System.nanoTime();
+            if (prefetched.handOutBeforeNanos - now > 0) {
+                handedOut.put(prefetched.message.getReceiptHandle(), now);
+                return prefetched.message;
+            }
+            expiredCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reports that a consumer is done with a message, whether it succeeded or not, so that its processing time
+     * is accounted for.
+     *
+     * @param message the message returned by {@link #take(long, TimeUnit)}
+     */
+    public void done(final Message message) {
+        checkArgument(message != null);
+        final Long handedOutNanos = handedOut.remove(message.getReceiptHandle());
+        if (handedOutNanos != null) {
+            processedCount.incrementAndGet();
+            synchronized (this) {
+                processingNanos = average(processingNanos, System.nanoTime() - handedOutNanos);
+            }
+        }
+    }
+
+    /**
+     * Stops fetching and makes the messages still buffered visible again right away.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        fetcher.shutdown();
+        try {
+            // A pull in progress completes, so that its messages are drained with the buffer
+            fetcher.awaitTermination(waitTimeSeconds + 2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final List<Prefetched> prefetched = new ArrayList<>();
+        buffer.drainTo(prefetched);
+        final List<String> receiptHandles = new ArrayList<>(prefetched.size());
+        for (Prefetched message : prefetched) {
+            receiptHandles.add(message.message.getReceiptHandle());
+        }
+        if (!receiptHandles.isEmpty()) {
+            queueService.changeVisibilityBatch(new ChangeVisibilityBatchRequest(queueUrl, receiptHandles, 0));
+        }
+    }
+
+    /**
+     * Gets the number of messages the buffer is kept at.
+     *
+     * @return the target depth
+     */
+    public int targetDepth() {
+        return targetDepth;
+    }
+
+    /**
+     * Gets the number of messages asked by the last pull.
+     *
+     * @return the batch size, 0 before the first pull
+     */
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Gets the number of messages buffered.
+     *
+     * @return the number of messages
+     */
+    public int buffered() {
+        return buffer.size();
+    }
+
+    /**
+     * Gets the moving average of the processing time of a message.
+     *
+     * @return the processing time in milliseconds, NaN until a message was processed
+     */
+    public synchronized double processingMillis() {
+        return processingNanos / 1e6;
+    }
+
+    /**
+     * Gets the moving average of the latency of the pulls returning messages.
+     *
+     * @return the latency in milliseconds, NaN until a pull returned messages
+     */
+    public synchronized double pullLatencyMillis() {
+        return pullLatencyNanos / 1e6;
+    }
+
+    /**
+     * Gets the estimated number of messages the consumers process per second.
+     *
+     * @return the processing rate, NaN until a message was processed
+     */
+    public synchronized double processingRate() {
+        return consumers * 1e9 / processingNanos;
+    }
+
+    /**
+     * Gets the number of pulls made so far.
+     *
+     * @return the number of pulls
+     */
+    public long pullCount() {
+        return pullCount.get();
+    }
+
+    /**
+     * Gets the number of pulls that returned no message.
+     *
+     * @return the number of empty pulls
+     */
+    public long emptyPullCount() {
+        return emptyPullCount.get();
+    }
+
+    /**
+     * Gets the number of messages reported done.
+     *
+     * @return the number of processed messages
+     */
+    public long processedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * Gets the number of messages dropped because they stayed buffered for half of their visibility timeout.
+     *
+     * @return the number of expired messages
+     */
+    public long expiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Computes the target depth of the buffer: the messages the consumers process during a pull round trip
+     * plus one per consumer, capped so that the last message of a pull is handed out within the safe share of
+     * its visibility timeout. Without estimates yet, one message per consumer.
+     */
+    synchronized int computeTargetDepth() {
+        if (Double.isNaN(processingNanos) || Double.isNaN(pullLatencyNanos)) {
+            return Math.min(consumers, capacity);
+        }
+        final double ratePerNano = consumers / Math.max(processingNanos, 1);
+        final double depth = Math.ceil(ratePerNano * pullLatencyNanos) + consumers;
+        final double safeNanos = TimeUnit.SECONDS.toNanos(visibilityTimeout) * VISIBILITY_SAFETY_RATIO;
+        final double maxDepth = Math.floor(ratePerNano * (safeNanos - pullLatencyNanos));
+        return (int) Math.max(1, Math.min(capacity, Math.min(depth, maxDepth)));
+    }
+
+    /**
+     * Pulls what the buffer is missing to reach its target depth, until closed.
+     */
+    private void fetch() {
+        try {
+            while (!closed) {
+                targetDepth = computeTargetDepth();
+                final int missing = targetDepth - buffer.size();
+                if (missing <= 0) {
+                    synchronized (takenSignal) {
+                        if (targetDepth - buffer.size() <= 0) {
+                            takenSignal.wait(FULL_BUFFER_WAIT_MILLIS);
+                        }
+                    }
+                    continue;
+                }
+                batchSize = Math.min(missing, maxBatchSize);
+
+                final PullRequest request = new PullRequest(queueUrl);
+                request.setMaxNumberOfMessages(batchSize);
+                request.setVisibilityTimeout(visibilityTimeout);
+                request.setWaitTimeSeconds(waitTimeSeconds);
+                final long start = System.nanoTime();
+                // Half of the timeout is left for the consumer, counted from before the request
+                final long handOutBeforeNanos =
+                        start + (long) (TimeUnit.SECONDS.toNanos(visibilityTimeout) * VISIBILITY_SAFETY_RATIO);
+                final List<Message> messages;
+                try {
+                    messages = queueService.pull(request);
+                } catch (RuntimeException e) {
+                    Thread.sleep(MessageListenerContainer.FAILURE_BACKOFF_MILLIS);
+                    continue;
+                }
+                pullCount.incrementAndGet();
+                if (messages.isEmpty()) {
+                    // A long poll returning nothing measures the wait, not the latency
+                    emptyPullCount.incrementAndGet();
+                    Thread.sleep(MessageListenerContainer.EMPTY_PULL_BACKOFF_MILLIS);
+                    continue;
+                }
+                synchronized (this) {
+                    pullLatencyNanos = average(pullLatencyNanos, System.nanoTime() - start);
+                }
+                for (Message message : messages) {
+                    buffer.add(new Prefetched(message, handOutBeforeNanos));
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private static double average(final double average, final long sample) {
+        return Double.isNaN(average) ? sample : average + EWMA_WEIGHT * (sample - average);
+    }
+
+    /**
+     * A prefetched message and the time after which it is not handed out anymore.
+     */
+    private static final class Prefetched {
+
+        private final Message message;
+
+        private final long handOutBeforeNanos;
+
+        Prefetched(final Message message, final long handOutBeforeNanos) {
+            this.message = message;
+            this.handOutBeforeNanos = handOutBeforeNanos;
+        }
+    }
+}
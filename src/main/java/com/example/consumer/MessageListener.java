@@ -0,0 +1,20 @@
+package com.example.consumer;
+
+import com.example.pojo.Message;
+
+/**
+ * Handles the messages a {@link MessageListenerContainer} receives from a queue.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public interface MessageListener {
+
+    /**
+     * Handles a message. The message is deleted from its queue once this returns; if this throws, the message
+     * is left alone and delivered again when its visibility timeout expires.
+     *
+     * @param message the message
+     * @throws Exception if the message could not be handled
+     */
+    void onMessage(Message message) throws Exception;
+}
@@ -0,0 +1,312 @@
+package com.example.consumer;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.example.pojo.DeleteRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.service.QueueService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Consumes a queue with a {@link MessageListener}, on any {@link QueueService}: poll loops pull the messages,
+ * each message is dispatched to the listener on its own task, and deleted once the listener returned. A
+ * message the listener fails is left alone, and delivered again when its visibility timeout expires.
+ * <p>
+ * At most a given number of messages are handled at once: a poll loop only pulls as many messages as there
+ * are free handling slots, so messages are never received long before they can be handled. Listeners run on
+ * a pool of as many threads as slots, or on a given executor, such as an executor starting a thread per task.
+ * <p>
+ * Stopping the container drains it: the poll loops stop after their current pull, and the messages already
+ * pulled are still handled.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class MessageListenerContainer implements Closeable {
+
+    /** Default of the most messages asked for in a pull, the most SQS returns */
+    static final int DEFAULT_MAX_MESSAGES_PER_PULL = 10;
+
+    /** Pause of a poll loop after an empty pull when the pulls do not long poll */
+    static final long EMPTY_PULL_BACKOFF_MILLIS = 100;
+
+    /** Pause of a poll loop after a failed pull */
+    static final long FAILURE_BACKOFF_MILLIS = 1000;
+
+    /** Longest time {@link #close()} waits for the container to drain */
+    static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    private final QueueService queueService;
+
+    private final String queueUrl;
+
+    private final MessageListener listener;
+
+    /** Most messages handled at once */
+    private final int concurrency;
+
+    private final int pollers;
+
+    private final int waitTimeSeconds;
+
+    /** Most messages asked for in a pull */
+    private final int maxMessagesPerPull;
+
+    /** Slots of messages that are neither pulled nor being pulled */
+    private final Semaphore freeSlots;
+
+    private final ExecutorService pollLoops;
+
+    /** Runs the listeners */
+    private final Executor dispatcher;
+
+    /** The pool running the listeners, if the container created it; null for a given executor */
+    private final ExecutorService ownDispatcher;
+
+    private volatile boolean running;
+
+    private boolean started;
+
+    private final AtomicLong handledCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong pullFailureCount = new AtomicLong();
+
+    /**
+     * Instantiates a new container with a single poll loop, running the listeners on a pool of its own.
+     *
+     * @param queueService the queue service
+     * @param queueUrl the queue URL
+     * @param listener the listener
+     * @param concurrency the most messages handled at once
+     * @param waitTimeSeconds the long poll wait time of the pulls
+     */
+    public MessageListenerContainer(final QueueService queueService, final String queueUrl,
+            final MessageListener listener, final int concurrency, final int waitTimeSeconds) {
+        this(queueService, queueUrl, listener, concurrency, 1, waitTimeSeconds, null);
+    }
+
+    /**
+     * Instantiates a new container pulling at most 10 messages at a time.
+     *
+     * @param queueService the queue service
+     * @param queueUrl the queue URL
+     * @param listener the listener
+     * @param concurrency the most messages handled at once
+     * @param pollers the number of poll loops
+     * @param waitTimeSeconds the long poll wait time of the pulls
+     * @param dispatcher the executor running the listeners, or null for a pool of as many threads as messages
+     *            handled at once
+     */
+    public MessageListenerContainer(final QueueService queueService, final String queueUrl,
+            final MessageListener listener, final int concurrency, final int pollers, final int waitTimeSeconds,
+            final Executor dispatcher) {
+        this(queueService, queueUrl, listener, concurrency, pollers, waitTimeSeconds, DEFAULT_MAX_MESSAGES_PER_PULL,
+                dispatcher);
+    }
+
+    /**
+     * Instantiates a new container.
+     *
+     * @param queueService the queue service
+     * @param queueUrl the queue URL
+     * @param listener the listener
+     * @param concurrency the most messages handled at once
+     * @param pollers the number of poll loops
+     * @param waitTimeSeconds the long poll wait time of the pulls
+     * @param maxMessagesPerPull the most messages asked for in a pull, within the limit of the queue service
+     * @param dispatcher the executor running the listeners, or null for a pool of as many threads as messages
+     *            handled at once
+     */
+    public MessageListenerContainer(final QueueService queueService, final String queueUrl,
+            final MessageListener listener, final int concurrency, final int pollers, final int waitTimeSeconds,
+            final int maxMessagesPerPull, final Executor dispatcher) {
+        checkArgument(queueService != null);
+        checkArgument(queueUrl != null);
+        checkArgument(listener != null);
+        checkArgument(concurrency > 0);
+        checkArgument(pollers > 0);
+        checkArgument(waitTimeSeconds >= 0);
+        checkArgument(maxMessagesPerPull > 0);
+        this.queueService = queueService;
+        this.queueUrl = queueUrl;
+        this.listener = listener;
+        this.concurrency = concurrency;
+        this.pollers = pollers;
+        this.waitTimeSeconds = waitTimeSeconds;
+        this.maxMessagesPerPull = maxMessagesPerPull;
+        this.freeSlots = new Semaphore(concurrency);
+        this.pollLoops = Executors.newFixedThreadPool(pollers,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("consumer-poll-%d").build());
+        this.ownDispatcher = dispatcher != null ? null : Executors.newFixedThreadPool(concurrency,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("consumer-listener-%d").build());
+        this.dispatcher = dispatcher != null ? dispatcher : ownDispatcher;
+    }
+
+    /**
+     * Starts the poll loops.
+     */
+    public synchronized void start() {
+        checkState(!started, "The container was already started");
+        started = true;
+        running = true;
+        for (int i = 0; i < pollers; ++i) {
+            pollLoops.execute(new Runnable() {
+                public void run() {
+                    poll();
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops the container and waits until it is drained: the poll loops end after their current pull, and the
+     * listeners complete the messages already pulled.
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of the timeout
+     * @return true if the container was drained in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean stop(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        running = false;
+        pollLoops.shutdown();
+        boolean drained = pollLoops.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                && freeSlots.tryAcquire(concurrency, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (drained) {
+            freeSlots.release(concurrency);
+        }
+        if (ownDispatcher != null) {
+            ownDispatcher.shutdown();
+        }
+        return drained;
+    }
+
+    /**
+     * Stops the container, waiting a minute at most for it to drain.
+     */
+    @Override
+    public void close() {
+        try {
+            stop(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Gets the number of messages handled and deleted so far.
+     *
+     * @return the number of messages
+     */
+    public long handledCount() {
+        return handledCount.get();
+    }
+
+    /**
+     * Gets the number of messages the listener failed so far, or that could not be deleted once handled.
+     *
+     * @return the number of messages
+     */
+    public long failedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Gets the number of pulls that failed so far, each followed by a pause of its poll loop.
+     *
+     * @return the number of failed pulls
+     */
+    public long pullFailureCount() {
+        return pullFailureCount.get();
+    }
+
+    /**
+     * Gets the number of messages being handled or waiting for a listener thread.
+     *
+     * @return the number of messages
+     */
+    public int inFlight() {
+        return concurrency - freeSlots.availablePermits();
+    }
+
+    /**
+     * Pulls messages while running, as many as there are free slots and at most a pull worth.
+     */
+    private void poll() {
+        try {
+            while (running) {
+                freeSlots.acquire();
+                int slots = 1;
+                while (slots < maxMessagesPerPull && freeSlots.tryAcquire()) {
+                    ++slots;
+                }
+                List<Message> messages;
+                try {
+                    final PullRequest request = new PullRequest(queueUrl);
+                    request.setMaxNumberOfMessages(slots);
+                    request.setWaitTimeSeconds(waitTimeSeconds);
+                    messages = queueService.pull(request);
+                } catch (RuntimeException e) {
+                    pullFailureCount.incrementAndGet();
+                    freeSlots.release(slots);
+                    Thread.sleep(FAILURE_BACKOFF_MILLIS);
+                    continue;
+                }
+                freeSlots.release(slots - messages.size());
+                for (Message message : messages) {
+                    dispatch(message);
+                }
+                if (messages.isEmpty() && waitTimeSeconds == 0) {
+                    // A long poll already waited for messages
+                    Thread.sleep(EMPTY_PULL_BACKOFF_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    private void dispatch(final Message message) {
+        try {
+            dispatcher.execute(new Runnable() {
+                public void run() {
+                    handle(message);
+                }
+            });
+        } catch (RuntimeException e) {
+            // The executor refused the task, the message becomes visible again at the end of its timeout
+            failedCount.incrementAndGet();
+            freeSlots.release();
+        }
+    }
+
+    /**
+     * Handles a message and deletes it, or leaves it to its visibility timeout if the listener failed.
+     */
+    private void handle(final Message message) {
+        try {
+            listener.onMessage(message);
+            queueService.delete(new DeleteRequest(queueUrl, message.getReceiptHandle()));
+            handledCount.incrementAndGet();
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+        } finally {
+            freeSlots.release();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.pojo;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * The result of a single entry of a batch request: either a success, with the MD5 of the body for a push, or
+ * a failure with its error code and whether it may succeed when sent again.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class BatchResultEntry {
+
+    /** Error code of a receipt handle unknown to the queue, as SQS names it */
+    public static final String RECEIPT_HANDLE_IS_INVALID = "ReceiptHandleIsInvalid";
+
+    /** Error code of a message that is not in flight anymore, as SQS names it */
+    public static final String MESSAGE_NOT_INFLIGHT = "AWS.SimpleQueueService.MessageNotInflight";
+
+    /** Error code of a push past a limit of the queue, as SQS names it */
+    public static final String OVER_LIMIT = "OverLimit";
+
+    private final String id;
+    private final String md5Body;
+    private final String errorCode;
+    private final String errorMessage;
+    private final boolean retryable;
+
+    private BatchResultEntry(final String id, final String md5Body, final String errorCode,
+            final String errorMessage, final boolean retryable) {
+        checkArgument(id != null);
+        this.id = id;
+        this.md5Body = md5Body;
+        this.errorCode = errorCode;
+        this.errorMessage = errorMessage;
+        this.retryable = retryable;
+    }
+
+    /**
+     * Creates the result of an entry that succeeded.
+     *
+     * @param id the id of the entry
+     * @param md5Body the MD5 of the message body, null if the request has no body
+     * @return the result
+     * @author Swarn Avinash Kumar
+     */
+    public static BatchResultEntry success(final String id, final String md5Body) {
+        return new BatchResultEntry(id, md5Body, null, null, false);
+    }
+
+    /**
+     * Creates the result of an entry that failed for good.
+     *
+     * @param id the id of the entry
+     * @param errorCode the error code
+     * @param errorMessage the error message
+     * @return the result
+     * @author Swarn Avinash Kumar
+     */
+    public static BatchResultEntry failure(final String id, final String errorCode, final String errorMessage) {
+        return failure(id, errorCode, errorMessage, false);
+    }
+
+    /**
+     * Creates the result of an entry that failed.
+     *
+     * @param id the id of the entry
+     * @param errorCode the error code
+     * @param errorMessage the error message
+     * @param retryable whether the entry may succeed when sent again later
+     * @return the result
+     * @author Swarn Avinash Kumar
+     */
+    public static BatchResultEntry failure(final String id, final String errorCode, final String errorMessage,
+            final boolean retryable) {
+        checkArgument(errorCode != null);
+        return new BatchResultEntry(id, null, errorCode, errorMessage, retryable);
+    }
+
+    /**
+     * Gets the id of the entry.
+     *
+     * @return the id
+     * @author Swarn Avinash Kumar
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Checks if the entry succeeded.
+     *
+     * @return true if the entry succeeded
+     * @author Swarn Avinash Kumar
+     */
+    public boolean isSuccessful() {
+        return errorCode == null;
+    }
+
+    /**
+     * Gets the MD5 of the message body of a successful push.
+     *
+     * @return the MD5, or null
+     * @author Swarn Avinash Kumar
+     */
+    public String getMd5Body() {
+        return md5Body;
+    }
+
+    /**
+     * Gets the error code of a failed entry.
+     *
+     * @return the error code, or null if the entry succeeded
+     * @author Swarn Avinash Kumar
+     */
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Gets the error message of a failed entry.
+     *
+     * @return the error message, or null
+     * @author Swarn Avinash Kumar
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    /**
+     * Checks if a failed entry may succeed when sent again later, as opposed to an entry rejected for good.
+     *
+     * @return true if the entry failed for a transient reason
+     * @author Swarn Avinash Kumar
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccessful() ? id + ": OK" : id + ": " + errorCode + " " + errorMessage;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((errorCode == null) ? 0 : errorCode.hashCode());
+        result = prime * result + ((errorMessage == null) ? 0 : errorMessage.hashCode());
+        result = prime * result + ((id == null) ? 0 : id.hashCode());
+        result = prime * result + ((md5Body == null) ? 0 : md5Body.hashCode());
+        result = prime * result + (retryable ? 1231 : 1237);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        BatchResultEntry other = (BatchResultEntry) obj;
+        if (errorCode == null) {
+            if (other.errorCode != null) {
+                return false;
+            }
+        } else if (!errorCode.equals(other.errorCode)) {
+            return false;
+        }
+        if (errorMessage == null) {
+            if (other.errorMessage != null) {
+                return false;
+            }
+        } else if (!errorMessage.equals(other.errorMessage)) {
+            return false;
+        }
+        if (id == null) {
+            if (other.id != null) {
+                return false;
+            }
+        } else if (!id.equals(other.id)) {
+            return false;
+        }
+        if (md5Body == null) {
+            if (other.md5Body != null) {
+                return false;
+            }
+        } else if (!md5Body.equals(other.md5Body)) {
+            return false;
+        }
+        if (retryable != other.retryable) {
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.example.pojo;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.List;
+
+/**
+ * The Change Visibility Batch Request encapsulated in a Data Transfer Object: the visibility timeout of many
+ * received messages of the same queue extended or shortened at once. The new timeout counts from the time of
+ * the request.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class ChangeVisibilityBatchRequest extends QueueRequest {
+
+    private List<String> receiptHandles;
+    private Integer visibilityTimeout;
+
+    /**
+     * The constructor. All dependencies set here.
+     *
+     * @param queueUrl the queue url
+     * @param receiptHandles the distinct receipt handles of the messages
+     * @param visibilityTimeout the new visibility timeout in seconds, 0 to make the messages visible right away
+     * @author Swarn Avinash Kumar
+     */
+    public ChangeVisibilityBatchRequest(final String queueUrl, final List<String> receiptHandles,
+            final Integer visibilityTimeout) {
+        checkArgument(queueUrl != null);
+        checkArgument(visibilityTimeout != null && visibilityTimeout >= 0);
+        this.setQueueUrl(queueUrl);
+        this.receiptHandles = DeleteBatchRequest.checkReceiptHandles(receiptHandles);
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    /**
+     * Gets the receipt handles, which are also the ids of the results.
+     *
+     * @return the receipt handles, in request order
+     * @author Swarn Avinash Kumar
+     */
+    public List<String> getReceiptHandles() {
+        return receiptHandles;
+    }
+
+    /**
+     * Gets the visibility timeout.
+     *
+     * @return the visibility timeout in seconds
+     * @author Swarn Avinash Kumar
+     */
+    public Integer getVisibilityTimeout() {
+        return visibilityTimeout;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + ((receiptHandles == null) ? 0 : receiptHandles.hashCode());
+        result = prime * result + ((visibilityTimeout == null) ? 0 : visibilityTimeout.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!super.equals(obj)) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        ChangeVisibilityBatchRequest other = (ChangeVisibilityBatchRequest) obj;
+        if (receiptHandles == null) {
+            if (other.receiptHandles != null) {
+                return false;
+            }
+        } else if (!receiptHandles.equals(other.receiptHandles)) {
+            return false;
+        }
+        if (visibilityTimeout == null) {
+            if (other.visibilityTimeout != null) {
+                return false;
+            }
+        } else if (!visibilityTimeout.equals(other.visibilityTimeout)) {
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.example.pojo;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The Delete Batch Request encapsulated in a Data Transfer Object: many received messages of the same queue
+ * deleted at once.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class DeleteBatchRequest extends QueueRequest {
+
+    private List<String> receiptHandles;
+
+    /**
+     * The constructor. All dependencies set here.
+     *
+     * @param queueUrl the queue url
+     * @param receiptHandles the distinct receipt handles of the messages
+     * @author Swarn Avinash Kumar
+     */
+    public DeleteBatchRequest(final String queueUrl, final List<String> receiptHandles) {
+        checkArgument(queueUrl != null);
+        this.setQueueUrl(queueUrl);
+        this.receiptHandles = checkReceiptHandles(receiptHandles);
+    }
+
+    /**
+     * Gets the receipt handles, which are also the ids of the results.
+     *
+     * @return the receipt handles, in request order
+     * @author Swarn Avinash Kumar
+     */
+    public List<String> getReceiptHandles() {
+        return receiptHandles;
+    }
+
+    /**
+     * Checks that receipt handles are given, distinct and not null.
+     *
+     * @param receiptHandles the receipt handles
+     * @return an unmodifiable copy of the receipt handles
+     */
+    static List<String> checkReceiptHandles(final List<String> receiptHandles) {
+        checkArgument(receiptHandles != null && !receiptHandles.isEmpty());
+        final Set<String> distinct = new HashSet<>();
+        for (String receiptHandle : receiptHandles) {
+            checkArgument(receiptHandle != null);
+            checkArgument(distinct.add(receiptHandle), "Duplicate receipt handle %s", receiptHandle);
+        }
+        return Collections.unmodifiableList(new ArrayList<>(receiptHandles));
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + ((receiptHandles == null) ? 0 : receiptHandles.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!super.equals(obj)) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        DeleteBatchRequest other = (DeleteBatchRequest) obj;
+        if (receiptHandles == null) {
+            if (other.receiptHandles != null) {
+                return false;
+            }
+        } else if (!receiptHandles.equals(other.receiptHandles)) {
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -3,20 +3,44 @@ package com.example.pojo;
 import static com.google.common.base.Preconditions.*;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Utf8;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * The Message Plain old java object class.
- * 
+ * <p>
+ * A message is kept compact, as queues may hold millions of them: an id in the canonical UUID form is held as its
+ * two longs and only formatted when read, the MD5 digest of the body is only computed when first read and is held
+ * as its 16 bytes, and a binary body is held as bytes rather than as a string. Any other id is held as given.
+ *
  * @author Swarn Avinash Kumar
  */
 public class Message {
 
-    private final String id;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final int UUID_LENGTH = 36;
+
+    private final long idMostSigBits;
+    private final long idLeastSigBits;
+
+    /** The id when it is not a UUID in the canonical form, null otherwise */
+    private final String idString;
+
+    /** The body when given as a string, null otherwise */
     private final String body;
-    private final String md5Body;
+
+    /** The body when given as bytes, null otherwise */
+    private final byte[] bodyBytes;
+
+    /** The MD5 digest of the body, once computed */
+    private volatile byte[] md5;
+
     private String receiptHandle;
 
     /**
@@ -29,22 +53,118 @@ public class Message {
     public Message(final String id, final String body) {
         checkArgument(id != null);
         checkArgument(body != null);
-        this.id = id;
+        final long[] bits = parseUuid(id);
+        this.idMostSigBits = bits == null ? 0 : bits[0];
+        this.idLeastSigBits = bits == null ? 0 : bits[1];
+        this.idString = bits == null ? id : null;
         this.body = body;
-        this.md5Body = Hashing.md5().hashString(body, Charsets.UTF_8).toString();
+        this.bodyBytes = null;
     }
 
     /**
-     * Instantiates a new message.
+     * Instantiates a new message with a random id.
      *
      * @param String body
      * @author Swarn Avinash Kumar
      */
     public Message(final String body) {
+        this(randomMostSigBits(), randomLeastSigBits(), body);
+    }
+
+    /**
+     * Instantiates a new message with a UUID id.
+     *
+     * @param idMostSigBits the most significant bits of the id
+     * @param idLeastSigBits the least significant bits of the id
+     * @param body the body
+     * @author Swarn Avinash Kumar
+     */
+    public Message(final long idMostSigBits, final long idLeastSigBits, final String body) {
         checkArgument(body != null);
-        this.id = UUID.randomUUID().toString();
+        this.idMostSigBits = idMostSigBits;
+        this.idLeastSigBits = idLeastSigBits;
+        this.idString = null;
         this.body = body;
-        this.md5Body = Hashing.md5().hashString(body, Charsets.UTF_8).toString();
+        this.bodyBytes = null;
+    }
+
+    /**
+     * Instantiates a new message with a binary body.
+     *
+     * @param id the id
+     * @param body the body, copied
+     * @author Swarn Avinash Kumar
+     */
+    public Message(final String id, final byte[] body) {
+        checkArgument(id != null);
+        checkArgument(body != null);
+        final long[] bits = parseUuid(id);
+        this.idMostSigBits = bits == null ? 0 : bits[0];
+        this.idLeastSigBits = bits == null ? 0 : bits[1];
+        this.idString = bits == null ? id : null;
+        this.body = null;
+        this.bodyBytes = body.clone();
+    }
+
+    /**
+     * Instantiates a new message with a random id and a binary body.
+     *
+     * @param body the body, copied
+     * @author Swarn Avinash Kumar
+     */
+    public Message(final byte[] body) {
+        this(randomMostSigBits(), randomLeastSigBits(), body);
+    }
+
+    /**
+     * Instantiates a new message with a random id and a binary body.
+     *
+     * @param body the body, the bytes remaining in the buffer, copied without moving its position
+     * @author Swarn Avinash Kumar
+     */
+    public Message(final ByteBuffer body) {
+        this(randomMostSigBits(), randomLeastSigBits(), toBytes(body));
+    }
+
+    /**
+     * Instantiates a new message with a UUID id and a binary body.
+     *
+     * @param idMostSigBits the most significant bits of the id
+     * @param idLeastSigBits the least significant bits of the id
+     * @param body the body, copied
+     * @author Swarn Avinash Kumar
+     */
+    public Message(final long idMostSigBits, final long idLeastSigBits, final byte[] body) {
+        checkArgument(body != null);
+        this.idMostSigBits = idMostSigBits;
+        this.idLeastSigBits = idLeastSigBits;
+        this.idString = null;
+        this.body = null;
+        this.bodyBytes = body.clone();
+    }
+
+    /**
+     * Copies a message under another receipt handle, sharing its id, body and digest.
+     */
+    private Message(final Message message, final String receiptHandle) {
+        this.idMostSigBits = message.idMostSigBits;
+        this.idLeastSigBits = message.idLeastSigBits;
+        this.idString = message.idString;
+        this.body = message.body;
+        this.bodyBytes = message.bodyBytes;
+        this.md5 = message.md5;
+        this.receiptHandle = receiptHandle;
+    }
+
+    /**
+     * Copies this message under a receipt handle, without decoding its id or body again.
+     *
+     * @param receiptHandle the receipt handle of the copy
+     * @return the copy
+     * @author Swarn Avinash Kumar
+     */
+    public Message withReceiptHandle(final String receiptHandle) {
+        return new Message(this, receiptHandle);
     }
 
     /**
@@ -58,13 +178,53 @@ public class Message {
     }
 
     /**
-     * Gets the body.
+     * Gets the body, decoded from UTF-8 when the body is binary.
      *
      * @return the body
      * @author Swarn Avinash Kumar
      */
     public String getBody() {
-        return body;
+        return body != null ? body : new String(bodyBytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Gets the body as bytes, encoded to UTF-8 when the body is a string.
+     *
+     * @return a copy of the bytes of the body
+     * @author Swarn Avinash Kumar
+     */
+    public byte[] getBodyBytes() {
+        return body != null ? body.getBytes(Charsets.UTF_8) : bodyBytes.clone();
+    }
+
+    /**
+     * Gets the body as a buffer, without copying a binary body.
+     *
+     * @return a read-only buffer of the bytes of the body
+     * @author Swarn Avinash Kumar
+     */
+    public ByteBuffer getBodyBuffer() {
+        return ByteBuffer.wrap(body != null ? body.getBytes(Charsets.UTF_8) : bodyBytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the size of the body in bytes, in UTF-8 when the body is a string, without encoding it.
+     *
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    public int getBodySize() {
+        return body != null ? Utf8.encodedLength(body) : bodyBytes.length;
+    }
+
+    /**
+     * Tells whether the body was given as bytes rather than as a string.
+     *
+     * @return true if the body is binary
+     * @author Swarn Avinash Kumar
+     */
+    public boolean isBinary() {
+        return bodyBytes != null;
     }
 
     /**
@@ -74,7 +234,37 @@ public class Message {
      * @author Swarn Avinash Kumar
      */
     public String getId() {
-        return id;
+        return idString != null ? idString : formatUuid(idMostSigBits, idLeastSigBits);
+    }
+
+    /**
+     * Tells whether the id is a UUID in the canonical form, held as its two longs.
+     *
+     * @return true if the id is a UUID
+     * @author Swarn Avinash Kumar
+     */
+    public boolean hasUuidId() {
+        return idString == null;
+    }
+
+    /**
+     * Gets the most significant bits of a UUID id.
+     *
+     * @return the bits, 0 when the id is not a UUID
+     * @author Swarn Avinash Kumar
+     */
+    public long getIdMostSigBits() {
+        return idMostSigBits;
+    }
+
+    /**
+     * Gets the least significant bits of a UUID id.
+     *
+     * @return the bits, 0 when the id is not a UUID
+     * @author Swarn Avinash Kumar
+     */
+    public long getIdLeastSigBits() {
+        return idLeastSigBits;
     }
 
     /**
@@ -87,21 +277,49 @@ public class Message {
         return receiptHandle;
     }
 
+    /**
+     * Gets the MD5 digest of the UTF-8 bytes of the body, computing it on the first call.
+     *
+     * @return a copy of the 16 bytes of the digest
+     * @author Swarn Avinash Kumar
+     */
+    public byte[] getMd5Digest() {
+        return md5().clone();
+    }
+
+    /**
+     * Gets the MD5 digest of the UTF-8 bytes of the body, computing it on the first call.
+     *
+     * @return the digest in lowercase hexadecimal
+     * @author Swarn Avinash Kumar
+     */
     public String getMd5Body() {
-        return md5Body;
+        return HashCode.fromBytes(md5()).toString();
+    }
+
+    private byte[] md5() {
+        byte[] digest = md5;
+        if (digest == null) {
+            // Computing it twice on a race is harmless: both threads get the same digest
+            digest = body != null ? Hashing.md5().hashString(body, Charsets.UTF_8).asBytes()
+                    : Hashing.md5().hashBytes(bodyBytes).asBytes();
+            md5 = digest;
+        }
+        return digest;
     }
 
     @Override
     public String toString() {
-        return this.body;
+        return getBody();
     }
 
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((body == null) ? 0 : body.hashCode());
-        result = prime * result + ((id == null) ? 0 : id.hashCode());
+        result = prime * result + (body != null ? body.hashCode() : Arrays.hashCode(bodyBytes));
+        result = prime * result + (idString != null ? idString.hashCode()
+                : (int) (idMostSigBits ^ idMostSigBits >>> 32 ^ idLeastSigBits ^ idLeastSigBits >>> 32));
         result = prime * result + ((receiptHandle == null) ? 0 : receiptHandle.hashCode());
         return result;
     }
@@ -118,18 +336,20 @@ public class Message {
             return false;
         }
         Message other = (Message) obj;
+        // A string body never equals a binary one
         if (body == null) {
-            if (other.body != null) {
+            if (other.body != null || !Arrays.equals(bodyBytes, other.bodyBytes)) {
                 return false;
             }
         } else if (!body.equals(other.body)) {
             return false;
         }
-        if (id == null) {
-            if (other.id != null) {
+        if (idString == null) {
+            if (other.idString != null || idMostSigBits != other.idMostSigBits
+                    || idLeastSigBits != other.idLeastSigBits) {
                 return false;
             }
-        } else if (!id.equals(other.id)) {
+        } else if (!idString.equals(other.idString)) {
             return false;
         }
         if (receiptHandle == null) {
@@ -142,4 +362,72 @@ public class Message {
         return true;
     }
 
+    /**
+     * Random bits of a version 4 UUID. Ids only need to be unique, so they are drawn from the thread-local
+     * generator rather than from the contended secure one of {@link java.util.UUID#randomUUID()}.
+     */
+    private static long randomMostSigBits() {
+        return ThreadLocalRandom.current().nextLong() & ~0xf000L | 0x4000L;
+    }
+
+    private static long randomLeastSigBits() {
+        return ThreadLocalRandom.current().nextLong() & ~(0xcL << 60) | 0x8L << 60;
+    }
+
+    private static byte[] toBytes(final ByteBuffer buffer) {
+        checkArgument(buffer != null);
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Parses a UUID in the canonical lowercase form, the one it is formatted back to.
+     *
+     * @return the most and least significant bits, or null if the id is in any other form
+     */
+    private static long[] parseUuid(final String id) {
+        if (id.length() != UUID_LENGTH) {
+            return null;
+        }
+        final long[] bits = new long[2];
+        int digits = 0;
+        for (int i = 0; i < UUID_LENGTH; ++i) {
+            final char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return null;
+                }
+                continue;
+            }
+            final int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return null;
+            }
+            bits[digits / 16] = bits[digits / 16] << 4 | digit;
+            ++digits;
+        }
+        return bits;
+    }
+
+    private static String formatUuid(final long mostSigBits, final long leastSigBits) {
+        final char[] chars = new char[UUID_LENGTH];
+        int position = UUID_LENGTH;
+        long bits = leastSigBits;
+        for (int i = 0; i < 32; ++i) {
+            if (i == 16) {
+                bits = mostSigBits;
+            }
+            if (position == 8 + 1 || position == 13 + 1 || position == 18 + 1 || position == 23 + 1) {
+                chars[--position] = '-';
+            }
+            chars[--position] = HEX_DIGITS[(int) (bits & 0xf)];
+            bits >>>= 4;
+        }
+        return new String(chars);
+    }
 }
@@ -0,0 +1,116 @@
+package com.example.pojo;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * A single message of a {@link PushBatchRequest}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class PushBatchEntry {
+
+    private String id;
+    private String messageBody;
+    private Integer delaySeconds;
+
+    /**
+     * The constructor. All mandatory dependencies set here.
+     *
+     * @param id the id of the entry, unique within its batch, identifying its result
+     * @param messageBody the message body
+     * @author Swarn Avinash Kumar
+     */
+    public PushBatchEntry(final String id, final String messageBody) {
+        checkArgument(id != null);
+        checkArgument(messageBody != null);
+        this.id = id;
+        this.messageBody = messageBody;
+    }
+
+    /**
+     * Gets the id of the entry.
+     *
+     * @return the id
+     * @author Swarn Avinash Kumar
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Gets the message body.
+     *
+     * @return the message body
+     * @author Swarn Avinash Kumar
+     */
+    public String getMessageBody() {
+        return messageBody;
+    }
+
+    /**
+     * Gets the delay seconds.
+     *
+     * @return the delay seconds
+     * @author Swarn Avinash Kumar
+     */
+    public Integer getDelaySeconds() {
+        return delaySeconds;
+    }
+
+    /**
+     * Sets the delay seconds.
+     *
+     * @param delaySeconds the new delay seconds
+     * @author Swarn Avinash Kumar
+     */
+    public void setDelaySeconds(Integer delaySeconds) {
+        this.delaySeconds = delaySeconds;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((delaySeconds == null) ? 0 : delaySeconds.hashCode());
+        result = prime * result + ((id == null) ? 0 : id.hashCode());
+        result = prime * result + ((messageBody == null) ? 0 : messageBody.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        PushBatchEntry other = (PushBatchEntry) obj;
+        if (delaySeconds == null) {
+            if (other.delaySeconds != null) {
+                return false;
+            }
+        } else if (!delaySeconds.equals(other.delaySeconds)) {
+            return false;
+        }
+        if (id == null) {
+            if (other.id != null) {
+                return false;
+            }
+        } else if (!id.equals(other.id)) {
+            return false;
+        }
+        if (messageBody == null) {
+            if (other.messageBody != null) {
+                return false;
+            }
+        } else if (!messageBody.equals(other.messageBody)) {
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.example.pojo;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The Push Batch Request encapsulated in a Data Transfer Object: many messages pushed onto the same queue.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class PushBatchRequest extends QueueRequest {
+
+    private List<PushBatchEntry> entries;
+
+    /**
+     * The constructor. All dependencies set here.
+     *
+     * @param queueUrl the queue url
+     * @param entries the messages, with distinct ids
+     * @author Swarn Avinash Kumar
+     */
+    public PushBatchRequest(final String queueUrl, final List<PushBatchEntry> entries) {
+        checkArgument(queueUrl != null);
+        checkArgument(entries != null && !entries.isEmpty());
+        final Set<String> ids = new HashSet<>();
+        for (PushBatchEntry entry : entries) {
+            checkArgument(entry != null);
+            checkArgument(ids.add(entry.getId()), "Duplicate batch entry id %s", entry.getId());
+        }
+        this.setQueueUrl(queueUrl);
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Gets the entries.
+     *
+     * @return the entries, in request order
+     * @author Swarn Avinash Kumar
+     */
+    public List<PushBatchEntry> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + ((entries == null) ? 0 : entries.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!super.equals(obj)) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        PushBatchRequest other = (PushBatchRequest) obj;
+        if (entries == null) {
+            if (other.entries != null) {
+                return false;
+            }
+        } else if (!entries.equals(other.entries)) {
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.example.service;
+
+import com.example.pojo.DeleteRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+
+/**
+ * Asynchronous counterpart of the single message operations of {@link QueueService}. Every call returns at once
+ * with a future of its result, and no thread is held while the operation is in progress wherever the backend
+ * allows it. An invalid request is rejected by the call itself, any other failure fails the future.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public interface AsyncQueueService {
+
+    /**
+     * Pushes a single message onto a specified queue.
+     *
+     * @param request the request
+     * @return the future message body in MD5
+     * @see QueueService#push(PushRequest)
+     */
+    ListenableFuture<String> pushAsync(PushRequest request);
+
+    /**
+     * Receives messages from a specified queue. With a wait time the future completes as soon as a message is
+     * available, or with no message once the wait time has passed.
+     *
+     * @param request the request
+     * @return the future messages
+     * @see QueueService#pull(PullRequest)
+     */
+    ListenableFuture<List<Message>> pullAsync(PullRequest request);
+
+    /**
+     * Deletes a received message.
+     *
+     * @param request the request
+     * @return the future completion of the delete
+     * @see QueueService#delete(DeleteRequest)
+     */
+    ListenableFuture<Void> deleteAsync(DeleteRequest request);
+
+}
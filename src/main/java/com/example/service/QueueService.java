@@ -1,8 +1,12 @@
 package com.example.service;
 
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.ChangeVisibilityBatchRequest;
+import com.example.pojo.DeleteBatchRequest;
 import com.example.pojo.DeleteRequest;
 import com.example.pojo.Message;
 import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchRequest;
 import com.example.pojo.PushRequest;
 
 import java.util.List;
@@ -23,6 +27,15 @@ public interface QueueService {
      */
     String push(PushRequest request);
 
+    /**
+     * Pushes many messages onto a specified queue at once, at the cost of a single push wherever the backend
+     * allows it. Entries fail or succeed on their own.
+     *
+     * @param request the request
+     * @return the result of every entry, in request order
+     */
+    List<BatchResultEntry> pushBatch(PushBatchRequest request);
+
     /**
      * Receives a single message from a specified queue. When a consumer receives a message, it is not removed
      * from the queue. Instead, it is temporarily suppressed (becomes "invisible"). If the consumer that
@@ -43,4 +56,23 @@ public interface QueueService {
      */
     void delete(DeleteRequest request);
 
+    /**
+     * Deletes many received messages of a specified queue at once. Receipt handles fail or succeed on their
+     * own.
+     *
+     * @param request the request
+     * @return the result of every receipt handle, in request order
+     */
+    List<BatchResultEntry> deleteBatch(DeleteBatchRequest request);
+
+    /**
+     * Changes the visibility timeout of many received messages of a specified queue at once, so that they
+     * become visible again after the new timeout instead of the previous one. Receipt handles fail or succeed
+     * on their own.
+     *
+     * @param request the request
+     * @return the result of every receipt handle, in request order
+     */
+    List<BatchResultEntry> changeVisibilityBatch(ChangeVisibilityBatchRequest request);
+
 }
@@ -0,0 +1,463 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.example.storage.Compactor;
+import com.example.storage.Durability;
+import com.example.storage.GroupCommitter;
+import com.example.storage.IoMode;
+import com.example.storage.JournalEntry;
+import com.example.storage.JournalRecovery;
+import com.example.storage.SegmentedLog;
+import com.example.timer.HashedTimingWheel.Timeout;
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The storage of a single queue of the {@link FileQueueService}: its message log, redelivery log and journal,
+ * in a directory of its own named after the queue URL. Every queue has its own files, locks and group
+ * committers, so queues never contend with each other.
+ *
+ * @author Swarn Avinash Kumar
+ */
+final class FileQueue implements Closeable {
+
+    /** File holding the URL of the queue stored in a directory */
+    static final String URL_FILE = "queue.url";
+
+    /** Longest directory name derived from a queue URL, longer names are shortened with a hash */
+    private static final int MAX_DIRECTORY_NAME = 128;
+
+    private final String queueUrl;
+
+    /** The log all the pushed messages are appended to */
+    private final SegmentedLog queue;
+
+    /** The log messages coming back from a visibility timeout are appended to */
+    private final SegmentedLog redeliveryQueue;
+
+    /** The journal of received messages and delayed pushes */
+    private final SegmentedLog journal;
+
+    private final Durability durability;
+
+    /** Forces pushed messages in batches, only in group durability */
+    private final GroupCommitter groupCommitter;
+
+    /** Forces redelivered messages in batches, only in group durability */
+    private final GroupCommitter redeliveryCommitter;
+
+    /** Forces journal entries in batches, only in group durability */
+    private final GroupCommitter journalCommitter;
+
+    /** Received messages not deleted yet, indexed by receipt handle */
+    private final ConcurrentMap<String, Timeout> receivedMessages = new ConcurrentHashMap<>();
+
+    /** Held by a pull from the peek of its messages to the skip past them, so that no two pulls take the same */
+    private final Object pullLock = new Object();
+
+    /** Receipt handles whose receives all stay live, while a redelivery or a visibility change is under way */
+    private final Multiset<String> pinnedReceipts = ConcurrentHashMultiset.create();
+
+    /** Tokens of the delayed pushes not appended yet */
+    private final Set<String> delayedPushes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Tells which journal entries are still live, to the compactor */
+    private final Predicate<JournalEntry> liveEntries = new Predicate<JournalEntry>() {
+        public boolean apply(final JournalEntry entry) {
+            if (entry.getType() == JournalEntry.Type.RECEIVE) {
+                // Only the latest receive of a receipt handle, not the ones a visibility change replaced
+                final Timeout timeout = receivedMessages.get(entry.getKey());
+                return timeout != null && ((Redelivery) timeout.task()).getDeadlineMillis() == entry.getDeadlineMillis()
+                        || pinnedReceipts.contains(entry.getKey());
+            }
+            return delayedPushes.contains(entry.getKey());
+        }
+    };
+
+    /** The live journal entries found when the queue was opened */
+    private final List<JournalEntry> recovered;
+
+    /**
+     * Opens the storage of a queue, creating it if needed, and recovers its journal.
+     *
+     * @param directory the directory of the queue
+     * @param queueUrl the queue URL
+     * @param segmentBytes the maximum size of a log segment
+     * @param ioMode the I/O mode of the log segments
+     * @param durability when pushed messages and receipts are forced to disk
+     * @param groupCommitMillis the longest wait of a group commit
+     * @param groupCommitMessages the number of messages triggering a group commit
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    FileQueue(final File directory, final String queueUrl, final long segmentBytes, final IoMode ioMode,
+            final Durability durability, final long groupCommitMillis, final int groupCommitMessages)
+            throws IOException {
+        this.queueUrl = queueUrl;
+        final File urlFile = new File(directory, URL_FILE);
+        if (!urlFile.exists()) {
+            // Written first, so that the service finds the queue again whatever happens next
+            Files.createParentDirs(urlFile);
+            Files.write(queueUrl, urlFile, Charsets.UTF_8);
+        }
+        this.queue = new SegmentedLog(new File(directory, "messages"), segmentBytes, ioMode);
+        this.redeliveryQueue = new SegmentedLog(new File(directory, "redelivery"), segmentBytes, ioMode);
+        final File journalDirectory = new File(directory, "journal");
+        this.recovered = JournalRecovery.recover(journalDirectory, segmentBytes, ioMode);
+        this.journal = new SegmentedLog(journalDirectory, segmentBytes, ioMode);
+        this.durability = durability;
+        if (durability == Durability.GROUP) {
+            this.groupCommitter =
+                    new GroupCommitter(queue, groupCommitMillis, TimeUnit.MILLISECONDS, groupCommitMessages);
+            this.redeliveryCommitter = new GroupCommitter(redeliveryQueue, groupCommitMillis, TimeUnit.MILLISECONDS,
+                    groupCommitMessages);
+            this.journalCommitter =
+                    new GroupCommitter(journal, groupCommitMillis, TimeUnit.MILLISECONDS, groupCommitMessages);
+        } else {
+            this.groupCommitter = null;
+            this.redeliveryCommitter = null;
+            this.journalCommitter = null;
+        }
+    }
+
+    /**
+     * Gets the name of the directory storing a queue. URLs are percent-encoded, dots included so that no
+     * name is special to the file system, and long URLs are shortened with a hash of the whole URL.
+     *
+     * @param queueUrl the queue URL
+     * @return the directory name
+     */
+    static String directoryName(final String queueUrl) {
+        checkArgument(queueUrl != null && !queueUrl.isEmpty(), "A queue URL is required");
+        final String name;
+        try {
+            name = URLEncoder.encode(queueUrl, "UTF-8").replace(".", "%2E").replace("*", "%2A");
+        } catch (UnsupportedEncodingException e) {
+            throw Throwables.propagate(e);
+        }
+        if (name.length() <= MAX_DIRECTORY_NAME) {
+            return name;
+        }
+        return name.substring(0, MAX_DIRECTORY_NAME / 2) + "-"
+                + Hashing.sha1().hashString(queueUrl, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Reads the URL of the queue stored in a directory.
+     *
+     * @param directory the directory
+     * @return the URL, or null if the directory does not store a queue
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static String readQueueUrl(final File directory) throws IOException {
+        final File urlFile = new File(directory, URL_FILE);
+        return urlFile.isFile() ? Files.toString(urlFile, Charsets.UTF_8) : null;
+    }
+
+    /**
+     * Appends a message to the queue, and waits until it is on disk if the durability requires it.
+     *
+     * @param message the message record
+     */
+    void addQueue(final byte[] message) {
+        checkArgument(message != null);
+
+        final long offset;
+        try {
+            offset = queue.append(message);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        commit(queue, groupCommitter, offset);
+    }
+
+    /**
+     * Appends messages to the queue in a single write, and waits once until they are on disk if the
+     * durability requires it.
+     *
+     * @param messages the message records
+     */
+    void addQueueAll(final List<byte[]> messages) {
+        checkArgument(messages != null);
+
+        final long offset;
+        try {
+            offset = queue.appendAll(messages);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        commit(queue, groupCommitter, offset);
+    }
+
+    /**
+     * Appends a message coming back from a visibility timeout to the redelivery log, and waits for it to be on
+     * disk as far as the durability requires: the journal entry closing its receive may only follow.
+     *
+     * @param message the message record
+     */
+    void reAddQueue(final byte[] message) {
+        checkArgument(message != null);
+
+        final long offset;
+        try {
+            offset = redeliveryQueue.append(message);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        commit(redeliveryQueue, redeliveryCommitter, offset);
+    }
+
+    /**
+     * Makes a received message visible again once its timeout expired. The receipt handle is claimed first, so
+     * that a message deleted or rescheduled in the meantime never comes back, and its receive stays live to the
+     * compactor until the message is in the redelivery log.
+     *
+     * @param receiptHandle the receipt handle
+     * @param timeout the expired timeout of the receipt handle
+     * @param message the message record
+     * @return whether the message was redelivered
+     */
+    boolean redeliver(final String receiptHandle, final Timeout timeout, final byte[] message) {
+        pinnedReceipts.add(receiptHandle);
+        try {
+            if (!receivedMessages.remove(receiptHandle, timeout)) {
+                return false;
+            }
+            reAddQueue(message);
+        } finally {
+            pinnedReceipts.remove(receiptHandle);
+        }
+        // Not live anymore once closed, so that the compactor never copies it past its close
+        appendJournal(JournalEntry.delete(receiptHandle));
+        return true;
+    }
+
+    /**
+     * Reads the next messages of the queue, redeliveries first, without taking them: the cursors only move past
+     * them with {@link #skipQueue(int, int)}. The caller holds {@link #getPullLock()} from the peek to the skip.
+     *
+     * @param max the most messages read
+     * @param records receives the message records
+     * @return the number of records read from the redelivery log, which come first
+     */
+    int peekQueue(final int max, final List<byte[]> records) {
+        try {
+            final List<byte[]> redelivered = redeliveryQueue.peek(max);
+            records.addAll(redelivered);
+            if (redelivered.size() < max) {
+                records.addAll(queue.peek(max - redelivered.size()));
+            }
+            return redelivered.size();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Moves the cursors past messages read by {@link #peekQueue(int, List)}.
+     *
+     * @param redelivered the number of records read from the redelivery log
+     * @param queued the number of records read from the message log
+     */
+    void skipQueue(final int redelivered, final int queued) {
+        try {
+            redeliveryQueue.skip(redelivered);
+            queue.skip(queued);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    Object getPullLock() {
+        return pullLock;
+    }
+
+    /**
+     * Appends an entry to the journal without waiting for it to be on disk. A lost entry closing a receive or
+     * a delay only leads to a redelivery.
+     *
+     * @param entry the entry
+     * @return the offset to pass to {@link #commitJournal(long)}
+     */
+    long appendJournal(final JournalEntry entry) {
+        try {
+            return journal.append(entry.encode());
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Waits until the journal is on disk up to the given offset, as far as the durability requires.
+     *
+     * @param offset the offset returned by {@link #appendJournal(JournalEntry)}
+     */
+    void commitJournal(final long offset) {
+        commit(journal, journalCommitter, offset);
+    }
+
+    String getQueueUrl() {
+        return queueUrl;
+    }
+
+    ConcurrentMap<String, Timeout> getReceivedMessages() {
+        return receivedMessages;
+    }
+
+    /**
+     * Gets the receipt handles whose receives all stay live to the compactor, the replaced ones included. A
+     * handle is added before its timeout is replaced, and removed once the new receive is on disk.
+     *
+     * @return the receipt handles, each counted once per holder
+     */
+    Multiset<String> getPinnedReceipts() {
+        return pinnedReceipts;
+    }
+
+    /**
+     * Gets the tokens of the delayed pushes not appended yet. A token must be removed before the journal entry
+     * closing the delay is appended.
+     *
+     * @return the tokens
+     */
+    Set<String> getDelayedPushes() {
+        return delayedPushes;
+    }
+
+    List<JournalEntry> getRecovered() {
+        return recovered;
+    }
+
+    /**
+     * Gets the number of bytes of messages waiting to be pulled, including redeliveries.
+     *
+     * @return the number of bytes
+     */
+    long pendingBytes() {
+        return queue.pendingBytes() + redeliveryQueue.pendingBytes();
+    }
+
+    /**
+     * Gets the number of times the message log and the redelivery log were forced to disk.
+     *
+     * @return the number of forces
+     */
+    long syncCount() {
+        return queue.syncCount() + redeliveryQueue.syncCount();
+    }
+
+    /**
+     * Reclaims the segments of the logs that were read and the mostly closed segments of the journal.
+     *
+     * @param compactor the compactor
+     * @return the number of bytes reclaimed
+     */
+    long compact(final Compactor compactor) {
+        try {
+            return compactor.deleteReadSegments(queue) + compactor.deleteReadSegments(redeliveryQueue)
+                    + compactor.compactJournal(journal, liveEntries);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Gets the number of bytes the compactor could reclaim: segments of the logs that were read and segments
+     * of the journal no entry is appended to anymore.
+     *
+     * @return the number of bytes
+     */
+    long compactionLagBytes() {
+        return queue.readSegmentBytes() + redeliveryQueue.readSegmentBytes() + journal.closedSegmentBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+            redeliveryCommitter.close();
+            journalCommitter.close();
+        }
+        queue.close();
+        redeliveryQueue.close();
+        journal.close();
+    }
+
+    /**
+     * Waits until a log is on disk up to the given offset, as far as the durability requires.
+     */
+    private void commit(final SegmentedLog log, final GroupCommitter committer, final long offset) {
+        try {
+            switch (durability) {
+                case SYNC:
+                    log.sync(offset);
+                    break;
+                case GROUP:
+                    committer.commit(offset);
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Makes a received message visible again, unless deleted before. Kept with its timeout, so that the message
+     * can be journaled again when its visibility changes, and the compactor tells its latest receive.
+     */
+    static final class Redelivery implements Runnable {
+
+        private final FileQueue queue;
+        private final String receiptHandle;
+        private final byte[] message;
+
+        /** The deadline of the receive journaled with the timeout */
+        private final long deadlineMillis;
+
+        Redelivery(final FileQueue queue, final String receiptHandle, final byte[] message,
+                final long deadlineMillis) {
+            this.queue = queue;
+            this.receiptHandle = receiptHandle;
+            this.message = message;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        byte[] getMessage() {
+            return message;
+        }
+
+        long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public void run() {
+            // Only the timeout the receipt handle is still held by may bring the message back
+            final Timeout timeout = queue.getReceivedMessages().get(receiptHandle);
+            if (timeout != null && timeout.task() == this) {
+                queue.redeliver(receiptHandle, timeout, message);
+            }
+        }
+    }
+}
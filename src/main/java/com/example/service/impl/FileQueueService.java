@@ -4,74 +4,176 @@ import static com.example.config.constants.ApplicationProperties.*;
 import static com.google.common.base.Preconditions.*;
 
 import com.example.config.Environment;
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.ChangeVisibilityBatchRequest;
+import com.example.pojo.DeleteBatchRequest;
 import com.example.pojo.DeleteRequest;
 import com.example.pojo.Message;
 import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
 import com.example.pojo.PushRequest;
-import com.example.pojo.ScheduledMessage;
 import com.example.service.QueueService;
+import com.example.storage.Compactor;
+import com.example.storage.Durability;
+import com.example.storage.IoMode;
+import com.example.storage.JournalEntry;
+import com.example.storage.MessageRecordReader;
+import com.example.storage.MessageRecordWriter;
+import com.example.timer.HashedTimingWheel;
+import com.example.timer.HashedTimingWheel.Timeout;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
+import java.nio.ByteBuffer;
 
 /**
  * File-based implementation of QueueService.
- * Not a complete implementation and rather hacky code. 
+ * <p>
+ * Every queue URL has its own directory under the service directory, holding the logs and the journal of the
+ * queue, so pushes and pulls on different queues run in parallel without sharing any file or lock. Messages
+ * are appended to a segmented log and pulls advance the persisted read cursor of the log, so neither push nor
+ * pull depends on the size of the backlog. Messages coming back from a visibility timeout are appended to a
+ * separate redelivery log, which is read before the main one. Depending on the configured I/O mode the log
+ * segments are accessed through file channels or memory-mapped.
+ * <p>
+ * The configured durability decides whether a push returns before its message is forced to disk: never,
+ * after the group commit including it, or after a force of its own (still shared with concurrent pushes).
+ * <p>
+ * What does not live in the logs, received messages with their visibility deadline and delayed pushes, is
+ * recorded in a journal. A new service on the same directory opens every queue found there and replays its
+ * journal: received messages become visible again at their original deadline (and can still be deleted with
+ * their receipt handle), and delayed pushes are appended at the end of their delay.
+ * <p>
+ * A background {@link Compactor}, throttled to a configured byte rate, deletes the log segments that were
+ * read and the journal segments whose entries are mostly closed.
  * 
  * @author Swarn Avinash Kumar
  */
-public class FileQueueService implements QueueService {
+public class FileQueueService implements QueueService, Closeable {
 
-    /** This object is File which will store the entire queue */
-    private final File queue;
+    /** Decodes the messages pulled from the queues */
+    private static final MessageRecordReader MESSAGE_READER = new MessageRecordReader();
 
-    /** The object is a String will stores the name of the queue */
-    private final String queueName = "diskQueue";
+    /** The directory holding a directory per queue */
+    private final File directory;
 
-    /** This object will be used to schedule visibility timeout and push delay commands. */
+    private final IoMode ioMode;
+
+    private final Durability durability;
+
+    /** Size above which a new log segment is started */
+    private final long segmentBytes;
+
+    /** The storage of every opened queue, indexed by queue URL */
+    private final Map<String, FileQueue> queueMap;
+
+    /** This object will be used to schedule push delay commands and to re-add timed out messages. */
     private final ScheduledExecutorService executor;
 
-    private Integer visibilityTimeout;
+    /** Reclaims the segments of every queue, on the executor. */
+    private final Compactor compactor;
 
-    /** We will use this map to store Future objects that may have to be restored to the queue */
-    private final Map<String, ScheduledMessage> receivedMessages;
+    /** This object will be used to expire visibility timeouts. */
+    private final HashedTimingWheel timingWheel;
+
+    private Integer visibilityTimeout;
 
     /**  This object helps us to simulate a container of values to be injected (since we cannot use DI libraries) */
     private final Environment environment = Environment.getInstance();
 
-    /** The object writes the queue in a File */
-    private final Writer output;
+    /**
+     * Instantiates a new file queue service storing its queues under the configured directory.
+     */
+    public FileQueueService() {
+        this(new File(Environment.getInstance().getPropertyValue(FILE_QUEUE_DIRECTORY)));
+    }
 
-    /** The object stores the filepath */
-    private final String filePath;
+    /**
+     * Instantiates a new file queue service storing its queues under the given directory.
+     *
+     * @param directory the directory
+     */
+    public FileQueueService(final File directory) {
+        this(directory, IoMode.fromValue(Environment.getInstance().getPropertyValue(FILE_QUEUE_IO_MODE)));
+    }
 
-    @Override
-    public FileQueue() {
-        this.filePath = "sqs/";
-        this.queue = new File(filePath + queueName);
-        try {
-            this.queue.createNewFile();
-        } catch (IOException e) {
-            System.out.println(e);
-            e.printStackTrace();
+    /**
+     * Instantiates a new file queue service storing its queues under the given directory.
+     *
+     * @param directory the directory
+     * @param ioMode the I/O mode of the log segments
+     */
+    public FileQueueService(final File directory, final IoMode ioMode) {
+        this(directory, ioMode, Durability.fromValue(Environment.getInstance().getPropertyValue(
+                FILE_QUEUE_DURABILITY)));
+    }
+
+    /**
+     * Instantiates a new file queue service storing its queues under the given directory, and recovers the
+     * queues already stored there.
+     *
+     * @param directory the directory
+     * @param ioMode the I/O mode of the log segments
+     * @param durability when pushed messages are forced to disk
+     */
+    public FileQueueService(final File directory, final IoMode ioMode, final Durability durability) {
+        checkArgument(directory != null);
+        checkArgument(ioMode != null);
+        checkArgument(durability != null);
+        this.directory = directory;
+        this.ioMode = ioMode;
+        this.durability = durability;
+        this.segmentBytes = Long.valueOf(environment.getPropertyValue(FILE_QUEUE_SEGMENT_BYTES));
+        this.queueMap = new ConcurrentHashMap<>();
+        this.visibilityTimeout = Integer.valueOf(environment.getPropertyValue(QUEUE_VISIBILITY_TIMEOUT));
+        this.executor =
+                Executors.newScheduledThreadPool(Integer.valueOf(environment
+                        .getPropertyValue(SCHEDULED_THREAD_POOL_SIZE)));
+        // Re-adding a message writes to disk, so it runs on the executor instead of the wheel thread
+        this.timingWheel =
+                new HashedTimingWheel(Long.valueOf(environment.getPropertyValue(TIMING_WHEEL_TICK_MILLIS)),
+                        TimeUnit.MILLISECONDS, Integer.valueOf(environment.getPropertyValue(TIMING_WHEEL_SIZE)),
+                        HashedTimingWheel.DEFAULT_LEVELS, executor);
+        this.compactor =
+                new Compactor(Long.valueOf(environment.getPropertyValue(FILE_QUEUE_COMPACTION_BYTES_PER_SECOND)));
+
+        // Queues are recovered eagerly, so that their in-flight and delayed messages come back on time
+        final File[] queueDirectories = directory.listFiles();
+        if (queueDirectories != null) {
+            try {
+                for (File queueDirectory : queueDirectories) {
+                    final String queueUrl = FileQueue.readQueueUrl(queueDirectory);
+                    if (queueUrl != null) {
+                        getQueueInstance(queueUrl);
+                    }
+                }
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
         }
+
+        final long compactionMillis = Long.valueOf(environment.getPropertyValue(FILE_QUEUE_COMPACTION_MILLIS));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    compact();
+                } catch (RuntimeException e) {
+                    // A failed pass must not cancel the next ones, the space is reclaimed then
+                }
+            }
+        }, compactionMillis, compactionMillis, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -84,24 +186,77 @@ public class FileQueueService implements QueueService {
      * @see com.example.service.QueueService#push(com.example.pojo.PushRequest)
      * @author Swarn Avinash Kumar
      */
+    @Override
     public String push(final PushRequest request) {
         checkArgument(request != null);
+        final FileQueue queue = getQueueInstance(request.getQueueUrl());
         final String body = request.getMessageBody();
-        final String messageId = UUID.randomUUID().toString();
-        final String combinedMessage = messageId + "$" + body + System.lineSeparator();
+        final UUID messageId = UUID.randomUUID();
+        final byte[] combinedMessage = MessageRecordWriter.write(messageId, System.currentTimeMillis(), body);
 
         if (request.getDelaySeconds() == null) {
-            addQueue(message);
+            queue.addQueue(combinedMessage);
         } else {
-            Runnable task = new Runnable() {
-                public void run() {
-                    addQueue(combinedMessage);
-                }
-            };
-            executor.schedule(task, request.getDelaySeconds(), TimeUnit.SECONDS);
+            final String token = UUID.randomUUID().toString();
+            final long delayMillis = TimeUnit.SECONDS.toMillis(request.getDelaySeconds());
+            // Live before journaled, so that the compactor never drops the entry
+            queue.getDelayedPushes().add(token);
+            queue.commitJournal(queue.appendJournal(JournalEntry.delay(token,
+                    System.currentTimeMillis() + delayMillis, combinedMessage)));
+            scheduleDelayedPush(queue, token, combinedMessage, delayMillis);
         }
 
-        return combinedMessage;
+        return new Message(messageId.getMostSignificantBits(),
+                messageId.getLeastSignificantBits(), body).getMd5Body();
+    }
+
+    /**
+     * Pushes many messages onto a specified queue. The messages without delay are appended with a single write
+     * and a single wait for the durability, and the delayed ones share a single wait for the journal.
+     *
+     * @param request the request
+     * @return the result of every entry, in request order
+     *
+     * @see com.example.service.QueueService#pushBatch(com.example.pojo.PushBatchRequest)
+     * @author Swarn Avinash Kumar
+     */
+    @Override
+    public List<BatchResultEntry> pushBatch(final PushBatchRequest request) {
+        checkArgument(request != null);
+        final FileQueue queue = getQueueInstance(request.getQueueUrl());
+        final List<BatchResultEntry> results = new ArrayList<>(request.getEntries().size());
+        final List<byte[]> messages = new ArrayList<>(request.getEntries().size());
+        final List<JournalEntry> delays = new ArrayList<>();
+        long journalOffset = -1;
+        for (PushBatchEntry entry : request.getEntries()) {
+            final String body = entry.getMessageBody();
+            final UUID messageId = UUID.randomUUID();
+            final byte[] combinedMessage = MessageRecordWriter.write(messageId, System.currentTimeMillis(), body);
+            if (entry.getDelaySeconds() == null) {
+                messages.add(combinedMessage);
+            } else {
+                final JournalEntry delay = JournalEntry.delay(UUID.randomUUID().toString(),
+                        System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(entry.getDelaySeconds()),
+                        combinedMessage);
+                queue.getDelayedPushes().add(delay.getKey());
+                journalOffset = queue.appendJournal(delay);
+                delays.add(delay);
+            }
+            results.add(BatchResultEntry.success(entry.getId(), new Message(messageId.getMostSignificantBits(),
+                    messageId.getLeastSignificantBits(), body).getMd5Body()));
+        }
+
+        if (!messages.isEmpty()) {
+            queue.addQueueAll(messages);
+        }
+        if (journalOffset >= 0) {
+            queue.commitJournal(journalOffset);
+            for (JournalEntry delay : delays) {
+                scheduleDelayedPush(queue, delay.getKey(), delay.getMessage(),
+                        Math.max(0, delay.getDeadlineMillis() - System.currentTimeMillis()));
+            }
+        }
+        return results;
     }
 
     /**
@@ -123,9 +278,6 @@ public class FileQueueService implements QueueService {
         checkArgument(request != null);
         List<Message> messages = new ArrayList<>();
 
-        File tempFile = new File(filePath + "temporaryFile");
-        File inputFile = new File(filePath + queueName);
-
         Integer max = request.getMaxNumberOfMessages();
         if (max == null) {
             max = 0;
@@ -138,43 +290,33 @@ public class FileQueueService implements QueueService {
             visibilityTimeout = this.visibilityTimeout;
         }
 
-        for (int i = 0; i < max; ++i) {
-            BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-            BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
+        final FileQueue queue = getQueueInstance(request.getQueueUrl());
+        final long visibilityMillis = TimeUnit.SECONDS.toMillis(visibilityTimeout);
+        final List<byte[]> records = new ArrayList<>(max);
+        // The cursors only move past the messages once their receipts are committed: a crash in between leaves
+        // them in the queue, to be delivered again rather than lost
+        synchronized (queue.getPullLock()) {
+            final int redelivered = queue.peekQueue(max, records);
+            long journalOffset = -1;
+            for (byte[] record : records) {
+                final Message message = MESSAGE_READER.read(ByteBuffer.wrap(record));
 
-            String firstLine = reader.readLine();
-            String currentLine;
-
-            while ((currentLine = reader.readLine()) != null) {
-                writer.write(currentLine + System.lineSeparator());
-            }
-            writer.close();
-            reader.close();
-
-            boolean successful = tempFile.renameTo(inputFile);
-            String[] firstLineSplitonDelimeter = firstLine.split("\\$");
-            String messageId = firstLineSplitonDelimeter[0];
-            String messageBody = firstLineSplitonDelimeter[1].trim();
-            Message message = new Message(messageId, messageBody);
-
-            if (message != null) {
                 final String receiptHandle = UUID.randomUUID().toString();
                 message.setReceiptHandle(receiptHandle);
                 messages.add(message);
 
-                Runnable command = new Runnable() {
-                    public void run() {
-                        reAddQueue(firstLine);
-                        receivedMessages.remove(receiptHandle);
-                    }
-                };
-
-                ScheduledFuture future = executor.schedule(command, visibilityTimeout, TimeUnit.SECONDS);
-
-                ScheduledMessage scheduled = new ScheduledMessage(future, command);
-
-                receivedMessages.put(message.getReceiptHandle(), scheduled);
+                // Live before journaled, so that the compactor never drops the entry
+                final long deadlineMillis = System.currentTimeMillis() + visibilityMillis;
+                final Timeout timeout = scheduleRedelivery(queue, receiptHandle, record, deadlineMillis);
+                queue.getReceivedMessages().put(receiptHandle, timeout);
+                journalOffset = queue.appendJournal(JournalEntry.receive(receiptHandle, deadlineMillis, record));
+                redeliverIfExpired(timeout);
             }
+            if (journalOffset >= 0) {
+                // One wait for all the receipts of the pull
+                queue.commitJournal(journalOffset);
+            }
+            queue.skipQueue(redelivered, records.size() - redelivered);
         }
 
         return messages;
@@ -192,56 +334,291 @@ public class FileQueueService implements QueueService {
     @Override
     public void delete(DeleteRequest request) {
         checkArgument(request != null);
-        ScheduledMessage scheduled = receivedMessages.remove(request.getReceiptHandle());
-        checkState(scheduled != null, "The message doesn't exist");
-        scheduled.cancelFuture(true);
-        // TODO Auto-generated method stub
+        final FileQueue queue = queueMap.get(request.getQueueUrl());
+        checkState(queue != null, "The message doesn't exist");
+        final Timeout timeout = queue.getReceivedMessages().get(request.getReceiptHandle());
+        checkState(timeout != null, "The message doesn't exist");
+        // Cancelling claims the message: once the timeout expired, the message belongs to the queue again
+        checkState(timeout.cancel(), "The message is visible again");
+        queue.getReceivedMessages().remove(request.getReceiptHandle(), timeout);
+        queue.appendJournal(JournalEntry.delete(request.getReceiptHandle()));
     }
 
     /**
-    * Adds a line in the queue.
-    *
-    * @param string message
-    * @return nil
-    * @author Swarn Avinash Kumar
-    */
-    @VisibleForTesting
-    protected void addQueue(final String message) {
-        checkArgument(message != null);
+     * Deletes many received messages in a single pass over the received messages of the queue. The deletes are
+     * journaled like single ones.
+     *
+     * @param request the request
+     * @return the result of every receipt handle, in request order
+     *
+     * @see com.example.service.QueueService#deleteBatch(com.example.pojo.DeleteBatchRequest)
+     * @author Swarn Avinash Kumar
+     */
+    @Override
+    public List<BatchResultEntry> deleteBatch(final DeleteBatchRequest request) {
+        checkArgument(request != null);
+        final FileQueue queue = queueMap.get(request.getQueueUrl());
+        final List<BatchResultEntry> results = new ArrayList<>(request.getReceiptHandles().size());
+        for (String receiptHandle : request.getReceiptHandles()) {
+            final Timeout timeout = queue == null ? null : queue.getReceivedMessages().get(receiptHandle);
+            if (timeout == null) {
+                results.add(BatchResultEntry.failure(receiptHandle, BatchResultEntry.RECEIPT_HANDLE_IS_INVALID,
+                        "The message doesn't exist"));
+            } else if (!timeout.cancel()) {
+                results.add(BatchResultEntry.failure(receiptHandle, BatchResultEntry.MESSAGE_NOT_INFLIGHT,
+                        "The message is visible again"));
+            } else {
+                queue.getReceivedMessages().remove(receiptHandle, timeout);
+                queue.appendJournal(JournalEntry.delete(receiptHandle));
+                results.add(BatchResultEntry.success(receiptHandle, null));
+            }
+        }
+        return results;
+    }
 
-        output = new BufferedWriter(new FileWriter(filePath + queueName, true));
-        output.append(message);
-        output.close();
+    /**
+     * Reschedules the redelivery of many received messages in a single pass over the received messages of the
+     * queue. Every new deadline is journaled, as a delete followed by a new receive under the same receipt
+     * handle, and the batch waits once for the journal.
+     *
+     * @param request the request
+     * @return the result of every receipt handle, in request order
+     *
+     * @see com.example.service.QueueService#changeVisibilityBatch(com.example.pojo.ChangeVisibilityBatchRequest)
+     * @author Swarn Avinash Kumar
+     */
+    @Override
+    public List<BatchResultEntry> changeVisibilityBatch(final ChangeVisibilityBatchRequest request) {
+        checkArgument(request != null);
+        final FileQueue queue = queueMap.get(request.getQueueUrl());
+        final long visibilityMillis = TimeUnit.SECONDS.toMillis(request.getVisibilityTimeout());
+        final List<BatchResultEntry> results = new ArrayList<>(request.getReceiptHandles().size());
+        final List<String> pinned = new ArrayList<>(request.getReceiptHandles().size());
+        final List<Timeout> rescheduledTimeouts = new ArrayList<>(request.getReceiptHandles().size());
+        long journalOffset = -1;
+        try {
+            for (String receiptHandle : request.getReceiptHandles()) {
+                final Timeout timeout = queue == null ? null : queue.getReceivedMessages().get(receiptHandle);
+                if (timeout == null) {
+                    results.add(BatchResultEntry.failure(receiptHandle, BatchResultEntry.RECEIPT_HANDLE_IS_INVALID,
+                            "The message doesn't exist"));
+                } else if (!timeout.cancel()) {
+                    results.add(BatchResultEntry.failure(receiptHandle, BatchResultEntry.MESSAGE_NOT_INFLIGHT,
+                            "The message is visible again"));
+                } else {
+                    final byte[] message = ((FileQueue.Redelivery) timeout.task()).getMessage();
+                    final long deadlineMillis = System.currentTimeMillis() + visibilityMillis;
+                    final Timeout rescheduled = scheduleRedelivery(queue, receiptHandle, message, deadlineMillis);
+                    // Both receives stay live to the compactor until the new one is on disk
+                    queue.getPinnedReceipts().add(receiptHandle);
+                    pinned.add(receiptHandle);
+                    if (queue.getReceivedMessages().replace(receiptHandle, timeout, rescheduled)) {
+                        queue.appendJournal(JournalEntry.delete(receiptHandle));
+                        journalOffset =
+                                queue.appendJournal(JournalEntry.receive(receiptHandle, deadlineMillis, message));
+                        rescheduledTimeouts.add(rescheduled);
+                        results.add(BatchResultEntry.success(receiptHandle, null));
+                    } else {
+                        // Deleted in the meantime
+                        rescheduled.cancel();
+                        results.add(BatchResultEntry.failure(receiptHandle,
+                                BatchResultEntry.RECEIPT_HANDLE_IS_INVALID, "The message doesn't exist"));
+                    }
+                }
+            }
+            if (journalOffset >= 0) {
+                queue.commitJournal(journalOffset);
+            }
+        } finally {
+            for (String receiptHandle : pinned) {
+                queue.getPinnedReceipts().remove(receiptHandle);
+            }
+        }
+        for (Timeout rescheduled : rescheduledTimeouts) {
+            redeliverIfExpired(rescheduled);
+        }
+        return results;
+    }
 
-        return;
+    /**
+     * Stops the timers and closes the queues. Received messages and delayed pushes stay in the journals, for
+     * the next service opened on the same directory.
+     *
+     * @author Swarn Avinash Kumar
+     */
+    @Override
+    public void close() {
+        timingWheel.stop();
+        executor.shutdownNow();
+        try {
+            // A compaction in progress must not see its queue closed
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            for (FileQueue queue : queueMap.values()) {
+                queue.close();
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
     }
+
     /**
-    * Adds the pulled message back into the queue in case of timeout
-    *
-    * @param string message
-    * @return nil
-    * @author Swarn Avinash Kumar
-    */
-    protected void reAddQueue(final String message) {
-        File tempFile = new File(filePath + "temporaryFile");
-        File inputFile = new File(filePath + queueName);
+     * Gets the storage of a queue, opening it the first time the queue is used.
+     *
+     * @param queueUrl the queue URL
+     * @return the queue storage
+     * @author Swarn Avinash Kumar
+     */
+    @VisibleForTesting
+    protected FileQueue getQueueInstance(final String queueUrl) {
+        FileQueue queue = queueMap.get(queueUrl);
+        if (queue == null) {
+            // Opening a queue is rare, a single lock keeps two threads from opening the same files
+            synchronized (queueMap) {
+                queue = queueMap.get(queueUrl);
+                if (queue == null) {
+                    queue = openQueue(queueUrl);
+                    queueMap.put(queueUrl, queue);
+                }
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Gets the number of bytes of messages waiting to be pulled from every queue, including redeliveries.
+     *
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    @VisibleForTesting
+    protected long pendingBytes() {
+        long pendingBytes = 0;
+        for (FileQueue queue : queueMap.values()) {
+            pendingBytes += queue.pendingBytes();
+        }
+        return pendingBytes;
+    }
+
+    /**
+     * Gets the number of times the message logs of every queue were forced to disk.
+     *
+     * @return the number of forces
+     * @author Swarn Avinash Kumar
+     */
+    @VisibleForTesting
+    protected long syncCount() {
+        long syncCount = 0;
+        for (FileQueue queue : queueMap.values()) {
+            syncCount += queue.syncCount();
+        }
+        return syncCount;
+    }
 
-        BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-        BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile));
+    /**
+     * Runs a compaction pass over every queue.
+     *
+     * @return the number of bytes reclaimed
+     * @author Swarn Avinash Kumar
+     */
+    @VisibleForTesting
+    protected long compact() {
+        long reclaimed = 0;
+        for (FileQueue queue : queueMap.values()) {
+            reclaimed += queue.compact(compactor);
+        }
+        return reclaimed;
+    }
 
-        String firstLine = reader.readLine();
-        String currentLine;
+    /**
+     * Gets the number of bytes of segments reclaimed by compaction since the service started.
+     *
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    public long compactionReclaimedBytes() {
+        return compactor.reclaimedBytes();
+    }
 
-        writer.write(message + System.lineSeparator());
+    /**
+     * Gets the compaction lag: the number of bytes of segments of every queue that compaction could reclaim but
+     * did not yet, either because its next pass did not run or because their journal entries are mostly live.
+     *
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    public long compactionLagBytes() {
+        long lagBytes = 0;
+        for (FileQueue queue : queueMap.values()) {
+            lagBytes += queue.compactionLagBytes();
+        }
+        return lagBytes;
+    }
 
-        while ((currentLine = reader.readLine()) != null) {
-            writer.write(currentLine + System.lineSeparator());
+    /**
+     * Opens the storage of a queue and reschedules the received messages and the delayed pushes recovered from
+     * its journal, at their original deadline or right away if it passed while the service was down.
+     */
+    private FileQueue openQueue(final String queueUrl) {
+        final FileQueue queue;
+        try {
+            queue = new FileQueue(new File(directory, FileQueue.directoryName(queueUrl)), queueUrl, segmentBytes,
+                    ioMode, durability, Long.valueOf(environment.getPropertyValue(FILE_QUEUE_GROUP_COMMIT_MILLIS)),
+                    Integer.valueOf(environment.getPropertyValue(FILE_QUEUE_GROUP_COMMIT_MESSAGES)));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
         }
-        writer.close();
-        reader.close();
+        final long now = System.currentTimeMillis();
+        for (JournalEntry entry : queue.getRecovered()) {
+            final long delayMillis = Math.max(0, entry.getDeadlineMillis() - now);
+            if (entry.getType() == JournalEntry.Type.RECEIVE && delayMillis == 0) {
+                queue.reAddQueue(entry.getMessage());
+                queue.appendJournal(JournalEntry.delete(entry.getKey()));
+            } else if (entry.getType() == JournalEntry.Type.RECEIVE) {
+                final Timeout timeout =
+                        scheduleRedelivery(queue, entry.getKey(), entry.getMessage(), entry.getDeadlineMillis());
+                queue.getReceivedMessages().put(entry.getKey(), timeout);
+                redeliverIfExpired(timeout);
+            } else {
+                queue.getDelayedPushes().add(entry.getKey());
+                scheduleDelayedPush(queue, entry.getKey(), entry.getMessage(), delayMillis);
+            }
+        }
+        return queue;
+    }
 
-        tempFile.renameTo(inputFile);
+    /**
+     * Schedules a received message to become visible again at the deadline of its receive, unless deleted
+     * before.
+     */
+    private Timeout scheduleRedelivery(final FileQueue queue, final String receiptHandle, final byte[] message,
+            final long deadlineMillis) {
+        return timingWheel.schedule(new FileQueue.Redelivery(queue, receiptHandle, message, deadlineMillis),
+                deadlineMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
 
-        return;
+    /**
+     * Runs again the redelivery of a timeout that may have expired before being put in the received messages,
+     * when the redelivery found nothing to claim. The claim keeps the message from coming back twice.
+     */
+    private static void redeliverIfExpired(final Timeout timeout) {
+        if (timeout.isExpired()) {
+            timeout.task().run();
+        }
+    }
+
+    private void scheduleDelayedPush(final FileQueue queue, final String token, final byte[] message,
+            final long delayMillis) {
+        Runnable task = new Runnable() {
+            public void run() {
+                queue.addQueue(message);
+                queue.getDelayedPushes().remove(token);
+                queue.appendJournal(JournalEntry.delayDone(token));
+            }
+        };
+        executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
     }
 }
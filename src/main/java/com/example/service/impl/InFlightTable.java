@@ -0,0 +1,276 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Table of the messages in flight, indexed by compact receipt handles.
+ * <p>
+ * A handle is a long encoding the shard of the entry, its slot in the shard and the generation of the slot:
+ * looking an entry up is an array access, and a handle whose slot was freed or reused since is detected as
+ * stale because its generation does not match anymore. The generation of a slot is odd while the slot is in
+ * use and even while it is free, so handles never match a free slot. Entries are spread over shards by
+ * thread, each shard guarded by its own lock, and freed slots are reused.
+ * <p>
+ * Handles only become strings at the API boundary, with {@link #format(long)} and {@link #parse(String)}.
+ *
+ * @param <V> the type of the entries
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class InFlightTable<V> {
+
+    /** A handle never returned by the table */
+    public static final long INVALID_HANDLE = 0;
+
+    /** Number of bits of a handle indexing the slot of a shard */
+    static final int SLOT_BITS = 24;
+
+    /** Number of bits of a handle indexing the shard */
+    static final int SHARD_BITS = 8;
+
+    /** Most shards of a table */
+    public static final int MAX_SHARDS = 1 << SHARD_BITS;
+
+    /** Most entries of a shard */
+    static final int MAX_SLOTS = 1 << SLOT_BITS;
+
+    /** Slots of a shard before it first grows */
+    static final int INITIAL_SLOTS = 16;
+
+    private final Shard[] shards;
+
+    private final int shardMask;
+
+    /**
+     * Instantiates a new table.
+     *
+     * @param shards the number of shards, a power of two up to {@link #MAX_SHARDS}
+     */
+    public InFlightTable(final int shards) {
+        checkArgument(shards > 0 && shards <= MAX_SHARDS && Integer.bitCount(shards) == 1);
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; ++i) {
+            this.shards[i] = new Shard(i);
+        }
+        this.shardMask = shards - 1;
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param value the entry, which may be null until it is replaced
+     * @return the handle of the entry
+     * @throws IllegalStateException if the shard of the calling thread is full
+     */
+    public long add(final V value) {
+        return shards[(int) Thread.currentThread().getId() & shardMask].add(value);
+    }
+
+    /**
+     * Gets an entry.
+     *
+     * @param handle the handle of the entry
+     * @return the entry, or null if the handle is stale or invalid
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long handle) {
+        final Shard shard = shard(handle);
+        return shard == null ? null : (V) shard.get(handle);
+    }
+
+    /**
+     * Removes an entry, making its handle stale.
+     *
+     * @param handle the handle of the entry
+     * @return the removed entry, or null if the handle is stale or invalid
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final long handle) {
+        final Shard shard = shard(handle);
+        return shard == null ? null : (V) shard.remove(handle);
+    }
+
+    /**
+     * Removes an entry whatever its value, even a null entry not replaced yet, making its handle stale.
+     *
+     * @param handle the handle of the entry
+     * @return true if the entry was removed, false if the handle is stale or invalid
+     */
+    public boolean discard(final long handle) {
+        final Shard shard = shard(handle);
+        return shard != null && shard.discard(handle);
+    }
+
+    /**
+     * Replaces an entry if it is still the expected one.
+     *
+     * @param handle the handle of the entry
+     * @param expected the expected entry, compared by identity
+     * @param value the new entry
+     * @return true if the entry was replaced, false if the handle is stale or the entry changed
+     */
+    public boolean replace(final long handle, final V expected, final V value) {
+        final Shard shard = shard(handle);
+        return shard != null && shard.replace(handle, expected, value);
+    }
+
+    /**
+     * Gets the number of entries.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * Formats a handle as a receipt handle.
+     *
+     * @param handle the handle
+     * @return the receipt handle
+     */
+    public static String format(final long handle) {
+        return Long.toString(handle, Character.MAX_RADIX);
+    }
+
+    /**
+     * Parses a receipt handle.
+     *
+     * @param receiptHandle the receipt handle
+     * @return the handle, or {@link #INVALID_HANDLE} if the receipt handle is malformed
+     */
+    public static long parse(final String receiptHandle) {
+        if (receiptHandle == null) {
+            return INVALID_HANDLE;
+        }
+        try {
+            return Long.parseLong(receiptHandle, Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            return INVALID_HANDLE;
+        }
+    }
+
+    private Shard shard(final long handle) {
+        final int index = (int) (handle >>> SLOT_BITS) & (MAX_SHARDS - 1);
+        return index < shards.length ? shards[index] : null;
+    }
+
+    /**
+     * The entries added by a subset of the threads.
+     */
+    private static final class Shard {
+
+        private final int index;
+
+        private Object[] values = new Object[INITIAL_SLOTS];
+
+        /** Generation of every slot, odd while the slot is in use */
+        private int[] generations = new int[INITIAL_SLOTS];
+
+        /** Stack of the freed slots */
+        private int[] freeSlots = new int[INITIAL_SLOTS];
+
+        private int freeCount;
+
+        /** Number of slots ever used */
+        private int usedSlots;
+
+        private int size;
+
+        Shard(final int index) {
+            this.index = index;
+        }
+
+        synchronized long add(final Object value) {
+            final int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                if (usedSlots == values.length) {
+                    grow();
+                }
+                slot = usedSlots++;
+            }
+            values[slot] = value;
+            final int generation = ++generations[slot];
+            ++size;
+            return (long) generation << 32 | (long) index << SLOT_BITS | slot;
+        }
+
+        synchronized Object get(final long handle) {
+            final int slot = slot(handle);
+            return slot < 0 ? null : values[slot];
+        }
+
+        synchronized Object remove(final long handle) {
+            final int slot = slot(handle);
+            if (slot < 0) {
+                return null;
+            }
+            final Object value = values[slot];
+            free(slot);
+            return value;
+        }
+
+        synchronized boolean discard(final long handle) {
+            final int slot = slot(handle);
+            if (slot < 0) {
+                return false;
+            }
+            free(slot);
+            return true;
+        }
+
+        synchronized boolean replace(final long handle, final Object expected, final Object value) {
+            final int slot = slot(handle);
+            if (slot < 0 || values[slot] != expected) {
+                return false;
+            }
+            values[slot] = value;
+            return true;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Gets the slot of a handle, or -1 if the handle is stale.
+         */
+        private int slot(final long handle) {
+            final int slot = (int) handle & (MAX_SLOTS - 1);
+            final int generation = (int) (handle >>> 32);
+            if (slot >= usedSlots || (generation & 1) == 0 || generations[slot] != generation) {
+                return -1;
+            }
+            return slot;
+        }
+
+        private void free(final int slot) {
+            values[slot] = null;
+            ++generations[slot];
+            freeSlots[freeCount++] = slot;
+            --size;
+        }
+
+        private void grow() {
+            checkState(values.length < MAX_SLOTS, "Too many messages in flight");
+            final int length = Math.min(values.length * 2, MAX_SLOTS);
+            final Object[] grownValues = new Object[length];
+            System.arraycopy(values, 0, grownValues, 0, values.length);
+            final int[] grownGenerations = new int[length];
+            System.arraycopy(generations, 0, grownGenerations, 0, generations.length);
+            final int[] grownFreeSlots = new int[length];
+            System.arraycopy(freeSlots, 0, grownFreeSlots, 0, freeCount);
+            values = grownValues;
+            generations = grownGenerations;
+            freeSlots = grownFreeSlots;
+        }
+    }
+}
@@ -4,83 +4,232 @@ import static com.example.config.constants.ApplicationProperties.*;
 import static com.google.common.base.Preconditions.*;
 
 import com.example.config.Environment;
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.ChangeVisibilityBatchRequest;
+import com.example.pojo.DeleteBatchRequest;
 import com.example.pojo.DeleteRequest;
 import com.example.pojo.Message;
 import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
 import com.example.pojo.PushRequest;
-import com.example.pojo.ScheduledMessage;
+import com.example.service.AsyncQueueService;
 import com.example.service.QueueService;
+import com.example.storage.MessageRecordReader;
+import com.example.storage.MessageRecordWriter;
+import com.example.storage.MessageStorage;
+import com.example.storage.SegmentedLog;
+import com.example.storage.SlabArena;
+import com.example.timer.HashedTimingWheel;
+import com.example.timer.HashedTimingWheel.Timeout;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * In-memory Message Queue Service Implementation. 
+ * <p>
+ * The queued messages are kept either on the heap or off the heap, in size-classed slabs of direct memory
+ * shared by every queue of the service: off the heap, a queued message costs no heap at all, and message objects
+ * are only created when messages are pulled.
+ * <p>
+ * A queue can be split into shards, each with its own lock, for hot queues shared by many producers and
+ * consumers: see {@link ShardedMessageDeque} for the relaxed ordering that comes with it. A queue can instead be
+ * a bounded lock-free {@link RingBufferMessageQueue}, either by default or for the queues created as such.
+ * <p>
+ * Every queue accounts for the messages and body bytes it holds, queued or waiting for their delay, against limits
+ * of its own and a budget shared by all the queues. A push past a limit waits for pulls to make room, fails, or
+ * spills the message to an append-only log on disk, as the {@link OverflowPolicy} says: once a queue spills, the
+ * following pushes spill too, and the spilled messages are read back in order as pulls make room.
  *
  * @author Swarn Avinash Kumar
  * 
  */
-public class InMemoryQueueService implements QueueService {
+public class InMemoryQueueService implements QueueService, AsyncQueueService {
+
+    /** The most spilled messages decoded at once when reading them back */
+    private static final int REFILL_BATCH = 64;
 
     /** This map stores all different queues indexed by URL */
-    private final Map<String, Queue<Message>> queueMap;
+    private final Map<String, BlockingQueue<Message>> queueMap;
+
+    /** The messages and body bytes held by every queue, indexed by URL */
+    private final ConcurrentMap<String, QueueUsage> queueUsages = new ConcurrentHashMap<>();
+
+    /** The limits of the messages held by the queues, and what a push past them does */
+    private final MemoryLimits limits;
+
+    /** The body bytes held by all the queues together */
+    private final MemoryBudget budget;
+
+    /** The logs of the messages spilled past the limits, indexed by URL, created on the first spill */
+    private final ConcurrentMap<String, SegmentedLog> spillLogs = new ConcurrentHashMap<>();
+
+    private final long spillSegmentBytes;
+
+    private final MessageRecordReader spillReader = new MessageRecordReader();
+
+    /** The memory of the queued messages kept off the heap, null if they are kept on the heap */
+    private final SlabArena arena;
+
+    /** Shards of every queue, 1 if the queues are not sharded */
+    private final int queueShards;
+
+    private final ShardSelection shardSelection;
 
-    /** This object will be used to schedule visibility timeout and push delay commands. */
+    /** The type of the queues created on first use */
+    private final QueueType queueType;
+
+    private final int ringCapacity;
+
+    /** This object will be used to schedule push delay commands. */
     private final ScheduledExecutorService executor;
 
+    /** This object will be used to expire visibility timeouts. */
+    private final HashedTimingWheel timingWheel;
+
     private Integer visibilityTimeout;
 
-    /** We will use this map to store Future objects that may have to be restored to the queue */
-    private final Map<String, ScheduledMessage> receivedMessages;
+    /** Timeout objects of the messages that may have to be restored to the queue, indexed by receipt handle */
+    private final InFlightTable<Timeout> receivedMessages;
+
+    /** The pulls waiting for a message, indexed by queue URL */
+    private final ConcurrentMap<String, Queue<ParkedPull>> parkedPulls = new ConcurrentHashMap<>();
 
     // This object helps us to simulate a container of values to be injected (since we cannot use DI libraries)
     private final Environment environment = Environment.getInstance();
 
     /**
-     * Instantiates a new in-memory queue service.
+     * Instantiates a new in-memory queue service, keeping the queued messages in the configured storage.
      */
     public InMemoryQueueService() {
+        this(MessageStorage.fromValue(Environment.getInstance().getPropertyValue(MEMORY_QUEUE_STORAGE)));
+    }
+
+    /**
+     * Instantiates a new in-memory queue service, with the configured number of shards per queue.
+     *
+     * @param storage where the queued messages are kept
+     */
+    public InMemoryQueueService(final MessageStorage storage) {
+        this(storage, Integer.valueOf(Environment.getInstance().getPropertyValue(MEMORY_QUEUE_SHARDS)));
+    }
+
+    /**
+     * Instantiates a new in-memory queue service, with the configured memory limits.
+     *
+     * @param storage where the queued messages are kept
+     * @param queueShards the number of shards of every queue, a power of two, 1 for unsharded queues
+     */
+    public InMemoryQueueService(final MessageStorage storage, final int queueShards) {
+        this(storage, queueShards, configuredLimits());
+    }
+
+    /**
+     * Instantiates a new in-memory queue service.
+     *
+     * @param storage where the queued messages are kept
+     * @param queueShards the number of shards of every queue, a power of two, 1 for unsharded queues
+     * @param limits the limits of the queued messages
+     */
+    public InMemoryQueueService(final MessageStorage storage, final int queueShards, final MemoryLimits limits) {
+        checkArgument(storage != null);
+        checkArgument(queueShards > 0 && Integer.bitCount(queueShards) == 1);
+        checkArgument(limits != null);
         this.visibilityTimeout = Integer.valueOf(environment.getPropertyValue(QUEUE_VISIBILITY_TIMEOUT));
         this.executor =
                 Executors.newScheduledThreadPool(Integer.valueOf(environment
                         .getPropertyValue(SCHEDULED_THREAD_POOL_SIZE)));
+        this.timingWheel =
+                new HashedTimingWheel(Long.valueOf(environment.getPropertyValue(TIMING_WHEEL_TICK_MILLIS)),
+                        TimeUnit.MILLISECONDS, Integer.valueOf(environment.getPropertyValue(TIMING_WHEEL_SIZE)));
+
+        this.queueMap = new ConcurrentHashMap<>();
+        this.arena = storage == MessageStorage.OFF_HEAP
+                ? new SlabArena(Integer.valueOf(environment.getPropertyValue(MEMORY_QUEUE_SLAB_BYTES))) : null;
+        this.receivedMessages =
+                new InFlightTable<>(Integer.valueOf(environment.getPropertyValue(INFLIGHT_TABLE_SHARDS)));
+        this.queueShards = queueShards;
+        this.shardSelection = ShardSelection.fromValue(environment.getPropertyValue(MEMORY_QUEUE_SHARD_SELECTION));
+        this.queueType = QueueType.fromValue(environment.getPropertyValue(MEMORY_QUEUE_TYPE));
+        this.ringCapacity = Integer.valueOf(environment.getPropertyValue(MEMORY_QUEUE_RING_CAPACITY));
+        this.limits = limits;
+        this.budget = new MemoryBudget(limits.getBudgetBytes());
+        this.spillSegmentBytes = Long.valueOf(environment.getPropertyValue(MEMORY_QUEUE_SPILL_SEGMENT_BYTES));
+    }
 
-        this.queueMap = new HashMap<>();
-        this.receivedMessages = new HashMap<>();
+    private static MemoryLimits configuredLimits() {
+        final Environment environment = Environment.getInstance();
+        final String spillDirectory = environment.getPropertyValue(MEMORY_QUEUE_SPILL_DIRECTORY);
+        return new MemoryLimits(Integer.valueOf(environment.getPropertyValue(MEMORY_QUEUE_MAX_MESSAGES)),
+                Long.valueOf(environment.getPropertyValue(MEMORY_QUEUE_MAX_BYTES)),
+                Long.valueOf(environment.getPropertyValue(MEMORY_QUEUE_BUDGET_BYTES)),
+                OverflowPolicy.fromValue(environment.getPropertyValue(MEMORY_QUEUE_OVERFLOW_POLICY)),
+                Long.valueOf(environment.getPropertyValue(MEMORY_QUEUE_BLOCK_TIMEOUT_MILLIS)),
+                spillDirectory == null || spillDirectory.isEmpty() ? null : new File(spillDirectory));
     }
 
     /**
      * Pushes a single message onto a specified queue. A queue strives to deliver each message exactly once to
      * exactly one consumer, but guarantees at-least once delivery
+     * <p>
+     * A message past the limits of the queue is waited for, rejected or spilled, as the overflow policy says.
      *
      * @param request the request
      * @return the message body in MD5
+     * @throws IllegalStateException if the message is rejected for being past the limits of the queue
      *
      * @see com.example.service.QueueService#push(com.example.pojo.PushRequest)
      * @author Swarn Avinash Kumar
      */
     public String push(final PushRequest request) {
         checkArgument(request != null);
-        final Queue<Message> queue = this.getQueueInstance(request.getQueueUrl());
+        final String url = request.getQueueUrl();
+        final BlockingQueue<Message> queue = this.getQueueInstance(url);
+        final QueueUsage usage = this.getQueueUsage(url);
         final String body = request.getMessageBody();
         final Message message = new Message(body);
 
+        final Admission admission = admit(url, usage, message, blockDeadline(), false);
+        checkState(admission != Admission.REJECTED, "The queue %s is over its limits", url);
         if (request.getDelaySeconds() == null) {
-            queue.add(message);
+            if (admission == Admission.QUEUED) {
+                enqueue(url, queue, message);
+            } else {
+                spill(url, Collections.singletonList(message));
+            }
+            serveParkedPulls(url);
         } else {
             Runnable task = new Runnable() {
                 public void run() {
-                    queue.add(message);
+                    if (admission == Admission.QUEUED) {
+                        enqueue(url, queue, message);
+                    } else {
+                        spill(url, Collections.singletonList(message));
+                    }
+                    serveParkedPulls(url);
                 }
             };
             executor.schedule(task, request.getDelaySeconds(), TimeUnit.SECONDS);
@@ -89,6 +238,77 @@ public class InMemoryQueueService implements QueueService {
         return message.getMd5Body();
     }
 
+    /**
+     * Pushes many messages onto a specified queue. The messages without delay are enqueued together, the
+     * queue linking the whole batch under a single hold of its lock, and the messages sharing a delay are
+     * enqueued together by a single scheduled task. An entry past the limits of the queue fails with
+     * {@link BatchResultEntry#OVER_LIMIT}, unless the overflow policy waits for it or spills it.
+     *
+     * @param request the request
+     * @return the result of every entry, in request order
+     *
+     * @see com.example.service.QueueService#pushBatch(com.example.pojo.PushBatchRequest)
+     * @author Swarn Avinash Kumar
+     */
+    public List<BatchResultEntry> pushBatch(final PushBatchRequest request) {
+        checkArgument(request != null);
+        final String url = request.getQueueUrl();
+        final BlockingQueue<Message> queue = this.getQueueInstance(url);
+        final QueueUsage usage = this.getQueueUsage(url);
+        final List<BatchResultEntry> results = new ArrayList<>(request.getEntries().size());
+        final List<Message> messages = new ArrayList<>(request.getEntries().size());
+        final List<Message> spilledMessages = new ArrayList<>();
+        final Map<Integer, List<Message>> delayedMessages = new HashMap<>();
+        final Map<Integer, List<Message>> delayedSpilledMessages = new HashMap<>();
+        final long deadline = blockDeadline();
+        for (PushBatchEntry entry : request.getEntries()) {
+            final Message message = new Message(entry.getMessageBody());
+            // Once an entry spilled, the following ones spill too, so that they stay in order
+            final Admission admission = admit(url, usage, message, deadline, !spilledMessages.isEmpty());
+            if (admission == Admission.REJECTED) {
+                results.add(BatchResultEntry.failure(entry.getId(), BatchResultEntry.OVER_LIMIT,
+                        "The queue is over its limits"));
+                continue;
+            }
+            if (entry.getDelaySeconds() == null) {
+                (admission == Admission.QUEUED ? messages : spilledMessages).add(message);
+            } else {
+                final Map<Integer, List<Message>> byDelay =
+                        admission == Admission.QUEUED ? delayedMessages : delayedSpilledMessages;
+                List<Message> delayed = byDelay.get(entry.getDelaySeconds());
+                if (delayed == null) {
+                    delayed = new ArrayList<>();
+                    byDelay.put(entry.getDelaySeconds(), delayed);
+                }
+                delayed.add(message);
+            }
+            results.add(BatchResultEntry.success(entry.getId(), message.getMd5Body()));
+        }
+
+        enqueueAll(url, queue, messages);
+        spill(url, spilledMessages);
+        serveParkedPulls(url);
+        for (final Map.Entry<Integer, List<Message>> delayed : delayedMessages.entrySet()) {
+            Runnable task = new Runnable() {
+                public void run() {
+                    enqueueAll(url, queue, delayed.getValue());
+                    serveParkedPulls(url);
+                }
+            };
+            executor.schedule(task, delayed.getKey(), TimeUnit.SECONDS);
+        }
+        for (final Map.Entry<Integer, List<Message>> delayed : delayedSpilledMessages.entrySet()) {
+            Runnable task = new Runnable() {
+                public void run() {
+                    spill(url, delayed.getValue());
+                    serveParkedPulls(url);
+                }
+            };
+            executor.schedule(task, delayed.getKey(), TimeUnit.SECONDS);
+        }
+        return results;
+    }
+
     /**
      *
      * Receives a single message from a specified queue. When a consumer receives a message, it is not removed
@@ -96,6 +316,10 @@ public class InMemoryQueueService implements QueueService {
      * received the message does not subsequently delete it within within a timeout period (the
      * "visibility timeout"), the message automatically becomes visible at the head of the queue again, ready
      * to be delivered to another consumer.
+     * <p>
+     * If the request carries a wait time, the call long polls: it blocks until a message is pushed (or
+     * re-queued by a visibility timeout) or the wait time expires. As soon as one message is available the
+     * batch is filled with whatever else is visible, up to the max number of messages, and returned.
      *
      * @param request the request
      * @return the list
@@ -105,46 +329,109 @@ public class InMemoryQueueService implements QueueService {
      */
     public List<Message> pull(final PullRequest request) {
         checkArgument(request != null);
-        final Queue<Message> queue = this.getQueueInstance(request.getQueueUrl());
-        List<Message> messages = new ArrayList<>();
+        final String url = request.getQueueUrl();
+        final BlockingQueue<Message> queue = this.getQueueInstance(url);
+        final int max = maxNumberOfMessages(request);
+        final int waitTimeSeconds = waitTimeSeconds(request);
+        final int visibilityTimeout = visibilityTimeout(request);
+        // Spilled messages that did not fit when the queue last drained may fit now
+        refill(url);
 
-        Integer max = request.getMaxNumberOfMessages();
-        if (max == null) {
-            max = 0;
+        final List<Message> pulledMessages = new ArrayList<>(max);
+        final Message firstMessage;
+        try {
+            firstMessage = queue.poll(waitTimeSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
         }
-        checkArgument(max <= Integer.valueOf(environment.getPropertyValue(MAX_MESSAGES_FROM_PULL)) && max > 0);
-
-        Integer visibilityTimeout = request.getVisibilityTimeout();
-        if (visibilityTimeout == null) {
-            visibilityTimeout = this.visibilityTimeout;
+        if (firstMessage == null) {
+            return new ArrayList<>();
         }
+        pulledMessages.add(firstMessage);
+        queue.drainTo(pulledMessages, max - 1);
+        if (release(url, pulledMessages)) {
+            serveParkedPulls(url);
+        }
+        return receive(url, queue, pulledMessages, visibilityTimeout);
+    }
 
-        for (int i = 0; i < max; ++i) {
-            final Message pulledMessage = queue.poll();
-
-            if (pulledMessage != null) {
-                final String receiptHandle = UUID.randomUUID().toString();
-
-                Message message = new Message(pulledMessage.getId(), pulledMessage.getBody());
-                message.setReceiptHandle(receiptHandle);
-                messages.add(message);
+    /**
+     * Receives messages from a specified queue without blocking. If no message is visible and the request
+     * carries a wait time, the pull is parked until a message is pushed or re-queued, or the wait time expires:
+     * a parked pull holds no thread, so any number of them can wait at the same time.
+     *
+     * @param request the request
+     * @return the future messages
+     *
+     * @see com.example.service.AsyncQueueService#pullAsync(com.example.pojo.PullRequest)
+     * @author Swarn Avinash Kumar
+     */
+    public ListenableFuture<List<Message>> pullAsync(final PullRequest request) {
+        checkArgument(request != null);
+        final String url = request.getQueueUrl();
+        final BlockingQueue<Message> queue = this.getQueueInstance(url);
+        final int max = maxNumberOfMessages(request);
+        final int waitTimeSeconds = waitTimeSeconds(request);
+        final int visibilityTimeout = visibilityTimeout(request);
+        // Spilled messages that did not fit when the queue last drained may fit now
+        refill(url);
 
-                Runnable command = new Runnable() {
-                    public void run() {
-                        queue.add(pulledMessage);
-                        receivedMessages.remove(receiptHandle);
-                    }
-                };
+        final List<Message> pulledMessages = new ArrayList<>(max);
+        queue.drainTo(pulledMessages, max);
+        if (release(url, pulledMessages)) {
+            serveParkedPulls(url);
+        }
+        if (!pulledMessages.isEmpty() || waitTimeSeconds == 0) {
+            return Futures.immediateFuture(receive(url, queue, pulledMessages, visibilityTimeout));
+        }
 
-                ScheduledFuture future = executor.schedule(command, visibilityTimeout, TimeUnit.SECONDS);
+        final Queue<ParkedPull> parked = getParkedPulls(url);
+        final ParkedPull pull = new ParkedPull(max, visibilityTimeout);
+        pull.expiry = timingWheel.schedule(new Runnable() {
+            public void run() {
+                if (pull.claim()) {
+                    parked.remove(pull);
+                    pull.messages.set(new ArrayList<Message>());
+                }
+            }
+        }, waitTimeSeconds, TimeUnit.SECONDS);
+        parked.add(pull);
+        // A message pushed since the queue was drained did not see this pull
+        serveParkedPulls(url);
+        return pull.messages;
+    }
 
-                ScheduledMessage scheduled = new ScheduledMessage(future, command);
+    /**
+     * Pushes a single message onto a specified queue, which never blocks in memory.
+     *
+     * @param request the request
+     * @return the completed future message body in MD5
+     *
+     * @see com.example.service.AsyncQueueService#pushAsync(com.example.pojo.PushRequest)
+     * @author Swarn Avinash Kumar
+     */
+    public ListenableFuture<String> pushAsync(final PushRequest request) {
+        return Futures.immediateFuture(push(request));
+    }
 
-                receivedMessages.put(message.getReceiptHandle(), scheduled);
-            }
+    /**
+     * Deletes a received message, which never blocks in memory.
+     *
+     * @param request the request
+     * @return the completed future, failed with an IllegalStateException if the message doesn't exist
+     *
+     * @see com.example.service.AsyncQueueService#deleteAsync(com.example.pojo.DeleteRequest)
+     * @author Swarn Avinash Kumar
+     */
+    public ListenableFuture<Void> deleteAsync(final DeleteRequest request) {
+        checkArgument(request != null);
+        try {
+            delete(request);
+        } catch (IllegalStateException e) {
+            return Futures.immediateFailedFuture(e);
         }
-
-        return messages;
+        return Futures.immediateFuture(null);
     }
 
     /**
@@ -159,9 +446,420 @@ public class InMemoryQueueService implements QueueService {
      */
     public void delete(final DeleteRequest request) {
         checkArgument(request != null);
-        ScheduledMessage scheduled = receivedMessages.remove(request.getReceiptHandle());
-        checkState(scheduled != null, "The message doesn't exist");
-        scheduled.cancelFuture(true);
+        final long handle = InFlightTable.parse(request.getReceiptHandle());
+        final Timeout timeout = receivedMessages.get(handle);
+        checkState(timeout != null, "The message doesn't exist");
+        // Cancelling claims the message: once the timeout expired, the message belongs to the queue again
+        checkState(timeout.cancel(), "The message is visible again");
+        receivedMessages.remove(handle);
+    }
+
+    /**
+     * Deletes many received messages in a single pass over the received messages.
+     *
+     * @param request the request
+     * @return the result of every receipt handle, in request order
+     *
+     * @see com.example.service.QueueService#deleteBatch(com.example.pojo.DeleteBatchRequest)
+     * @author Swarn Avinash Kumar
+     */
+    public List<BatchResultEntry> deleteBatch(final DeleteBatchRequest request) {
+        checkArgument(request != null);
+        final List<BatchResultEntry> results = new ArrayList<>(request.getReceiptHandles().size());
+        for (String receiptHandle : request.getReceiptHandles()) {
+            final long handle = InFlightTable.parse(receiptHandle);
+            final Timeout timeout = receivedMessages.get(handle);
+            if (timeout == null) {
+                results.add(BatchResultEntry.failure(receiptHandle, BatchResultEntry.RECEIPT_HANDLE_IS_INVALID,
+                        "The message doesn't exist"));
+            } else if (!timeout.cancel()) {
+                results.add(BatchResultEntry.failure(receiptHandle, BatchResultEntry.MESSAGE_NOT_INFLIGHT,
+                        "The message is visible again"));
+            } else {
+                receivedMessages.remove(handle);
+                results.add(BatchResultEntry.success(receiptHandle, null));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reschedules the return to the queue of many received messages in a single pass over the received
+     * messages.
+     *
+     * @param request the request
+     * @return the result of every receipt handle, in request order
+     *
+     * @see com.example.service.QueueService#changeVisibilityBatch(com.example.pojo.ChangeVisibilityBatchRequest)
+     * @author Swarn Avinash Kumar
+     */
+    public List<BatchResultEntry> changeVisibilityBatch(final ChangeVisibilityBatchRequest request) {
+        checkArgument(request != null);
+        final List<BatchResultEntry> results = new ArrayList<>(request.getReceiptHandles().size());
+        for (String receiptHandle : request.getReceiptHandles()) {
+            final long handle = InFlightTable.parse(receiptHandle);
+            final Timeout timeout = receivedMessages.get(handle);
+            if (timeout == null) {
+                results.add(BatchResultEntry.failure(receiptHandle, BatchResultEntry.RECEIPT_HANDLE_IS_INVALID,
+                        "The message doesn't exist"));
+            } else if (!timeout.cancel()) {
+                results.add(BatchResultEntry.failure(receiptHandle, BatchResultEntry.MESSAGE_NOT_INFLIGHT,
+                        "The message is visible again"));
+            } else {
+                final Timeout rescheduled =
+                        timingWheel.schedule(timeout.task(), request.getVisibilityTimeout(), TimeUnit.SECONDS);
+                if (receivedMessages.replace(handle, timeout, rescheduled)) {
+                    results.add(BatchResultEntry.success(receiptHandle, null));
+                } else {
+                    // Deleted in the meantime
+                    rescheduled.cancel();
+                    results.add(BatchResultEntry.failure(receiptHandle,
+                            BatchResultEntry.RECEIPT_HANDLE_IS_INVALID, "The message doesn't exist"));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Makes pulled messages invisible until their visibility timeout, under a new receipt handle each. When too
+     * many messages are in flight, the ones left without a handle go back to the queue and are not returned.
+     */
+    private List<Message> receive(final String url, final BlockingQueue<Message> queue,
+            final List<Message> pulledMessages, final int visibilityTimeout) {
+        final QueueUsage usage = this.getQueueUsage(url);
+        final List<Message> messages = new ArrayList<>(pulledMessages.size());
+        for (int i = 0; i < pulledMessages.size(); ++i) {
+            final Message pulledMessage = pulledMessages.get(i);
+            final long handle;
+            try {
+                // The slot is taken first, so that the expiry knows the handle to remove
+                handle = receivedMessages.add(null);
+            } catch (IllegalStateException e) {
+                // Too many messages in flight: the ones not handed out yet go back to the queue
+                requeue(url, queue, pulledMessages.subList(i, pulledMessages.size()));
+                break;
+            }
+
+            Message message = pulledMessage.withReceiptHandle(InFlightTable.format(handle));
+            messages.add(message);
+
+            Runnable command = new Runnable() {
+                public void run() {
+                    // Only the expiry that takes the message out of flight brings it back, never a stale one
+                    if (!receivedMessages.discard(handle)) {
+                        return;
+                    }
+                    // Back in the queue whether it fits or not, the message was accepted already
+                    usage.forceAcquire(1, pulledMessage.getBodySize());
+                    enqueue(url, queue, pulledMessage);
+                    serveParkedPulls(url);
+                }
+            };
+
+            Timeout timeout = timingWheel.schedule(command, visibilityTimeout, TimeUnit.SECONDS);
+
+            // Fails if the timeout already expired, the message being visible again
+            receivedMessages.replace(handle, null, timeout);
+        }
+        return messages;
+    }
+
+    /**
+     * Puts pulled messages back in their queue, accounted again, ahead of the other messages when the queue
+     * has a head.
+     */
+    private void requeue(final String url, final BlockingQueue<Message> queue, final List<Message> messages) {
+        final QueueUsage usage = this.getQueueUsage(url);
+        for (Message message : messages) {
+            usage.forceAcquire(1, message.getBodySize());
+        }
+        if (queue instanceof BlockingDeque) {
+            final BlockingDeque<Message> deque = (BlockingDeque<Message>) queue;
+            for (int i = messages.size() - 1; i >= 0; --i) {
+                deque.addFirst(messages.get(i));
+            }
+        } else {
+            for (Message message : messages) {
+                enqueue(url, queue, message);
+            }
+        }
+    }
+
+    /**
+     * Hands the visible messages of a queue to its parked pulls, oldest pull first. Called after every
+     * message added to a queue, and cheap when no pull is parked.
+     */
+    private void serveParkedPulls(final String url) {
+        final Queue<ParkedPull> parked = parkedPulls.get(url);
+        if (parked == null) {
+            return;
+        }
+        final BlockingQueue<Message> queue = this.getQueueInstance(url);
+        while (!parked.isEmpty() && !queue.isEmpty()) {
+            final ParkedPull pull = parked.poll();
+            if (pull == null) {
+                return;
+            }
+            final List<Message> pulledMessages = new ArrayList<>(pull.max);
+            queue.drainTo(pulledMessages, pull.max);
+            if (pulledMessages.isEmpty()) {
+                // Taken by another consumer, the pull keeps waiting
+                parked.add(pull);
+                return;
+            }
+            if (pull.claim()) {
+                pull.expiry.cancel();
+                release(url, pulledMessages);
+                pull.messages.set(receive(url, queue, pulledMessages, pull.visibilityTimeout));
+            } else if (queue instanceof BlockingDeque) {
+                // The pull expired meanwhile, the messages go back to the head of the queue in order
+                final BlockingDeque<Message> deque = (BlockingDeque<Message>) queue;
+                for (int i = pulledMessages.size() - 1; i >= 0; --i) {
+                    deque.addFirst(pulledMessages.get(i));
+                }
+            } else {
+                // The pull expired meanwhile, the messages go back to the tail of a queue with no head to add to
+                for (Message message : pulledMessages) {
+                    enqueue(url, queue, message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes an accounted message visible at the tail of its queue. A bounded queue that is full takes it a second
+     * later, rather than blocking the calling thread or losing the message.
+     */
+    private void enqueue(final String url, final BlockingQueue<Message> queue, final Message message) {
+        if (!queue.offer(message)) {
+            timingWheel.schedule(new Runnable() {
+                public void run() {
+                    enqueue(url, queue, message);
+                    serveParkedPulls(url);
+                }
+            }, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Makes accounted messages visible at the tail of their queue, in order: a deque links them all under a single
+     * hold of its lock.
+     */
+    private void enqueueAll(final String url, final BlockingQueue<Message> queue, final List<Message> messages) {
+        if (queue instanceof BlockingDeque) {
+            queue.addAll(messages);
+            return;
+        }
+        for (Message message : messages) {
+            enqueue(url, queue, message);
+        }
+    }
+
+    /**
+     * Decides what becomes of a pushed message: queued if it fits in the limits, or else waited for, spilled or
+     * rejected as the overflow policy says. Behind spilled messages, a message spills too, for the queue to keep
+     * its order.
+     */
+    private Admission admit(final String url, final QueueUsage usage, final Message message, final long deadline,
+            final boolean spilling) {
+        final OverflowPolicy policy = limits.getOverflowPolicy();
+        if (policy == OverflowPolicy.SPILL && (spilling || isSpilling(url))) {
+            return Admission.SPILLED;
+        }
+        final int size = message.getBodySize();
+        if (usage.tryAcquire(size)) {
+            return Admission.QUEUED;
+        }
+        switch (policy) {
+        case BLOCK:
+            try {
+                return usage.acquire(size, deadline - System.nanoTime(), TimeUnit.NANOSECONDS) ? Admission.QUEUED
+                        : Admission.REJECTED;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Admission.REJECTED;
+            }
+        case SPILL:
+            return Admission.SPILLED;
+        default:
+            return Admission.REJECTED;
+        }
+    }
+
+    private long blockDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(limits.getBlockTimeoutMillis());
+    }
+
+    /**
+     * Releases pulled messages from the usage of their queue, and reads spilled messages back into the room made.
+     *
+     * @return true if spilled messages were read back
+     */
+    private boolean release(final String url, final List<Message> pulledMessages) {
+        if (pulledMessages.isEmpty()) {
+            return false;
+        }
+        long bytes = 0;
+        for (Message message : pulledMessages) {
+            bytes += message.getBodySize();
+        }
+        this.getQueueUsage(url).release(pulledMessages.size(), bytes);
+        return refill(url) > 0;
+    }
+
+    private boolean isSpilling(final String url) {
+        final SegmentedLog log = spillLogs.get(url);
+        return log != null && !log.isEmpty();
+    }
+
+    /**
+     * Appends messages to the spill log of their queue, then reads back whatever already fits in memory.
+     */
+    private void spill(final String url, final List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final List<byte[]> records = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            records.add(MessageRecordWriter.write(new UUID(message.getIdMostSigBits(), message.getIdLeastSigBits()),
+                    now, message.getBody()));
+        }
+        try {
+            getSpillLog(url).appendAll(records);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        refill(url);
+    }
+
+    /**
+     * Reads spilled messages of a queue back into memory, oldest first, as long as they fit in its limits, once
+     * {@link #shouldRefill(QueueUsage)} says so.
+     *
+     * @return the number of messages read back
+     */
+    private int refill(final String url) {
+        final SegmentedLog log = spillLogs.get(url);
+        if (log == null) {
+            return 0;
+        }
+        final QueueUsage usage = this.getQueueUsage(url);
+        if (!shouldRefill(usage)) {
+            return 0;
+        }
+        final BlockingQueue<Message> queue = this.getQueueInstance(url);
+        int refilled = 0;
+        try {
+            // One refill at a time, so that the messages read back keep their order
+            synchronized (log) {
+                while (!log.isEmpty()) {
+                    final List<Message> spilled = log.peek(spillReader, REFILL_BATCH);
+                    int fitting = 0;
+                    while (fitting < spilled.size() && usage.tryAcquire(spilled.get(fitting).getBodySize())) {
+                        ++fitting;
+                    }
+                    // Queued before they leave the log: once the log is empty, pushes queue right away, and must
+                    // land behind them
+                    enqueueAll(url, queue, spilled.subList(0, fitting));
+                    log.skip(fitting);
+                    refilled += fitting;
+                    if (fitting < spilled.size()) {
+                        break;
+                    }
+                }
+            }
+            if (refilled > 0 && log.readSegmentBytes() > 0) {
+                log.deleteReadSegments();
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return refilled;
+    }
+
+    /**
+     * Tells whether a queue with spilled messages reads them back now, given what it holds in memory. Reads them
+     * back as soon as any of them fits.
+     *
+     * @param usage the usage of the queue
+     * @return true to read spilled messages back
+     */
+    protected boolean shouldRefill(final QueueUsage usage) {
+        return true;
+    }
+
+    /**
+     * Closes the spill logs. Spilled messages not read back yet are lost.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    protected void closeSpillLogs() throws IOException {
+        synchronized (spillLogs) {
+            for (SegmentedLog log : spillLogs.values()) {
+                log.close();
+            }
+            spillLogs.clear();
+        }
+    }
+
+    private SegmentedLog getSpillLog(final String url) {
+        SegmentedLog log = spillLogs.get(url);
+
+        // Double Check Strategy for concurrent access
+        if (log == null) {
+            synchronized (spillLogs) {
+                log = spillLogs.get(url);
+                if (log == null) {
+                    final File directory = new File(limits.getSpillDirectory(), FileQueue.directoryName(url));
+                    // Messages spilled by an earlier service are not queued anymore
+                    final File[] stale = directory.listFiles();
+                    if (stale != null) {
+                        for (File file : stale) {
+                            checkState(file.delete() || !file.exists(), "Cannot delete %s", file);
+                        }
+                    }
+                    try {
+                        log = new SegmentedLog(directory, spillSegmentBytes);
+                    } catch (IOException e) {
+                        throw Throwables.propagate(e);
+                    }
+                    spillLogs.put(url, log);
+                }
+            }
+        }
+
+        return log;
+    }
+
+    private int maxNumberOfMessages(final PullRequest request) {
+        final Integer max = request.getMaxNumberOfMessages();
+        checkArgument(max != null && max > 0
+                && max <= Integer.valueOf(environment.getPropertyValue(MAX_MESSAGES_FROM_PULL)));
+        return max;
+    }
+
+    private int waitTimeSeconds(final PullRequest request) {
+        final Integer waitTimeSeconds = request.getWaitTimeSeconds();
+        checkArgument(waitTimeSeconds == null || waitTimeSeconds >= 0);
+        return waitTimeSeconds == null ? 0 : waitTimeSeconds;
+    }
+
+    private int visibilityTimeout(final PullRequest request) {
+        return request.getVisibilityTimeout() == null ? this.visibilityTimeout : request.getVisibilityTimeout();
+    }
+
+    private Queue<ParkedPull> getParkedPulls(final String url) {
+        Queue<ParkedPull> parked = parkedPulls.get(url);
+        if (parked == null) {
+            final Queue<ParkedPull> created = new ConcurrentLinkedQueue<>();
+            parked = parkedPulls.putIfAbsent(url, created);
+            if (parked == null) {
+                parked = created;
+            }
+        }
+        return parked;
     }
 
     /**
@@ -172,16 +870,18 @@ public class InMemoryQueueService implements QueueService {
      * @author Swarn Avinash Kumar
      */
     @VisibleForTesting
-    protected Queue<Message> getQueueInstance(final String url) {
+    protected BlockingQueue<Message> getQueueInstance(final String url) {
         checkArgument(url != null);
-        Queue<Message> queue = queueMap.get(url);
+        BlockingQueue<Message> queue = queueMap.get(url);
 
         // Double Check Strategy for concurrent access
         if (queue == null) {
             synchronized (queueMap) {
                 queue = queueMap.get(url);
                 if (queue == null) {
-                    queue = new LinkedBlockingDeque<>();
+                    queue = newQueue(queueType);
+                    // Accounted for before the queue can be seen
+                    queueUsages.put(url, newUsage(queue));
                     queueMap.put(url, queue);
                 }
             }
@@ -190,4 +890,122 @@ public class InMemoryQueueService implements QueueService {
         return queue;
     }
 
-}
\ No newline at end of file
+    /**
+     * Creates a queue of a given type, rather than of the configured type on first use.
+     *
+     * @param url the url
+     * @param type the type of the queue
+     * @throws IllegalStateException if the queue already exists
+     * @author Swarn Avinash Kumar
+     */
+    public void createQueue(final String url, final QueueType type) {
+        checkArgument(url != null);
+        checkArgument(type != null);
+        synchronized (queueMap) {
+            checkState(!queueMap.containsKey(url), "The queue %s already exists", url);
+            final BlockingQueue<Message> queue = newQueue(type);
+            queueUsages.put(url, newUsage(queue));
+            queueMap.put(url, queue);
+        }
+    }
+
+    /**
+     * Gets the messages and body bytes held by a queue, queued or waiting for their delay. Neither the messages in
+     * flight nor the spilled ones are held.
+     *
+     * @param url the url
+     * @return the usage of the queue
+     * @author Swarn Avinash Kumar
+     */
+    public QueueUsage getQueueUsage(final String url) {
+        this.getQueueInstance(url);
+        return queueUsages.get(url);
+    }
+
+    /**
+     * Gets the body bytes held by all the queues together.
+     *
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    public long getHeldBytes() {
+        return budget.usedBytes();
+    }
+
+    /**
+     * Gets the bytes of the messages a queue spilled to disk and did not read back yet, record headers included.
+     *
+     * @param url the url
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    public long getSpilledBytes(final String url) {
+        checkArgument(url != null);
+        final SegmentedLog log = spillLogs.get(url);
+        return log == null ? 0 : log.pendingBytes();
+    }
+
+    private QueueUsage newUsage(final BlockingQueue<Message> queue) {
+        int maxMessages = limits.getMaxMessages();
+        if (queue instanceof RingBufferMessageQueue) {
+            // A ring buffer never holds more messages than it has slots
+            final int capacity = ((RingBufferMessageQueue) queue).capacity();
+            maxMessages = maxMessages == 0 ? capacity : Math.min(maxMessages, capacity);
+        }
+        return new QueueUsage(maxMessages, limits.getMaxBytes(), budget);
+    }
+
+    private BlockingQueue<Message> newQueue(final QueueType type) {
+        if (type == QueueType.RING_BUFFER) {
+            return new RingBufferMessageQueue(ringCapacity);
+        }
+        return queueShards == 1 ? newDeque() : newShardedDeque();
+    }
+
+    private BlockingDeque<Message> newDeque() {
+        return arena == null ? new LinkedBlockingDeque<Message>() : new OffHeapMessageDeque(arena);
+    }
+
+    private BlockingDeque<Message> newShardedDeque() {
+        final List<BlockingDeque<Message>> shards = new ArrayList<>(queueShards);
+        for (int i = 0; i < queueShards; ++i) {
+            shards.add(newDeque());
+        }
+        return new ShardedMessageDeque(shards, shardSelection);
+    }
+
+    /**
+     * What becomes of a pushed message.
+     */
+    private enum Admission {
+        QUEUED, SPILLED, REJECTED
+    }
+
+    /**
+     * A pull waiting for a message. Either a pushed message or the expiry of its wait time claims it, never
+     * both.
+     */
+    private static final class ParkedPull {
+
+        private final int max;
+
+        private final int visibilityTimeout;
+
+        private final SettableFuture<List<Message>> messages = SettableFuture.create();
+
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        /** Completes the pull with no message once the wait time has passed */
+        private volatile Timeout expiry;
+
+        ParkedPull(final int max, final int visibilityTimeout) {
+            this.max = max;
+            this.visibilityTimeout = visibilityTimeout;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+}
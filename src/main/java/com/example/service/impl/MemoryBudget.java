@@ -0,0 +1,146 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Body bytes of the messages queued in memory by all the queues of a service, against a budget shared by the
+ * queues, and the pushes waiting for memory to be released by any of them.
+ * <p>
+ * Bytes are acquired and released with atomic operations; the lock is only taken by the pushes that wait, and by
+ * releases while some push waits.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class MemoryBudget {
+
+    private final long maxBytes;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition released = lock.newCondition();
+
+    /** Pushes waiting on {@link #released} */
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    /**
+     * Instantiates a new budget.
+     *
+     * @param maxBytes the most bytes acquired at once, 0 for no limit
+     */
+    public MemoryBudget(final long maxBytes) {
+        checkArgument(maxBytes >= 0);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Acquires bytes if they fit in the budget. A message bigger than the whole budget fits when nothing else is
+     * acquired, so that it is never refused forever.
+     *
+     * @param bytes the number of bytes
+     * @return false if the bytes do not fit
+     */
+    boolean tryAcquire(final long bytes) {
+        if (maxBytes == 0) {
+            usedBytes.addAndGet(bytes);
+            return true;
+        }
+        long used;
+        do {
+            used = usedBytes.get();
+            if (used > 0 && used + bytes > maxBytes) {
+                return false;
+            }
+        } while (!usedBytes.compareAndSet(used, used + bytes));
+        return true;
+    }
+
+    /**
+     * Acquires bytes whether they fit or not.
+     *
+     * @param bytes the number of bytes
+     */
+    void acquire(final long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Releases bytes, waking the waiting pushes up.
+     *
+     * @param bytes the number of bytes
+     */
+    void release(final long bytes) {
+        usedBytes.addAndGet(-bytes);
+        signalWaiters();
+    }
+
+    /**
+     * Wakes the waiting pushes up, for them to try again.
+     */
+    void signalWaiters() {
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits until a message fits in the usage of its queue, and acquires it.
+     *
+     * @param usage the usage of the queue
+     * @param bytes the body bytes of the message
+     * @param timeoutNanos the longest wait
+     * @return false if the message still did not fit once the wait timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitAcquire(final QueueUsage usage, final long bytes, final long timeoutNanos)
+            throws InterruptedException {
+        long nanos = timeoutNanos;
+        lock.lockInterruptibly();
+        // Counted before trying again, so that a release after the try signals this push
+        waiters.incrementAndGet();
+        try {
+            while (!usage.tryAcquire(bytes)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = released.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            waiters.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the bytes acquired by all the queues.
+     *
+     * @return the number of bytes
+     */
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Gets the budget.
+     *
+     * @return the most bytes acquired at once, 0 for no limit
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+}
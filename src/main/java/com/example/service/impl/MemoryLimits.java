@@ -0,0 +1,72 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.File;
+
+/**
+ * Limits of the messages an in-memory queue service keeps queued, and what happens to a push past them.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class MemoryLimits {
+
+    /** No limit at all: queues grow with their messages */
+    public static final MemoryLimits NONE = new MemoryLimits(0, 0, 0, OverflowPolicy.REJECT, 0, null);
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final long budgetBytes;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final File spillDirectory;
+
+    /**
+     * Instantiates new limits.
+     *
+     * @param maxMessages the most messages queued in a queue, 0 for no limit
+     * @param maxBytes the most body bytes queued in a queue, 0 for no limit
+     * @param budgetBytes the most body bytes queued in all the queues together, 0 for no limit
+     * @param overflowPolicy what happens to a push past a limit
+     * @param blockTimeoutMillis how long a push past a limit waits, with {@link OverflowPolicy#BLOCK}
+     * @param spillDirectory the directory of the spill logs, with {@link OverflowPolicy#SPILL}
+     * @author Swarn Avinash Kumar
+     */
+    public MemoryLimits(final int maxMessages, final long maxBytes, final long budgetBytes,
+            final OverflowPolicy overflowPolicy, final long blockTimeoutMillis, final File spillDirectory) {
+        checkArgument(maxMessages >= 0 && maxBytes >= 0 && budgetBytes >= 0 && blockTimeoutMillis >= 0);
+        checkArgument(overflowPolicy != null);
+        checkArgument(overflowPolicy != OverflowPolicy.SPILL || spillDirectory != null,
+                "Spilling needs a directory");
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.budgetBytes = budgetBytes;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.spillDirectory = spillDirectory;
+    }
+
+    public int getMaxMessages() {
+        return maxMessages;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+}
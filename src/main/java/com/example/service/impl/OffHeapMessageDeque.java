@@ -0,0 +1,563 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.example.pojo.Message;
+import com.example.storage.SlabArena;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Unbounded blocking deque of messages kept off the heap.
+ * <p>
+ * Every message is encoded in a chunk of a {@link SlabArena}: the addresses of the previous and next chunks,
+ * then the id, as the 16 bytes of a UUID or in UTF-8, and the body, as given or in UTF-8. The deque itself only
+ * holds the addresses of its first and last chunks, so the heap does not grow with the number of queued
+ * messages. A message object is decoded when a message leaves the deque or is peeked at, and the chunk of a
+ * message leaving the deque is freed.
+ * <p>
+ * Iterators work on a snapshot of the messages decoded when the iterator is created, and do not support
+ * removal.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class OffHeapMessageDeque extends AbstractQueue<Message> implements BlockingDeque<Message> {
+
+    private static final int PREV_OFFSET = 0;
+    private static final int NEXT_OFFSET = 8;
+    private static final int ID_LENGTH_OFFSET = 16;
+    private static final int BODY_LENGTH_OFFSET = 20;
+    private static final int DATA_OFFSET = 24;
+
+    private static final int UUID_ID_LENGTH = -1;
+    private static final int UUID_BYTES = 16;
+
+    private final SlabArena arena;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private long head = SlabArena.NIL;
+
+    private long tail = SlabArena.NIL;
+
+    private int count;
+
+    /**
+     * Instantiates a new deque.
+     *
+     * @param arena the arena the messages are allocated from
+     */
+    public OffHeapMessageDeque(final SlabArena arena) {
+        checkArgument(arena != null);
+        this.arena = arena;
+    }
+
+    public boolean offerFirst(final Message message) {
+        final long address = encode(message);
+        lock.lock();
+        try {
+            linkFirst(address);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    public boolean offerLast(final Message message) {
+        final long address = encode(message);
+        lock.lock();
+        try {
+            linkLast(address);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Adds many messages at the end of the deque, linking them under a single hold of its lock.
+     *
+     * @param messages the messages
+     * @return true if the deque changed
+     */
+    @Override
+    public boolean addAll(final Collection<? extends Message> messages) {
+        checkArgument(messages != this);
+        final long[] addresses = new long[messages.size()];
+        int encoded = 0;
+        for (Message message : messages) {
+            addresses[encoded++] = encode(message);
+        }
+        lock.lock();
+        try {
+            for (long address : addresses) {
+                linkLast(address);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return addresses.length > 0;
+    }
+
+    public Message pollFirst() {
+        final long address;
+        lock.lock();
+        try {
+            if (head == SlabArena.NIL) {
+                return null;
+            }
+            address = unlink(head);
+        } finally {
+            lock.unlock();
+        }
+        return release(address);
+    }
+
+    public Message pollLast() {
+        final long address;
+        lock.lock();
+        try {
+            if (tail == SlabArena.NIL) {
+                return null;
+            }
+            address = unlink(tail);
+        } finally {
+            lock.unlock();
+        }
+        return release(address);
+    }
+
+    public Message pollFirst(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final long address;
+        lock.lockInterruptibly();
+        try {
+            while (head == SlabArena.NIL) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            address = unlink(head);
+        } finally {
+            lock.unlock();
+        }
+        return release(address);
+    }
+
+    public Message pollLast(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        final long address;
+        lock.lockInterruptibly();
+        try {
+            while (tail == SlabArena.NIL) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            address = unlink(tail);
+        } finally {
+            lock.unlock();
+        }
+        return release(address);
+    }
+
+    public Message takeFirst() throws InterruptedException {
+        final long address;
+        lock.lockInterruptibly();
+        try {
+            while (head == SlabArena.NIL) {
+                notEmpty.await();
+            }
+            address = unlink(head);
+        } finally {
+            lock.unlock();
+        }
+        return release(address);
+    }
+
+    public Message takeLast() throws InterruptedException {
+        final long address;
+        lock.lockInterruptibly();
+        try {
+            while (tail == SlabArena.NIL) {
+                notEmpty.await();
+            }
+            address = unlink(tail);
+        } finally {
+            lock.unlock();
+        }
+        return release(address);
+    }
+
+    public Message peekFirst() {
+        lock.lock();
+        try {
+            return head == SlabArena.NIL ? null : decode(head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Message peekLast() {
+        lock.lock();
+        try {
+            return tail == SlabArena.NIL ? null : decode(tail);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(final Collection<? super Message> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most the given number of messages from the head of the deque, unlinking them under a single
+     * hold of its lock, and adds them to the given collection.
+     *
+     * @param target the collection the messages are added to
+     * @param max the most messages removed
+     * @return the number of messages removed
+     */
+    public int drainTo(final Collection<? super Message> target, final int max) {
+        checkArgument(target != null);
+        checkArgument(target != this);
+        final long[] addresses;
+        lock.lock();
+        try {
+            addresses = new long[Math.min(Math.max(max, 0), count)];
+            for (int i = 0; i < addresses.length; ++i) {
+                addresses[i] = unlink(head);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (long address : addresses) {
+            target.add(release(address));
+        }
+        return addresses.length;
+    }
+
+    public boolean removeFirstOccurrence(final Object o) {
+        if (!(o instanceof Message)) {
+            return false;
+        }
+        long address;
+        lock.lock();
+        try {
+            address = head;
+            while (address != SlabArena.NIL && !decode(address).equals(o)) {
+                address = arena.getLong(address, NEXT_OFFSET);
+            }
+            if (address == SlabArena.NIL) {
+                return false;
+            }
+            unlink(address);
+        } finally {
+            lock.unlock();
+        }
+        arena.free(address);
+        return true;
+    }
+
+    public boolean removeLastOccurrence(final Object o) {
+        if (!(o instanceof Message)) {
+            return false;
+        }
+        long address;
+        lock.lock();
+        try {
+            address = tail;
+            while (address != SlabArena.NIL && !decode(address).equals(o)) {
+                address = arena.getLong(address, PREV_OFFSET);
+            }
+            if (address == SlabArena.NIL) {
+                return false;
+            }
+            unlink(address);
+        } finally {
+            lock.unlock();
+        }
+        arena.free(address);
+        return true;
+    }
+
+    /**
+     * Removes every message, freeing their chunks.
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            long address = head;
+            while (address != SlabArena.NIL) {
+                final long next = arena.getLong(address, NEXT_OFFSET);
+                arena.free(address);
+                address = next;
+            }
+            head = SlabArena.NIL;
+            tail = SlabArena.NIL;
+            count = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE - size();
+    }
+
+    @Override
+    public Iterator<Message> iterator() {
+        return Collections.unmodifiableList(snapshot()).iterator();
+    }
+
+    public Iterator<Message> descendingIterator() {
+        return Collections.unmodifiableList(Lists.reverse(snapshot())).iterator();
+    }
+
+    public void addFirst(final Message message) {
+        offerFirst(message);
+    }
+
+    public void addLast(final Message message) {
+        offerLast(message);
+    }
+
+    public void putFirst(final Message message) {
+        offerFirst(message);
+    }
+
+    public void putLast(final Message message) {
+        offerLast(message);
+    }
+
+    public boolean offerFirst(final Message message, final long timeout, final TimeUnit unit) {
+        return offerFirst(message);
+    }
+
+    public boolean offerLast(final Message message, final long timeout, final TimeUnit unit) {
+        return offerLast(message);
+    }
+
+    public Message removeFirst() {
+        final Message message = pollFirst();
+        if (message == null) {
+            throw new NoSuchElementException();
+        }
+        return message;
+    }
+
+    public Message removeLast() {
+        final Message message = pollLast();
+        if (message == null) {
+            throw new NoSuchElementException();
+        }
+        return message;
+    }
+
+    public Message getFirst() {
+        final Message message = peekFirst();
+        if (message == null) {
+            throw new NoSuchElementException();
+        }
+        return message;
+    }
+
+    public Message getLast() {
+        final Message message = peekLast();
+        if (message == null) {
+            throw new NoSuchElementException();
+        }
+        return message;
+    }
+
+    public boolean offer(final Message message) {
+        return offerLast(message);
+    }
+
+    public void put(final Message message) {
+        offerLast(message);
+    }
+
+    public boolean offer(final Message message, final long timeout, final TimeUnit unit) {
+        return offerLast(message);
+    }
+
+    public Message poll() {
+        return pollFirst();
+    }
+
+    public Message take() throws InterruptedException {
+        return takeFirst();
+    }
+
+    public Message poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return pollFirst(timeout, unit);
+    }
+
+    public Message peek() {
+        return peekFirst();
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        return removeFirstOccurrence(o);
+    }
+
+    public void push(final Message message) {
+        addFirst(message);
+    }
+
+    public Message pop() {
+        return removeFirst();
+    }
+
+    /**
+     * Encodes a message in a newly allocated chunk, not linked yet. A UUID id has a length of -1, and a binary
+     * body the complement of its length.
+     */
+    private long encode(final Message message) {
+        checkNotNull(message);
+        final byte[] id = message.hasUuidId() ? null : message.getId().getBytes(Charsets.UTF_8);
+        final int idBytes = id == null ? UUID_BYTES : id.length;
+        final byte[] body = message.getBodyBytes();
+        final long address = arena.allocate(DATA_OFFSET + idBytes + body.length);
+        if (id == null) {
+            arena.putInt(address, ID_LENGTH_OFFSET, UUID_ID_LENGTH);
+            arena.putLong(address, DATA_OFFSET, message.getIdMostSigBits());
+            arena.putLong(address, DATA_OFFSET + 8, message.getIdLeastSigBits());
+        } else {
+            arena.putInt(address, ID_LENGTH_OFFSET, id.length);
+            arena.put(address, DATA_OFFSET, id);
+        }
+        arena.putInt(address, BODY_LENGTH_OFFSET, message.isBinary() ? ~body.length : body.length);
+        arena.put(address, DATA_OFFSET + idBytes, body);
+        return address;
+    }
+
+    private Message decode(final long address) {
+        final int idLength = arena.getInt(address, ID_LENGTH_OFFSET);
+        final int bodyLength = arena.getInt(address, BODY_LENGTH_OFFSET);
+        final int idBytes = idLength == UUID_ID_LENGTH ? UUID_BYTES : idLength;
+        final byte[] body = new byte[bodyLength < 0 ? ~bodyLength : bodyLength];
+        arena.get(address, DATA_OFFSET + idBytes, body);
+        if (idLength == UUID_ID_LENGTH) {
+            final long mostSigBits = arena.getLong(address, DATA_OFFSET);
+            final long leastSigBits = arena.getLong(address, DATA_OFFSET + 8);
+            return bodyLength < 0 ? new Message(mostSigBits, leastSigBits, body)
+                    : new Message(mostSigBits, leastSigBits, new String(body, Charsets.UTF_8));
+        }
+        final byte[] id = new byte[idLength];
+        arena.get(address, DATA_OFFSET, id);
+        final String idString = new String(id, Charsets.UTF_8);
+        return bodyLength < 0 ? new Message(idString, body) : new Message(idString, new String(body, Charsets.UTF_8));
+    }
+
+    /**
+     * Decodes the message of an unlinked chunk and frees the chunk.
+     */
+    private Message release(final long address) {
+        final Message message = decode(address);
+        arena.free(address);
+        return message;
+    }
+
+    private List<Message> snapshot() {
+        lock.lock();
+        try {
+            final List<Message> messages = new ArrayList<>(count);
+            for (long address = head; address != SlabArena.NIL; address = arena.getLong(address, NEXT_OFFSET)) {
+                messages.add(decode(address));
+            }
+            return messages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Links a chunk at the head, holding the lock.
+     */
+    private void linkFirst(final long address) {
+        checkState(count < Integer.MAX_VALUE, "The deque is full");
+        arena.putLong(address, PREV_OFFSET, SlabArena.NIL);
+        arena.putLong(address, NEXT_OFFSET, head);
+        if (head == SlabArena.NIL) {
+            tail = address;
+        } else {
+            arena.putLong(head, PREV_OFFSET, address);
+        }
+        head = address;
+        ++count;
+        notEmpty.signal();
+    }
+
+    /**
+     * Links a chunk at the tail, holding the lock.
+     */
+    private void linkLast(final long address) {
+        checkState(count < Integer.MAX_VALUE, "The deque is full");
+        arena.putLong(address, PREV_OFFSET, tail);
+        arena.putLong(address, NEXT_OFFSET, SlabArena.NIL);
+        if (tail == SlabArena.NIL) {
+            head = address;
+        } else {
+            arena.putLong(tail, NEXT_OFFSET, address);
+        }
+        tail = address;
+        ++count;
+        notEmpty.signal();
+    }
+
+    /**
+     * Unlinks a chunk, holding the lock.
+     *
+     * @return the address of the chunk
+     */
+    private long unlink(final long address) {
+        final long prev = arena.getLong(address, PREV_OFFSET);
+        final long next = arena.getLong(address, NEXT_OFFSET);
+        if (prev == SlabArena.NIL) {
+            head = next;
+        } else {
+            arena.putLong(prev, NEXT_OFFSET, next);
+        }
+        if (next == SlabArena.NIL) {
+            tail = prev;
+        } else {
+            arena.putLong(next, PREV_OFFSET, prev);
+        }
+        --count;
+        return address;
+    }
+}
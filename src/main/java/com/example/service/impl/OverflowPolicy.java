@@ -0,0 +1,29 @@
+package com.example.service.impl;
+
+/**
+ * What an in-memory queue does with a push once a limit of its memory is hit.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public enum OverflowPolicy {
+
+    /** The push waits for messages to be pulled, up to a timeout, then is rejected */
+    BLOCK,
+
+    /** The push is rejected right away */
+    REJECT,
+
+    /** The message is appended to a log on disk, and paged back into memory as the queue drains */
+    SPILL;
+
+    /**
+     * Parses a configured overflow policy, ignoring case.
+     *
+     * @param value the value
+     * @return the overflow policy
+     * @author Swarn Avinash Kumar
+     */
+    public static OverflowPolicy fromValue(final String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.service.impl;
+
+/**
+ * The structure holding the queued messages of an in-memory queue.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public enum QueueType {
+
+    /** An unbounded deque with a lock, in the configured storage, split into the configured number of shards */
+    DEQUE,
+
+    /** A bounded lock-free {@link RingBufferMessageQueue}, holding message objects on the heap */
+    RING_BUFFER;
+
+    /**
+     * Parses a configured queue type, ignoring case.
+     *
+     * @param value the value
+     * @return the queue type
+     * @author Swarn Avinash Kumar
+     */
+    public static QueueType fromValue(final String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Messages and body bytes queued in memory by one queue, against the limits of the queue and the budget shared
+ * with the other queues of the service.
+ * <p>
+ * A message is acquired before it is queued and released once it is pulled, or dropped. Acquiring reserves the
+ * message in the queue, then in the budget, and takes the reservations back if any does not fit: close to a
+ * limit, concurrent pushes may see each other's reservations and be refused where a single one would have fit.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class QueueUsage {
+
+    private final int maxMessages;
+
+    private final long maxBytes;
+
+    private final MemoryBudget budget;
+
+    private final AtomicInteger messages = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Instantiates a new usage.
+     *
+     * @param maxMessages the most messages queued, 0 for no limit
+     * @param maxBytes the most body bytes queued, 0 for no limit
+     * @param budget the budget shared with the other queues
+     */
+    public QueueUsage(final int maxMessages, final long maxBytes, final MemoryBudget budget) {
+        checkArgument(maxMessages >= 0 && maxBytes >= 0);
+        checkArgument(budget != null);
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.budget = budget;
+    }
+
+    /**
+     * Acquires a message if it fits. A message bigger than the byte limit fits in an empty queue, so that it is
+     * never refused forever.
+     *
+     * @param messageBytes the body bytes of the message
+     * @return false if the message does not fit
+     */
+    boolean tryAcquire(final long messageBytes) {
+        int count;
+        do {
+            count = messages.get();
+            if (maxMessages > 0 && count >= maxMessages) {
+                return false;
+            }
+        } while (!messages.compareAndSet(count, count + 1));
+        long used;
+        do {
+            used = bytes.get();
+            if (maxBytes > 0 && used > 0 && used + messageBytes > maxBytes) {
+                messages.decrementAndGet();
+                budget.signalWaiters();
+                return false;
+            }
+        } while (!bytes.compareAndSet(used, used + messageBytes));
+        if (!budget.tryAcquire(messageBytes)) {
+            messages.decrementAndGet();
+            bytes.addAndGet(-messageBytes);
+            budget.signalWaiters();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Acquires a message, waiting for messages to be released until it fits.
+     *
+     * @param messageBytes the body bytes of the message
+     * @param timeout the longest wait
+     * @param unit the unit of the timeout
+     * @return false if the message still did not fit once the wait timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean acquire(final long messageBytes, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        return tryAcquire(messageBytes) || budget.awaitAcquire(this, messageBytes, unit.toNanos(timeout));
+    }
+
+    /**
+     * Acquires messages whether they fit or not, for messages coming back to the queue.
+     *
+     * @param count the number of messages
+     * @param messageBytes their body bytes
+     */
+    void forceAcquire(final int count, final long messageBytes) {
+        messages.addAndGet(count);
+        bytes.addAndGet(messageBytes);
+        budget.acquire(messageBytes);
+    }
+
+    /**
+     * Releases messages.
+     *
+     * @param count the number of messages
+     * @param messageBytes their body bytes
+     */
+    void release(final int count, final long messageBytes) {
+        messages.addAndGet(-count);
+        bytes.addAndGet(-messageBytes);
+        budget.release(messageBytes);
+    }
+
+    /**
+     * Gets the number of messages queued.
+     *
+     * @return the number of messages
+     */
+    public int messages() {
+        return messages.get();
+    }
+
+    /**
+     * Gets the body bytes of the messages queued.
+     *
+     * @return the number of bytes
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+}
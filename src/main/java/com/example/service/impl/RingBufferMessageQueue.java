@@ -0,0 +1,439 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.example.pojo.Message;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bounded blocking queue of messages on a preallocated ring buffer, taking no lock to add or take a message.
+ * <p>
+ * The buffer has a power-of-two number of slots, each with a sequence number telling whose turn it is: a
+ * producer claims the slot at the tail by moving the tail forward with a compare-and-set once the sequence of the
+ * slot says that it is free, stores the message and publishes it by advancing the sequence; a consumer does the
+ * same at the head once the sequence says that the slot is full. The head and the tail are padded to sit on
+ * cache lines of their own, so that producers and consumers do not invalidate each other's line. Adding and
+ * taking a message allocates nothing.
+ * <p>
+ * Only a producer finding the queue full, or a consumer finding it empty, ever waits, on conditions that the
+ * other side only signals while somebody waits. A waiter counts itself before trying again, and the other side
+ * publishes with a volatile write before reading the count, so that one of them always sees the other: the
+ * publication needs a full fence, which an ordered (lazy) write does not provide.
+ * <p>
+ * Iterators work on a snapshot of the messages in the buffer when the iterator is created. Removing a given
+ * message, with {@link #remove(Object)} or an iterator, takes every message and adds back all the others: it is
+ * linear, and messages added meanwhile may come before the ones added back.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class RingBufferMessageQueue extends AbstractQueue<Message> implements BlockingQueue<Message> {
+
+    /** Most slots of a ring buffer */
+    public static final int MAX_CAPACITY = 1 << 30;
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<Message> slots;
+
+    /**
+     * Sequence of every slot: its position when free for the producer of that position, its position plus one
+     * when full for the consumer of that position
+     */
+    private final AtomicLongArray sequences;
+
+    /** Position of the next message to take */
+    private final PaddedSequence head = new PaddedSequence();
+
+    /** Position of the next message to add */
+    private final PaddedSequence tail = new PaddedSequence();
+
+    private final ReentrantLock waitLock = new ReentrantLock();
+
+    private final Condition notEmpty = waitLock.newCondition();
+
+    private final Condition notFull = waitLock.newCondition();
+
+    /** Consumers waiting on {@link #notEmpty} */
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+
+    /** Producers waiting on {@link #notFull} */
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    /**
+     * Instantiates a new queue.
+     *
+     * @param capacity the number of slots, a power of two up to {@link #MAX_CAPACITY}
+     */
+    public RingBufferMessageQueue(final int capacity) {
+        checkArgument(capacity > 0 && capacity <= MAX_CAPACITY && Integer.bitCount(capacity) == 1);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds a message at the tail, unless the queue is full.
+     *
+     * @param message the message
+     * @return false if the queue is full
+     */
+    public boolean offer(final Message message) {
+        checkNotNull(message);
+        if (!tryOffer(message)) {
+            return false;
+        }
+        if (waitingConsumers.get() > 0) {
+            signal(notEmpty);
+        }
+        return true;
+    }
+
+    public boolean offer(final Message message, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        checkNotNull(message);
+        long nanos = unit.toNanos(timeout);
+        if (!tryOffer(message)) {
+            if (nanos <= 0) {
+                return false;
+            }
+            waitLock.lockInterruptibly();
+            // Counted before trying again, so that a message taken after the try signals this producer
+            waitingProducers.incrementAndGet();
+            try {
+                while (!tryOffer(message)) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            } finally {
+                waitingProducers.decrementAndGet();
+                waitLock.unlock();
+            }
+        }
+        if (waitingConsumers.get() > 0) {
+            signal(notEmpty);
+        }
+        return true;
+    }
+
+    public void put(final Message message) throws InterruptedException {
+        while (!offer(message, Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+            // Only gives up after about 292 years
+        }
+    }
+
+    /**
+     * Takes the message at the head, unless the queue is empty.
+     *
+     * @return the message, or null if the queue is empty
+     */
+    public Message poll() {
+        final Message message = tryPoll();
+        if (message != null && waitingProducers.get() > 0) {
+            signal(notFull);
+        }
+        return message;
+    }
+
+    public Message poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        Message message = tryPoll();
+        if (message == null) {
+            if (nanos <= 0) {
+                return null;
+            }
+            waitLock.lockInterruptibly();
+            // Counted before trying again, so that a message added after the try signals this consumer
+            waitingConsumers.incrementAndGet();
+            try {
+                while ((message = tryPoll()) == null) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waitingConsumers.decrementAndGet();
+                waitLock.unlock();
+            }
+        }
+        if (waitingProducers.get() > 0) {
+            signal(notFull);
+        }
+        return message;
+    }
+
+    public Message take() throws InterruptedException {
+        Message message;
+        do {
+            message = poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } while (message == null);
+        return message;
+    }
+
+    /**
+     * Gets the message at the head without taking it. The message may have been taken by the time it is returned.
+     *
+     * @return the message, or null if the queue is empty
+     */
+    public Message peek() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                if (position == head.get()) {
+                    return null;
+                }
+                continue;
+            }
+            final Message message = slots.get(index);
+            // The slot may have been taken and reused meanwhile
+            if (message != null && position == head.get()) {
+                return message;
+            }
+        }
+    }
+
+    public int drainTo(final Collection<? super Message> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(final Collection<? super Message> target, final int max) {
+        checkArgument(target != null);
+        checkArgument(target != this);
+        int drained = 0;
+        Message message;
+        while (drained < max && (message = tryPoll()) != null) {
+            target.add(message);
+            ++drained;
+        }
+        if (drained > 0 && waitingProducers.get() > 0) {
+            signal(notFull);
+        }
+        return drained;
+    }
+
+    @Override
+    public int size() {
+        while (true) {
+            final long before = head.get();
+            final long tailPosition = tail.get();
+            // Consistent if the head did not move while the tail was read
+            if (head.get() == before) {
+                return (int) Math.max(0, Math.min(capacity, tailPosition - before));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * Removes every message, taking them one by one.
+     */
+    @Override
+    public void clear() {
+        while (poll() != null) {
+            // Taken
+        }
+    }
+
+    /**
+     * Removes a message, taking every message and adding back all the others in order. Removals are serialized,
+     * adds and takes are not: a producer may fill a freed slot first, the messages added back wait for room then.
+     *
+     * @param o the message
+     * @return true if the message was in the queue
+     */
+    @Override
+    public boolean remove(final Object o) {
+        if (o == null) {
+            return false;
+        }
+        waitLock.lock();
+        try {
+            final List<Message> messages = new ArrayList<>();
+            drainTo(messages);
+            final boolean removed = messages.remove(o);
+            boolean interrupted = false;
+            for (Message message : messages) {
+                while (true) {
+                    try {
+                        put(message);
+                        break;
+                    } catch (InterruptedException e) {
+                        // Taken from the queue already, the message must go back
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return removed;
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Message> iterator() {
+        final List<Message> snapshot = new ArrayList<>();
+        final long tailPosition = tail.get();
+        for (long position = head.get(); position < tailPosition; ++position) {
+            final int index = (int) position & mask;
+            final Message message = slots.get(index);
+            if (message != null && sequences.get(index) == position + 1) {
+                snapshot.add(message);
+            }
+        }
+        final Iterator<Message> snapshotIterator = snapshot.iterator();
+        return new Iterator<Message>() {
+
+            /** The message last returned, until removed */
+            private Message last;
+
+            public boolean hasNext() {
+                return snapshotIterator.hasNext();
+            }
+
+            public Message next() {
+                last = snapshotIterator.next();
+                return last;
+            }
+
+            public void remove() {
+                checkState(last != null);
+                RingBufferMessageQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * Gets the number of slots.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private boolean tryOffer(final Message message) {
+        long position = tail.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, message);
+                    // Publishes the message to the consumer of the position; a volatile write, so that the count of
+                    // waiting consumers read next cannot be read before it
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds the message of the previous lap: full
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private Message tryPoll() {
+        long position = head.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final Message message = slots.get(index);
+                    slots.lazySet(index, null);
+                    // Frees the slot for the producer of the next lap; a volatile write, so that the count of
+                    // waiting producers read next cannot be read before it
+                    sequences.set(index, position + capacity);
+                    return message;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // The slot was not filled yet: empty
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    private void signal(final Condition condition) {
+        waitLock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            waitLock.unlock();
+        }
+    }
+
+    /**
+     * Padding before the value of a {@link PaddedSequence}. Fields of a superclass are laid out before those of
+     * its subclasses, so that the padding cannot be reordered around the value.
+     */
+    @SuppressWarnings("unused")
+    private static class LeftPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class PaddedValue extends LeftPadding {
+        protected volatile long value;
+    }
+
+    /**
+     * A position counter alone on its cache line.
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedSequence extends PaddedValue {
+
+        private static final AtomicLongFieldUpdater<PaddedValue> UPDATER =
+                AtomicLongFieldUpdater.newUpdater(PaddedValue.class, "value");
+
+        protected long p9, p10, p11, p12, p13, p14, p15;
+
+        long get() {
+            return value;
+        }
+
+        boolean compareAndSet(final long expected, final long updated) {
+            return UPDATER.compareAndSet(this, expected, updated);
+        }
+    }
+}
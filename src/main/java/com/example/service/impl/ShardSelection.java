@@ -0,0 +1,26 @@
+package com.example.service.impl;
+
+/**
+ * How a {@link ShardedMessageDeque} picks the shard a pushed message goes to.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public enum ShardSelection {
+
+    /** The home shard of the pushing thread: a producer never contends with another one on the same shard */
+    THREAD,
+
+    /** The next shard in turn: the shards fill evenly, even with a single producer */
+    ROUND_ROBIN;
+
+    /**
+     * Parses a configured shard selection, ignoring case.
+     *
+     * @param value the value
+     * @return the shard selection
+     * @author Swarn Avinash Kumar
+     */
+    public static ShardSelection fromValue(final String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,420 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.example.pojo.Message;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Blocking deque of messages split into shards, each a deque with its own lock, so that threads working on
+ * different shards never contend.
+ * <p>
+ * Every thread has a home shard, picked by its id. A pushed message goes to the shard given by the
+ * {@link ShardSelection}, and a message put back at the head goes to the home shard of the calling thread. A
+ * consumer takes from its home shard first, and steals from the other shards, in turn, when its home shard is
+ * empty: a message is never left in one shard while a consumer waits on another.
+ * <p>
+ * Ordering is relaxed: messages are taken in the order they were pushed only within a shard. With
+ * {@link ShardSelection#THREAD}, the messages pushed by one thread land in one shard and are therefore taken in
+ * the order that thread pushed them; no order holds between messages pushed by different threads, nor between
+ * any messages with {@link ShardSelection#ROUND_ROBIN}.
+ * <p>
+ * A consumer waiting for a message waits on a condition shared by the shards, which producers only signal while
+ * some consumer waits: a busy deque never takes that lock. Iterators are weakly consistent, shard by shard.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class ShardedMessageDeque extends AbstractQueue<Message> implements BlockingDeque<Message> {
+
+    private final ImmutableList<BlockingDeque<Message>> shards;
+
+    private final int shardMask;
+
+    private final ShardSelection selection;
+
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    /** Consumers waiting on {@link #notEmpty} */
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final ReentrantLock waitLock = new ReentrantLock();
+
+    private final Condition notEmpty = waitLock.newCondition();
+
+    /**
+     * Instantiates a new deque.
+     *
+     * @param shards the shards, empty, a power of two of them
+     * @param selection how the shard of a pushed message is picked
+     */
+    public ShardedMessageDeque(final List<? extends BlockingDeque<Message>> shards, final ShardSelection selection) {
+        checkArgument(shards != null && !shards.isEmpty() && Integer.bitCount(shards.size()) == 1);
+        checkArgument(selection != null);
+        this.shards = ImmutableList.copyOf(shards);
+        this.shardMask = shards.size() - 1;
+        this.selection = selection;
+    }
+
+    public boolean offerFirst(final Message message) {
+        final boolean added = shards.get(homeShard()).offerFirst(message);
+        signalWaiters(added);
+        return added;
+    }
+
+    public boolean offerLast(final Message message) {
+        final boolean added = shards.get(pushShard()).offerLast(message);
+        signalWaiters(added);
+        return added;
+    }
+
+    public boolean offerFirst(final Message message, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        final boolean added = shards.get(homeShard()).offerFirst(message, timeout, unit);
+        signalWaiters(added);
+        return added;
+    }
+
+    public boolean offerLast(final Message message, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        final boolean added = shards.get(pushShard()).offerLast(message, timeout, unit);
+        signalWaiters(added);
+        return added;
+    }
+
+    public void putFirst(final Message message) throws InterruptedException {
+        shards.get(homeShard()).putFirst(message);
+        signalWaiters(true);
+    }
+
+    public void putLast(final Message message) throws InterruptedException {
+        shards.get(pushShard()).putLast(message);
+        signalWaiters(true);
+    }
+
+    /**
+     * Adds many messages at the end of a single shard, so that a shard linking them together does it under a
+     * single hold of its lock.
+     *
+     * @param messages the messages
+     * @return true if the deque changed
+     */
+    @Override
+    public boolean addAll(final Collection<? extends Message> messages) {
+        checkArgument(messages != this);
+        final boolean added = shards.get(pushShard()).addAll(messages);
+        signalWaiters(added);
+        return added;
+    }
+
+    public Message pollFirst() {
+        return pollAny(true);
+    }
+
+    public Message pollLast() {
+        return pollAny(false);
+    }
+
+    public Message pollFirst(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return pollAny(true, unit.toNanos(timeout));
+    }
+
+    public Message pollLast(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return pollAny(false, unit.toNanos(timeout));
+    }
+
+    public Message takeFirst() throws InterruptedException {
+        Message message;
+        do {
+            message = pollAny(true, Long.MAX_VALUE);
+        } while (message == null);
+        return message;
+    }
+
+    public Message takeLast() throws InterruptedException {
+        Message message;
+        do {
+            message = pollAny(false, Long.MAX_VALUE);
+        } while (message == null);
+        return message;
+    }
+
+    public Message peekFirst() {
+        final int home = homeShard();
+        for (int i = 0; i < shards.size(); ++i) {
+            final Message message = shards.get((home + i) & shardMask).peekFirst();
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    public Message peekLast() {
+        final int home = homeShard();
+        for (int i = 0; i < shards.size(); ++i) {
+            final Message message = shards.get((home + i) & shardMask).peekLast();
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    public int drainTo(final Collection<? super Message> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes at most the given number of messages from the heads of the shards, the home shard of the calling
+     * thread first, and adds them to the given collection.
+     *
+     * @param target the collection the messages are added to
+     * @param max the most messages removed
+     * @return the number of messages removed
+     */
+    public int drainTo(final Collection<? super Message> target, final int max) {
+        checkArgument(target != null);
+        checkArgument(target != this);
+        final int home = homeShard();
+        int drained = 0;
+        for (int i = 0; i < shards.size() && drained < max; ++i) {
+            drained += shards.get((home + i) & shardMask).drainTo(target, max - drained);
+        }
+        return drained;
+    }
+
+    public boolean removeFirstOccurrence(final Object o) {
+        for (BlockingDeque<Message> shard : shards) {
+            if (shard.removeFirstOccurrence(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean removeLastOccurrence(final Object o) {
+        for (int i = shards.size() - 1; i >= 0; --i) {
+            if (shards.get(i).removeLastOccurrence(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        for (BlockingDeque<Message> shard : shards) {
+            shard.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (BlockingDeque<Message> shard : shards) {
+            size += shard.size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (BlockingDeque<Message> shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int remainingCapacity() {
+        long remaining = 0;
+        for (BlockingDeque<Message> shard : shards) {
+            remaining += shard.remainingCapacity();
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<Message> iterator() {
+        final List<Iterator<Message>> iterators = new ArrayList<>(shards.size());
+        for (BlockingDeque<Message> shard : shards) {
+            iterators.add(shard.iterator());
+        }
+        return Iterators.concat(iterators.iterator());
+    }
+
+    public Iterator<Message> descendingIterator() {
+        final List<Iterator<Message>> iterators = new ArrayList<>(shards.size());
+        for (BlockingDeque<Message> shard : shards.reverse()) {
+            iterators.add(shard.descendingIterator());
+        }
+        return Iterators.concat(iterators.iterator());
+    }
+
+    public void addFirst(final Message message) {
+        if (!offerFirst(message)) {
+            throw new IllegalStateException("Deque full");
+        }
+    }
+
+    public void addLast(final Message message) {
+        if (!offerLast(message)) {
+            throw new IllegalStateException("Deque full");
+        }
+    }
+
+    public Message removeFirst() {
+        final Message message = pollFirst();
+        if (message == null) {
+            throw new NoSuchElementException();
+        }
+        return message;
+    }
+
+    public Message removeLast() {
+        final Message message = pollLast();
+        if (message == null) {
+            throw new NoSuchElementException();
+        }
+        return message;
+    }
+
+    public Message getFirst() {
+        final Message message = peekFirst();
+        if (message == null) {
+            throw new NoSuchElementException();
+        }
+        return message;
+    }
+
+    public Message getLast() {
+        final Message message = peekLast();
+        if (message == null) {
+            throw new NoSuchElementException();
+        }
+        return message;
+    }
+
+    public boolean offer(final Message message) {
+        return offerLast(message);
+    }
+
+    public void put(final Message message) throws InterruptedException {
+        putLast(message);
+    }
+
+    public boolean offer(final Message message, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        return offerLast(message, timeout, unit);
+    }
+
+    public Message poll() {
+        return pollFirst();
+    }
+
+    public Message take() throws InterruptedException {
+        return takeFirst();
+    }
+
+    public Message poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return pollFirst(timeout, unit);
+    }
+
+    public Message peek() {
+        return peekFirst();
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        return removeFirstOccurrence(o);
+    }
+
+    public void push(final Message message) {
+        addFirst(message);
+    }
+
+    public Message pop() {
+        return removeFirst();
+    }
+
+    /**
+     * Takes a message from the home shard of the calling thread, or steals one from the other shards in turn.
+     */
+    private Message pollAny(final boolean first) {
+        final int home = homeShard();
+        for (int i = 0; i < shards.size(); ++i) {
+            final BlockingDeque<Message> shard = shards.get((home + i) & shardMask);
+            final Message message = first ? shard.pollFirst() : shard.pollLast();
+            if (message != null) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes a message from any shard, waiting for one to be added if they are all empty.
+     */
+    private Message pollAny(final boolean first, final long timeoutNanos) throws InterruptedException {
+        Message message = pollAny(first);
+        if (message != null || timeoutNanos <= 0) {
+            return message;
+        }
+        long nanos = timeoutNanos;
+        waitLock.lockInterruptibly();
+        // Counted before looking again, so that a message added after the look signals this consumer
+        waiters.incrementAndGet();
+        try {
+            while ((message = pollAny(first)) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            waiters.decrementAndGet();
+            waitLock.unlock();
+        }
+        return message;
+    }
+
+    /**
+     * Wakes the waiting consumers up once messages were added. Every waiting consumer is woken up, as a batch may
+     * feed several of them and a woken consumer may find the message already stolen.
+     */
+    private void signalWaiters(final boolean added) {
+        if (added && waiters.get() > 0) {
+            waitLock.lock();
+            try {
+                notEmpty.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+
+    private int pushShard() {
+        return selection == ShardSelection.THREAD ? homeShard() : nextShard.getAndIncrement() & shardMask;
+    }
+
+    private int homeShard() {
+        return (int) Thread.currentThread().getId() & shardMask;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.example.pojo.DeleteRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+import com.example.service.AsyncQueueService;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.List;
+
+/**
+ * Asynchronous implementation of the queue service on AWS SQS, using the asynchronous SQS client. Each call
+ * completes its future from the callback of the client, so the calling thread never waits for SQS; how many
+ * requests are in flight at once is bounded by the executor and connection pool the client was built with.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class SqsAsyncQueueService implements AsyncQueueService {
+
+    private final AmazonSQSAsync sqsClient;
+
+    public SqsAsyncQueueService(final AmazonSQSAsync sqsClient) {
+        checkArgument(sqsClient != null);
+        this.sqsClient = sqsClient;
+    }
+
+    /**
+     * Pushes a single message onto a specified queue with an asynchronous sendMessage.
+     *
+     * @param request the request
+     * @return the future message body in MD5
+     *
+     * @see com.example.service.AsyncQueueService#pushAsync(com.example.pojo.PushRequest)
+     */
+    @Override
+    public ListenableFuture<String> pushAsync(final PushRequest request) {
+        checkArgument(request != null);
+        final SendMessageRequest sendRequest = new SendMessageRequest(request.getQueueUrl(), request.getMessageBody())
+                .withDelaySeconds(request.getDelaySeconds());
+        final FutureHandler<SendMessageRequest, SendMessageResult> handler = new FutureHandler<>();
+        this.sqsClient.sendMessageAsync(sendRequest, handler);
+        return Futures.transform(handler.result, new Function<SendMessageResult, String>() {
+            public String apply(final SendMessageResult result) {
+                return result.getMD5OfMessageBody();
+            }
+        });
+    }
+
+    /**
+     * Receives messages from a specified queue with an asynchronous receiveMessage, passing on the max number
+     * of messages, wait time and visibility timeout of the request. The future fails if a body does not match
+     * the MD5 computed by SQS.
+     *
+     * @param request the request
+     * @return the future messages
+     *
+     * @see com.example.service.AsyncQueueService#pullAsync(com.example.pojo.PullRequest)
+     */
+    @Override
+    public ListenableFuture<List<Message>> pullAsync(final PullRequest request) {
+        checkArgument(request != null);
+        final FutureHandler<ReceiveMessageRequest, ReceiveMessageResult> handler = new FutureHandler<>();
+        this.sqsClient.receiveMessageAsync(SqsQueueService.receiveRequest(request), handler);
+        return Futures.transform(handler.result, new Function<ReceiveMessageResult, List<Message>>() {
+            public List<Message> apply(final ReceiveMessageResult result) {
+                return SqsQueueService.toMessages(result.getMessages());
+            }
+        });
+    }
+
+    /**
+     * Deletes a received message with an asynchronous deleteMessage.
+     *
+     * @param request the request
+     * @return the future completion of the delete
+     *
+     * @see com.example.service.AsyncQueueService#deleteAsync(com.example.pojo.DeleteRequest)
+     */
+    @Override
+    public ListenableFuture<Void> deleteAsync(final DeleteRequest request) {
+        checkArgument(request != null);
+        final FutureHandler<DeleteMessageRequest, Void> handler = new FutureHandler<>();
+        this.sqsClient.deleteMessageAsync(
+                new DeleteMessageRequest(request.getQueueUrl(), request.getReceiptHandle()), handler);
+        return handler.result;
+    }
+
+    /**
+     * Completes a future from the callback of the asynchronous client.
+     */
+    private static final class FutureHandler<Q extends AmazonWebServiceRequest, R> implements AsyncHandler<Q, R> {
+
+        private final SettableFuture<R> result = SettableFuture.create();
+
+        @Override
+        public void onSuccess(final Q request, final R response) {
+            result.set(response);
+        }
+
+        @Override
+        public void onError(final Exception exception) {
+            result.setException(exception);
+        }
+    }
+}
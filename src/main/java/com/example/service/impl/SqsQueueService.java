@@ -1,36 +1,203 @@
 package com.example.service.impl;
 
+import static com.example.config.constants.ApplicationProperties.*;
 import static com.google.common.base.Preconditions.*;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.sqs.AmazonSQSClient;
-import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.example.config.Environment;
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.ChangeVisibilityBatchRequest;
+import com.example.pojo.DeleteBatchRequest;
 import com.example.pojo.DeleteRequest;
 import com.example.pojo.Message;
 import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
 import com.example.pojo.PushRequest;
 import com.example.service.QueueService;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.base.Utf8;
+import com.google.common.collect.Lists;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Production implementation of QueueService using AWS SQS.
+ * <p>
+ * When enabled, pulls are served by a {@link SqsReceiveBuffer} that prefetches the messages of every pulled
+ * queue in the background. Pulls asking for their own visibility timeout bypass it and receive from SQS.
+ * <p>
+ * When enabled, single pushes go through a {@link SqsSendBuffer} that coalesces concurrent pushes into
+ * sendMessageBatch requests.
+ * <p>
+ * Every call to SQS goes through a {@link SqsRetryer}, which retries transient failures and slows down the
+ * calls of a queue SQS throttles.
+ * <p>
+ * When enabled, pushes fail over to a {@link SqsSpillover} log while SQS is failing or slow, and are replayed
+ * to SQS once it is healthy again.
  * 
  * @author Swarn Avinash Kumar
  */
-public class SqsQueueService implements QueueService {
+public class SqsQueueService implements QueueService, Closeable {
+
+    /** Most entries SQS accepts in a batch request */
+    static final int MAX_BATCH_ENTRIES = 10;
+
+    /** Largest total of message bodies SQS accepts in a batch request */
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    /** Error code of the entries SQS returned no result for */
+    static final String MISSING_RESULT = "MissingResult";
+
+    /** Error code of a request SQS rejected without an error code or an HTTP status */
+    static final String INTERNAL_ERROR = "InternalError";
+
+    /** Longest long poll SQS accepts */
+    static final int MAX_WAIT_TIME_SECONDS = 20;
 
     private AmazonSQSClient sqsClient;
 
+    /** Prefetched messages of the pulled queues, null if prefetching is disabled */
+    private final SqsReceiveBuffer receiveBuffer;
+
+    /** Coalesces single pushes into batches, null if send buffering is disabled */
+    private final SqsSendBuffer sendBuffer;
+
+    private final SqsRetryer retryer;
+
+    /** Takes the pushes while SQS is failing or slow, null if spillover is disabled */
+    private final SqsSpillover spillover;
+
+    /**
+     * The constructor, prefetching, buffering pushes, retrying and spilling as configured. The SDK client should
+     * not retry on its own, so that throttling reaches the retryer.
+     *
+     * @param sqsClient the SQS client
+     */
     public SqsQueueService(AmazonSQSClient sqsClient) {
+        this(sqsClient, newRetryer());
+    }
+
+    private SqsQueueService(AmazonSQSClient sqsClient, SqsRetryer retryer) {
+        this(sqsClient, Integer.valueOf(Environment.getInstance().getPropertyValue(SQS_PREFETCH_MESSAGES)),
+                Integer.valueOf(Environment.getInstance().getPropertyValue(SQS_PREFETCH_WAIT_SECONDS)),
+                Integer.valueOf(Environment.getInstance().getPropertyValue(QUEUE_VISIBILITY_TIMEOUT)),
+                Integer.valueOf(Environment.getInstance().getPropertyValue(SQS_SEND_BATCHES_IN_FLIGHT)),
+                Long.valueOf(Environment.getInstance().getPropertyValue(SQS_SEND_LINGER_MILLIS)), retryer,
+                newSpillover(sqsClient, retryer));
+    }
+
+    /**
+     * The constructor, without send buffering nor retries.
+     *
+     * @param sqsClient the SQS client
+     * @param prefetchMessages the most messages prefetched per queue, 0 to receive every pull from SQS
+     * @param prefetchWaitSeconds the long poll wait time of the prefetching receives
+     * @param prefetchVisibilityTimeout the visibility timeout of the prefetched messages, in seconds
+     */
+    public SqsQueueService(AmazonSQSClient sqsClient, int prefetchMessages, int prefetchWaitSeconds,
+            int prefetchVisibilityTimeout) {
+        this(sqsClient, prefetchMessages, prefetchWaitSeconds, prefetchVisibilityTimeout, 0, 0);
+    }
+
+    /**
+     * The constructor, without retries.
+     *
+     * @param sqsClient the SQS client
+     * @param prefetchMessages the most messages prefetched per queue, 0 to receive every pull from SQS
+     * @param prefetchWaitSeconds the long poll wait time of the prefetching receives
+     * @param prefetchVisibilityTimeout the visibility timeout of the prefetched messages, in seconds
+     * @param sendBatchesInFlight the most push batches per queue sent at the same time, 0 to send every push
+     *            on its own
+     * @param sendLingerMillis the longest time a push batch waits for more pushes
+     */
+    public SqsQueueService(AmazonSQSClient sqsClient, int prefetchMessages, int prefetchWaitSeconds,
+            int prefetchVisibilityTimeout, int sendBatchesInFlight, long sendLingerMillis) {
+        this(sqsClient, prefetchMessages, prefetchWaitSeconds, prefetchVisibilityTimeout, sendBatchesInFlight,
+                sendLingerMillis, SqsRetryer.noRetries());
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param sqsClient the SQS client
+     * @param prefetchMessages the most messages prefetched per queue, 0 to receive every pull from SQS
+     * @param prefetchWaitSeconds the long poll wait time of the prefetching receives
+     * @param prefetchVisibilityTimeout the visibility timeout of the prefetched messages, in seconds
+     * @param sendBatchesInFlight the most push batches per queue sent at the same time, 0 to send every push
+     *            on its own
+     * @param sendLingerMillis the longest time a push batch waits for more pushes
+     * @param retryer the retryer of every call to SQS
+     */
+    public SqsQueueService(AmazonSQSClient sqsClient, int prefetchMessages, int prefetchWaitSeconds,
+            int prefetchVisibilityTimeout, int sendBatchesInFlight, long sendLingerMillis, SqsRetryer retryer) {
+        this(sqsClient, prefetchMessages, prefetchWaitSeconds, prefetchVisibilityTimeout, sendBatchesInFlight,
+                sendLingerMillis, retryer, null);
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param sqsClient the SQS client
+     * @param prefetchMessages the most messages prefetched per queue, 0 to receive every pull from SQS
+     * @param prefetchWaitSeconds the long poll wait time of the prefetching receives
+     * @param prefetchVisibilityTimeout the visibility timeout of the prefetched messages, in seconds
+     * @param sendBatchesInFlight the most push batches per queue sent at the same time, 0 to send every push
+     *            on its own
+     * @param sendLingerMillis the longest time a push batch waits for more pushes
+     * @param retryer the retryer of every call to SQS
+     * @param spillover the spillover of the pushes SQS fails, null to fail them
+     */
+    public SqsQueueService(AmazonSQSClient sqsClient, int prefetchMessages, int prefetchWaitSeconds,
+            int prefetchVisibilityTimeout, int sendBatchesInFlight, long sendLingerMillis, SqsRetryer retryer,
+            SqsSpillover spillover) {
+        checkArgument(sqsClient != null);
+        checkArgument(prefetchMessages >= 0);
+        checkArgument(sendBatchesInFlight >= 0);
+        checkArgument(retryer != null);
         this.sqsClient = sqsClient;
+        this.retryer = retryer;
+        this.spillover = spillover;
+        this.receiveBuffer = prefetchMessages == 0 ? null : new SqsReceiveBuffer(sqsClient, retryer,
+                prefetchMessages, prefetchWaitSeconds, prefetchVisibilityTimeout);
+        this.sendBuffer = sendBatchesInFlight == 0 ? null : new SqsSendBuffer(sqsClient, retryer,
+                sendLingerMillis, TimeUnit.MILLISECONDS, sendBatchesInFlight);
     }
 
     /**
      * Pushes a single message onto a specified queue. A queue strives to deliver each message exactly once to
      * exactly one consumer, but guarantees at-least once delivery
      *
+     * <p>
+     * With send buffering the message is sent in a batch with concurrent pushes to the same queue, and the call
+     * returns once that batch is sent. With spillover the message is written to the local spill log instead if
+     * SQS fails it or is too slow.
+     *
      * @param request the request
      * @return the message body in MD5
      *
@@ -39,34 +206,77 @@ public class SqsQueueService implements QueueService {
     @Override
     public String push(final PushRequest request) {
         checkArgument(request != null);
-        SendMessageResult result = this.sqsClient.sendMessage(request.getQueueUrl(), request.getMessageBody());
-        return result.getMD5OfMessageBody();
+        final SqsRetryer.Call<String> push = new SqsRetryer.Call<String>() {
+            public String call() {
+                return pushToSqs(request);
+            }
+        };
+        if (spillover != null) {
+            return spillover.push(request.getQueueUrl(), request.getMessageBody(), request.getDelaySeconds(), push);
+        }
+        return push.call();
     }
 
     /**
+     * Pushes many messages onto a specified queue with sendMessageBatch, split into as few requests as the SQS
+     * limits allow: 10 entries and 256 KB of bodies per request. A request rejected as a whole fails all of
+     * its entries.
      *
-     * Receives a single message from a specified queue. When a consumer receives a message, it is not removed
+     * @param request the request
+     * @return the result of every entry, in request order
+     *
+     * @see com.example.service.QueueService#pushBatch(com.example.pojo.PushBatchRequest)
+     */
+    @Override
+    public List<BatchResultEntry> pushBatch(final PushBatchRequest request) {
+        checkArgument(request != null);
+        final List<PushBatchEntry> entries = request.getEntries();
+        final List<BatchResultEntry> results = new ArrayList<>(entries.size());
+        int from = 0;
+        while (from < entries.size()) {
+            int to = from;
+            int bytes = 0;
+            while (to < entries.size() && to - from < MAX_BATCH_ENTRIES) {
+                final int entryBytes = Utf8.encodedLength(entries.get(to).getMessageBody());
+                if (to > from && bytes + entryBytes > MAX_BATCH_BYTES) {
+                    break;
+                }
+                bytes += entryBytes;
+                ++to;
+            }
+            results.addAll(sendBatch(this.sqsClient, this.retryer, request.getQueueUrl(), entries.subList(from, to)));
+            from = to;
+        }
+        return results;
+    }
+
+    /**
+     *
+     * Receives messages from a specified queue. When a consumer receives a message, it is not removed
      * from the queue. Instead, it is temporarily suppressed (becomes "invisible"). If the consumer that
      * received the message does not subsequently delete it within within a timeout period (the
      * "visibility timeout"), the message automatically becomes visible at the head of the queue again, ready
      * to be delivered to another consumer.
+     * <p>
+     * The max number of messages (up to 10), wait time (up to 20 seconds) and visibility timeout of the request
+     * are passed on to SQS, and the MD5 of every body SQS returns is checked. Without a visibility timeout the
+     * messages are taken from the receive buffer when prefetching is enabled.
      *
      * @param request the request
      * @return the list
+     * @throws AmazonClientException if a returned body does not match its MD5
      *
      * @see com.example.service.QueueService#pull(com.example.pojo.PullRequest) 
      */
     @Override
     public List<Message> pull(final PullRequest request) {
         checkArgument(request != null);
-        List<Message> messages = new ArrayList<Message>();
-        ReceiveMessageResult result = this.sqsClient.receiveMessage(request.getQueueUrl());
-        List<com.amazonaws.services.sqs.model.Message> sqsMessages = result.getMessages();
-        for (com.amazonaws.services.sqs.model.Message sqsMessage : sqsMessages) {
-            Message message = new Message(sqsMessage.getMessageId(), sqsMessage.getBody());
-            messages.add(message);
+        final ReceiveMessageRequest receiveRequest = receiveRequest(request);
+        if (receiveBuffer != null && request.getVisibilityTimeout() == null) {
+            return receiveBuffer.pull(request.getQueueUrl(), receiveRequest.getMaxNumberOfMessages(),
+                    receiveRequest.getWaitTimeSeconds(), TimeUnit.SECONDS);
         }
-        return messages;
+        return receive(this.sqsClient, this.retryer, receiveRequest);
     }
 
     /**
@@ -81,6 +291,303 @@ public class SqsQueueService implements QueueService {
     @Override
     public void delete(final DeleteRequest request) {
         checkArgument(request != null);
-        this.sqsClient.deleteMessage(request.getQueueUrl(), request.getReceiptHandle());
+        this.retryer.call(request.getQueueUrl(), new SqsRetryer.Call<Void>() {
+            public Void call() {
+                sqsClient.deleteMessage(request.getQueueUrl(), request.getReceiptHandle());
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Deletes many received messages with deleteMessageBatch, 10 receipt handles per request. A request
+     * rejected as a whole fails all of its receipt handles.
+     *
+     * @param request the request
+     * @return the result of every receipt handle, in request order
+     *
+     * @see com.example.service.QueueService#deleteBatch(com.example.pojo.DeleteBatchRequest)
+     */
+    @Override
+    public List<BatchResultEntry> deleteBatch(final DeleteBatchRequest request) {
+        checkArgument(request != null);
+        final List<BatchResultEntry> results = new ArrayList<>(request.getReceiptHandles().size());
+        for (List<String> receiptHandles : Lists.partition(request.getReceiptHandles(), MAX_BATCH_ENTRIES)) {
+            results.addAll(deleteBatch(request.getQueueUrl(), receiptHandles));
+        }
+        return results;
+    }
+
+    /**
+     * Changes the visibility timeout of many received messages with changeMessageVisibilityBatch, 10 receipt
+     * handles per request. A request rejected as a whole fails all of its receipt handles.
+     *
+     * @param request the request
+     * @return the result of every receipt handle, in request order
+     *
+     * @see com.example.service.QueueService#changeVisibilityBatch(com.example.pojo.ChangeVisibilityBatchRequest)
+     */
+    @Override
+    public List<BatchResultEntry> changeVisibilityBatch(final ChangeVisibilityBatchRequest request) {
+        checkArgument(request != null);
+        final List<BatchResultEntry> results = new ArrayList<>(request.getReceiptHandles().size());
+        for (List<String> receiptHandles : Lists.partition(request.getReceiptHandles(), MAX_BATCH_ENTRIES)) {
+            results.addAll(changeVisibilityBatch(request.getQueueUrl(), receiptHandles,
+                    request.getVisibilityTimeout()));
+        }
+        return results;
+    }
+
+    /**
+     * Sends the buffered pushes, stops prefetching and makes the messages still prefetched visible again right
+     * away. Pushes still spilled are replayed once the spill log is opened again.
+     */
+    @Override
+    public void close() {
+        if (sendBuffer != null) {
+            sendBuffer.close();
+        }
+        if (spillover != null) {
+            spillover.close();
+        }
+        if (receiveBuffer != null) {
+            for (Map.Entry<String, List<String>> stashed : receiveBuffer.drain().entrySet()) {
+                changeVisibilityBatch(new ChangeVisibilityBatchRequest(stashed.getKey(), stashed.getValue(), 0));
+            }
+        }
+    }
+
+    /**
+     * Pushes a message through the send buffer, or with sendMessage.
+     */
+    private String pushToSqs(final PushRequest request) {
+        if (sendBuffer != null) {
+            return sendBuffer.push(request.getQueueUrl(), request.getMessageBody(), request.getDelaySeconds());
+        }
+        SendMessageResult result = this.retryer.call(request.getQueueUrl(), new SqsRetryer.Call<SendMessageResult>() {
+            public SendMessageResult call() {
+                return sqsClient.sendMessage(request.getQueueUrl(), request.getMessageBody());
+            }
+        });
+        return result.getMD5OfMessageBody();
+    }
+
+    private static SqsRetryer newRetryer() {
+        return new SqsRetryer(Integer.valueOf(Environment.getInstance().getPropertyValue(SQS_RETRY_MAX_ATTEMPTS)),
+                Long.valueOf(Environment.getInstance().getPropertyValue(SQS_RETRY_BASE_DELAY_MILLIS)),
+                Long.valueOf(Environment.getInstance().getPropertyValue(SQS_RETRY_MAX_DELAY_MILLIS)),
+                Double.valueOf(Environment.getInstance().getPropertyValue(SQS_RETRY_BUDGET_RATIO)),
+                Double.valueOf(Environment.getInstance().getPropertyValue(SQS_RATE_LIMIT_PER_SECOND)));
+    }
+
+    /**
+     * Opens the configured spillover, unless no spill directory is configured.
+     */
+    private static SqsSpillover newSpillover(final AmazonSQSClient sqsClient, final SqsRetryer retryer) {
+        final String directory = Environment.getInstance().getPropertyValue(SQS_SPILL_DIRECTORY);
+        if (Strings.isNullOrEmpty(directory)) {
+            return null;
+        }
+        try {
+            return new SqsSpillover(sqsClient, retryer, new File(directory),
+                    Long.valueOf(Environment.getInstance().getPropertyValue(SQS_SPILL_SEGMENT_BYTES)),
+                    Long.valueOf(Environment.getInstance().getPropertyValue(SQS_SPILL_LATENCY_SLO_MILLIS)),
+                    TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Maps a pull request onto a receiveMessage request, within the SQS limits: up to 10 messages and a wait
+     * time up to 20 seconds.
+     *
+     * @param request the pull request
+     * @return the receiveMessage request
+     */
+    static ReceiveMessageRequest receiveRequest(final PullRequest request) {
+        final int max = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+        checkArgument(max > 0 && max <= MAX_BATCH_ENTRIES);
+        final int waitTimeSeconds = request.getWaitTimeSeconds() == null ? 0 : request.getWaitTimeSeconds();
+        checkArgument(waitTimeSeconds >= 0 && waitTimeSeconds <= MAX_WAIT_TIME_SECONDS);
+        checkArgument(request.getVisibilityTimeout() == null || request.getVisibilityTimeout() >= 0);
+        return new ReceiveMessageRequest(request.getQueueUrl()).withMaxNumberOfMessages(max)
+                .withWaitTimeSeconds(waitTimeSeconds).withVisibilityTimeout(request.getVisibilityTimeout());
+    }
+
+    /**
+     * Sends a single receiveMessage request, retried as the retryer allows.
+     *
+     * @param sqsClient the SQS client
+     * @param retryer the retryer
+     * @param request the request
+     * @return the received messages
+     * @throws AmazonClientException if the request fails or a body does not match its MD5
+     */
+    static List<Message> receive(final AmazonSQSClient sqsClient, final SqsRetryer retryer,
+            final ReceiveMessageRequest request) {
+        return retryer.call(request.getQueueUrl(), new SqsRetryer.Call<List<Message>>() {
+            public List<Message> call() {
+                return toMessages(sqsClient.receiveMessage(request).getMessages());
+            }
+        });
+    }
+
+    /**
+     * Keeps the id, receipt handle and body of every received message, after checking the body against the
+     * MD5 computed by SQS.
+     *
+     * @param sqsMessages the messages returned by SQS
+     * @return the messages
+     * @throws AmazonClientException if a body does not match its MD5
+     */
+    static List<Message> toMessages(final List<com.amazonaws.services.sqs.model.Message> sqsMessages) {
+        final List<Message> messages = new ArrayList<>(sqsMessages.size());
+        for (com.amazonaws.services.sqs.model.Message sqsMessage : sqsMessages) {
+            final Message message = new Message(sqsMessage.getMessageId(), sqsMessage.getBody());
+            if (!message.getMd5Body().equals(sqsMessage.getMD5OfBody())) {
+                throw new AmazonClientException("The MD5 returned by SQS for message " + sqsMessage.getMessageId()
+                        + " does not match its body");
+            }
+            message.setReceiptHandle(sqsMessage.getReceiptHandle());
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Sends a single sendMessageBatch request, retried as a whole as the retryer allows. SQS entry ids are the
+     * positions of the entries in the request, as caller ids may hold characters SQS rejects.
+     *
+     * @param sqsClient the SQS client
+     * @param retryer the retryer
+     * @param queueUrl the queue URL
+     * @param entries the entries, within the SQS limits of a batch
+     * @return the result of every entry, in request order
+     * @throws AmazonClientException if the request could not be sent
+     */
+    static List<BatchResultEntry> sendBatch(final AmazonSQSClient sqsClient, final SqsRetryer retryer,
+            final String queueUrl, final List<PushBatchEntry> entries) {
+        final List<String> ids = new ArrayList<>(entries.size());
+        final List<SendMessageBatchRequestEntry> sqsEntries = new ArrayList<>(entries.size());
+        for (PushBatchEntry entry : entries) {
+            final SendMessageBatchRequestEntry sqsEntry =
+                    new SendMessageBatchRequestEntry(String.valueOf(ids.size()), entry.getMessageBody());
+            sqsEntry.setDelaySeconds(entry.getDelaySeconds());
+            sqsEntries.add(sqsEntry);
+            ids.add(entry.getId());
+        }
+
+        final BatchResultEntry[] results = new BatchResultEntry[ids.size()];
+        try {
+            final SendMessageBatchRequest batchRequest = new SendMessageBatchRequest(queueUrl, sqsEntries);
+            final SendMessageBatchResult result = retryer.call(queueUrl, new SqsRetryer.Call<SendMessageBatchResult>() {
+                public SendMessageBatchResult call() {
+                    return sqsClient.sendMessageBatch(batchRequest);
+                }
+            });
+            for (SendMessageBatchResultEntry success : result.getSuccessful()) {
+                final int i = Integer.parseInt(success.getId());
+                results[i] = BatchResultEntry.success(ids.get(i), success.getMD5OfMessageBody());
+            }
+            return completeResults(results, ids, result.getFailed());
+        } catch (AmazonServiceException e) {
+            return rejectResults(ids, e);
+        }
+    }
+
+    /**
+     * Sends a single deleteMessageBatch request.
+     */
+    private List<BatchResultEntry> deleteBatch(final String queueUrl, final List<String> receiptHandles) {
+        final List<DeleteMessageBatchRequestEntry> sqsEntries = new ArrayList<>(receiptHandles.size());
+        for (String receiptHandle : receiptHandles) {
+            sqsEntries.add(new DeleteMessageBatchRequestEntry(String.valueOf(sqsEntries.size()), receiptHandle));
+        }
+
+        final BatchResultEntry[] results = new BatchResultEntry[receiptHandles.size()];
+        try {
+            final DeleteMessageBatchRequest batchRequest = new DeleteMessageBatchRequest(queueUrl, sqsEntries);
+            final DeleteMessageBatchResult result = this.retryer.call(queueUrl,
+                    new SqsRetryer.Call<DeleteMessageBatchResult>() {
+                        public DeleteMessageBatchResult call() {
+                            return sqsClient.deleteMessageBatch(batchRequest);
+                        }
+                    });
+            for (DeleteMessageBatchResultEntry success : result.getSuccessful()) {
+                final int i = Integer.parseInt(success.getId());
+                results[i] = BatchResultEntry.success(receiptHandles.get(i), null);
+            }
+            return completeResults(results, receiptHandles, result.getFailed());
+        } catch (AmazonServiceException e) {
+            return rejectResults(receiptHandles, e);
+        }
+    }
+
+    /**
+     * Sends a single changeMessageVisibilityBatch request.
+     */
+    private List<BatchResultEntry> changeVisibilityBatch(final String queueUrl, final List<String> receiptHandles,
+            final Integer visibilityTimeout) {
+        final List<ChangeMessageVisibilityBatchRequestEntry> sqsEntries = new ArrayList<>(receiptHandles.size());
+        for (String receiptHandle : receiptHandles) {
+            final ChangeMessageVisibilityBatchRequestEntry sqsEntry =
+                    new ChangeMessageVisibilityBatchRequestEntry(String.valueOf(sqsEntries.size()), receiptHandle);
+            sqsEntry.setVisibilityTimeout(visibilityTimeout);
+            sqsEntries.add(sqsEntry);
+        }
+
+        final BatchResultEntry[] results = new BatchResultEntry[receiptHandles.size()];
+        try {
+            final ChangeMessageVisibilityBatchRequest batchRequest =
+                    new ChangeMessageVisibilityBatchRequest(queueUrl, sqsEntries);
+            final ChangeMessageVisibilityBatchResult result = this.retryer.call(queueUrl,
+                    new SqsRetryer.Call<ChangeMessageVisibilityBatchResult>() {
+                        public ChangeMessageVisibilityBatchResult call() {
+                            return sqsClient.changeMessageVisibilityBatch(batchRequest);
+                        }
+                    });
+            for (ChangeMessageVisibilityBatchResultEntry success : result.getSuccessful()) {
+                final int i = Integer.parseInt(success.getId());
+                results[i] = BatchResultEntry.success(receiptHandles.get(i), null);
+            }
+            return completeResults(results, receiptHandles, result.getFailed());
+        } catch (AmazonServiceException e) {
+            return rejectResults(receiptHandles, e);
+        }
+    }
+
+    /**
+     * Fills in the failed entries of a batch response, and fails the entries SQS returned no result for.
+     */
+    private static List<BatchResultEntry> completeResults(final BatchResultEntry[] results, final List<String> ids,
+            final List<BatchResultErrorEntry> failures) {
+        for (BatchResultErrorEntry failure : failures) {
+            final int i = Integer.parseInt(failure.getId());
+            results[i] = BatchResultEntry.failure(ids.get(i), failure.getCode(), failure.getMessage(),
+                    SqsSpillover.isRetried(failure.getCode(), !Boolean.TRUE.equals(failure.getSenderFault())));
+        }
+        for (int i = 0; i < results.length; ++i) {
+            if (results[i] == null) {
+                results[i] = BatchResultEntry.failure(ids.get(i), MISSING_RESULT, "No result for the entry",
+                        SqsSpillover.isRetried(MISSING_RESULT, false));
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Fails every entry of a batch request that SQS rejected as a whole.
+     */
+    private static List<BatchResultEntry> rejectResults(final List<String> ids, final AmazonServiceException e) {
+        final List<BatchResultEntry> results = new ArrayList<>(ids.size());
+        // An error the SDK built, or could not parse, has no error code
+        final String errorCode = e.getErrorCode() != null ? e.getErrorCode()
+                : e.getStatusCode() > 0 ? String.valueOf(e.getStatusCode()) : INTERNAL_ERROR;
+        final boolean retryable = SqsSpillover.isRetried(e);
+        for (String id : ids) {
+            results.add(BatchResultEntry.failure(id, errorCode, e.getErrorMessage(), retryable));
+        }
+        return results;
     }
 }
@@ -0,0 +1,268 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.example.pojo.Message;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Prefetching receive buffer of the SQS queue service. The first pull of a queue starts a background fetcher
+ * for it, which long polls SQS and keeps a bounded stash of received messages, so that pulls are served from
+ * memory instead of waiting for a round trip to SQS.
+ * <p>
+ * Prefetched messages are received with a fixed visibility timeout, which keeps running while they wait in
+ * the stash. A message is only handed out while at least half of its visibility timeout is left; older ones
+ * are dropped and come back on SQS when their timeout expires.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class SqsReceiveBuffer implements Closeable {
+
+    /** Pause of a fetcher after a failed receive, so that an unavailable SQS is not polled in a tight loop */
+    static final long FAILURE_BACKOFF_MILLIS = 1000;
+
+    private final AmazonSQSClient sqsClient;
+
+    private final SqsRetryer retryer;
+
+    /** Most messages stashed per queue */
+    private final int capacity;
+
+    private final int waitTimeSeconds;
+
+    private final int visibilityTimeout;
+
+    /** The stash of every queue pulled so far, indexed by queue URL */
+    private final ConcurrentMap<String, Stash> stashes = new ConcurrentHashMap<>();
+
+    private final ExecutorService fetchers = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sqs-prefetch-%d").build());
+
+    private volatile boolean closed;
+
+    /**
+     * Instantiates a new receive buffer, without retries. Fetchers are started on the first pull of each queue.
+     *
+     * @param sqsClient the SQS client
+     * @param capacity the most messages stashed per queue
+     * @param waitTimeSeconds the long poll wait time of the fetchers, from 1 to 20 seconds
+     * @param visibilityTimeout the visibility timeout of the prefetched messages, in seconds
+     */
+    public SqsReceiveBuffer(final AmazonSQSClient sqsClient, final int capacity, final int waitTimeSeconds,
+            final int visibilityTimeout) {
+        this(sqsClient, SqsRetryer.noRetries(), capacity, waitTimeSeconds, visibilityTimeout);
+    }
+
+    /**
+     * Instantiates a new receive buffer. Fetchers are started on the first pull of each queue.
+     *
+     * @param sqsClient the SQS client
+     * @param retryer the retryer of the receives
+     * @param capacity the most messages stashed per queue
+     * @param waitTimeSeconds the long poll wait time of the fetchers, from 1 to 20 seconds
+     * @param visibilityTimeout the visibility timeout of the prefetched messages, in seconds
+     */
+    public SqsReceiveBuffer(final AmazonSQSClient sqsClient, final SqsRetryer retryer, final int capacity,
+            final int waitTimeSeconds, final int visibilityTimeout) {
+        checkArgument(sqsClient != null);
+        checkArgument(retryer != null);
+        checkArgument(capacity > 0);
+        checkArgument(waitTimeSeconds > 0 && waitTimeSeconds <= SqsQueueService.MAX_WAIT_TIME_SECONDS);
+        checkArgument(visibilityTimeout > 0);
+        this.sqsClient = sqsClient;
+        this.retryer = retryer;
+        this.capacity = capacity;
+        this.waitTimeSeconds = waitTimeSeconds;
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    /**
+     * Takes prefetched messages of a queue. If none is stashed the call waits up to the wait time for the
+     * fetcher to receive one, then returns it with whatever else is stashed.
+     *
+     * @param queueUrl the queue URL
+     * @param maxNumberOfMessages the most messages returned
+     * @param waitTime the longest time to wait for a first message
+     * @param unit the unit of the wait time
+     * @return the messages, empty if none arrived in time
+     * @throws AmazonClientException if no message is returned and the last receive of the fetcher failed
+     * @author Swarn Avinash Kumar
+     */
+    public List<Message> pull(final String queueUrl, final int maxNumberOfMessages, final long waitTime,
+            final TimeUnit unit) {
+        checkArgument(queueUrl != null);
+        checkArgument(maxNumberOfMessages > 0);
+        checkState(!closed, "The receive buffer is closed");
+        final Stash stash = stash(queueUrl);
+        final List<Message> messages = new ArrayList<>(maxNumberOfMessages);
+        final long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        try {
+            while (messages.size() < maxNumberOfMessages) {
+                final Prefetched prefetched = messages.isEmpty()
+                        ? stash.messages.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+                        : stash.messages.poll();
+                if (prefetched == null) {
+                    break;
+                }
+                stash.freeSlots.release();
+                if (prefetched.handOutBeforeNanos - System.nanoTime() > 0) {
+                    messages.add(prefetched.message);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (messages.isEmpty()) {
+            final AmazonClientException failure = stash.failure;
+            if (failure != null) {
+                stash.failure = null;
+                throw failure;
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Stops the fetchers and takes the receipt handles of every message still stashed, so that the caller can
+     * make them visible again instead of waiting for their visibility timeout.
+     *
+     * @return the receipt handles of the stashed messages, indexed by queue URL
+     */
+    public Map<String, List<String>> drain() {
+        close();
+        final Map<String, List<String>> receiptHandles = new HashMap<>();
+        for (Map.Entry<String, Stash> entry : stashes.entrySet()) {
+            final List<Prefetched> prefetched = new ArrayList<>();
+            entry.getValue().messages.drainTo(prefetched);
+            if (!prefetched.isEmpty()) {
+                final List<String> handles = new ArrayList<>(prefetched.size());
+                for (Prefetched message : prefetched) {
+                    handles.add(message.message.getReceiptHandle());
+                }
+                receiptHandles.put(entry.getKey(), handles);
+            }
+        }
+        return receiptHandles;
+    }
+
+    /**
+     * Stops the fetchers. A receive in progress completes in the background, its messages becoming visible
+     * again at the end of their visibility timeout.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        fetchers.shutdownNow();
+    }
+
+    /**
+     * Gets the number of messages stashed for a queue.
+     *
+     * @param queueUrl the queue URL
+     * @return the number of stashed messages
+     */
+    int stashed(final String queueUrl) {
+        final Stash stash = stashes.get(queueUrl);
+        return stash == null ? 0 : stash.messages.size();
+    }
+
+    private Stash stash(final String queueUrl) {
+        Stash stash = stashes.get(queueUrl);
+        if (stash == null) {
+            final Stash created = new Stash(queueUrl);
+            stash = stashes.putIfAbsent(queueUrl, created);
+            if (stash == null) {
+                stash = created;
+                fetchers.execute(created);
+            }
+        }
+        return stash;
+    }
+
+    /**
+     * The stashed messages of a queue and the fetcher filling it.
+     */
+    private final class Stash implements Runnable {
+
+        private final String queueUrl;
+
+        private final BlockingQueue<Prefetched> messages = new LinkedBlockingQueue<>();
+
+        /** Slots of the stash that are neither filled nor being received into */
+        private final Semaphore freeSlots = new Semaphore(capacity);
+
+        /** The failure of the last receive, until a pull reports it */
+        private volatile AmazonClientException failure;
+
+        Stash(final String queueUrl) {
+            this.queueUrl = queueUrl;
+        }
+
+        public void run() {
+            try {
+                while (!closed) {
+                    freeSlots.acquire();
+                    int requested = 1;
+                    while (requested < SqsQueueService.MAX_BATCH_ENTRIES && freeSlots.tryAcquire()) {
+                        ++requested;
+                    }
+                    int received = 0;
+                    try {
+                        final ReceiveMessageRequest request = new ReceiveMessageRequest(queueUrl)
+                                .withMaxNumberOfMessages(requested).withWaitTimeSeconds(waitTimeSeconds)
+                                .withVisibilityTimeout(visibilityTimeout);
+                        // Half of the timeout is left for the consumer, counted from before the request
+                        final long handOutBeforeNanos =
+                                System.nanoTime() + TimeUnit.SECONDS.toNanos(visibilityTimeout) / 2;
+                        for (Message message : SqsQueueService.receive(sqsClient, retryer, request)) {
+                            messages.add(new Prefetched(message, handOutBeforeNanos));
+                            ++received;
+                        }
+                    } catch (AmazonClientException e) {
+                        failure = e;
+                        Thread.sleep(FAILURE_BACKOFF_MILLIS);
+                    } finally {
+                        freeSlots.release(requested - received);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * A prefetched message and the time after which it is not handed out anymore.
+     */
+    private static final class Prefetched {
+
+        private final Message message;
+
+        private final long handOutBeforeNanos;
+
+        Prefetched(final Message message, final long handOutBeforeNanos) {
+            this.message = message;
+            this.handOutBeforeNanos = handOutBeforeNanos;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Retries the SQS calls of a queue that failed for a transient reason, and paces the calls of each queue so
+ * that a throttling SQS is not overloaded further.
+ * <p>
+ * A failed call is retried after an exponential backoff with full jitter, so that callers failing together
+ * do not retry together. Retries are taken from a per-queue retry budget, credited a fraction of every call
+ * plus a small reserve per second: when SQS keeps failing, retries stay a bounded share of the traffic instead
+ * of multiplying it.
+ * <p>
+ * Every queue has a token bucket whose rate adapts to throttling (AIMD): each throttled call halves the rate,
+ * unless it was sent before the previous decrease, and each successful call adds back a little, about 5% of
+ * the maximum rate per second. The rate then settles just under what SQS accepts instead of oscillating
+ * between overload and backoff.
+ * <p>
+ * The SDK client retries on its own as well; for the budget and the rate to see throttling, the client
+ * should be configured without error retries.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class SqsRetryer {
+
+    /** Error codes SQS answers with when it throttles a caller */
+    static final Set<String> THROTTLING_ERROR_CODES = ImmutableSet.of("Throttling", "ThrottlingException",
+            "RequestThrottled", "RequestLimitExceeded", "SlowDown");
+
+    /** Lowest rate a throttled queue is slowed down to, in calls per second */
+    static final double MIN_RATE = 1;
+
+    /** Share of the maximum rate added back per second of successful calls */
+    static final double RATE_INCREASE_PER_SECOND = 0.05;
+
+    /** Retries the budget of a queue grants per second whatever its traffic */
+    static final double MIN_RETRIES_PER_SECOND = 10;
+
+    private final int maxAttempts;
+
+    private final long baseDelayNanos;
+
+    private final long maxDelayNanos;
+
+    private final double budgetRatio;
+
+    /** Highest and initial rate of every queue, 0 if calls are not paced */
+    private final double maxRate;
+
+    /** The pacing and the budget of every queue called so far, indexed by queue URL */
+    private final ConcurrentMap<String, QueueLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates a new retryer.
+     *
+     * @param maxAttempts the most attempts of a call, 1 to never retry
+     * @param baseDelayMillis the backoff ceiling of the first retry, doubled for each further retry
+     * @param maxDelayMillis the highest backoff ceiling
+     * @param budgetRatio the retries granted per call, e.g. 0.1 for retries up to a tenth of the calls
+     * @param maxRate the highest and initial calls per second of a queue, 0 to not pace calls
+     */
+    public SqsRetryer(final int maxAttempts, final long baseDelayMillis, final long maxDelayMillis,
+            final double budgetRatio, final double maxRate) {
+        checkArgument(maxAttempts > 0);
+        checkArgument(baseDelayMillis >= 0 && maxDelayMillis >= baseDelayMillis);
+        checkArgument(budgetRatio >= 0);
+        checkArgument(maxRate == 0 || maxRate >= MIN_RATE);
+        this.maxAttempts = maxAttempts;
+        this.baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(baseDelayMillis);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.budgetRatio = budgetRatio;
+        this.maxRate = maxRate;
+    }
+
+    /**
+     * Creates a retryer that makes every call once, without pacing.
+     *
+     * @return the retryer
+     */
+    public static SqsRetryer noRetries() {
+        return new SqsRetryer(1, 0, 0, 0, 0);
+    }
+
+    /**
+     * Makes a call on a queue, retrying it while it fails for a transient reason: throttling, a server error
+     * or a client error such as a broken connection.
+     *
+     * @param queueUrl the queue URL
+     * @param call the call
+     * @return the result of the call
+     * @throws AmazonClientException the failure of the last attempt, if it is not transient, the attempts are
+     *             exhausted or the budget has no retry left
+     * @author Swarn Avinash Kumar
+     */
+    public <T> T call(final String queueUrl, final Call<T> call) {
+        if (maxAttempts == 1 && maxRate == 0) {
+            // Neither retried nor paced, there is nothing to account for
+            return call.call();
+        }
+        final QueueLimiter limiter = limiter(queueUrl);
+        limiter.credit(budgetRatio);
+        for (int attempt = 1;; ++attempt) {
+            limiter.acquire();
+            final long sentNanos = System.nanoTime();
+            try {
+                final T result = call.call();
+                limiter.succeeded();
+                return result;
+            } catch (AmazonClientException e) {
+                final boolean throttled = isThrottling(e);
+                if (throttled) {
+                    limiter.throttled(sentNanos);
+                }
+                if (attempt >= maxAttempts || !(throttled || isTransient(e)) || !limiter.debitRetry()) {
+                    throw e;
+                }
+                final long ceiling = Math.min(maxDelayNanos, baseDelayNanos << Math.min(attempt - 1, 30));
+                try {
+                    TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the current rate of a queue.
+     *
+     * @param queueUrl the queue URL
+     * @return the calls per second, 0 if calls are not paced
+     */
+    double rate(final String queueUrl) {
+        return maxRate == 0 ? 0 : limiter(queueUrl).rate();
+    }
+
+    static boolean isThrottling(final AmazonClientException e) {
+        return e instanceof AmazonServiceException
+                && THROTTLING_ERROR_CODES.contains(((AmazonServiceException) e).getErrorCode());
+    }
+
+    /**
+     * Checks if a failure other than throttling may not happen again: a server error, or a client error
+     * without an answer from SQS.
+     */
+    static boolean isTransient(final AmazonClientException e) {
+        return !(e instanceof AmazonServiceException) || ((AmazonServiceException) e).getStatusCode() >= 500;
+    }
+
+    private QueueLimiter limiter(final String queueUrl) {
+        QueueLimiter limiter = limiters.get(queueUrl);
+        if (limiter == null) {
+            final QueueLimiter created = new QueueLimiter();
+            limiter = limiters.putIfAbsent(queueUrl, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * A call to SQS.
+     *
+     * @param <T> the type of the result
+     */
+    public interface Call<T> {
+
+        /**
+         * Makes the call.
+         *
+         * @return the result
+         * @throws AmazonClientException if the call failed
+         */
+        T call();
+    }
+
+    /**
+     * The adaptive token bucket and the retry budget of a queue. Guarded by its own monitor, except for the
+     * token bucket which is thread safe on its own.
+     */
+    private final class QueueLimiter {
+
+        private final RateLimiter rateLimiter = maxRate == 0 ? null : RateLimiter.create(maxRate);
+
+        private double rate = maxRate;
+
+        /** When the rate was last decreased */
+        private long decreasedNanos = System.nanoTime();
+
+        private double retryBalance = MIN_RETRIES_PER_SECOND;
+
+        private long creditedNanos = System.nanoTime();
+
+        void acquire() {
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+        }
+
+        synchronized double rate() {
+            return rate;
+        }
+
+        synchronized void succeeded() {
+            if (rateLimiter != null && rate < maxRate) {
+                // rate calls per second, each adding its share of the increase per second
+                rate = Math.min(maxRate, rate + maxRate * RATE_INCREASE_PER_SECOND / rate);
+                rateLimiter.setRate(rate);
+            }
+        }
+
+        synchronized void throttled(final long sentNanos) {
+            // Calls sent at the old rate were throttled for it, the new rate is not known to be too high yet
+            if (rateLimiter != null && sentNanos - decreasedNanos > 0) {
+                rate = Math.max(MIN_RATE, rate / 2);
+                rateLimiter.setRate(rate);
+                decreasedNanos = System.nanoTime();
+            }
+        }
+
+        /**
+         * Credits the budget with a call, and with the reserve of the time since the last credit. The
+         * balance is capped to a second worth of retries at the maximum rate.
+         */
+        synchronized void credit(final double ratio) {
+            final long now = System.nanoTime();
+            final double seconds = (now - creditedNanos) / 1e9;
+            creditedNanos = now;
+            final double cap = MIN_RETRIES_PER_SECOND + ratio * maxRate;
+            retryBalance = Math.min(cap, retryBalance + ratio + seconds * MIN_RETRIES_PER_SECOND);
+        }
+
+        synchronized boolean debitRetry() {
+            if (retryBalance < 1) {
+                return false;
+            }
+            --retryBalance;
+            return true;
+        }
+    }
+}
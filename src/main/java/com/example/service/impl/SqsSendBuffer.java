@@ -0,0 +1,301 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.PushBatchEntry;
+import com.google.common.base.Throwables;
+import com.google.common.base.Utf8;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Send buffer of the SQS queue service, coalescing the pushes of concurrent callers into sendMessageBatch
+ * requests.
+ * <p>
+ * Every queue has an open batch collecting pushes. It is sent once it holds 10 entries, once the next body
+ * would take it over 256 KB, or once its linger time has passed, whichever comes first. At most a configured
+ * number of batches per queue are in flight: while they are, a lingered batch stays open and keeps filling,
+ * so a slow SQS gets fuller batches instead of more requests. Each caller waits for the result of its own
+ * entry.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class SqsSendBuffer implements Closeable {
+
+    private final AmazonSQSClient sqsClient;
+
+    private final SqsRetryer retryer;
+
+    private final long lingerNanos;
+
+    /** Most batches of a queue sent at the same time */
+    private final int maxBatchesInFlight;
+
+    /** The batches of every queue pushed to so far, indexed by queue URL */
+    private final ConcurrentMap<String, Batches> queues = new ConcurrentHashMap<>();
+
+    private final ExecutorService senders = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sqs-send-%d").build());
+
+    /** Sends the batches whose linger time has passed */
+    private final ScheduledExecutorService lingerTimer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sqs-send-linger").build());
+
+    private volatile boolean closed;
+
+    /**
+     * Instantiates a new send buffer, without retries.
+     *
+     * @param sqsClient the SQS client
+     * @param linger the longest time a batch waits for more pushes while a request slot is free
+     * @param unit the unit of the linger time
+     * @param maxBatchesInFlight the most batches of a queue sent at the same time
+     */
+    public SqsSendBuffer(final AmazonSQSClient sqsClient, final long linger, final TimeUnit unit,
+            final int maxBatchesInFlight) {
+        this(sqsClient, SqsRetryer.noRetries(), linger, unit, maxBatchesInFlight);
+    }
+
+    /**
+     * Instantiates a new send buffer.
+     *
+     * @param sqsClient the SQS client
+     * @param retryer the retryer of the sendMessageBatch requests
+     * @param linger the longest time a batch waits for more pushes while a request slot is free
+     * @param unit the unit of the linger time
+     * @param maxBatchesInFlight the most batches of a queue sent at the same time
+     */
+    public SqsSendBuffer(final AmazonSQSClient sqsClient, final SqsRetryer retryer, final long linger,
+            final TimeUnit unit, final int maxBatchesInFlight) {
+        checkArgument(sqsClient != null);
+        checkArgument(retryer != null);
+        checkArgument(linger >= 0);
+        checkArgument(unit != null);
+        checkArgument(maxBatchesInFlight > 0);
+        this.sqsClient = sqsClient;
+        this.retryer = retryer;
+        this.lingerNanos = unit.toNanos(linger);
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    /**
+     * Pushes a message with the next batch of its queue and waits for the result of the batch.
+     *
+     * @param queueUrl the queue URL
+     * @param messageBody the message body
+     * @param delaySeconds the delay of the message, or null
+     * @return the MD5 of the message body computed by SQS
+     * @throws AmazonServiceException if SQS failed the message or rejected its batch
+     * @throws AmazonClientException if the batch could not be sent
+     * @author Swarn Avinash Kumar
+     */
+    public String push(final String queueUrl, final String messageBody, final Integer delaySeconds) {
+        checkArgument(queueUrl != null);
+        checkArgument(messageBody != null);
+        checkState(!closed, "The send buffer is closed");
+        final PushBatchEntry entry = new PushBatchEntry("0", messageBody);
+        entry.setDelaySeconds(delaySeconds);
+        final Pending pending = new Pending(entry, Utf8.encodedLength(messageBody));
+        batches(queueUrl).add(pending);
+
+        final BatchResultEntry result;
+        try {
+            result = Uninterruptibles.getUninterruptibly(pending.result);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        if (!result.isSuccessful()) {
+            final AmazonServiceException failure = new AmazonServiceException(result.getErrorMessage());
+            failure.setErrorCode(result.getErrorCode());
+            // Keeps the retry decision of the entry for the spillover
+            failure.setErrorType(result.isRetryable() ? AmazonServiceException.ErrorType.Service
+                    : AmazonServiceException.ErrorType.Client);
+            throw failure;
+        }
+        return result.getMd5Body();
+    }
+
+    /**
+     * Sends the open batches without waiting for their linger time and waits until every batch is sent.
+     * Pushes are not accepted anymore.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Batches batches : queues.values()) {
+            batches.flush();
+        }
+        // Idle senders end on their own, and a push racing with the close is sent without lingering
+        lingerTimer.shutdownNow();
+    }
+
+    private Batches batches(final String queueUrl) {
+        Batches batches = queues.get(queueUrl);
+        if (batches == null) {
+            final Batches created = new Batches(queueUrl);
+            batches = queues.putIfAbsent(queueUrl, created);
+            if (batches == null) {
+                batches = created;
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * The open batch of a queue, its full batches waiting for a request slot and its batches in flight. Guarded
+     * by its own monitor.
+     */
+    private final class Batches implements Runnable {
+
+        private final String queueUrl;
+
+        private List<Pending> open;
+
+        private int openBytes;
+
+        private long openSinceNanos;
+
+        /** Full batches waiting for a request slot, oldest first */
+        private final Deque<List<Pending>> ready = new ArrayDeque<>();
+
+        private int inFlight;
+
+        Batches(final String queueUrl) {
+            this.queueUrl = queueUrl;
+        }
+
+        synchronized void add(final Pending pending) {
+            if (open != null && openBytes + pending.bytes > SqsQueueService.MAX_BATCH_BYTES) {
+                ready.add(open);
+                open = null;
+            }
+            if (open == null) {
+                open = new ArrayList<>(SqsQueueService.MAX_BATCH_ENTRIES);
+                openBytes = 0;
+                openSinceNanos = System.nanoTime();
+                if (lingerNanos > 0 && !closed) {
+                    lingerTimer.schedule(this, lingerNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            open.add(pending);
+            openBytes += pending.bytes;
+            if (open.size() == SqsQueueService.MAX_BATCH_ENTRIES) {
+                ready.add(open);
+                open = null;
+            }
+            dispatch();
+        }
+
+        /**
+         * Called by the linger timer.
+         */
+        public synchronized void run() {
+            dispatch();
+        }
+
+        synchronized void flush() {
+            if (open != null) {
+                ready.add(open);
+                open = null;
+            }
+            dispatch();
+            boolean interrupted = false;
+            while (inFlight > 0 || !ready.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Sends ready batches, then the open one if its linger time has passed, while request slots are free.
+         * Once closed, the open batch does not linger anymore.
+         */
+        private void dispatch() {
+            while (inFlight < maxBatchesInFlight) {
+                final List<Pending> batch;
+                if (!ready.isEmpty()) {
+                    batch = ready.poll();
+                } else if (open != null && (closed || System.nanoTime() - openSinceNanos >= lingerNanos)) {
+                    batch = open;
+                    open = null;
+                } else {
+                    return;
+                }
+                ++inFlight;
+                senders.execute(new Runnable() {
+                    public void run() {
+                        send(batch);
+                    }
+                });
+            }
+        }
+
+        private void send(final List<Pending> batch) {
+            try {
+                final List<PushBatchEntry> entries = new ArrayList<>(batch.size());
+                for (Pending pending : batch) {
+                    entries.add(pending.entry);
+                }
+                final List<BatchResultEntry> results = SqsQueueService.sendBatch(sqsClient, retryer, queueUrl,
+                        entries);
+                for (int i = 0; i < batch.size(); ++i) {
+                    batch.get(i).result.set(results.get(i));
+                }
+            } catch (RuntimeException e) {
+                for (Pending pending : batch) {
+                    pending.result.setException(e);
+                }
+            } finally {
+                synchronized (this) {
+                    --inFlight;
+                    dispatch();
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * A push waiting for its batch to be sent.
+     */
+    private static final class Pending {
+
+        private final PushBatchEntry entry;
+
+        private final int bytes;
+
+        private final SettableFuture<BatchResultEntry> result = SettableFuture.create();
+
+        Pending(final PushBatchEntry entry, final int bytes) {
+            this.entry = entry;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.example.service.impl;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.PushBatchEntry;
+import com.example.storage.RecordReader;
+import com.example.storage.SegmentedLog;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Failover of the SQS pushes to a local log. A push that SQS fails, or does not complete within the latency
+ * SLO, is appended to the spill log and synced instead, and every following push is spilled right away: while
+ * SQS is down or slow, producers only wait for the local disk.
+ * <p>
+ * A background replayer sends the spilled pushes back to SQS in sendMessageBatch requests, oldest first, and
+ * marks them as read once SQS accepted them, so that a crash never loses a spilled push. Once the log is
+ * drained, pushes go to SQS again.
+ * <p>
+ * Delivery stays at-least-once: a push timing out may still reach SQS after it was spilled, and a replayed
+ * push may be sent again after a crash. Replayed pushes are not ordered with the pushes made meanwhile.
+ * <p>
+ * A replay failing on the spill log itself, or for an unexpected reason, is counted and tried again after a
+ * backoff. While the spill log is unusable pushes go to SQS again, and fail if SQS fails them.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class SqsSpillover implements Closeable {
+
+    /** Pause of the replayer after SQS failed a replay */
+    static final long REPLAY_BACKOFF_MILLIS = 1000;
+
+    /** Longest wait of an idle replayer before it checks the log again */
+    static final long IDLE_MILLIS = 1000;
+
+    /** Error codes of a failed push worth sending again later, as opposed to a push SQS will never accept */
+    static final Set<String> RETRIED_ERROR_CODES = ImmutableSet.<String>builder()
+            .addAll(SqsRetryer.THROTTLING_ERROR_CODES)
+            .add("InternalError", "InternalFailure", "ServiceUnavailable", SqsQueueService.MISSING_RESULT).build();
+
+    /** Decodes the spilled pushes from the log buffers */
+    private static final RecordReader<Spilled> READER = new RecordReader<Spilled>() {
+        public Spilled read(final ByteBuffer record) {
+            return Spilled.decode(record);
+        }
+    };
+
+    private final AmazonSQSClient sqsClient;
+
+    private final SqsRetryer retryer;
+
+    private final SegmentedLog log;
+
+    private final long latencySloNanos;
+
+    /** Runs the pushes to SQS, so that producers stop waiting for them at the latency SLO */
+    private final ExecutorService pushers = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sqs-push-%d").build());
+
+    private final ExecutorService replayer = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sqs-replay").build());
+
+    /** Wakes the replayer up when a push is spilled, or the spillover closed */
+    private final Object spilledSignal = new Object();
+
+    /** Cuts the backoff of the replayer short when the spillover is closed */
+    private final CountDownLatch closing = new CountDownLatch(1);
+
+    /** Whether pushes go to the log instead of SQS, until the replayer drained it */
+    private volatile boolean spilling;
+
+    /** The last failure of the spill log, null once the replayer used it successfully again */
+    private volatile IOException logFailure;
+
+    private volatile boolean closed;
+
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    private final AtomicLong replayedCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong replayFailureCount = new AtomicLong();
+
+    /**
+     * Opens the spill log and starts replaying the pushes it still holds.
+     *
+     * @param sqsClient the SQS client
+     * @param retryer the retryer of the replayed batches
+     * @param directory the directory of the spill log
+     * @param segmentBytes the maximum size of a segment of the spill log
+     * @param latencySlo the longest time a push waits for SQS before it is spilled
+     * @param unit the unit of the latency SLO
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public SqsSpillover(final AmazonSQSClient sqsClient, final SqsRetryer retryer, final File directory,
+            final long segmentBytes, final long latencySlo, final TimeUnit unit) throws IOException {
+        checkArgument(sqsClient != null);
+        checkArgument(retryer != null);
+        checkArgument(latencySlo > 0);
+        checkArgument(unit != null);
+        this.sqsClient = sqsClient;
+        this.retryer = retryer;
+        this.log = new SegmentedLog(directory, segmentBytes);
+        this.latencySloNanos = unit.toNanos(latencySlo);
+        replayer.execute(new Runnable() {
+            public void run() {
+                replay();
+            }
+        });
+    }
+
+    /**
+     * Pushes a message to SQS with the given call, or spills it if SQS is failing, fails the push with a
+     * transient error or does not complete it within the latency SLO.
+     *
+     * @param queueUrl the queue URL
+     * @param messageBody the message body
+     * @param delaySeconds the delay of the message, or null
+     * @param push the push to SQS
+     * @return the MD5 of the message body
+     * @throws AmazonClientException if SQS rejected the push for good, or it could not be spilled
+     * @author Swarn Avinash Kumar
+     */
+    public String push(final String queueUrl, final String messageBody, final Integer delaySeconds,
+            final SqsRetryer.Call<String> push) {
+        checkArgument(queueUrl != null);
+        checkArgument(messageBody != null);
+        checkArgument(push != null);
+        checkState(!closed, "The spillover is closed");
+        if (!spilling || logFailure != null) {
+            final Future<String> result = pushers.submit(new Callable<String>() {
+                public String call() {
+                    return push.call();
+                }
+            });
+            try {
+                return Uninterruptibles.getUninterruptibly(result, latencySloNanos, TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof AmazonClientException)
+                        || !isRetried((AmazonClientException) e.getCause())) {
+                    throw Throwables.propagate(e.getCause());
+                }
+            } catch (TimeoutException e) {
+                // The push carries on, and is delivered twice if it succeeds after all
+            }
+            spilling = true;
+        }
+        return spill(new Spilled(queueUrl, messageBody, delaySeconds));
+    }
+
+    /**
+     * Checks if pushes are spilled instead of being sent to SQS.
+     *
+     * @return true while the spill log is not drained after an SQS failure
+     */
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    /**
+     * Gets the number of pushes spilled so far.
+     *
+     * @return the number of spilled pushes
+     */
+    public long spilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * Gets the number of spilled pushes SQS accepted so far.
+     *
+     * @return the number of replayed pushes
+     */
+    public long replayedCount() {
+        return replayedCount.get();
+    }
+
+    /**
+     * Gets the number of spilled pushes SQS rejected for good, which are not replayed again.
+     *
+     * @return the number of dropped pushes
+     */
+    public long droppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets the number of replays that failed on the spill log or for an unexpected reason, and were tried again
+     * after a backoff.
+     *
+     * @return the number of failed replays
+     */
+    public long replayFailureCount() {
+        return replayFailureCount.get();
+    }
+
+    /**
+     * Stops the replayer and closes the spill log. The pushes not replayed yet stay in the log and are replayed
+     * once it is opened again.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closing.countDown();
+        synchronized (spilledSignal) {
+            spilledSignal.notifyAll();
+        }
+        // The replayer is not interrupted: an interrupt closes the log files, and could stop a replay between
+        // the append of its failed pushes and the skip of its batch, so that they would be replayed twice
+        replayer.shutdown();
+        pushers.shutdownNow();
+        try {
+            // A replay in progress must not see the log closed
+            replayer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Checks if a failed push may succeed when sent again later.
+     */
+    static boolean isRetried(final AmazonClientException e) {
+        if (!(e instanceof AmazonServiceException)) {
+            // SQS did not answer
+            return true;
+        }
+        final AmazonServiceException serviceException = (AmazonServiceException) e;
+        return isRetried(serviceException.getErrorCode(), serviceException.getStatusCode() >= 500
+                || serviceException.getErrorType() == AmazonServiceException.ErrorType.Service);
+    }
+
+    /**
+     * Checks if a push failed with the given error code may succeed when sent again later: a failure SQS
+     * reports as its own fault, throttling or a retried error code. Applies to failed pushes and to the failed
+     * entries of a batch alike, which have no status code.
+     *
+     * @param errorCode the error code
+     * @param serverFault whether SQS reported the failure as its own fault rather than the sender's
+     */
+    static boolean isRetried(final String errorCode, final boolean serverFault) {
+        return serverFault || RETRIED_ERROR_CODES.contains(errorCode);
+    }
+
+    private String spill(final Spilled spilled) {
+        final IOException failure = logFailure;
+        if (failure != null) {
+            throw new AmazonClientException("The spill log is unusable, cannot spill the push to "
+                    + spilled.queueUrl, failure);
+        }
+        try {
+            log.sync(log.append(spilled.encode()));
+        } catch (IOException e) {
+            throw new AmazonClientException("Cannot spill the push to " + spilled.queueUrl, e);
+        }
+        spilledCount.incrementAndGet();
+        synchronized (spilledSignal) {
+            spilledSignal.notifyAll();
+        }
+        return Hashing.md5().hashString(spilled.messageBody, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Replays the spilled pushes until closed. A replay that fails is counted and tried again after a backoff,
+     * so that the replayer never stops while pushes are spilled.
+     */
+    private void replay() {
+        try {
+            while (!closed) {
+                try {
+                    replayBatch();
+                    logFailure = null;
+                } catch (IOException e) {
+                    // Pushes go to SQS again until the log can be read back, rather than waiting for a replay
+                    logFailure = e;
+                    spilling = false;
+                    replayFailureCount.incrementAndGet();
+                    closing.await(REPLAY_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException e) {
+                    replayFailureCount.incrementAndGet();
+                    closing.await(REPLAY_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Replays the oldest spilled pushes of a same queue in one batch, then appends those SQS failed for a
+     * transient reason again at the end of the log before the batch is marked as read. Waits for pushes to be
+     * spilled if the log is drained.
+     */
+    private void replayBatch() throws IOException, InterruptedException {
+        final List<Spilled> spilled = log.peek(READER, SqsQueueService.MAX_BATCH_ENTRIES);
+        if (spilled.isEmpty()) {
+            synchronized (spilledSignal) {
+                // Pushes spilled in the meantime are found by the next peek
+                spilling = false;
+                if (!closed) {
+                    spilledSignal.wait(IDLE_MILLIS);
+                }
+            }
+            return;
+        }
+
+        final String queueUrl = spilled.get(0).queueUrl;
+        final List<PushBatchEntry> entries = new ArrayList<>(spilled.size());
+        int bytes = 0;
+        for (Spilled push : spilled) {
+            final int pushBytes = Utf8.encodedLength(push.messageBody);
+            if (!push.queueUrl.equals(queueUrl)
+                    || !entries.isEmpty() && bytes + pushBytes > SqsQueueService.MAX_BATCH_BYTES) {
+                break;
+            }
+            final PushBatchEntry entry = new PushBatchEntry(String.valueOf(entries.size()), push.messageBody);
+            entry.setDelaySeconds(push.delaySeconds);
+            entries.add(entry);
+            bytes += pushBytes;
+        }
+
+        final List<BatchResultEntry> results;
+        try {
+            results = SqsQueueService.sendBatch(sqsClient, retryer, queueUrl, entries);
+        } catch (AmazonClientException e) {
+            closing.await(REPLAY_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        final List<byte[]> retried = new ArrayList<>();
+        for (int i = 0; i < results.size(); ++i) {
+            final BatchResultEntry result = results.get(i);
+            if (result.isSuccessful()) {
+                replayedCount.incrementAndGet();
+            } else if (result.isRetryable()) {
+                retried.add(spilled.get(i).encode());
+            } else {
+                droppedCount.incrementAndGet();
+            }
+        }
+        if (!retried.isEmpty()) {
+            log.sync(log.appendAll(retried));
+        }
+        log.skip(entries.size());
+        log.deleteReadSegments();
+        if (!retried.isEmpty()) {
+            closing.await(REPLAY_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A spilled push.
+     * <p>
+     * Encoded as the queue URL length (2 bytes) and the UTF-8 queue URL, the delay in seconds (4 bytes, -1 if
+     * none) and the UTF-8 message body.
+     */
+    private static final class Spilled {
+
+        private final String queueUrl;
+
+        private final String messageBody;
+
+        private final Integer delaySeconds;
+
+        Spilled(final String queueUrl, final String messageBody, final Integer delaySeconds) {
+            this.queueUrl = queueUrl;
+            this.messageBody = messageBody;
+            this.delaySeconds = delaySeconds;
+        }
+
+        byte[] encode() {
+            final byte[] urlBytes = queueUrl.getBytes(Charsets.UTF_8);
+            checkState(urlBytes.length <= 0xffff, "Queue URL too long");
+            final byte[] bodyBytes = messageBody.getBytes(Charsets.UTF_8);
+            return ByteBuffer.allocate(2 + urlBytes.length + 4 + bodyBytes.length).putShort((short) urlBytes.length)
+                    .put(urlBytes).putInt(delaySeconds == null ? -1 : delaySeconds).put(bodyBytes).array();
+        }
+
+        static Spilled decode(final ByteBuffer record) {
+            final ByteBuffer view = record.duplicate();
+            final byte[] urlBytes = new byte[view.getShort() & 0xffff];
+            view.get(urlBytes);
+            final int delaySeconds = view.getInt();
+            final byte[] bodyBytes = new byte[view.remaining()];
+            view.get(bodyBytes);
+            return new Spilled(new String(urlBytes, Charsets.UTF_8), new String(bodyBytes, Charsets.UTF_8),
+                    delaySeconds < 0 ? null : delaySeconds);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.service.impl;
+
+import static com.example.config.constants.ApplicationProperties.*;
+import static com.google.common.base.Preconditions.*;
+
+import com.example.config.Environment;
+import com.example.storage.MessageStorage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tiered Message Queue Service Implementation: an in-memory queue service whose queues overflow to disk.
+ * <p>
+ * The head of every queue stays in memory, for pulls as fast as those of {@link InMemoryQueueService}. Once the
+ * memory tier of a queue reaches its watermark, the newer messages are appended to segments of a log on disk, and
+ * so are the messages pushed behind them, so that the queue keeps its order across the tiers. The disk tier is
+ * paged back in once the memory tier drained below the page-in watermark, in sequential reads that fill the memory
+ * tier up to its watermark again: pushes and pulls of a queue with a backlog slow down to the speed of the disk
+ * rather than fail, and pulls touch the disk in bursts rather than on every call. Read segments are deleted.
+ * <p>
+ * The disk tier is a spill buffer, not a durable store: messages on disk are lost when the service is closed.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class TieredQueueService extends InMemoryQueueService implements Closeable {
+
+    private final int memoryMessages;
+
+    private final long memoryBytes;
+
+    /** Messages held in memory at or below which the disk tier is paged in, when there is a message watermark */
+    private final int pageInMessages;
+
+    /** Body bytes held in memory at or below which the disk tier is paged in, when there is a byte watermark */
+    private final long pageInBytes;
+
+    /**
+     * Instantiates a new tiered queue service from the configured directory and watermarks.
+     */
+    public TieredQueueService() {
+        this(new File(Environment.getInstance().getPropertyValue(TIERED_QUEUE_DIRECTORY)),
+                Integer.valueOf(Environment.getInstance().getPropertyValue(TIERED_QUEUE_MEMORY_MESSAGES)),
+                Long.valueOf(Environment.getInstance().getPropertyValue(TIERED_QUEUE_MEMORY_BYTES)),
+                Integer.valueOf(Environment.getInstance().getPropertyValue(TIERED_QUEUE_PAGE_IN_PERCENT)));
+    }
+
+    /**
+     * Instantiates a new tiered queue service, keeping the memory tier in the configured storage.
+     *
+     * @param directory the directory of the disk tier
+     * @param memoryMessages the most messages in the memory tier of a queue, 0 for no limit
+     * @param memoryBytes the most body bytes in the memory tier of a queue, 0 for no limit
+     * @param pageInPercent how far the memory tier drains before the disk tier is paged in, in percent of the
+     *            watermarks
+     */
+    public TieredQueueService(final File directory, final int memoryMessages, final long memoryBytes,
+            final int pageInPercent) {
+        super(MessageStorage.fromValue(Environment.getInstance().getPropertyValue(MEMORY_QUEUE_STORAGE)),
+                Integer.valueOf(Environment.getInstance().getPropertyValue(MEMORY_QUEUE_SHARDS)),
+                new MemoryLimits(memoryMessages, memoryBytes, 0, OverflowPolicy.SPILL, 0, directory));
+        checkArgument(memoryMessages > 0 || memoryBytes > 0, "The memory tier needs a watermark");
+        checkArgument(pageInPercent >= 0 && pageInPercent <= 100);
+        this.memoryMessages = memoryMessages;
+        this.memoryBytes = memoryBytes;
+        this.pageInMessages = (int) ((long) memoryMessages * pageInPercent / 100);
+        this.pageInBytes = memoryBytes * pageInPercent / 100;
+    }
+
+    /**
+     * Pages the disk tier of a queue in once its memory tier drained below the page-in watermark.
+     *
+     * @param usage the usage of the queue
+     * @return true to page the disk tier in
+     * @see com.example.service.impl.InMemoryQueueService#shouldRefill(com.example.service.impl.QueueUsage)
+     */
+    @Override
+    protected boolean shouldRefill(final QueueUsage usage) {
+        return (memoryMessages == 0 || usage.messages() <= pageInMessages)
+                && (memoryBytes == 0 || usage.bytes() <= pageInBytes);
+    }
+
+    /**
+     * Closes the disk tier of every queue.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @Override
+    public void close() throws IOException {
+        closeSpillLogs();
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Segment written with positional FileChannel writes and read through a read-ahead buffer, so that sequential
+ * reads only hit the file system once per buffer.
+ *
+ * @author Swarn Avinash Kumar
+ */
+final class ChannelSegment extends Segment {
+
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private final FileChannel channel;
+
+    /** Read-ahead buffer, holding the segment bytes starting at readBufferPosition */
+    private ByteBuffer readBuffer;
+
+    private long readBufferPosition;
+
+    ChannelSegment(final File directory, final long baseOffset, final long knownSize) throws IOException {
+        super(directory, baseOffset);
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.size = knownSize >= 0 ? knownSize : truncateTornTail();
+    }
+
+    @Override
+    void append(final byte[] payload) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        writeRecord(buffer, payload);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+    }
+
+    /**
+     * Frames every record into a single buffer, written with a single system call.
+     */
+    @Override
+    void appendAll(final List<byte[]> payloads) throws IOException {
+        int length = 0;
+        for (byte[] payload : payloads) {
+            length += HEADER_BYTES + payload.length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] payload : payloads) {
+            writeRecord(buffer, payload);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            size += channel.write(buffer, size);
+        }
+    }
+
+    @Override
+    ByteBuffer record(final long position) throws IOException {
+        if (readBuffer == null) {
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+            readBuffer.limit(0);
+            readBufferPosition = position;
+        }
+        if (position + HEADER_BYTES > size) {
+            return null;
+        }
+        if (position < readBufferPosition || position + HEADER_BYTES > readBufferPosition + readBuffer.limit()) {
+            fill(position);
+        }
+        final int start = (int) (position - readBufferPosition);
+        final int length = payloadLength(readBuffer, start);
+        if (length < 0 || position + HEADER_BYTES + length > size) {
+            return null;
+        }
+        if (start + HEADER_BYTES + length > readBuffer.limit()) {
+            if (HEADER_BYTES + length > readBuffer.capacity()) {
+                // The record is larger than the buffer
+                readBuffer = ByteBuffer.allocate(Math.max(HEADER_BYTES + length, readBuffer.capacity() * 2));
+            }
+            fill(position);
+            return record(position);
+        }
+        final ByteBuffer record = readBuffer.duplicate();
+        record.limit(start + HEADER_BYTES + length);
+        record.position(start + HEADER_BYTES);
+        return record;
+    }
+
+    @Override
+    void force() throws IOException {
+        // Segment files are preallocated by name only, the metadata does not need to be synced with the data
+        channel.force(false);
+    }
+
+    @Override
+    void releaseReadBuffer() {
+        readBuffer = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Checks the records from the beginning of the segment to find the end of the valid data, and cuts off a
+     * record that was not completely written or does not match its checksum, with everything after it.
+     */
+    private long truncateTornTail() throws IOException {
+        final long fileSize = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        long position = 0;
+        while (position < fileSize) {
+            buffer.clear();
+            if (buffer.remaining() > fileSize - position) {
+                buffer.limit((int) (fileSize - position));
+            }
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                continue;
+            }
+            buffer.flip();
+            int start = 0;
+            int recordSize;
+            while ((recordSize = checkRecord(buffer, start, buffer.limit())) > 0) {
+                start += recordSize;
+            }
+            if (start == 0) {
+                final int length = buffer.limit() >= HEADER_BYTES ? payloadLength(buffer, 0) : -1;
+                if (length < 0 || HEADER_BYTES + length <= buffer.capacity()
+                        || position + HEADER_BYTES + length > fileSize) {
+                    break;
+                }
+                // Valid header of a record larger than the buffer
+                buffer = ByteBuffer.allocate(HEADER_BYTES + length);
+                continue;
+            }
+            position += start;
+        }
+        if (position < fileSize) {
+            channel.truncate(position);
+        }
+        return position;
+    }
+
+    /**
+     * Fills the read-ahead buffer with the bytes starting at the given position, up to the end of the written
+     * data.
+     */
+    private void fill(final long position) throws IOException {
+        readBuffer.clear();
+        final long available = size - position;
+        if (readBuffer.remaining() > available) {
+            readBuffer.limit((int) Math.max(available, 0));
+        }
+        long read = 0;
+        while (readBuffer.hasRemaining()) {
+            final int count = channel.read(readBuffer, position + read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        readBuffer.flip();
+        readBufferPosition = position;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.google.common.base.Predicate;
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Reclaims the disk space of {@link SegmentedLog}s, meant to run in the background.
+ * <p>
+ * Segments of a message log are deleted once the read cursor moved past them. A journal is never read, so its
+ * oldest segment is deleted once most of its receives and delays are closed: the few still live are appended
+ * again at the end of the journal first, so a long in-flight message does not pin a whole segment. Compaction
+ * only proceeds from the head of a log, a mostly live segment stops it until enough of it is closed.
+ * <p>
+ * The bytes read and written by compaction go through a rate limiter shared by every log, so that compaction
+ * does not compete with pushes and pulls for the disk.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class Compactor {
+
+    /** Largest share of live bytes for which the oldest segment of a journal is rewritten */
+    static final double MAX_LIVE_RATIO = 0.5;
+
+    private final RateLimiter rateLimiter;
+
+    /** Number of bytes of deleted segments */
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    /** Number of bytes of live journal entries appended again */
+    private final AtomicLong rewrittenBytes = new AtomicLong();
+
+    /**
+     * Instantiates a new compactor.
+     *
+     * @param bytesPerSecond the highest rate at which compaction reads and writes
+     */
+    public Compactor(final long bytesPerSecond) {
+        checkArgument(bytesPerSecond > 0);
+        this.rateLimiter = RateLimiter.create(bytesPerSecond);
+    }
+
+    /**
+     * Deletes the segments of a log that were completely read.
+     *
+     * @param log the log
+     * @return the number of bytes reclaimed
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public long deleteReadSegments(final SegmentedLog log) throws IOException {
+        checkArgument(log != null);
+        final long reclaimed = log.deleteReadSegments();
+        reclaimedBytes.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    /**
+     * Deletes the oldest segments of a journal as long as most of their entries are closed, moving the live
+     * ones to the end of the journal.
+     * <p>
+     * An entry must be live before it is appended, and not live anymore before the entry closing it is
+     * appended. Entries are checked again as they are copied, holding the journal, so that the entry closing
+     * one is either seen or appended after the copy: a recovery never reopens it, and a key opened again under
+     * the same name is never closed by the compactor.
+     *
+     * @param journal the journal
+     * @param live tells which receives and delays are not closed yet
+     * @return the number of bytes reclaimed
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public long compactJournal(final SegmentedLog journal, final Predicate<JournalEntry> live)
+            throws IOException {
+        checkArgument(journal != null);
+        checkArgument(live != null);
+        long reclaimed = 0;
+        File oldest;
+        while ((oldest = journal.oldestClosedSegment()) != null) {
+            final Survey survey = new Survey(live);
+            SegmentScanner.scan(oldest, survey);
+            if (survey.liveBytes > survey.totalBytes * MAX_LIVE_RATIO) {
+                // Mostly live, moving it would cost more than it reclaims
+                break;
+            }
+            if (survey.liveBytes > 0) {
+                // Throttled up front, the copy holds the journal
+                rateLimiter.acquire((int) survey.liveBytes);
+            }
+            long offset = -1;
+            long copiedBytes = 0;
+            synchronized (journal) {
+                for (JournalEntry entry : survey.survivors) {
+                    if (live.apply(entry)) {
+                        final byte[] record = entry.encode();
+                        offset = journal.append(record);
+                        copiedBytes += Segment.HEADER_BYTES + record.length;
+                    }
+                }
+            }
+            if (offset >= 0) {
+                // The copies must be on disk before the originals go away
+                journal.sync(offset);
+            }
+            rewrittenBytes.addAndGet(copiedBytes);
+            final long deleted = journal.deleteOldestSegment(oldest);
+            if (deleted == 0) {
+                break;
+            }
+            reclaimed += deleted;
+        }
+        reclaimedBytes.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    /**
+     * Gets the number of bytes of segments deleted since the compactor was created.
+     *
+     * @return the number of bytes
+     */
+    public long reclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    /**
+     * Gets the number of bytes of live journal entries appended again since the compactor was created.
+     *
+     * @return the number of bytes
+     */
+    public long rewrittenBytes() {
+        return rewrittenBytes.get();
+    }
+
+    /**
+     * Collects the live entries of a journal segment, and the share of the segment they take.
+     */
+    private final class Survey implements SegmentScanner.RecordVisitor {
+
+        private final Predicate<JournalEntry> live;
+
+        private final List<JournalEntry> survivors = new ArrayList<>();
+
+        private long totalBytes;
+
+        private long liveBytes;
+
+        private Survey(final Predicate<JournalEntry> live) {
+            this.live = live;
+        }
+
+        public void visit(final ByteBuffer record) {
+            final int size = Segment.HEADER_BYTES + record.remaining();
+            rateLimiter.acquire(size);
+            totalBytes += size;
+            final JournalEntry entry = JournalEntry.decode(record);
+            if (entry.getType().isOpening() && live.apply(entry)) {
+                survivors.add(entry);
+                liveBytes += size;
+            }
+        }
+    }
+}
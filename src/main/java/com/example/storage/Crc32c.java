@@ -0,0 +1,97 @@
+package com.example.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum, as used by iSCSI, ext4 and most log formats. The JDK only ships it from
+ * Java 9, so it is computed here with the slicing-by-8 algorithm: eight bytes per step through eight lookup
+ * tables. Not thread-safe.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class Crc32c implements Checksum {
+
+    /** The Castagnoli polynomial, reversed */
+    private static final int POLYNOMIAL = 0x82F63B78;
+
+    /** TABLES[k][b] is the CRC of byte b followed by k zero bytes */
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int b = 0; b < 256; ++b) {
+            int crc = b;
+            for (int bit = 0; bit < 8; ++bit) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLES[0][b] = crc;
+        }
+        for (int b = 0; b < 256; ++b) {
+            for (int k = 1; k < 8; ++k) {
+                TABLES[k][b] = (TABLES[k - 1][b] >>> 8) ^ TABLES[0][TABLES[k - 1][b] & 0xff];
+            }
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    @Override
+    public void update(final int b) {
+        crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(final byte[] bytes, final int offset, final int length) {
+        int position = offset;
+        final int end = offset + length;
+        while (end - position >= 8) {
+            final int low = crc ^ ((bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8
+                    | (bytes[position + 2] & 0xff) << 16 | (bytes[position + 3] & 0xff) << 24);
+            final int high = (bytes[position + 4] & 0xff) | (bytes[position + 5] & 0xff) << 8
+                    | (bytes[position + 6] & 0xff) << 16 | (bytes[position + 7] & 0xff) << 24;
+            crc = slice(low, high);
+            position += 8;
+        }
+        while (position < end) {
+            update(bytes[position++]);
+        }
+    }
+
+    /**
+     * Updates the checksum with the bytes of a buffer between its position and its limit, without moving its
+     * position.
+     *
+     * @param buffer the buffer
+     */
+    public void update(final ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        final ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        while (view.remaining() >= 8) {
+            final long bytes = view.getLong();
+            crc = slice(crc ^ (int) bytes, (int) (bytes >>> 32));
+        }
+        while (view.hasRemaining()) {
+            update(view.get());
+        }
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+
+    private static int slice(final int low, final int high) {
+        return TABLES[7][low & 0xff] ^ TABLES[6][(low >>> 8) & 0xff] ^ TABLES[5][(low >>> 16) & 0xff]
+                ^ TABLES[4][low >>> 24] ^ TABLES[3][high & 0xff] ^ TABLES[2][(high >>> 8) & 0xff]
+                ^ TABLES[1][(high >>> 16) & 0xff] ^ TABLES[0][high >>> 24];
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.storage;
+
+/**
+ * When appended records are forced to disk before the append is acknowledged.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public enum Durability {
+
+    /** Records are left to the page cache, a crash of the machine may lose the last acknowledged ones */
+    NONE,
+
+    /** Records are forced by a {@link GroupCommitter} every N ms or N records, in one force for all of them */
+    GROUP,
+
+    /** Records are forced before the append is acknowledged, concurrent appends still share a force */
+    SYNC;
+
+    /**
+     * Parses a configured durability, ignoring case.
+     *
+     * @param value the value
+     * @return the durability
+     * @author Swarn Avinash Kumar
+     */
+    public static Durability fromValue(final String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Group commit of the records appended to a {@link SegmentedLog}. Producers register the offset of their
+ * record and wait, while a single flusher thread forces the log once the oldest waiting record is N ms old or
+ * N records are waiting, whichever comes first. Every producer of the batch returns after that one force.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class GroupCommitter implements Closeable {
+
+    private final SegmentedLog log;
+
+    /** Longest time a record waits for its force */
+    private final long maxDelayNanos;
+
+    /** Number of waiting records that triggers a force right away */
+    private final int maxRecords;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when the flusher has something to do */
+    private final Condition flushNeeded = lock.newCondition();
+
+    /** Signalled after every force */
+    private final Condition flushed = lock.newCondition();
+
+    /** Highest offset waiting to be forced */
+    private long requestedOffset;
+
+    /** Number of records waiting to be forced */
+    private int pendingRecords;
+
+    /** When the oldest waiting record was registered */
+    private long firstPendingNanos;
+
+    /** Offset up to which every record has been forced by this committer */
+    private long committedOffset;
+
+    /** The error of the last force, failing every commit after it */
+    private IOException failure;
+
+    private volatile boolean closed;
+
+    private final Thread flusher;
+
+    /**
+     * Instantiates a new group committer and starts its flusher thread.
+     *
+     * @param log the log to force
+     * @param maxDelay the longest time a record waits for its force
+     * @param unit the unit of the delay
+     * @param maxRecords the number of waiting records that triggers a force right away
+     */
+    public GroupCommitter(final SegmentedLog log, final long maxDelay, final TimeUnit unit, final int maxRecords) {
+        checkArgument(log != null);
+        checkArgument(maxDelay >= 0);
+        checkArgument(unit != null);
+        checkArgument(maxRecords > 0);
+        this.log = log;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.maxRecords = maxRecords;
+        this.committedOffset = log.durableOffset();
+        this.flusher = new Thread(new Runnable() {
+            public void run() {
+                flushLoop();
+            }
+        }, "group-commit");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Waits until the record ending at the given offset is on disk.
+     *
+     * @param offset the offset returned by {@link SegmentedLog#append(byte[])}
+     * @throws IOException if forcing the log failed
+     * @throws InterruptedException if interrupted while waiting
+     * @author Swarn Avinash Kumar
+     */
+    public void commit(final long offset) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            checkState(!closed, "The group committer is closed");
+            if (offset <= committedOffset) {
+                return;
+            }
+            if (pendingRecords++ == 0) {
+                firstPendingNanos = System.nanoTime();
+                flushNeeded.signal();
+            } else if (pendingRecords >= maxRecords) {
+                flushNeeded.signal();
+            }
+            requestedOffset = Math.max(requestedOffset, offset);
+            while (offset > committedOffset) {
+                if (failure != null) {
+                    throw failure;
+                }
+                checkState(!closed, "The group committer is closed");
+                flushed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the flusher thread, after forcing the records still waiting.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            flushNeeded.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            final long target;
+            lock.lock();
+            try {
+                try {
+                    while (pendingRecords == 0 && !closed) {
+                        flushNeeded.await();
+                    }
+                    long remaining = maxDelayNanos - (System.nanoTime() - firstPendingNanos);
+                    while (pendingRecords > 0 && pendingRecords < maxRecords && remaining > 0 && !closed) {
+                        remaining = flushNeeded.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                if (pendingRecords == 0) {
+                    // Closed with nothing left to force
+                    flushed.signalAll();
+                    return;
+                }
+                target = requestedOffset;
+                pendingRecords = 0;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                log.sync(target);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            lock.lock();
+            try {
+                if (error == null) {
+                    committedOffset = Math.max(committedOffset, target);
+                } else {
+                    failure = error;
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.storage;
+
+/**
+ * How the segments of a {@link SegmentedLog} are read and written.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public enum IoMode {
+
+    /** Positional reads and writes on a FileChannel, reads going through a read-ahead buffer */
+    STREAM,
+
+    /** Segments are preallocated and memory-mapped, records are written to and decoded from the mapping */
+    MMAP;
+
+    /**
+     * Parses a configured I/O mode, ignoring case.
+     *
+     * @param value the value
+     * @return the I/O mode
+     * @author Swarn Avinash Kumar
+     */
+    public static IoMode fromValue(final String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An entry of the journal recording the state of a queue that does not live in its message log: messages
+ * received but not deleted yet, with their visibility deadline, and pushes delayed but not appended yet.
+ * <p>
+ * Entries are encoded as the type (1 byte), the key length (2 bytes) and the UTF-8 key, followed for receives
+ * and delays by the deadline (8 bytes) and the stored message record.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class JournalEntry {
+
+    /**
+     * The type of a journal entry.
+     */
+    public enum Type {
+
+        /** A message was received, it becomes visible again at the deadline unless deleted */
+        RECEIVE('R'),
+
+        /** A received message was deleted or made visible again */
+        DELETE('D'),
+
+        /** A push was delayed, the message is appended at the deadline */
+        DELAY('P'),
+
+        /** A delayed message was appended */
+        DELAY_DONE('A');
+
+        private final byte code;
+
+        private Type(final char code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * Checks if the entry opens a state that a later entry of the same key closes.
+         *
+         * @return true for receives and delays
+         */
+        public boolean isOpening() {
+            return this == RECEIVE || this == DELAY;
+        }
+
+        private static Type fromCode(final byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalStateException("Unknown journal entry type " + (char) code);
+        }
+    }
+
+    /** Decodes journal entries from the log buffers */
+    static final RecordReader<JournalEntry> READER = new RecordReader<JournalEntry>() {
+        public JournalEntry read(final ByteBuffer record) {
+            return decode(record);
+        }
+    };
+
+    private final Type type;
+
+    /** The receipt handle of a receive, or the token of a delayed push */
+    private final String key;
+
+    /** Wall clock time of the visibility deadline or of the end of the delay, in milliseconds */
+    private final long deadlineMillis;
+
+    /** The stored message record */
+    private final byte[] message;
+
+    private JournalEntry(final Type type, final String key, final long deadlineMillis, final byte[] message) {
+        checkArgument(key != null);
+        this.type = type;
+        this.key = key;
+        this.deadlineMillis = deadlineMillis;
+        this.message = message;
+    }
+
+    /**
+     * Creates the entry of a received message.
+     *
+     * @param receiptHandle the receipt handle
+     * @param deadlineMillis the visibility deadline
+     * @param message the stored message record
+     * @return the entry
+     */
+    public static JournalEntry receive(final String receiptHandle, final long deadlineMillis, final byte[] message) {
+        checkArgument(message != null);
+        return new JournalEntry(Type.RECEIVE, receiptHandle, deadlineMillis, message);
+    }
+
+    /**
+     * Creates the entry of a deleted or visible again message.
+     *
+     * @param receiptHandle the receipt handle
+     * @return the entry
+     */
+    public static JournalEntry delete(final String receiptHandle) {
+        return new JournalEntry(Type.DELETE, receiptHandle, 0, null);
+    }
+
+    /**
+     * Creates the entry of a delayed push.
+     *
+     * @param token the token identifying the delayed push
+     * @param deadlineMillis the end of the delay
+     * @param message the stored message record
+     * @return the entry
+     */
+    public static JournalEntry delay(final String token, final long deadlineMillis, final byte[] message) {
+        checkArgument(message != null);
+        return new JournalEntry(Type.DELAY, token, deadlineMillis, message);
+    }
+
+    /**
+     * Creates the entry of a delayed push that was appended.
+     *
+     * @param token the token identifying the delayed push
+     * @return the entry
+     */
+    public static JournalEntry delayDone(final String token) {
+        return new JournalEntry(Type.DELAY_DONE, token, 0, null);
+    }
+
+    /**
+     * Creates the entry closing this receive or delay.
+     *
+     * @return the delete of a receive, or the end of a delay
+     */
+    public JournalEntry closing() {
+        checkState(type.isOpening(), "Only receives and delays are closed");
+        return type == Type.RECEIVE ? delete(key) : delayDone(key);
+    }
+
+    /**
+     * Encodes the entry.
+     *
+     * @return the bytes of the entry
+     */
+    public byte[] encode() {
+        final byte[] keyBytes = key.getBytes(Charsets.UTF_8);
+        checkState(keyBytes.length <= 0xffff, "Journal key too long");
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                1 + 2 + keyBytes.length + (type.isOpening() ? 8 + message.length : 0));
+        buffer.put(type.code).putShort((short) keyBytes.length).put(keyBytes);
+        if (type.isOpening()) {
+            buffer.putLong(deadlineMillis).put(message);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes an entry.
+     *
+     * @param record the bytes of the entry, between the position and the limit
+     * @return the entry
+     */
+    static JournalEntry decode(final ByteBuffer record) {
+        final ByteBuffer view = record.duplicate();
+        final Type type = Type.fromCode(view.get());
+        final byte[] keyBytes = new byte[view.getShort() & 0xffff];
+        view.get(keyBytes);
+        final String key = new String(keyBytes, Charsets.UTF_8);
+        if (!type.isOpening()) {
+            return new JournalEntry(type, key, 0, null);
+        }
+        final long deadlineMillis = view.getLong();
+        final byte[] message = new byte[view.remaining()];
+        view.get(message);
+        return new JournalEntry(type, key, deadlineMillis, message);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public byte[] getMessage() {
+        return message;
+    }
+}
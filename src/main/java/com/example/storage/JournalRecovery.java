@@ -0,0 +1,209 @@
+package com.example.storage;
+
+import com.google.common.base.Throwables;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rebuilds the live entries of a journal when a queue starts, then checkpoints them so that the journal only
+ * holds what is still live.
+ * <p>
+ * Segments are replayed in parallel with fork/join: each segment is reduced to the entries it opens and the
+ * entries it closes, and adjacent results are merged in log order, a close in a later segment cancelling an
+ * open in an earlier one. An entry opened again after its close, as a visibility change journals it, is live
+ * again. Recovery time depends on the size of the journal, not on the backlog of the queue.
+ * The journal is only rewritten if it holds closed entries.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class JournalRecovery {
+
+    /** Suffix of the directory a checkpoint is written to before replacing the journal */
+    static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    /** Suffix of the directory the replaced journal is moved to until the checkpoint is in place */
+    static final String REPLACED_SUFFIX = ".replaced";
+
+    private JournalRecovery() {
+
+    }
+
+    /**
+     * Recovers the live entries of a journal and rewrites the journal with only these entries. An interrupted
+     * checkpoint is completed or discarded first.
+     *
+     * @param directory the directory of the journal
+     * @param segmentBytes the maximum size of a segment of the rewritten journal
+     * @param ioMode the I/O mode of the rewritten journal
+     * @return the receives and delays not closed yet, in journal order
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public static List<JournalEntry> recover(final File directory, final long segmentBytes, final IoMode ioMode)
+            throws IOException {
+        final File checkpoint = sibling(directory, CHECKPOINT_SUFFIX);
+        final File replaced = sibling(directory, REPLACED_SUFFIX);
+        if (!directory.exists() && checkpoint.isDirectory()) {
+            // The checkpoint was complete, the crash happened while swapping directories
+            rename(checkpoint, directory);
+        }
+        deleteRecursively(checkpoint);
+        deleteRecursively(replaced);
+
+        final List<File> segments = new ArrayList<>(SegmentedLog.segmentFiles(directory).values());
+        if (segments.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final Replay replay;
+        final ForkJoinPool pool = new ForkJoinPool();
+        try {
+            replay = pool.invoke(new ReplayTask(segments, 0, segments.size()));
+        } finally {
+            pool.shutdown();
+        }
+        final List<JournalEntry> live = new ArrayList<>(replay.opened.values());
+        if (replay.entries > live.size()) {
+            // Only rewrite a journal holding closed entries
+            checkpoint(directory, live, segmentBytes, ioMode);
+        }
+        return live;
+    }
+
+    /**
+     * Replaces a journal with one holding only the given entries. The new journal is written and forced in a
+     * separate directory first, so a crash leaves either the old or the new journal behind.
+     */
+    private static void checkpoint(final File directory, final Collection<JournalEntry> entries,
+            final long segmentBytes, final IoMode ioMode) throws IOException {
+        final File checkpoint = sibling(directory, CHECKPOINT_SUFFIX);
+        final SegmentedLog log = new SegmentedLog(checkpoint, segmentBytes, ioMode);
+        try {
+            long offset = 0;
+            for (JournalEntry entry : entries) {
+                offset = log.append(entry.encode());
+            }
+            log.sync(offset);
+        } finally {
+            log.close();
+        }
+        if (directory.exists()) {
+            final File replaced = sibling(directory, REPLACED_SUFFIX);
+            rename(directory, replaced);
+            rename(checkpoint, directory);
+            deleteRecursively(replaced);
+        } else {
+            rename(checkpoint, directory);
+        }
+    }
+
+    /**
+     * Entries opened and closed by a range of segments.
+     */
+    private static final class Replay {
+
+        /** Receives and delays opened and not closed within the range, in log order */
+        private final Map<String, JournalEntry> opened = new LinkedHashMap<>();
+
+        /** Keys closed within the range, whether opened in it or not: a close cancels every open before it */
+        private final Set<String> closed = new LinkedHashSet<>();
+
+        /** Number of entries in the range */
+        private long entries;
+
+        private void apply(final JournalEntry entry) {
+            ++entries;
+            if (entry.getType().isOpening()) {
+                opened.put(entry.getKey(), entry);
+            } else {
+                opened.remove(entry.getKey());
+                closed.add(entry.getKey());
+            }
+        }
+
+        /**
+         * Appends the replay of the following range. Its closes are kept even when they cancel an open of this
+         * range, since an earlier range may have opened the same key too.
+         */
+        private Replay merge(final Replay next) {
+            for (String key : next.closed) {
+                opened.remove(key);
+                closed.add(key);
+            }
+            // Opened after any close of the following range
+            opened.putAll(next.opened);
+            entries += next.entries;
+            return this;
+        }
+    }
+
+    /**
+     * Replays the segments of a range, splitting the range until it is a single segment.
+     */
+    private static final class ReplayTask extends RecursiveTask<Replay> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> segments;
+        private final int from;
+        private final int to;
+
+        private ReplayTask(final List<File> segments, final int from, final int to) {
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Replay compute() {
+            if (to - from == 1) {
+                final Replay replay = new Replay();
+                try {
+                    SegmentScanner.scan(segments.get(from), new SegmentScanner.RecordVisitor() {
+                        public void visit(final ByteBuffer record) {
+                            replay.apply(JournalEntry.decode(record));
+                        }
+                    });
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                return replay;
+            }
+            final int middle = (from + to) >>> 1;
+            final ReplayTask left = new ReplayTask(segments, from, middle);
+            final ReplayTask right = new ReplayTask(segments, middle, to);
+            right.fork();
+            return left.compute().merge(right.join());
+        }
+    }
+
+    private static File sibling(final File directory, final String suffix) {
+        return new File(directory.getParentFile(), directory.getName() + suffix);
+    }
+
+    private static void rename(final File from, final File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Cannot rename " + from + " to " + to);
+        }
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
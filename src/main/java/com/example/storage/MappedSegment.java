@@ -0,0 +1,121 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Segment preallocated on disk and memory-mapped. Records are copied straight into the mapping and read back
+ * as views of it, without any read or write system call. The unwritten tail of the file is all zeros, and
+ * records start with a non-zero version byte, which is how the end of the data is found when the segment is
+ * opened again.
+ *
+ * @author Swarn Avinash Kumar
+ */
+final class MappedSegment extends Segment {
+
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+
+    /** The mapping, created on first access. Volatile as the log forces segments without holding its lock */
+    private volatile MappedByteBuffer buffer;
+
+    MappedSegment(final File directory, final long baseOffset, final long capacity, final long knownSize)
+            throws IOException {
+        super(directory, baseOffset);
+        checkArgument(capacity <= Integer.MAX_VALUE, "Mapped segments cannot be larger than 2 GB");
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.channel = randomAccessFile.getChannel();
+        if (channel.size() < capacity) {
+            randomAccessFile.setLength(capacity);
+        }
+        this.size = knownSize >= 0 ? knownSize : findEndOfData();
+    }
+
+    @Override
+    void append(final byte[] payload) throws IOException {
+        final long end = size + HEADER_BYTES + payload.length;
+        if (end > mapping().capacity()) {
+            grow(end);
+        }
+        final ByteBuffer target = mapping().duplicate();
+        target.position((int) size);
+        writeRecord(target, payload);
+        size = end;
+    }
+
+    @Override
+    ByteBuffer record(final long position) throws IOException {
+        if (position + HEADER_BYTES > size) {
+            return null;
+        }
+        final MappedByteBuffer mapping = mapping();
+        final int length = payloadLength(mapping, (int) position);
+        if (length < 0 || position + HEADER_BYTES + length > size) {
+            return null;
+        }
+        final ByteBuffer record = mapping.duplicate();
+        record.limit((int) position + HEADER_BYTES + length);
+        record.position((int) position + HEADER_BYTES);
+        return record;
+    }
+
+    @Override
+    void force() throws IOException {
+        final MappedByteBuffer mapping = buffer;
+        if (mapping != null) {
+            mapping.force();
+        } else {
+            // Unmapped after growing, the dirty pages of the previous mapping are still in the page cache
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        randomAccessFile.close();
+    }
+
+    private MappedByteBuffer mapping() throws IOException {
+        if (buffer == null) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        return buffer;
+    }
+
+    /**
+     * Extends the file, for a record larger than the preallocated space.
+     */
+    private void grow(final long capacity) throws IOException {
+        checkArgument(capacity <= Integer.MAX_VALUE, "Mapped segments cannot be larger than 2 GB");
+        randomAccessFile.setLength(capacity);
+        buffer = null;
+    }
+
+    /**
+     * Checks the records from the beginning of the segment to find the end of the valid data. A record that
+     * was not completely written or does not match its checksum is wiped with everything after it, so that
+     * the next append overwrites it.
+     */
+    private long findEndOfData() throws IOException {
+        final MappedByteBuffer mapping = mapping();
+        int position = 0;
+        int recordSize;
+        while (position < mapping.capacity() && mapping.get(position) != 0
+                && (recordSize = checkRecord(mapping, position, mapping.capacity())) > 0) {
+            position += recordSize;
+        }
+        if (position < mapping.capacity() && mapping.get(position) != 0) {
+            for (int i = position; i < mapping.capacity(); ++i) {
+                mapping.put(i, (byte) 0);
+            }
+        }
+        return position;
+    }
+}
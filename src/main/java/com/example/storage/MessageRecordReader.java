@@ -0,0 +1,58 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.example.pojo.Message;
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the message records written by {@link MessageRecordWriter}, straight from the buffer holding them:
+ * the id is read as two longs and the body is decoded in place, without any intermediate string.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class MessageRecordReader implements RecordReader<Message> {
+
+    /**
+     * Decodes a message record.
+     *
+     * @param record the record, between the position and the limit of the buffer
+     * @return the message
+     * @author Swarn Avinash Kumar
+     */
+    @Override
+    public Message read(final ByteBuffer record) {
+        checkState(record.remaining() >= MessageRecordWriter.HEADER_BYTES, "Corrupted message record");
+        final int start = record.position();
+        return new Message(record.getLong(start), record.getLong(start + 8),
+                decode(record, start + MessageRecordWriter.HEADER_BYTES, record.limit()));
+    }
+
+    /**
+     * Gets the enqueue timestamp of a message record.
+     *
+     * @param record the record, between the position and the limit of the buffer
+     * @return when the message was pushed, in milliseconds since the epoch
+     * @author Swarn Avinash Kumar
+     */
+    public static long enqueueTimestamp(final ByteBuffer record) {
+        checkState(record.remaining() >= MessageRecordWriter.HEADER_BYTES, "Corrupted message record");
+        return record.getLong(record.position() + 16);
+    }
+
+    /**
+     * Decodes UTF-8 bytes of a buffer, without going through an intermediate array when the buffer has one.
+     */
+    private static String decode(final ByteBuffer buffer, final int from, final int to) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + from, to - from, Charsets.UTF_8);
+        }
+        final byte[] bytes = new byte[to - from];
+        final ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        view.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Encodes messages into the records of the file queue. A message record is the 128-bit message id (two
+ * longs), the enqueue timestamp in milliseconds (a long) and the UTF-8 body. Once appended to a
+ * {@link SegmentedLog} it is framed by the format version, flags, length and CRC-32C, so that on disk a message
+ * is:
+ *
+ * <pre>
+ * version (1) | flags (1) | length (4) | CRC-32C (4) | id (16) | enqueue timestamp (8) | body
+ * </pre>
+ *
+ * Bodies can hold any character, new lines and separators included. {@link MessageRecordReader} decodes the
+ * records.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class MessageRecordWriter {
+
+    /** Size of the message header: id and enqueue timestamp */
+    static final int HEADER_BYTES = 24;
+
+    private MessageRecordWriter() {
+
+    }
+
+    /**
+     * Encodes a message.
+     *
+     * @param id the message id
+     * @param enqueueTimestamp when the message was pushed, in milliseconds since the epoch
+     * @param body the message body
+     * @return the record
+     * @author Swarn Avinash Kumar
+     */
+    public static byte[] write(final UUID id, final long enqueueTimestamp, final String body) {
+        checkArgument(id != null);
+        checkArgument(body != null);
+        final byte[] bodyBytes = body.getBytes(Charsets.UTF_8);
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + bodyBytes.length);
+        record.putLong(id.getMostSignificantBits());
+        record.putLong(id.getLeastSignificantBits());
+        record.putLong(enqueueTimestamp);
+        record.put(bodyBytes);
+        return record.array();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.storage;
+
+/**
+ * Where an in-memory queue keeps its queued messages.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public enum MessageStorage {
+
+    /** Message objects in the nodes of a linked deque on the heap */
+    HEAP,
+
+    /** Message ids and bodies encoded in the chunks of a {@link SlabArena}, linked together off the heap */
+    OFF_HEAP;
+
+    /**
+     * Parses a configured message storage, ignoring case.
+     *
+     * @param value the value
+     * @return the message storage
+     * @author Swarn Avinash Kumar
+     */
+    public static MessageStorage fromValue(final String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes records read from a {@link SegmentedLog} straight from the log buffers.
+ *
+ * @param <T> the type of the decoded records
+ * @author Swarn Avinash Kumar
+ */
+public interface RecordReader<T> {
+
+    /**
+     * Decodes a record. The buffer holds the record bytes between its position and its limit; it is a view
+     * of the log buffers (or of the mapped segment), so it must not be modified or kept after returning.
+     *
+     * @param record the record
+     * @return the decoded record
+     */
+    T read(ByteBuffer record);
+}
@@ -0,0 +1,213 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A single file of a {@link SegmentedLog}. Records are only ever appended at the end of the segment, and the
+ * segment is named after the log offset of its first byte. Segments are not thread-safe, the log serializes
+ * every access.
+ * <p>
+ * Every record is framed by a header: the format version (1 byte, never zero), flags (1 byte, reserved), the
+ * payload length (4 bytes) and the CRC-32C of the header fields and the payload (4 bytes). When the last
+ * segment is opened, its records are checked and a torn or corrupted tail is cut off.
+ *
+ * @author Swarn Avinash Kumar
+ */
+abstract class Segment implements Closeable {
+
+    static final String SEGMENT_SUFFIX = ".segment";
+
+    /** Version of the record format, the first byte of every record */
+    static final byte FORMAT_VERSION = 1;
+
+    /** Size of the record header */
+    static final int HEADER_BYTES = 10;
+
+    private static final int LENGTH_OFFSET = 2;
+
+    private static final int CRC_OFFSET = 6;
+
+    protected final long baseOffset;
+    protected final File file;
+
+    /** Number of bytes written to the segment */
+    protected long size;
+
+    /**
+     * Instantiates a new segment.
+     *
+     * @param directory the directory of the log
+     * @param baseOffset the log offset of the first byte of the segment
+     */
+    protected Segment(final File directory, final long baseOffset) {
+        checkArgument(baseOffset >= 0);
+        this.baseOffset = baseOffset;
+        this.file = new File(directory, fileName(baseOffset));
+    }
+
+    /**
+     * Opens a segment, creating the file if needed.
+     *
+     * @param directory the directory of the log
+     * @param baseOffset the log offset of the first byte of the segment
+     * @param ioMode the I/O mode
+     * @param capacity the number of bytes to preallocate, if the I/O mode preallocates segments
+     * @param knownSize the number of bytes written to the segment if known, -1 to find it out from the file
+     * @return the segment
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    static Segment open(final File directory, final long baseOffset, final IoMode ioMode, final long capacity,
+            final long knownSize) throws IOException {
+        switch (ioMode) {
+            case MMAP:
+                return new MappedSegment(directory, baseOffset, capacity, knownSize);
+            default:
+                return new ChannelSegment(directory, baseOffset, knownSize);
+        }
+    }
+
+    /**
+     * Gets the file name of the segment starting at the given offset. Names are zero padded so that they sort
+     * in offset order.
+     *
+     * @param baseOffset the base offset
+     * @return the file name
+     */
+    static String fileName(final long baseOffset) {
+        return String.format("%020d%s", baseOffset, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Frames a payload into a record.
+     *
+     * @param target the buffer to write the record to, at its position
+     * @param payload the payload
+     */
+    static void writeRecord(final ByteBuffer target, final byte[] payload) {
+        final int start = target.position();
+        target.put(FORMAT_VERSION);
+        target.put((byte) 0);
+        target.putInt(payload.length);
+        target.putInt(0);
+        target.put(payload);
+        final ByteBuffer header = target.duplicate();
+        header.position(start);
+        header.limit(start + CRC_OFFSET);
+        final Crc32c crc = new Crc32c();
+        crc.update(header);
+        crc.update(payload, 0, payload.length);
+        target.putInt(start + CRC_OFFSET, (int) crc.getValue());
+    }
+
+    /**
+     * Gets the payload length of the record starting at the given position of a buffer, without checking it.
+     *
+     * @param buffer the buffer
+     * @param position the position of the record
+     * @return the payload length, or -1 if there is no record at this position
+     */
+    static int payloadLength(final ByteBuffer buffer, final int position) {
+        if (buffer.get(position) != FORMAT_VERSION) {
+            return -1;
+        }
+        return buffer.getInt(position + LENGTH_OFFSET);
+    }
+
+    /**
+     * Checks the record starting at the given position of a buffer: format version, length within the
+     * available bytes and checksum.
+     *
+     * @param buffer the buffer
+     * @param position the position of the record
+     * @param limit the end of the readable bytes of the buffer
+     * @return the size of the record, header included, or -1 if it is torn or corrupted
+     */
+    static int checkRecord(final ByteBuffer buffer, final int position, final int limit) {
+        if (limit - position < HEADER_BYTES) {
+            return -1;
+        }
+        final int length = payloadLength(buffer, position);
+        if (length < 0 || length > limit - position - HEADER_BYTES) {
+            return -1;
+        }
+        final ByteBuffer view = buffer.duplicate();
+        final Crc32c crc = new Crc32c();
+        view.limit(position + CRC_OFFSET);
+        view.position(position);
+        crc.update(view);
+        view.limit(position + HEADER_BYTES + length);
+        view.position(position + HEADER_BYTES);
+        crc.update(view);
+        if ((int) crc.getValue() != buffer.getInt(position + CRC_OFFSET)) {
+            return -1;
+        }
+        return HEADER_BYTES + length;
+    }
+
+    /**
+     * Appends a record at the end of the segment.
+     *
+     * @param payload the payload of the record
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    abstract void append(byte[] payload) throws IOException;
+
+    /**
+     * Appends records at the end of the segment.
+     *
+     * @param payloads the payloads of the records
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    void appendAll(final List<byte[]> payloads) throws IOException {
+        for (byte[] payload : payloads) {
+            append(payload);
+        }
+    }
+
+    /**
+     * Gets the record starting at the given position. The returned buffer holds the record payload between
+     * its position and its limit, and is only valid until the segment is accessed again.
+     *
+     * @param position the position in the segment
+     * @return the record, or null if there is no complete record at this position
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    abstract ByteBuffer record(long position) throws IOException;
+
+    /**
+     * Forces the written bytes of the segment to the storage device.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    abstract void force() throws IOException;
+
+    /**
+     * Releases the memory used to read the segment, once the reader moved past it.
+     */
+    void releaseReadBuffer() {
+
+    }
+
+    long getBaseOffset() {
+        return baseOffset;
+    }
+
+    long getEndOffset() {
+        return baseOffset + size;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    File getFile() {
+        return file;
+    }
+}
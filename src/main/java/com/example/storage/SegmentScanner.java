@@ -0,0 +1,85 @@
+package com.example.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads every record of a segment file sequentially, without opening the log it belongs to. Each scanner has
+ * its own file handle and buffer, so several segments can be scanned in parallel.
+ *
+ * @author Swarn Avinash Kumar
+ */
+final class SegmentScanner {
+
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
+    /**
+     * Receives the records of a scanned segment.
+     */
+    interface RecordVisitor {
+
+        /**
+         * Visits a record. The buffer holds the record bytes between its position and its limit, and is only
+         * valid during the call.
+         *
+         * @param record the record
+         */
+        void visit(ByteBuffer record);
+    }
+
+    private SegmentScanner() {
+
+    }
+
+    /**
+     * Visits the valid records of a segment file in order. The scan stops at a record that was not completely
+     * written or does not match its checksum, and at the zeroed tail of a preallocated segment.
+     *
+     * @param file the segment file
+     * @param visitor the record visitor
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static void scan(final File file, final RecordVisitor visitor) throws IOException {
+        try (FileInputStream input = new FileInputStream(file)) {
+            final FileChannel channel = input.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            boolean endOfFile = false;
+            while (true) {
+                while (!endOfFile && buffer.hasRemaining()) {
+                    endOfFile = channel.read(buffer) < 0;
+                }
+                buffer.flip();
+                int start = 0;
+                int recordSize;
+                while ((recordSize = Segment.checkRecord(buffer, start, buffer.limit())) > 0) {
+                    final ByteBuffer record = buffer.duplicate();
+                    record.limit(start + recordSize);
+                    record.position(start + Segment.HEADER_BYTES);
+                    visitor.visit(record);
+                    start += recordSize;
+                }
+                if (endOfFile && start == buffer.limit()) {
+                    return;
+                }
+                if (start == 0) {
+                    final int length =
+                            buffer.limit() >= Segment.HEADER_BYTES ? Segment.payloadLength(buffer, 0) : -1;
+                    if (endOfFile || length < 0 || Segment.HEADER_BYTES + length <= buffer.capacity()) {
+                        // Torn or corrupted record, or zeroed tail
+                        return;
+                    }
+                    // The record is larger than the buffer
+                    final ByteBuffer larger = ByteBuffer.allocate(Segment.HEADER_BYTES + length);
+                    larger.put(buffer);
+                    buffer = larger;
+                    continue;
+                }
+                buffer.position(start);
+                buffer.compact();
+            }
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Append-only log of records split into segment files of a fixed maximum size, with a single persisted read
+ * cursor. Records are arbitrary bytes, framed with their length and a checksum (see {@link Segment}).
+ * <p>
+ * Appending writes at the end of the active segment and reading advances the cursor, so both are O(1)
+ * whatever the size of the backlog: nothing already written is ever read back or rewritten. How segments are
+ * accessed depends on the {@link IoMode}.
+ * <p>
+ * Appended records reach the page cache only. {@link #sync(long)} forces them to disk without blocking
+ * appends, and concurrent callers share a single force.
+ * <p>
+ * Segments are never rewritten, space is reclaimed by deleting whole segments from the head of the log (see
+ * {@link Compactor}).
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class SegmentedLog implements Closeable {
+
+    static final String CURSOR_FILE = "cursor";
+
+    /** Reader copying records into byte arrays */
+    private static final RecordReader<byte[]> BYTE_ARRAY_READER = new RecordReader<byte[]>() {
+        public byte[] read(ByteBuffer record) {
+            final byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            return bytes;
+        }
+    };
+
+    /** Reader leaving records undecoded */
+    private static final RecordReader<Boolean> SKIPPING_READER = new RecordReader<Boolean>() {
+        public Boolean read(ByteBuffer record) {
+            return Boolean.TRUE;
+        }
+    };
+
+    /** The directory holding the segments and the cursor */
+    private final File directory;
+
+    /** Size above which a new segment is started */
+    private final long segmentBytes;
+
+    private final IoMode ioMode;
+
+    /** Segments indexed by base offset */
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+
+    /** The segment new records are appended to */
+    private Segment activeSegment;
+
+    /** The file storing the read cursor */
+    private final FileChannel cursorChannel;
+
+    private final ByteBuffer cursorBuffer = ByteBuffer.allocate(8);
+
+    /** The cursor file mapped in memory in mmap mode, so that moving the cursor costs no system call */
+    private final MappedByteBuffer mappedCursor;
+
+    /** Log offset of the next record to read */
+    private long readOffset;
+
+    /** Serializes forces, so that callers waiting for a force in progress find their records synced by it */
+    private final Object syncLock = new Object();
+
+    /** Log offset up to which every record is on disk */
+    private volatile long durableOffset;
+
+    /** Number of times the log was forced to disk */
+    private volatile long syncCount;
+
+    /**
+     * Opens a log with stream I/O, creating the directory if needed. Appending resumes at the end of the last
+     * segment and reading at the persisted cursor.
+     *
+     * @param directory the directory
+     * @param segmentBytes the maximum size of a segment
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public SegmentedLog(final File directory, final long segmentBytes) throws IOException {
+        this(directory, segmentBytes, IoMode.STREAM);
+    }
+
+    /**
+     * Opens a log, creating the directory if needed. Appending resumes at the end of the last segment and
+     * reading at the persisted cursor.
+     *
+     * @param directory the directory
+     * @param segmentBytes the maximum size of a segment
+     * @param ioMode the I/O mode of the segments
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public SegmentedLog(final File directory, final long segmentBytes, final IoMode ioMode) throws IOException {
+        checkArgument(directory != null);
+        checkArgument(segmentBytes > 0);
+        checkArgument(ioMode != null);
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.ioMode = ioMode;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        final NavigableSet<Long> baseOffsets = new TreeSet<>(segmentFiles(directory).keySet());
+        if (baseOffsets.isEmpty()) {
+            baseOffsets.add(0L);
+        }
+        for (Long baseOffset : baseOffsets) {
+            final Long nextOffset = baseOffsets.higher(baseOffset);
+            if (nextOffset == null) {
+                segments.put(baseOffset, Segment.open(directory, baseOffset, ioMode, segmentBytes, -1));
+            } else {
+                // Segments are only rolled once full, so the next base offset tells where the data ends
+                segments.put(baseOffset,
+                        Segment.open(directory, baseOffset, ioMode, 0, nextOffset - baseOffset));
+            }
+        }
+        this.activeSegment = segments.lastEntry().getValue();
+
+        this.cursorChannel = new RandomAccessFile(new File(directory, CURSOR_FILE), "rw").getChannel();
+        if (cursorChannel.size() >= 8) {
+            cursorChannel.read(cursorBuffer, 0);
+            cursorBuffer.flip();
+            this.readOffset = cursorBuffer.getLong();
+        }
+        this.mappedCursor = ioMode == IoMode.MMAP ? cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8) : null;
+        this.readOffset = Math.max(readOffset, segments.firstKey());
+        this.durableOffset = activeSegment.getEndOffset();
+    }
+
+    /**
+     * Appends a record at the end of the log.
+     *
+     * @param record the record
+     * @return the log offset right after the record, to be passed to {@link #sync(long)}
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized long append(final byte[] record) throws IOException {
+        checkArgument(record != null);
+        final int length = Segment.HEADER_BYTES + record.length;
+        if (activeSegment.getSize() > 0 && activeSegment.getSize() + length > segmentBytes) {
+            roll();
+        }
+        activeSegment.append(record);
+        return activeSegment.getEndOffset();
+    }
+
+    /**
+     * Appends records at the end of the log, holding the log once for all of them. Records going to the same
+     * segment are written together.
+     *
+     * @param records the records
+     * @return the log offset right after the last record, to be passed to {@link #sync(long)}
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized long appendAll(final List<byte[]> records) throws IOException {
+        checkArgument(records != null);
+        int from = 0;
+        while (from < records.size()) {
+            long size = activeSegment.getSize();
+            int to = from;
+            while (to < records.size()) {
+                checkArgument(records.get(to) != null);
+                final int length = Segment.HEADER_BYTES + records.get(to).length;
+                if (size > 0 && size + length > segmentBytes) {
+                    break;
+                }
+                size += length;
+                ++to;
+            }
+            if (to == from) {
+                roll();
+                continue;
+            }
+            activeSegment.appendAll(records.subList(from, to));
+            from = to;
+        }
+        return activeSegment.getEndOffset();
+    }
+
+    /**
+     * Forces every record up to the given offset to disk. Appends carry on while the segments are forced, and
+     * everything appended by then is synced along, so callers waiting behind a force in progress usually
+     * return without forcing again.
+     *
+     * @param offset the offset returned by {@link #append(byte[])}
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public void sync(final long offset) throws IOException {
+        if (durableOffset >= offset) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableOffset >= offset) {
+                return;
+            }
+            final long target;
+            final List<Segment> dirtySegments;
+            synchronized (this) {
+                target = activeSegment.getEndOffset();
+                final long from = segments.floorKey(Math.max(durableOffset, segments.firstKey()));
+                dirtySegments = new ArrayList<>(segments.tailMap(from, true).values());
+            }
+            for (Segment segment : dirtySegments) {
+                segment.force();
+            }
+            ++syncCount;
+            durableOffset = target;
+        }
+    }
+
+    /**
+     * Gets the offset up to which every record is on disk, as far as this log knows. Records that were there
+     * when the log was opened count as synced.
+     *
+     * @return the offset
+     * @author Swarn Avinash Kumar
+     */
+    public long durableOffset() {
+        return durableOffset;
+    }
+
+    /**
+     * Gets the number of times the log was forced to disk.
+     *
+     * @return the number of forces
+     * @author Swarn Avinash Kumar
+     */
+    public long syncCount() {
+        return syncCount;
+    }
+
+    /**
+     * Reads the record at the cursor and moves the cursor past it.
+     *
+     * @return the record, or null if every record has been read
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public byte[] poll() throws IOException {
+        return poll(BYTE_ARRAY_READER);
+    }
+
+    /**
+     * Reads the records at the cursor without moving it, so that a reader can act on them before
+     * {@link #skip(int)} marks them as read.
+     *
+     * @param max the most records read
+     * @return the records, empty if every record has been read
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public List<byte[]> peek(final int max) throws IOException {
+        return peek(BYTE_ARRAY_READER, max);
+    }
+
+    /**
+     * Decodes the record at the cursor and moves the cursor past it. The reader is handed a view of the log
+     * buffers, so records can be decoded without intermediate copies.
+     *
+     * @param reader the record reader
+     * @return the decoded record, or null if every record has been read
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized <T> T poll(final RecordReader<T> reader) throws IOException {
+        checkArgument(reader != null);
+        while (true) {
+            final Segment segment = segments.floorEntry(readOffset).getValue();
+            if (readOffset >= segment.getEndOffset()) {
+                final Map.Entry<Long, Segment> next = segments.higherEntry(segment.getBaseOffset());
+                if (next == null) {
+                    return null;
+                }
+                segment.releaseReadBuffer();
+                readOffset = next.getKey();
+                continue;
+            }
+            final ByteBuffer record = segment.record(readOffset - segment.getBaseOffset());
+            if (record == null) {
+                // Incomplete record at the end of the segment, nothing more to read
+                return null;
+            }
+            final int length = record.remaining();
+            final T value = reader.read(record);
+            readOffset += Segment.HEADER_BYTES + length;
+            persistCursor();
+            return value;
+        }
+    }
+
+    /**
+     * Decodes the records at the cursor without moving it, so that a reader can act on them before
+     * {@link #skip(int)} marks them as read.
+     *
+     * @param reader the record reader
+     * @param max the most records decoded
+     * @return the decoded records, empty if every record has been read
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized <T> List<T> peek(final RecordReader<T> reader, final int max) throws IOException {
+        checkArgument(reader != null);
+        checkArgument(max > 0);
+        final List<T> values = new ArrayList<>(Math.min(max, 16));
+        long offset = readOffset;
+        while (values.size() < max) {
+            final Segment segment = segments.floorEntry(offset).getValue();
+            if (offset >= segment.getEndOffset()) {
+                final Long next = segments.higherKey(segment.getBaseOffset());
+                if (next == null) {
+                    break;
+                }
+                offset = next;
+                continue;
+            }
+            final ByteBuffer record = segment.record(offset - segment.getBaseOffset());
+            if (record == null) {
+                break;
+            }
+            final int length = record.remaining();
+            values.add(reader.read(record));
+            offset += Segment.HEADER_BYTES + length;
+        }
+        return values;
+    }
+
+    /**
+     * Moves the cursor past records without decoding them.
+     *
+     * @param count the number of records to skip
+     * @return the number of records skipped, fewer if the cursor reached the end of the log
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized int skip(final int count) throws IOException {
+        checkArgument(count >= 0);
+        int skipped = 0;
+        while (skipped < count && poll(SKIPPING_READER) != null) {
+            ++skipped;
+        }
+        return skipped;
+    }
+
+    /**
+     * Checks if every record of the log has been read.
+     *
+     * @return true if there is nothing to read
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized boolean isEmpty() {
+        return readOffset >= activeSegment.getEndOffset();
+    }
+
+    /**
+     * Gets the number of bytes appended but not read yet.
+     *
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized long pendingBytes() {
+        return Math.max(0, activeSegment.getEndOffset() - readOffset);
+    }
+
+    /**
+     * Gets the number of segment files of the log.
+     *
+     * @return the number of segments
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Deletes the segments the cursor moved past. The active segment is never deleted.
+     *
+     * @return the number of bytes reclaimed
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @author Swarn Avinash Kumar
+     */
+    public long deleteReadSegments() throws IOException {
+        // A segment being forced is not closed under the sync
+        synchronized (syncLock) {
+            synchronized (this) {
+                long reclaimed = 0;
+                Segment oldest = segments.firstEntry().getValue();
+                while (oldest != activeSegment && oldest.getEndOffset() <= readOffset) {
+                    reclaimed += deleteOldestSegment();
+                    oldest = segments.firstEntry().getValue();
+                }
+                return reclaimed;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of bytes held by segments the cursor moved past, which {@link #deleteReadSegments()}
+     * would reclaim.
+     *
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized long readSegmentBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            if (segment == activeSegment || segment.getEndOffset() > readOffset) {
+                break;
+            }
+            bytes += segment.getSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the number of bytes held by the segments no more records are appended to.
+     *
+     * @return the number of bytes
+     * @author Swarn Avinash Kumar
+     */
+    public synchronized long closedSegmentBytes() {
+        return activeSegment.getBaseOffset() - segments.firstKey();
+    }
+
+    /**
+     * Gets the file of the oldest segment, unless it is the active one. Its records never change anymore, so it
+     * can be scanned without holding the log.
+     *
+     * @return the file, or null if the log has a single segment
+     */
+    synchronized File oldestClosedSegment() {
+        final Segment oldest = segments.firstEntry().getValue();
+        return oldest == activeSegment ? null : oldest.getFile();
+    }
+
+    /**
+     * Deletes the oldest segment, whether its records were read or not, unless it is the active one.
+     *
+     * @param file the file of the segment, as returned by {@link #oldestClosedSegment()}
+     * @return the number of bytes reclaimed, 0 if the segment is not the oldest one anymore
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    long deleteOldestSegment(final File file) throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                final Segment oldest = segments.firstEntry().getValue();
+                if (oldest == activeSegment || !oldest.getFile().equals(file)) {
+                    return 0;
+                }
+                return deleteOldestSegment();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        cursorChannel.close();
+    }
+
+    /**
+     * Lists the segment files of a log directory, without opening them.
+     *
+     * @param directory the directory of the log
+     * @return the segment files indexed by base offset, empty if the directory does not exist
+     */
+    static NavigableMap<Long, File> segmentFiles(final File directory) {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(Segment.SEGMENT_SUFFIX);
+            }
+        });
+        final NavigableMap<Long, File> segmentFiles = new TreeMap<>();
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                segmentFiles.put(
+                        Long.parseLong(name.substring(0, name.length() - Segment.SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        return segmentFiles;
+    }
+
+    private void persistCursor() throws IOException {
+        if (mappedCursor != null) {
+            mappedCursor.putLong(0, readOffset);
+            return;
+        }
+        cursorBuffer.clear();
+        cursorBuffer.putLong(readOffset);
+        cursorBuffer.flip();
+        while (cursorBuffer.hasRemaining()) {
+            cursorChannel.write(cursorBuffer, cursorBuffer.position());
+        }
+    }
+
+    /**
+     * Deletes the oldest segment, holding both the sync lock and the log.
+     */
+    private long deleteOldestSegment() throws IOException {
+        final Segment oldest = segments.pollFirstEntry().getValue();
+        oldest.close();
+        if (!oldest.getFile().delete()) {
+            throw new IOException("Cannot delete segment " + oldest.getFile());
+        }
+        readOffset = Math.max(readOffset, segments.firstKey());
+        return oldest.getSize();
+    }
+
+    private void roll() throws IOException {
+        final Segment segment =
+                Segment.open(directory, activeSegment.getEndOffset(), ioMode, segmentBytes, -1);
+        segments.put(segment.getBaseOffset(), segment);
+        activeSegment = segment;
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.storage;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Off-heap memory allocator handing out chunks of size-classed slabs.
+ * <p>
+ * Memory is reserved from direct buffers, a slab at a time, and every slab is cut into chunks of a single size
+ * class: the powers of two from {@link #MIN_CHUNK_BYTES} up. An allocation takes a chunk of the smallest class
+ * that fits, reusing a freed chunk of that class if any. A chunk is addressed by a long holding the index of its
+ * slab and its offset in the slab, so that callers can link chunks together without any object on the heap;
+ * {@link #NIL} is never a valid address.
+ * <p>
+ * Slabs are never released: the memory of freed chunks is reused by later allocations of the same class. Direct
+ * memory is limited by -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class SlabArena {
+
+    /** Address of no chunk */
+    public static final long NIL = 0;
+
+    /** Size of the smallest chunks */
+    public static final int MIN_CHUNK_BYTES = 32;
+
+    /** Size of the largest chunks */
+    public static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private static final int MIN_CLASS_SHIFT = Integer.numberOfTrailingZeros(MIN_CHUNK_BYTES);
+
+    private final int slabBytes;
+
+    /**
+     * Slabs indexed by the high half of the addresses; slab 0 is never used, so that no address is NIL. Read
+     * without the lock: an address is only known once the allocation that created its slab returned.
+     */
+    private volatile Slab[] slabs = new Slab[16];
+
+    private int slabCount = 1;
+
+    /** Slab being cut into chunks, by size class */
+    private final Slab[] currentSlabs = new Slab[classOf(MAX_CHUNK_BYTES) + 1];
+
+    /** Stack of the freed chunks, by size class */
+    private final long[][] freeChunks = new long[currentSlabs.length][];
+
+    private final int[] freeCounts = new int[currentSlabs.length];
+
+    private long reservedBytes;
+
+    private long allocatedBytes;
+
+    private long allocatedChunks;
+
+    /**
+     * Instantiates a new arena.
+     *
+     * @param slabBytes the size of a slab, the memory reserved at once for chunks smaller than it
+     */
+    public SlabArena(final int slabBytes) {
+        checkArgument(slabBytes >= MIN_CHUNK_BYTES);
+        this.slabBytes = slabBytes;
+    }
+
+    /**
+     * Allocates a chunk.
+     *
+     * @param bytes the size needed
+     * @return the address of the chunk, of the smallest size class fitting the size
+     */
+    public synchronized long allocate(final int bytes) {
+        checkArgument(bytes > 0 && bytes <= MAX_CHUNK_BYTES);
+        final int sizeClass = classOf(bytes);
+        if (freeCounts[sizeClass] > 0) {
+            allocatedBytes += chunkBytes(sizeClass);
+            ++allocatedChunks;
+            return freeChunks[sizeClass][--freeCounts[sizeClass]];
+        }
+        final int chunkBytes = chunkBytes(sizeClass);
+        Slab slab = currentSlabs[sizeClass];
+        if (slab == null || slab.cutBytes + chunkBytes > slab.buffer.capacity()) {
+            slab = newSlab(sizeClass, Math.max(slabBytes / chunkBytes, 1) * chunkBytes);
+            currentSlabs[sizeClass] = slab;
+        }
+        final long address = (long) slab.index << 32 | slab.cutBytes;
+        slab.cutBytes += chunkBytes;
+        allocatedBytes += chunkBytes;
+        ++allocatedChunks;
+        return address;
+    }
+
+    /**
+     * Frees a chunk, to be reused by a later allocation of its size class.
+     *
+     * @param address the address of the chunk
+     */
+    public synchronized void free(final long address) {
+        final int sizeClass = slabs[slabIndex(address)].sizeClass;
+        long[] stack = freeChunks[sizeClass];
+        if (stack == null) {
+            stack = new long[16];
+        } else if (freeCounts[sizeClass] == stack.length) {
+            final long[] grown = new long[stack.length * 2];
+            System.arraycopy(stack, 0, grown, 0, stack.length);
+            stack = grown;
+        }
+        freeChunks[sizeClass] = stack;
+        stack[freeCounts[sizeClass]++] = address;
+        allocatedBytes -= chunkBytes(sizeClass);
+        --allocatedChunks;
+    }
+
+    /**
+     * Gets the size of a chunk.
+     *
+     * @param address the address of the chunk
+     * @return the size of its class
+     */
+    public int chunkBytes(final long address) {
+        return chunkBytes(slabs[slabIndex(address)].sizeClass);
+    }
+
+    /**
+     * Reads a long from a chunk.
+     *
+     * @param address the address of the chunk
+     * @param offset the offset in the chunk
+     * @return the value
+     */
+    public long getLong(final long address, final int offset) {
+        return buffer(address).getLong(offset(address) + offset);
+    }
+
+    /**
+     * Writes a long to a chunk.
+     *
+     * @param address the address of the chunk
+     * @param offset the offset in the chunk
+     * @param value the value
+     */
+    public void putLong(final long address, final int offset, final long value) {
+        buffer(address).putLong(offset(address) + offset, value);
+    }
+
+    /**
+     * Reads an int from a chunk.
+     *
+     * @param address the address of the chunk
+     * @param offset the offset in the chunk
+     * @return the value
+     */
+    public int getInt(final long address, final int offset) {
+        return buffer(address).getInt(offset(address) + offset);
+    }
+
+    /**
+     * Writes an int to a chunk.
+     *
+     * @param address the address of the chunk
+     * @param offset the offset in the chunk
+     * @param value the value
+     */
+    public void putInt(final long address, final int offset, final int value) {
+        buffer(address).putInt(offset(address) + offset, value);
+    }
+
+    /**
+     * Copies bytes out of a chunk.
+     *
+     * @param address the address of the chunk
+     * @param offset the offset in the chunk
+     * @param target the bytes copied to, whole
+     */
+    public void get(final long address, final int offset, final byte[] target) {
+        final ByteBuffer view = buffer(address).duplicate();
+        view.position(offset(address) + offset);
+        view.get(target);
+    }
+
+    /**
+     * Copies bytes into a chunk.
+     *
+     * @param address the address of the chunk
+     * @param offset the offset in the chunk
+     * @param source the bytes copied, whole
+     */
+    public void put(final long address, final int offset, final byte[] source) {
+        final ByteBuffer view = buffer(address).duplicate();
+        view.position(offset(address) + offset);
+        view.put(source);
+    }
+
+    /**
+     * Gets the off-heap memory reserved by the slabs.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Gets the memory of the chunks allocated and not freed, counting whole chunks.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Gets the number of chunks allocated and not freed.
+     *
+     * @return the number of chunks
+     */
+    public synchronized long allocatedChunks() {
+        return allocatedChunks;
+    }
+
+    /**
+     * Gets the size class of a size: the smallest class whose chunks fit it.
+     */
+    static int classOf(final int bytes) {
+        if (bytes <= MIN_CHUNK_BYTES) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_CLASS_SHIFT;
+    }
+
+    static int chunkBytes(final int sizeClass) {
+        return MIN_CHUNK_BYTES << sizeClass;
+    }
+
+    private ByteBuffer buffer(final long address) {
+        return slabs[slabIndex(address)].buffer;
+    }
+
+    private Slab newSlab(final int sizeClass, final int bytes) {
+        final Slab slab = new Slab(slabCount, sizeClass, ByteBuffer.allocateDirect(bytes));
+        Slab[] current = slabs;
+        if (slabCount == current.length) {
+            final Slab[] grown = new Slab[current.length * 2];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            current = grown;
+        }
+        current[slabCount++] = slab;
+        slabs = current;
+        reservedBytes += bytes;
+        return slab;
+    }
+
+    private static int slabIndex(final long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offset(final long address) {
+        return (int) address;
+    }
+
+    /**
+     * A direct buffer cut into chunks of a single size class.
+     */
+    private static final class Slab {
+
+        private final int index;
+
+        private final int sizeClass;
+
+        private final ByteBuffer buffer;
+
+        /** Bytes of the buffer already cut into chunks */
+        private int cutBytes;
+
+        Slab(final int index, final int sizeClass, final ByteBuffer buffer) {
+            this.index = index;
+            this.sizeClass = sizeClass;
+            this.buffer = buffer;
+        }
+    }
+}
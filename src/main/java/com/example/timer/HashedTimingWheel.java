@@ -0,0 +1,443 @@
+package com.example.timer;
+
+import static com.google.common.base.Preconditions.*;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Hierarchical hashed timing wheel used to expire visibility timeouts. Every level is an array of buckets; a
+ * bucket of level n covers wheelSize^n ticks. Timeouts that are far away are kept in an upper level and
+ * cascaded down as the wheel turns, so scheduling and cancelling are O(1) and all the timeouts of a tick are
+ * expired in one batch.
+ * <p>
+ * Callers never touch the buckets: new and cancelled timeouts are handed over to the worker thread through
+ * lock-free queues, and the worker applies them at the beginning of every tick.
+ *
+ * @author Swarn Avinash Kumar
+ */
+@ThreadSafe
+public class HashedTimingWheel {
+
+    /** Default number of levels of the wheel */
+    public static final int DEFAULT_LEVELS = 4;
+
+    private static final int WORKER_STARTED = 0;
+    private static final int WORKER_SHUTDOWN = 1;
+
+    /** Duration of a single tick in nanoseconds */
+    private final long tickNanos;
+
+    /** Number of bits used to index the buckets of a level */
+    private final int shift;
+
+    /** Mask used to index the buckets of a level */
+    private final int mask;
+
+    /** Buckets indexed by level and slot */
+    private final Bucket[][] wheels;
+
+    /** Timeouts waiting to be placed in the wheel by the worker */
+    private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<>();
+
+    /** Cancelled timeouts waiting to be removed from their bucket by the worker */
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    /** Executor running the expired tasks */
+    private final Executor taskExecutor;
+
+    /** Number of timeouts scheduled and neither expired nor cancelled */
+    private final AtomicLong activeTimeouts = new AtomicLong();
+
+    /** Number of expired tasks that threw */
+    private final AtomicLong failedTasks = new AtomicLong();
+
+    private final Thread workerThread;
+
+    private final long startTime;
+
+    private volatile int workerState = WORKER_STARTED;
+
+    /** Next tick to be processed. Only accessed by the worker thread. */
+    private long tick;
+
+    /**
+     * Instantiates a new timing wheel running expired tasks on the worker thread.
+     *
+     * @param tickDuration the duration of a tick
+     * @param unit the unit of the tick duration
+     * @param wheelSize the number of buckets per level, rounded up to a power of two
+     * @author Swarn Avinash Kumar
+     */
+    public HashedTimingWheel(final long tickDuration, final TimeUnit unit, final int wheelSize) {
+        this(tickDuration, unit, wheelSize, DEFAULT_LEVELS, new Executor() {
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    /**
+     * Instantiates a new timing wheel.
+     *
+     * @param tickDuration the duration of a tick
+     * @param unit the unit of the tick duration
+     * @param wheelSize the number of buckets per level, rounded up to a power of two
+     * @param levels the number of levels
+     * @param taskExecutor the executor running expired tasks
+     * @author Swarn Avinash Kumar
+     */
+    public HashedTimingWheel(final long tickDuration, final TimeUnit unit, final int wheelSize, final int levels,
+            final Executor taskExecutor) {
+        checkArgument(tickDuration > 0);
+        checkArgument(unit != null);
+        checkArgument(wheelSize > 1 && wheelSize <= (1 << 16));
+        checkArgument(levels > 0);
+        checkArgument(taskExecutor != null);
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.shift = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        this.mask = (1 << shift) - 1;
+        checkArgument((long) shift * levels < 63, "Too many levels for the wheel size");
+        this.taskExecutor = taskExecutor;
+
+        this.wheels = new Bucket[levels][1 << shift];
+        for (Bucket[] wheel : wheels) {
+            for (int i = 0; i < wheel.length; ++i) {
+                wheel[i] = new Bucket();
+            }
+        }
+
+        this.startTime = System.nanoTime();
+        this.workerThread = new Thread(new Worker(), "timing-wheel");
+        this.workerThread.setDaemon(true);
+        this.workerThread.start();
+    }
+
+    /**
+     * Schedules a task to be run once the given delay has elapsed. The task runs at the first tick after its
+     * deadline, so it may be late by up to one tick but never early.
+     *
+     * @param task the task
+     * @param delay the delay
+     * @param unit the unit of the delay
+     * @return the timeout, that can be used to cancel the task
+     * @author Swarn Avinash Kumar
+     */
+    public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        checkArgument(task != null);
+        checkArgument(unit != null);
+        checkState(workerState == WORKER_STARTED, "The timing wheel has been stopped");
+        final long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+        final Timeout timeout = new Timeout(this, task, deadline);
+        activeTimeouts.incrementAndGet();
+        pendingTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Gets the number of timeouts that are scheduled and neither expired nor cancelled.
+     *
+     * @return the number of active timeouts
+     * @author Swarn Avinash Kumar
+     */
+    public long activeTimeouts() {
+        return activeTimeouts.get();
+    }
+
+    /**
+     * Gets the number of expired tasks that threw, rather than ran to completion.
+     *
+     * @return the number of failed tasks
+     * @author Swarn Avinash Kumar
+     */
+    public long failedTasks() {
+        return failedTasks.get();
+    }
+
+    /**
+     * Stops the worker thread. Timeouts that did not expire yet are dropped.
+     *
+     * @author Swarn Avinash Kumar
+     */
+    public void stop() {
+        workerState = WORKER_SHUTDOWN;
+        workerThread.interrupt();
+        boolean interrupted = false;
+        while (workerThread.isAlive() && Thread.currentThread() != workerThread) {
+            try {
+                workerThread.join(100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Places a timeout in the bucket matching its deadline, relative to the current tick.
+     */
+    private void place(final Timeout timeout) {
+        final long target = Math.max(timeout.deadline / tickNanos, tick);
+        final long delta = target - tick;
+        int level = 0;
+        while (level < wheels.length - 1 && (delta >>> (shift * (level + 1))) != 0) {
+            ++level;
+        }
+        wheels[level][(int) (target >>> (shift * level)) & mask].add(timeout);
+    }
+
+    /**
+     * Moves the timeouts of the upper level buckets due at the current tick down the hierarchy.
+     */
+    private void cascade() {
+        for (int level = wheels.length - 1; level > 0; --level) {
+            final int levelShift = shift * level;
+            if ((tick & ((1L << levelShift) - 1)) == 0) {
+                Timeout timeout = wheels[level][(int) (tick >>> levelShift) & mask].clear();
+                while (timeout != null) {
+                    final Timeout next = timeout.next;
+                    timeout.next = null;
+                    if (timeout.state == Timeout.ST_INIT) {
+                        place(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Expires the timeouts of the current level zero bucket in one batch.
+     */
+    private void expire(final long now) {
+        Timeout timeout = wheels[0][(int) tick & mask].clear();
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.deadline <= now) {
+                timeout.expire();
+            } else if (timeout.state == Timeout.ST_INIT) {
+                place(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void transferPendingTimeouts() {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            if (timeout.state == Timeout.ST_INIT) {
+                place(timeout);
+            }
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * Sleeps until the end of the current tick.
+     *
+     * @return the current time relative to the start time, or -1 if the worker has been stopped
+     */
+    private long waitForNextTick() {
+        final long tickDeadline = tickNanos * (tick + 1);
+        while (true) {
+            final long now = System.nanoTime() - startTime;
+            final long sleepMillis = TimeUnit.NANOSECONDS.toMillis(tickDeadline - now + 999999);
+            if (sleepMillis <= 0) {
+                return now;
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (workerState == WORKER_SHUTDOWN) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * The thread turning the wheel.
+     */
+    private final class Worker implements Runnable {
+
+        public void run() {
+            while (workerState == WORKER_STARTED) {
+                final long now = waitForNextTick();
+                if (now < 0) {
+                    break;
+                }
+                removeCancelledTimeouts();
+                transferPendingTimeouts();
+                cascade();
+                expire(now);
+                ++tick;
+            }
+        }
+    }
+
+    /**
+     * Handle on a scheduled task. A timeout is a node of the doubly linked list of its bucket, so it can be
+     * unlinked in constant time once cancelled.
+     */
+    public static final class Timeout {
+
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedTimingWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state = ST_INIT;
+
+        /** Bucket links, only accessed by the worker thread */
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(final HashedTimingWheel wheel, final Runnable task, final long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task. The timeout is unlinked from its bucket by the worker on its next tick.
+         *
+         * @return true if the task was cancelled, false if it already expired or was already cancelled
+         * @author Swarn Avinash Kumar
+         */
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+            wheel.activeTimeouts.decrementAndGet();
+            wheel.cancelledTimeouts.add(this);
+            return true;
+        }
+
+        /**
+         * Gets the scheduled task, for instance to schedule it again at another time once cancelled.
+         *
+         * @return the task
+         */
+        public Runnable task() {
+            return task;
+        }
+
+        /**
+         * Checks if the task was cancelled.
+         *
+         * @return true if cancelled
+         */
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        /**
+         * Checks if the task expired.
+         *
+         * @return true if expired
+         */
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+            wheel.activeTimeouts.decrementAndGet();
+            try {
+                wheel.taskExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // Run on the worker rather than dropped: the task may be all that brings a message back
+                runInline();
+            } catch (Throwable t) {
+                wheel.failedTasks.incrementAndGet();
+            }
+        }
+
+        private void runInline() {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                wheel.failedTasks.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts hashed to a slot.
+     */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(final Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(final Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        /**
+         * Detaches every timeout of the bucket.
+         *
+         * @return the first timeout of the detached list, chained through next
+         */
+        Timeout clear() {
+            final Timeout first = head;
+            for (Timeout timeout = first; timeout != null; timeout = timeout.next) {
+                timeout.bucket = null;
+                timeout.prev = null;
+            }
+            head = null;
+            tail = null;
+            return first;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.consumer;
+
+import com.example.pojo.DeleteRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
+import com.example.service.impl.InMemoryQueueService;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consumer throughput under a workload whose processing time changes over time, pulling fixed batches of one
+ * and ten messages against the adaptive prefetcher.
+ * <p>
+ * Not a unit test. The queue is in memory with an injected pull latency, and the messages carry their
+ * processing time: a fast phase, a slow phase, then a fast phase again. A consumer pulling a fixed batch
+ * processes it sequentially before pulling again; with large batches in the slow phase the last messages of a
+ * batch outlive their visibility timeout, are delivered again and fail to be deleted. Arguments: number of
+ * consumers (default 8), messages per phase (default 1000), pull latency in milliseconds (default 10), fast
+ * and slow processing times in milliseconds (defaults 10 and 300) and visibility timeout in seconds (default
+ * 2).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class AdaptivePrefetchBenchmark {
+
+    private static final String QUEUE_URL = "bench";
+
+    private AdaptivePrefetchBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int consumers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        final long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        final long fastMillis = args.length > 3 ? Long.parseLong(args[3]) : 10;
+        final long slowMillis = args.length > 4 ? Long.parseLong(args[4]) : 300;
+        final int visibilityTimeout = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+        final Workload workload = new Workload(consumers, messages, latencyMillis, fastMillis, slowMillis,
+                visibilityTimeout);
+
+        System.out.println(String.format("%-10s %10s %10s %12s %10s", "mode", "msg/s", "pulls", "redelivered",
+                "expired"));
+        run("fixed-1", workload, 1);
+        run("fixed-10", workload, 10);
+        run("adaptive", workload, 0);
+    }
+
+    /**
+     * Consumes the workload, with fixed batches of the given size, or with the adaptive prefetcher for 0.
+     */
+    private static void run(final String mode, final Workload workload, final int batchSize)
+            throws InterruptedException {
+        final LatencyQueueService queueService = new LatencyQueueService(workload.latencyMillis);
+        final int total = workload.fill(queueService);
+        final AtomicLong deleted = new AtomicLong();
+        final AtomicLong failedDeletes = new AtomicLong();
+        final AdaptivePrefetcher prefetcher = batchSize > 0 ? null : new AdaptivePrefetcher(queueService,
+                QUEUE_URL, workload.consumers, 100, MessageListenerContainer.DEFAULT_MAX_MESSAGES_PER_PULL,
+                workload.visibilityTimeout, 0);
+        final CountDownLatch done = new CountDownLatch(workload.consumers);
+        final long startNanos = System.nanoTime();
+        for (int c = 0; c < workload.consumers; ++c) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (deleted.get() < total) {
+                            for (Message message : next(queueService, prefetcher, batchSize, workload)) {
+                                process(message);
+                                try {
+                                    queueService.delete(new DeleteRequest(QUEUE_URL, message.getReceiptHandle()));
+                                    deleted.incrementAndGet();
+                                } catch (IllegalStateException e) {
+                                    // Delivered again to another consumer, its receipt handle expired
+                                    failedDeletes.incrementAndGet();
+                                }
+                                if (prefetcher != null) {
+                                    prefetcher.done(message);
+                                }
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // Stopped
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        final long nanos = System.nanoTime() - startNanos;
+        final long expired = prefetcher != null ? prefetcher.expiredCount() : 0;
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+        System.out.println(String.format("%-10s %10.0f %10d %12d %10d", mode, total * 1e9 / nanos,
+                queueService.pulls.get(), failedDeletes.get(), expired));
+    }
+
+    private static List<Message> next(final InMemoryQueueService queueService, final AdaptivePrefetcher prefetcher,
+            final int batchSize, final Workload workload) throws InterruptedException {
+        if (prefetcher != null) {
+            final List<Message> messages = new ArrayList<>(1);
+            final Message message = prefetcher.take(100, TimeUnit.MILLISECONDS);
+            if (message != null) {
+                messages.add(message);
+            }
+            return messages;
+        }
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(batchSize);
+        request.setVisibilityTimeout(workload.visibilityTimeout);
+        final List<Message> messages = queueService.pull(request);
+        if (messages.isEmpty()) {
+            Thread.sleep(MessageListenerContainer.EMPTY_PULL_BACKOFF_MILLIS);
+        }
+        return messages;
+    }
+
+    /**
+     * Processes a message for the time its body carries.
+     */
+    private static void process(final Message message) {
+        Uninterruptibles.sleepUninterruptibly(Long.parseLong(message.getBody()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The messages of the three phases and the settings of the run.
+     */
+    private static final class Workload {
+
+        private final int consumers;
+
+        private final int messages;
+
+        private final long latencyMillis;
+
+        private final long fastMillis;
+
+        private final long slowMillis;
+
+        private final int visibilityTimeout;
+
+        Workload(final int consumers, final int messages, final long latencyMillis, final long fastMillis,
+                final long slowMillis, final int visibilityTimeout) {
+            this.consumers = consumers;
+            this.messages = messages;
+            this.latencyMillis = latencyMillis;
+            this.fastMillis = fastMillis;
+            this.slowMillis = slowMillis;
+            this.visibilityTimeout = visibilityTimeout;
+        }
+
+        /**
+         * Pushes the phases in order; the slow phase has as many messages as take the same time as a fast one.
+         */
+        int fill(final InMemoryQueueService queueService) {
+            final int slowMessages = (int) Math.max(consumers, messages * fastMillis / slowMillis);
+            return push(queueService, messages, fastMillis) + push(queueService, slowMessages, slowMillis)
+                    + push(queueService, messages, fastMillis);
+        }
+
+        private int push(final InMemoryQueueService queueService, final int count, final long processingMillis) {
+            for (int i = 0; i < count; i += MessageListenerContainer.DEFAULT_MAX_MESSAGES_PER_PULL) {
+                final List<PushBatchEntry> entries = new ArrayList<>();
+                for (int j = i; j < Math.min(count, i + MessageListenerContainer.DEFAULT_MAX_MESSAGES_PER_PULL); ++j) {
+                    entries.add(new PushBatchEntry(String.valueOf(j), String.valueOf(processingMillis)));
+                }
+                queueService.pushBatch(new PushBatchRequest(QUEUE_URL, entries));
+            }
+            return count;
+        }
+    }
+
+    /**
+     * An in memory queue answering every pull after an injected latency, as a remote queue would.
+     */
+    private static final class LatencyQueueService extends InMemoryQueueService {
+
+        private final long latencyMillis;
+
+        private final AtomicLong pulls = new AtomicLong();
+
+        LatencyQueueService(final long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public List<Message> pull(final PullRequest request) {
+            pulls.incrementAndGet();
+            Uninterruptibles.sleepUninterruptibly(latencyMillis, TimeUnit.MILLISECONDS);
+            return super.pull(request);
+        }
+    }
+}
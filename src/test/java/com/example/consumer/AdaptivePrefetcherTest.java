@@ -0,0 +1,204 @@
+package com.example.consumer;
+
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+import com.example.service.impl.InMemoryQueueService;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.BDDMockito.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link AdaptivePrefetcher}.
+ */
+public class AdaptivePrefetcherTest {
+
+    /** Object to be tested */
+    private AdaptivePrefetcher prefetcher;
+
+    private InMemoryQueueService queueService;
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "Message Body for Test";
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        queueService = spy(new InMemoryQueueService());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (prefetcher != null) {
+            prefetcher.close();
+        }
+    }
+
+    /**
+     * Testing take(): every message is returned once.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenMessages_take_shouldReturnEachOnce() throws Exception {
+        // Given
+        final Set<String> bodies = push(20);
+        prefetcher = new AdaptivePrefetcher(queueService, QUEUE_URL, 2, 50, 10, 30, 1);
+        final Set<String> taken = new HashSet<>();
+        // When
+        Message message;
+        while ((message = prefetcher.take(500, TimeUnit.MILLISECONDS)) != null) {
+            assertTrue(taken.add(message.getBody()));
+            prefetcher.done(message);
+        }
+        // Then
+        assertEquals(bodies, taken);
+        assertEquals(20L, prefetcher.processedCount());
+        assertEquals(0L, prefetcher.expiredCount());
+    }
+
+    /**
+     * Testing the target depth with fast consumers and slow pulls: the buffer grows to its capacity and pulls
+     * ask for full batches.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenFastProcessingAndSlowPulls_targetDepth_shouldGrowToCapacity() throws Exception {
+        // Given
+        delayPulls(200);
+        push(300);
+        prefetcher = new AdaptivePrefetcher(queueService, QUEUE_URL, 2, 40, 10, 30, 1);
+        // When
+        consume(2, 0, 1500);
+        // Then
+        assertEquals(40, prefetcher.targetDepth());
+        assertEquals(10, prefetcher.batchSize());
+    }
+
+    /**
+     * Testing the target depth with slow consumers and slow pulls: the buffer is kept small enough for the
+     * messages to be handed out within half of their visibility timeout.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenSlowProcessing_targetDepth_shouldKeepMessagesWithinVisibility() throws Exception {
+        // Given
+        delayPulls(500);
+        push(60);
+        prefetcher = new AdaptivePrefetcher(queueService, QUEUE_URL, 4, 40, 10, 2, 1);
+        // When
+        consume(4, 300, 2500);
+        // Then 4 consumers take 13 messages per second, 6 of them in the half second left after a pull
+        assertTrue(prefetcher.targetDepth() + " buffered", prefetcher.targetDepth() <= 6);
+        assertTrue(prefetcher.targetDepth() + " buffered", prefetcher.targetDepth() >= 4);
+        assertTrue(prefetcher.batchSize() + " per pull", prefetcher.batchSize() <= 6);
+        assertEquals(0L, prefetcher.expiredCount());
+        assertEquals(300, prefetcher.processingMillis(), 50);
+    }
+
+    /**
+     * Testing close(): the buffered messages become visible again.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenBufferedMessages_close_shouldMakeThemVisible() throws Exception {
+        // Given
+        push(10);
+        prefetcher = new AdaptivePrefetcher(queueService, QUEUE_URL, 4, 40, 10, 30, 1);
+        final Message message = prefetcher.take(1, TimeUnit.SECONDS);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (prefetcher.buffered() == 0 && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+        }
+        // When
+        prefetcher.close();
+        // Then
+        assertNotNull(message);
+        final Set<String> visible = new HashSet<>();
+        while (visible.size() < 9 && System.nanoTime() - deadline < 0) {
+            final PullRequest request = new PullRequest(QUEUE_URL);
+            request.setMaxNumberOfMessages(10);
+            for (Message pulled : queueService.pull(request)) {
+                visible.add(pulled.getBody());
+            }
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(9, visible.size());
+        assertFalse(visible.contains(message.getBody()));
+        prefetcher = null;
+    }
+
+    private Set<String> push(final int count) {
+        final Set<String> bodies = new HashSet<>();
+        for (int i = 0; i < count; ++i) {
+            bodies.add(MESSAGE_BODY + " " + i);
+            queueService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + " " + i));
+        }
+        return bodies;
+    }
+
+    /**
+     * Makes every pull take at least the given time, as a remote queue would.
+     */
+    private void delayPulls(final long millis) {
+        doAnswer(new Answer<Object>() {
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                Uninterruptibles.sleepUninterruptibly(millis, TimeUnit.MILLISECONDS);
+                return invocation.callRealMethod();
+            }
+        }).when(queueService).pull(any(PullRequest.class));
+    }
+
+    /**
+     * Runs consumers taking messages and processing each for the given time, for the given duration.
+     */
+    private void consume(final int consumers, final long processingMillis, final long durationMillis)
+            throws Exception {
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < consumers; ++i) {
+            final Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (System.nanoTime() - end < 0) {
+                            final Message message = prefetcher.take(100, TimeUnit.MILLISECONDS);
+                            if (message != null) {
+                                Thread.sleep(processingMillis);
+                                prefetcher.done(message);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        // Stopped
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
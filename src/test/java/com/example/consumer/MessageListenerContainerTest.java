@@ -0,0 +1,253 @@
+package com.example.consumer;
+
+import com.example.pojo.DeleteRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+import com.example.service.impl.InMemoryQueueService;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.*;
+import static org.mockito.BDDMockito.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link MessageListenerContainer}.
+ */
+public class MessageListenerContainerTest {
+
+    /** Object to be tested */
+    private MessageListenerContainer container;
+
+    private InMemoryQueueService queueService;
+
+    /** Bodies of the messages handled by the listener */
+    private final Set<String> handled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "Message Body for Test";
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        queueService = spy(new InMemoryQueueService());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (container != null) {
+            container.close();
+        }
+    }
+
+    /**
+     * Testing start(): every message is handled by the listener, then deleted.
+     */
+    @Test
+    public final void givenMessages_start_shouldHandleThenDeleteEach() {
+        // Given
+        final Set<String> bodies = push(30);
+        container = new MessageListenerContainer(queueService, QUEUE_URL, new MessageListener() {
+            public void onMessage(final Message message) {
+                handled.add(message.getBody());
+            }
+        }, 4, 1);
+        // When
+        container.start();
+        awaitHandled(30);
+        // Then
+        assertEquals(bodies, handled);
+        assertEquals(0L, container.failedCount());
+        verify(queueService, times(30)).delete(any(DeleteRequest.class));
+    }
+
+    /**
+     * Testing start() with a failing listener: the messages are not deleted.
+     */
+    @Test
+    public final void givenFailingListener_start_shouldNotDelete() {
+        // Given
+        push(5);
+        container = new MessageListenerContainer(queueService, QUEUE_URL, new MessageListener() {
+            public void onMessage(final Message message) throws Exception {
+                throw new Exception("Cannot handle " + message.getBody());
+            }
+        }, 2, 1);
+        // When
+        container.start();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (container.failedCount() < 5 && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        // Then
+        assertEquals(5L, container.failedCount());
+        assertEquals(0L, container.handledCount());
+        verify(queueService, never()).delete(any(DeleteRequest.class));
+    }
+
+    /**
+     * Testing start() with slow listeners: no more messages are handled at once than the concurrency.
+     */
+    @Test
+    public final void givenSlowListener_start_shouldBoundMessagesHandledAtOnce() {
+        // Given
+        push(40);
+        final AtomicInteger handling = new AtomicInteger();
+        final AtomicInteger maxHandling = new AtomicInteger();
+        container = new MessageListenerContainer(queueService, QUEUE_URL, new MessageListener() {
+            public void onMessage(final Message message) {
+                final int current = handling.incrementAndGet();
+                int max;
+                while (current > (max = maxHandling.get()) && !maxHandling.compareAndSet(max, current)) {
+                    continue;
+                }
+                Uninterruptibles.sleepUninterruptibly(20, TimeUnit.MILLISECONDS);
+                handling.decrementAndGet();
+                handled.add(message.getBody());
+            }
+        }, 4, 3, 1, null);
+        // When
+        container.start();
+        awaitHandled(40);
+        // Then
+        assertTrue(maxHandling.get() + " at once", maxHandling.get() <= 4);
+        assertTrue(maxHandling.get() + " at once", maxHandling.get() > 1);
+    }
+
+    /**
+     * Testing stop() while messages are being handled: they are completed and deleted before it returns.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenMessagesInFlight_stop_shouldDrainThem() throws Exception {
+        // Given
+        push(10);
+        container = new MessageListenerContainer(queueService, QUEUE_URL, new MessageListener() {
+            public void onMessage(final Message message) {
+                Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+                handled.add(message.getBody());
+            }
+        }, 4, 1);
+        container.start();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (container.inFlight() == 0 && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+        }
+        // When
+        final boolean drained = container.stop(10, TimeUnit.SECONDS);
+        // Then
+        assertTrue(drained);
+        assertEquals(0, container.inFlight());
+        assertTrue(container.handledCount() > 0);
+        assertEquals(container.handledCount(), (long) handled.size());
+        verify(queueService, times(handled.size())).delete(any(DeleteRequest.class));
+    }
+
+    /**
+     * Testing start() with a given executor: the listeners run on it.
+     */
+    @Test
+    public final void givenDispatcher_start_shouldRunListenersOnIt() {
+        // Given
+        push(5);
+        final AtomicInteger dispatched = new AtomicInteger();
+        final Executor threadPerTask = new Executor() {
+            public void execute(final Runnable task) {
+                dispatched.incrementAndGet();
+                new Thread(task).start();
+            }
+        };
+        container = new MessageListenerContainer(queueService, QUEUE_URL, new MessageListener() {
+            public void onMessage(final Message message) {
+                handled.add(message.getBody());
+            }
+        }, 8, 1, 1, threadPerTask);
+        // When
+        container.start();
+        awaitHandled(5);
+        // Then
+        assertEquals(5, dispatched.get());
+    }
+
+    /**
+     * Testing start() with a cap on the messages per pull: no pull asks for more messages than the cap.
+     */
+    @Test
+    public final void givenMaxMessagesPerPull_start_shouldPullAtMostThatMany() {
+        // Given
+        push(10);
+        container = new MessageListenerContainer(queueService, QUEUE_URL, new MessageListener() {
+            public void onMessage(final Message message) {
+                handled.add(message.getBody());
+            }
+        }, 8, 1, 1, 2, null);
+        // When
+        container.start();
+        awaitHandled(10);
+        // Then
+        final ArgumentCaptor<PullRequest> requests = ArgumentCaptor.forClass(PullRequest.class);
+        verify(queueService, atLeast(5)).pull(requests.capture());
+        for (PullRequest request : requests.getAllValues()) {
+            assertTrue(request.getMaxNumberOfMessages() <= 2);
+        }
+    }
+
+    /**
+     * Testing start() on a failing queue service: the failed pulls are counted, and pulls go on once it
+     * recovers.
+     */
+    @Test
+    public final void givenFailingPulls_start_shouldCountThemAndKeepPulling() {
+        // Given
+        push(3);
+        doThrow(new IllegalStateException("Unavailable")).doCallRealMethod().when(queueService)
+                .pull(any(PullRequest.class));
+        container = new MessageListenerContainer(queueService, QUEUE_URL, new MessageListener() {
+            public void onMessage(final Message message) {
+                handled.add(message.getBody());
+            }
+        }, 4, 1);
+        // When
+        container.start();
+        // Then
+        awaitHandled(3);
+        assertEquals(1L, container.pullFailureCount());
+    }
+
+    private Set<String> push(final int count) {
+        final Set<String> bodies = new HashSet<>();
+        for (int i = 0; i < count; ++i) {
+            bodies.add(MESSAGE_BODY + " " + i);
+            queueService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + " " + i));
+        }
+        return bodies;
+    }
+
+    private void awaitHandled(final int count) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (container.handledCount() < count && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        assertEquals((long) count, container.handledCount());
+        assertEquals(count, handled.size());
+    }
+}
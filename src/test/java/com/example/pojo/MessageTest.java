@@ -0,0 +1,102 @@
+package com.example.pojo;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Unit tests for {@link Message}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class MessageTest {
+
+    /**
+     * Testing getId(): a UUID id is held as its bits and formatted back as given, any other id is kept as is.
+     */
+    @Test
+    public final void givenIds_getId_shouldReturnThemAsGiven() {
+        // Given
+        final UUID uuid = UUID.randomUUID();
+        final String upperCase = uuid.toString().toUpperCase();
+        // When
+        final Message canonical = new Message(uuid.toString(), "body");
+        final Message other = new Message(upperCase, "body");
+        final Message bits = new Message(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), "body");
+        // Then
+        assertEquals(uuid.toString(), canonical.getId());
+        assertTrue(canonical.hasUuidId());
+        assertEquals(uuid.getMostSignificantBits(), canonical.getIdMostSigBits());
+        assertEquals(uuid.getLeastSignificantBits(), canonical.getIdLeastSigBits());
+        assertEquals(canonical, bits);
+        assertEquals(upperCase, other.getId());
+        assertFalse(other.hasUuidId());
+        assertFalse(canonical.equals(other));
+        assertEquals("id-1", new Message("id-1", "body").getId());
+    }
+
+    /**
+     * Testing getId(): generated ids are distinct version 4 UUIDs.
+     */
+    @Test
+    public final void givenNoId_getId_shouldBeRandomUuid() {
+        // When
+        final Message first = new Message("body");
+        final Message second = new Message("body");
+        // Then
+        final UUID id = UUID.fromString(first.getId());
+        assertEquals(4, id.version());
+        assertEquals(2, id.variant());
+        assertEquals(first.getId(), id.toString());
+        assertFalse(first.getId().equals(second.getId()));
+    }
+
+    /**
+     * Testing getMd5Body(): the digest is the MD5 of the UTF-8 body, whether the body is a string or bytes.
+     */
+    @Test
+    public final void givenBodies_getMd5Body_shouldDigestUtf8Bytes() {
+        // Given
+        final String body = "body \u00e9\u4e2d";
+        final byte[] bytes = body.getBytes(Charsets.UTF_8);
+        // When
+        final Message text = new Message(body);
+        final Message binary = new Message(ByteBuffer.wrap(bytes));
+        // Then
+        final String expected = Hashing.md5().hashBytes(bytes).toString();
+        assertEquals(expected, text.getMd5Body());
+        assertEquals(expected, binary.getMd5Body());
+        assertTrue(Arrays.equals(Hashing.md5().hashBytes(bytes).asBytes(), text.getMd5Digest()));
+        assertEquals(body, binary.getBody());
+        assertTrue(binary.isBinary());
+        assertFalse(text.isBinary());
+        assertEquals(ByteBuffer.wrap(bytes), text.getBodyBuffer());
+    }
+
+    /**
+     * Testing withReceiptHandle(): the copy shares the id and body, under its own receipt handle.
+     */
+    @Test
+    public final void givenMessage_withReceiptHandle_shouldCopyIt() {
+        // Given
+        final Message message = new Message(new byte[] { 1, 2, 3 });
+        // When
+        final Message copy = message.withReceiptHandle("handle");
+        // Then
+        assertEquals(message.getId(), copy.getId());
+        assertTrue(Arrays.equals(message.getBodyBytes(), copy.getBodyBytes()));
+        assertEquals("handle", copy.getReceiptHandle());
+        assertNull(message.getReceiptHandle());
+        assertFalse(message.equals(copy));
+        copy.setReceiptHandle(null);
+        assertEquals(message, copy);
+        assertEquals(message.hashCode(), copy.hashCode());
+    }
+}
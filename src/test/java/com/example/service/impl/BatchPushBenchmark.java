@@ -0,0 +1,76 @@
+package com.example.service.impl;
+
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
+import com.example.pojo.PushRequest;
+import com.example.service.QueueService;
+import com.example.storage.Durability;
+import com.example.storage.IoMode;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Push throughput of single pushes against batches of the same messages, for the in-memory queue and the file
+ * queue in every durability.
+ * <p>
+ * Not a unit test. Arguments: number of messages (default 100000), batch size (default 100) and the directory
+ * to write to (default: a temporary directory, which should be on the disk being measured).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class BatchPushBenchmark {
+
+    private BatchPushBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final File root = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("batch-bench").toFile();
+
+        System.out.println(String.format("%-8s %-8s %14s %14s", "backend", "level", "push msg/s", "batch msg/s"));
+        // The first round warms up the JIT, the last one is reported
+        for (int round = 0; round < 2; ++round) {
+            final boolean report = round == 1;
+            run("memory", "-", new InMemoryQueueService(), new InMemoryQueueService(), messages, batchSize, report);
+            for (Durability durability : Durability.values()) {
+                // Fewer messages when every single push waits for a force, its own or its group's
+                final int count = durability == Durability.NONE ? messages : messages / 100;
+                final FileQueueService single = new FileQueueService(
+                        new File(root, "single-" + durability + "-" + round), IoMode.STREAM, durability);
+                final FileQueueService batch = new FileQueueService(
+                        new File(root, "batch-" + durability + "-" + round), IoMode.STREAM, durability);
+                run("file", durability.name(), single, batch, count, batchSize, report);
+                single.close();
+                batch.close();
+            }
+        }
+    }
+
+    private static void run(String backend, String level, QueueService single, QueueService batch, int messages,
+            int batchSize, boolean report) {
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; ++i) {
+            single.push(new PushRequest("bench", "message " + i));
+        }
+        final long singleNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < messages; i += batchSize) {
+            final List<PushBatchEntry> entries = new ArrayList<>(batchSize);
+            for (int j = i; j < Math.min(messages, i + batchSize); ++j) {
+                entries.add(new PushBatchEntry(String.valueOf(j), "message " + j));
+            }
+            batch.pushBatch(new PushBatchRequest("bench", entries));
+        }
+        final long batchNanos = System.nanoTime() - start;
+        if (report) {
+            System.out.println(String.format("%-8s %-8s %14.0f %14.0f", backend, level, messages * 1e9 / singleNanos,
+                    messages * 1e9 / batchNanos));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.service.impl;
+
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
+import com.example.pojo.PushRequest;
+import com.example.storage.MessageStorage;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link InMemoryQueueService} with limits on the messages it holds.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class BoundedInMemoryQueueServiceTest {
+
+    /** Object to be tested */
+    private InMemoryQueueService service;
+
+    private File directory;
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "0123456789";
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("memory-spill").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileQueueServiceTest.deleteRecursively(directory);
+    }
+
+    /**
+     * Given a full queue, push() should reject the message, and pushBatch() should fail the entries past the limit.
+     */
+    @Test
+    public final void givenFullQueue_push_shouldReject() {
+        service = service(new MemoryLimits(2, 0, 0, OverflowPolicy.REJECT, 0, null));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        final List<PushBatchEntry> entries = new ArrayList<>();
+        entries.add(new PushBatchEntry("fits", MESSAGE_BODY));
+        entries.add(new PushBatchEntry("over", MESSAGE_BODY));
+        final List<BatchResultEntry> results = service.pushBatch(new PushBatchRequest(QUEUE_URL, entries));
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals(BatchResultEntry.OVER_LIMIT, results.get(1).getErrorCode());
+        try {
+            service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(2, service.getQueueInstance(QUEUE_URL).size());
+        }
+    }
+
+    /**
+     * Given a full queue, push() should wait for a pull to make room, or fail once the block timeout has passed.
+     */
+    @Test
+    public final void givenFullQueue_push_shouldBlockUntilPull() throws Exception {
+        service = service(new MemoryLimits(0, 2 * MESSAGE_BODY.length(), 0, OverflowPolicy.BLOCK, 2000, null));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        final CountDownLatch pushed = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+                pushed.countDown();
+            }
+        }).start();
+        assertFalse(pushed.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, service.pull(new PullRequest(QUEUE_URL)).size());
+        assertTrue(pushed.await(2, TimeUnit.SECONDS));
+        assertEquals(2, service.getQueueInstance(QUEUE_URL).size());
+
+        final long start = System.nanoTime();
+        try {
+            service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(1900));
+        }
+    }
+
+    /**
+     * Given a full queue, push() should spill the following messages to disk, and pull() should read them back in
+     * push order as it makes room.
+     */
+    @Test
+    public final void givenFullQueue_push_shouldSpillAndReadBackInOrder() {
+        service = service(new MemoryLimits(3, 0, 0, OverflowPolicy.SPILL, 0, directory));
+        for (int i = 0; i < 5; ++i) {
+            service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + i));
+        }
+        final List<PushBatchEntry> entries = new ArrayList<>();
+        for (int i = 5; i < 10; ++i) {
+            entries.add(new PushBatchEntry("e" + i, MESSAGE_BODY + i));
+        }
+        service.pushBatch(new PushBatchRequest(QUEUE_URL, entries));
+        assertEquals(3, service.getQueueInstance(QUEUE_URL).size());
+        assertTrue(service.getSpilledBytes(QUEUE_URL) > 0);
+
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(2);
+        final List<String> bodies = new ArrayList<>();
+        List<Message> messages;
+        while (!(messages = service.pull(request)).isEmpty()) {
+            for (Message message : messages) {
+                bodies.add(message.getBody());
+            }
+            assertTrue(service.getQueueUsage(QUEUE_URL).messages() <= 3);
+        }
+        assertEquals(10, bodies.size());
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(MESSAGE_BODY + i, bodies.get(i));
+        }
+        assertEquals(0L, service.getSpilledBytes(QUEUE_URL));
+    }
+
+    /**
+     * getQueueUsage() should count the body bytes of the messages held, until they are pulled, and again once
+     * they are visible again.
+     */
+    @Test
+    public final void givenMessages_getQueueUsage_shouldCountBodyBytes() throws Exception {
+        service = service(MemoryLimits.NONE);
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        service.push(new PushRequest("other", "\u00e9t\u00e9"));
+        assertEquals((long) MESSAGE_BODY.length(), service.getQueueUsage(QUEUE_URL).bytes());
+        assertEquals(5L, service.getQueueUsage("other").bytes());
+        assertEquals(MESSAGE_BODY.length() + 5L, service.getHeldBytes());
+
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setVisibilityTimeout(1);
+        assertEquals(1, service.pull(request).size());
+        assertEquals(0L, service.getQueueUsage(QUEUE_URL).bytes());
+        assertEquals(5L, service.getHeldBytes());
+        Thread.sleep(1500);
+        assertEquals(1, service.getQueueUsage(QUEUE_URL).messages());
+        assertEquals((long) MESSAGE_BODY.length(), service.getQueueUsage(QUEUE_URL).bytes());
+    }
+
+    private static InMemoryQueueService service(final MemoryLimits limits) {
+        return new InMemoryQueueService(MessageStorage.HEAP, 1, limits);
+    }
+}
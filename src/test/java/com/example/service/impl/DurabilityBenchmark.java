@@ -0,0 +1,56 @@
+package com.example.service.impl;
+
+import com.example.pojo.PushRequest;
+import com.example.storage.Durability;
+import com.example.storage.IoMode;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Push throughput of {@link FileQueueService} with concurrent producers, for each durability, and the number
+ * of forces it took. Group commit uses the configured delay and batch size.
+ * <p>
+ * Not a unit test. Arguments: number of producer threads (default 32), messages per producer (default 2000)
+ * and the directory to write to (default: a temporary directory, which should be on the disk being measured).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class DurabilityBenchmark {
+
+    private DurabilityBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int producers = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int messagesPerProducer = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        final File root = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("durability-bench").toFile();
+
+        System.out.println(String.format("%-8s %14s %12s %16s", "mode", "push msg/s", "forces", "msgs/force"));
+        for (Durability durability : Durability.values()) {
+            final FileQueueService service =
+                    new FileQueueService(new File(root, durability.name()), IoMode.STREAM, durability);
+            final PushRequest request = new PushRequest("bench", "durable message body");
+            final CountDownLatch done = new CountDownLatch(producers);
+            final long start = System.nanoTime();
+            for (int p = 0; p < producers; ++p) {
+                new Thread(new Runnable() {
+                    public void run() {
+                        for (int i = 0; i < messagesPerProducer; ++i) {
+                            service.push(request);
+                        }
+                        done.countDown();
+                    }
+                }).start();
+            }
+            done.await();
+            final long nanos = System.nanoTime() - start;
+            final int messages = producers * messagesPerProducer;
+            final long forces = service.syncCount();
+            System.out.println(String.format("%-8s %14.0f %12d %16.1f", durability, messages * 1e9 / nanos,
+                    forces, forces == 0 ? 0.0 : (double) messages / forces));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.service.impl;
+
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+import com.example.storage.IoMode;
+import com.example.storage.SegmentedLog;
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Push and pull throughput of the file queue with stream and memory-mapped segment I/O, both through
+ * {@link FileQueueService} and directly on the {@link SegmentedLog} (without message ids, MD5 and visibility
+ * timeouts).
+ * <p>
+ * Not a unit test. Arguments: number of messages (default 1000000), body size in bytes (default 100) and the
+ * directory to write to (default: a temporary directory, which should be on the disk being measured).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class FileQueueBenchmark {
+
+    private FileQueueBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int bodyBytes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final File root = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("file-queue-bench").toFile();
+        char[] chars = new char[bodyBytes];
+        Arrays.fill(chars, 'x');
+        final String body = new String(chars);
+
+        System.out.println(String.format("%-8s %-8s %14s %14s", "level", "mode", "push msg/s", "pull msg/s"));
+        // The first rounds warm up the JIT, the last one is reported
+        final int rounds = 3;
+        for (int round = 0; round < rounds; ++round) {
+            final boolean report = round == rounds - 1;
+            for (IoMode mode : IoMode.values()) {
+                logRound(new File(root, "log-" + mode + "-" + round), mode, messages, body, report);
+                serviceRound(new File(root, "service-" + mode + "-" + round), mode, messages, body, report);
+            }
+        }
+    }
+
+    private static void logRound(File directory, IoMode mode, int messages, String body, boolean report)
+            throws Exception {
+        final SegmentedLog log = new SegmentedLog(directory, 64 * 1024 * 1024, mode);
+        final byte[] record = body.getBytes(Charsets.UTF_8);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; ++i) {
+            log.append(record);
+        }
+        final long pushNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        while (log.poll() != null) {
+            continue;
+        }
+        final long pullNanos = System.nanoTime() - start;
+        log.close();
+        if (report) {
+            print("log", mode, messages, pushNanos, pullNanos);
+        }
+    }
+
+    private static void serviceRound(File directory, IoMode mode, int messages, String body, boolean report) {
+        final FileQueueService service = new FileQueueService(directory, mode);
+        final PushRequest pushRequest = new PushRequest("bench", body);
+        final PullRequest pullRequest = new PullRequest("bench");
+        pullRequest.setMaxNumberOfMessages(10);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; ++i) {
+            service.push(pushRequest);
+        }
+        final long pushNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        while (!service.pull(pullRequest).isEmpty()) {
+            continue;
+        }
+        final long pullNanos = System.nanoTime() - start;
+        if (report) {
+            print("service", mode, messages, pushNanos, pullNanos);
+        }
+    }
+
+    private static void print(String level, IoMode mode, int messages, long pushNanos, long pullNanos) {
+        System.out.println(String.format("%-8s %-8s %14.0f %14.0f", level, mode, messages * 1e9 / pushNanos,
+                messages * 1e9 / pullNanos));
+    }
+}
@@ -0,0 +1,517 @@
+package com.example.service.impl;
+
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.ChangeVisibilityBatchRequest;
+import com.example.pojo.DeleteBatchRequest;
+import com.example.pojo.DeleteRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
+import com.example.pojo.PushRequest;
+import com.example.storage.Durability;
+import com.example.storage.IoMode;
+import com.example.timer.HashedTimingWheel.Timeout;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link FileQueueService}.
+ * 
+ * @author Swarn Avinash Kumar
+ */
+public class FileQueueServiceTest {
+
+    /** Object to be tested */
+    private FileQueueService service;
+
+    private File directory;
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "Message Body for Test";
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("file-queue").toFile();
+        service = new FileQueueService(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.close();
+        deleteRecursively(directory);
+    }
+
+    /**
+     * Given happy path, pull(), should return the pushed messages in order.
+     */
+    @Test
+    public final void givenHappyPath_pull_shouldReturnListOfMessages() {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 2));
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(10);
+        List<Message> messages = service.pull(request);
+        assertEquals(2, messages.size());
+        assertEquals(MESSAGE_BODY + 1, messages.get(0).getBody());
+        assertEquals(MESSAGE_BODY + 2, messages.get(1).getBody());
+        assertNotNull(messages.get(0).getReceiptHandle());
+        assertEquals(0L, service.pendingBytes());
+    }
+
+    /**
+     * Bodies holding new lines and record separators should come back untouched, with the same id after a
+     * restart.
+     */
+    @Test
+    public final void givenBodyWithNewLines_pull_shouldReturnSameBody() {
+        final String body = "first line\nsecond line $ with\n\n separators\n";
+        service.push(new PushRequest(QUEUE_URL, body));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        assertEquals(body, service.pull(new PullRequest(QUEUE_URL)).get(0).getBody());
+
+        service.close();
+        service = new FileQueueService(directory);
+        assertEquals(MESSAGE_BODY, service.pull(new PullRequest(QUEUE_URL)).get(0).getBody());
+    }
+
+    /**
+     * A pushed batch should be pulled in order, also after a restart, its delayed entries after their delay.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenBatch_pushBatch_shouldAppendEveryMessage() throws InterruptedException {
+        final List<PushBatchEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            entries.add(new PushBatchEntry("e" + i, MESSAGE_BODY + i));
+        }
+        final PushBatchEntry delayed = new PushBatchEntry("delayed", MESSAGE_BODY + "delayed");
+        delayed.setDelaySeconds(1);
+        entries.add(delayed);
+        final List<BatchResultEntry> results = service.pushBatch(new PushBatchRequest(QUEUE_URL, entries));
+        assertEquals(6, results.size());
+        assertEquals("delayed", results.get(5).getId());
+        assertEquals(new Message(MESSAGE_BODY + 3).getMd5Body(), results.get(3).getMd5Body());
+        assertEquals(MESSAGE_BODY + 0, service.pull(new PullRequest(QUEUE_URL)).get(0).getBody());
+        service.close();
+
+        service = new FileQueueService(directory);
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(10);
+        final List<Message> messages = service.pull(request);
+        assertEquals(4, messages.size());
+        assertEquals(MESSAGE_BODY + 4, messages.get(3).getBody());
+        Thread.sleep(1500);
+        assertEquals(MESSAGE_BODY + "delayed", service.pull(request).get(0).getBody());
+    }
+
+    /**
+     * Given happy path, push() should return the MD5 of the body.
+     */
+    @Test
+    public final void givenHappyPath_push_shouldReturnMd5OfBody() {
+        assertEquals(new Message(MESSAGE_BODY).getMd5Body(), service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY)));
+    }
+
+    /**
+     * Pulled but not deleted messages should come back once the visibility timeout expires.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenVisibilityTimeoutWithoutDelete_pull_shouldReturnBackTheMessageToQueue()
+            throws InterruptedException {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setVisibilityTimeout(1);
+        Message first = service.pull(request).get(0);
+        assertTrue(service.pull(request).isEmpty());
+        Thread.sleep(2000);
+        List<Message> messages = service.pull(request);
+        assertEquals(1, messages.size());
+        assertEquals(first.getId(), messages.get(0).getId());
+        assertEquals(MESSAGE_BODY, messages.get(0).getBody());
+    }
+
+    /**
+     * Deleted messages should not come back.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenVisibilityTimeoutWithDelete_pull_shouldNotReturnBackTheMessageToQueue()
+            throws InterruptedException {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setVisibilityTimeout(1);
+        Message message = service.pull(request).get(0);
+        service.delete(new DeleteRequest(QUEUE_URL, message.getReceiptHandle()));
+        Thread.sleep(2000);
+        assertTrue(service.pull(request).isEmpty());
+    }
+
+    /**
+     * Messages not pulled yet should survive a restart of the service.
+     */
+    @Test
+    public final void givenNewServiceOnSameDirectory_pull_shouldResumeWhereItStopped() {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 2));
+        assertEquals(MESSAGE_BODY + 1, service.pull(new PullRequest(QUEUE_URL)).get(0).getBody());
+        service.close();
+        service = new FileQueueService(directory);
+        List<Message> messages = service.pull(new PullRequest(QUEUE_URL));
+        assertEquals(1, messages.size());
+        assertEquals(MESSAGE_BODY + 2, messages.get(0).getBody());
+    }
+
+    /**
+     * A message received before a restart should stay invisible until its original deadline, then come back.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenRestartWithInFlightMessage_pull_shouldRedeliverAtOriginalDeadline()
+            throws InterruptedException {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 2));
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setVisibilityTimeout(2);
+        final Message inFlight = service.pull(request).get(0);
+        service.close();
+
+        service = new FileQueueService(directory);
+        assertEquals(MESSAGE_BODY + 2, service.pull(request).get(0).getBody());
+        assertTrue(service.pull(request).isEmpty());
+        Thread.sleep(2500);
+        List<Message> messages = service.pull(request);
+        assertEquals(1, messages.size());
+        assertEquals(inFlight.getId(), messages.get(0).getId());
+        assertEquals(MESSAGE_BODY + 1, messages.get(0).getBody());
+    }
+
+    /**
+     * A crash after a pull read its messages but before it journaled their receipts should leave the messages in
+     * the queue.
+     */
+    @Test
+    public final void givenCrashBeforeReceiptJournaled_pull_shouldDeliverMessagesAfterRestart() {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 2));
+        // The pull dies once its messages are read, before any receipt is journaled
+        final List<byte[]> records = new ArrayList<>();
+        synchronized (service.getQueueInstance(QUEUE_URL).getPullLock()) {
+            service.getQueueInstance(QUEUE_URL).peekQueue(10, records);
+        }
+        assertEquals(2, records.size());
+        service.close();
+
+        service = new FileQueueService(directory);
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(10);
+        List<Message> messages = service.pull(request);
+        assertEquals(2, messages.size());
+        assertEquals(MESSAGE_BODY + 1, messages.get(0).getBody());
+        assertEquals(MESSAGE_BODY + 2, messages.get(1).getBody());
+    }
+
+    /**
+     * A receipt handle handed out before a restart should still delete its message.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenRestartWithInFlightMessage_delete_shouldAcceptReceiptHandle() throws InterruptedException {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setVisibilityTimeout(1);
+        final Message inFlight = service.pull(request).get(0);
+        service.close();
+
+        service = new FileQueueService(directory);
+        service.delete(new DeleteRequest(QUEUE_URL, inFlight.getReceiptHandle()));
+        Thread.sleep(1500);
+        assertTrue(service.pull(request).isEmpty());
+        service.close();
+
+        // The delete is journaled as well
+        service = new FileQueueService(directory);
+        Thread.sleep(1500);
+        assertTrue(service.pull(request).isEmpty());
+    }
+
+    /**
+     * Given a received and an unknown receipt handle, deleteBatch() should delete the first, also after a
+     * restart, and report the second as invalid.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenValidAndUnknownHandles_deleteBatch_shouldReturnResultPerHandle()
+            throws InterruptedException {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setVisibilityTimeout(1);
+        final Message inFlight = service.pull(request).get(0);
+        final List<BatchResultEntry> results = service.deleteBatch(
+                new DeleteBatchRequest(QUEUE_URL, Arrays.asList(inFlight.getReceiptHandle(), "unknown")));
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals("unknown", results.get(1).getId());
+        assertEquals(BatchResultEntry.RECEIPT_HANDLE_IS_INVALID, results.get(1).getErrorCode());
+        service.close();
+
+        service = new FileQueueService(directory);
+        Thread.sleep(1500);
+        assertTrue(service.pull(request).isEmpty());
+    }
+
+    /**
+     * An expiry running after the delete of its message should not bring it back, and a receipt handle whose
+     * timeout can no longer be cancelled should be reported as visible again rather than deleted.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenExpiryRacingDelete_delete_shouldClaimTheMessageFirst() throws InterruptedException {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 2));
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(2);
+        final List<Message> inFlight = service.pull(request);
+        final String deleted = inFlight.get(0).getReceiptHandle();
+        final String expired = inFlight.get(1).getReceiptHandle();
+        final FileQueue queue = service.getQueueInstance(QUEUE_URL);
+        final Timeout deletedTimeout = queue.getReceivedMessages().get(deleted);
+        final Timeout expiredTimeout = queue.getReceivedMessages().get(expired);
+
+        service.delete(new DeleteRequest(QUEUE_URL, deleted));
+        // A stale expiry of the deleted message
+        deletedTimeout.task().run();
+
+        // Cancelled elsewhere, as an expiry would have
+        assertTrue(expiredTimeout.cancel());
+        try {
+            service.delete(new DeleteRequest(QUEUE_URL, expired));
+            fail("The message should be visible again");
+        } catch (IllegalStateException e) {
+            assertEquals("The message is visible again", e.getMessage());
+        }
+        final List<BatchResultEntry> results =
+                service.deleteBatch(new DeleteBatchRequest(QUEUE_URL, Arrays.asList(expired)));
+        assertEquals(BatchResultEntry.MESSAGE_NOT_INFLIGHT, results.get(0).getErrorCode());
+
+        expiredTimeout.task().run();
+        final List<Message> messages = service.pull(request);
+        assertEquals(1, messages.size());
+        assertEquals(MESSAGE_BODY + 2, messages.get(0).getBody());
+    }
+
+    /**
+     * A visibility change should be journaled: after a restart the message should stay invisible until its new
+     * deadline, not its original one.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenRestartAfterVisibilityChange_pull_shouldRedeliverAtNewDeadline()
+            throws InterruptedException {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setVisibilityTimeout(1);
+        final Message inFlight = service.pull(request).get(0);
+        final List<BatchResultEntry> results = service.changeVisibilityBatch(
+                new ChangeVisibilityBatchRequest(QUEUE_URL, Arrays.asList(inFlight.getReceiptHandle()), 3));
+        assertTrue(results.get(0).isSuccessful());
+        service.close();
+
+        service = new FileQueueService(directory);
+        Thread.sleep(1500);
+        assertTrue(service.pull(request).isEmpty());
+        Thread.sleep(2000);
+        List<Message> messages = service.pull(request);
+        assertEquals(1, messages.size());
+        assertEquals(inFlight.getId(), messages.get(0).getId());
+    }
+
+    /**
+     * A delayed push not appended yet when the service stops should be appended after a restart.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenRestartWithDelayedPush_pull_shouldReturnMessageAfterDelay() throws InterruptedException {
+        PushRequest pushRequest = new PushRequest(QUEUE_URL, MESSAGE_BODY);
+        pushRequest.setDelaySeconds(1);
+        service.push(pushRequest);
+        service.close();
+
+        service = new FileQueueService(directory);
+        assertTrue(service.pull(new PullRequest(QUEUE_URL)).isEmpty());
+        Thread.sleep(1500);
+        List<Message> messages = service.pull(new PullRequest(QUEUE_URL));
+        assertEquals(1, messages.size());
+        assertEquals(MESSAGE_BODY, messages.get(0).getBody());
+        service.delete(new DeleteRequest(QUEUE_URL, messages.get(0).getReceiptHandle()));
+        service.close();
+
+        // Appended once only
+        service = new FileQueueService(directory);
+        Thread.sleep(1500);
+        assertTrue(service.pull(new PullRequest(QUEUE_URL)).isEmpty());
+    }
+
+    /**
+     * Every queue URL should have its own messages.
+     */
+    @Test
+    public final void givenTwoQueues_pull_shouldOnlyReturnMessagesOfRequestedQueue() {
+        final String otherQueueUrl = "https://sqs.us-east-1.amazonaws.com/123456789012/other";
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(otherQueueUrl, MESSAGE_BODY + 2));
+        PullRequest request = new PullRequest(otherQueueUrl);
+        request.setMaxNumberOfMessages(10);
+        List<Message> messages = service.pull(request);
+        assertEquals(1, messages.size());
+        assertEquals(MESSAGE_BODY + 2, messages.get(0).getBody());
+        messages = service.pull(new PullRequest(QUEUE_URL));
+        assertEquals(1, messages.size());
+        assertEquals(MESSAGE_BODY + 1, messages.get(0).getBody());
+        assertTrue(new File(directory, FileQueue.directoryName(otherQueueUrl)).isDirectory());
+    }
+
+    /**
+     * A restart should recover every queue, including the ones not used again after the restart.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenRestartWithSeveralQueues_pull_shouldRecoverEveryQueue() throws InterruptedException {
+        final String otherQueueUrl = "other";
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(otherQueueUrl, MESSAGE_BODY + 2));
+        PullRequest request = new PullRequest(otherQueueUrl);
+        request.setVisibilityTimeout(1);
+        assertEquals(1, service.pull(request).size());
+        service.close();
+
+        service = new FileQueueService(directory);
+        // The message becomes visible again while nobody uses its queue
+        Thread.sleep(1500);
+        assertEquals(MESSAGE_BODY + 2, service.pull(new PullRequest(otherQueueUrl)).get(0).getBody());
+        assertEquals(MESSAGE_BODY + 1, service.pull(new PullRequest(QUEUE_URL)).get(0).getBody());
+    }
+
+    /**
+     * Given a receipt handle of another queue, delete() should throw IllegalStateException.
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void givenReceiptHandleOfOtherQueue_delete_shouldThrowIllegalStateException() {
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        service.push(new PushRequest("other", MESSAGE_BODY));
+        Message message = service.pull(new PullRequest(QUEUE_URL)).get(0);
+        service.delete(new DeleteRequest("other", message.getReceiptHandle()));
+    }
+
+    /**
+     * Bodies containing the id separator should be read back untouched.
+     */
+    @Test
+    public final void givenBodyWithSeparator_pull_shouldReturnWholeBody() {
+        service.push(new PushRequest(QUEUE_URL, " costs $5 or $6 "));
+        assertEquals(" costs $5 or $6 ", service.pull(new PullRequest(QUEUE_URL)).get(0).getBody());
+    }
+
+    /**
+     * Memory-mapped segments should behave like the stream ones, including across restarts.
+     */
+    @Test
+    public final void givenMmapMode_pull_shouldReturnPushedMessages() {
+        service.close();
+        service = new FileQueueService(directory, IoMode.MMAP);
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 2));
+        assertEquals(MESSAGE_BODY + 1, service.pull(new PullRequest(QUEUE_URL)).get(0).getBody());
+        service.close();
+        service = new FileQueueService(directory, IoMode.MMAP);
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 3));
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(10);
+        List<Message> messages = service.pull(request);
+        assertEquals(2, messages.size());
+        assertEquals(MESSAGE_BODY + 2, messages.get(0).getBody());
+        assertEquals(MESSAGE_BODY + 3, messages.get(1).getBody());
+    }
+
+    /**
+     * In sync and group durability, push() should only return once the message is on disk.
+     */
+    @Test(timeout = 10000)
+    public final void givenDurablePushes_push_shouldReturnAfterForce() {
+        service.close();
+        service = new FileQueueService(new File(directory, "sync"), IoMode.STREAM, Durability.SYNC);
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        assertEquals(1L, service.syncCount());
+
+        service.close();
+        service = new FileQueueService(new File(directory, "group"), IoMode.MMAP, Durability.GROUP);
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 1));
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + 2));
+        assertTrue(service.syncCount() >= 1);
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(10);
+        assertEquals(2, service.pull(request).size());
+    }
+
+    /**
+     * Given max messages exceeded, pull() should throw IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void givenMaxMessagesExceeded_pull_shouldThrowIllegalArgumentException() {
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(9999);
+        service.pull(request);
+    }
+
+    /**
+     * Given unknown receipt handle, delete() should throw IllegalStateException.
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void givenUnknownReceiptHandle_delete_shouldThrowIllegalStateException() {
+        service.delete(new DeleteRequest(QUEUE_URL, "unknown"));
+    }
+
+    /**
+     * Given null request, push() should throw IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void givenNullRequest_push_shouldThrowIllegalArgumentException() {
+        service.push(null);
+    }
+
+    static void deleteRecursively(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
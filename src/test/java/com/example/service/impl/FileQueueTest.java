@@ -0,0 +1,166 @@
+package com.example.service.impl;
+
+import static org.junit.Assert.*;
+
+import com.example.storage.Compactor;
+import com.example.storage.Durability;
+import com.example.storage.IoMode;
+import com.example.storage.JournalEntry;
+import com.example.timer.HashedTimingWheel;
+import com.google.common.base.Charsets;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link FileQueue}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class FileQueueTest {
+
+    /**
+     * Directory names should keep URLs apart and never contain a path separator or a special name.
+     */
+    @Test
+    public final void givenQueueUrls_directoryName_shouldBeSafeFileNames() {
+        final String name = FileQueue.directoryName("https://sqs.us-east-1.amazonaws.com/123456789012/orders");
+        assertFalse(name.contains("/"));
+        assertFalse(name.contains("."));
+        assertFalse(FileQueue.directoryName("..").equals(".."));
+        assertFalse(FileQueue.directoryName("a/b").equals(FileQueue.directoryName("a_b")));
+        assertEquals("localhost", FileQueue.directoryName("localhost"));
+    }
+
+    /**
+     * Long URLs should be shortened, and still differ when only their end differs.
+     */
+    @Test
+    public final void givenLongQueueUrls_directoryName_shouldShortenWithHash() {
+        final StringBuilder url = new StringBuilder("https://example.com/");
+        for (int i = 0; i < 50; ++i) {
+            url.append("queue");
+        }
+        final String first = FileQueue.directoryName(url + "1");
+        final String second = FileQueue.directoryName(url + "2");
+        assertTrue(first.length() < 255);
+        assertFalse(first.equals(second));
+    }
+
+    /**
+     * Given an empty queue URL, directoryName() should throw IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void givenEmptyQueueUrl_directoryName_shouldThrowIllegalArgumentException() {
+        FileQueue.directoryName("");
+    }
+
+    /**
+     * Once every message was pulled, compaction should reclaim the message segments and leave nothing behind.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenPulledMessages_compact_shouldReclaimTheirSegments() throws IOException {
+        final File directory = Files.createTempDirectory("file-queue").toFile();
+        final FileQueue queue = new FileQueue(directory, "localhost", 256, IoMode.STREAM, Durability.NONE, 5, 256);
+        try {
+            for (int i = 0; i < 100; ++i) {
+                queue.addQueue(("message " + i).getBytes(Charsets.UTF_8));
+            }
+            final List<byte[]> records = new ArrayList<>();
+            do {
+                records.clear();
+                final int redelivered = queue.peekQueue(10, records);
+                queue.skipQueue(redelivered, records.size() - redelivered);
+            } while (!records.isEmpty());
+            final long lagBytes = queue.compactionLagBytes();
+            assertTrue(lagBytes > 0);
+            assertEquals(lagBytes, queue.compact(new Compactor(1024 * 1024)));
+            assertEquals(0L, queue.compactionLagBytes());
+        } finally {
+            queue.close();
+            FileQueueServiceTest.deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * A process dropped between a redelivery and the journal entry closing its receive should find the message
+     * again, the redelivery being on disk before the entry is appended.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenCrashAfterRedelivery_reopen_shouldKeepTheMessage() throws IOException {
+        final File directory = Files.createTempDirectory("file-queue").toFile();
+        final byte[] message = "redelivered".getBytes(Charsets.UTF_8);
+        FileQueue queue = new FileQueue(directory, "localhost", 1024, IoMode.STREAM, Durability.SYNC, 5, 256);
+        try {
+            queue.addQueue(message);
+            final List<byte[]> records = new ArrayList<>();
+            queue.skipQueue(queue.peekQueue(1, records), 1);
+            queue.commitJournal(queue.appendJournal(JournalEntry.receive("receipt", 0, message)));
+            final long syncCount = queue.syncCount();
+
+            queue.reAddQueue(message);
+            assertEquals(syncCount + 1, queue.syncCount());
+
+            // Dropped before the delete is journaled
+            queue.close();
+            queue = new FileQueue(directory, "localhost", 1024, IoMode.STREAM, Durability.SYNC, 5, 256);
+            records.clear();
+            assertEquals(1, queue.peekQueue(10, records));
+            assertEquals("redelivered", new String(records.get(0), Charsets.UTF_8));
+            assertEquals(1, queue.getRecovered().size());
+        } finally {
+            queue.close();
+            FileQueueServiceTest.deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * Compaction should only move the latest receive of a receipt handle, not the one a visibility change
+     * replaced, and a restart should find the new deadline.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenVisibilityChange_compact_shouldMoveLatestReceiveOnly() throws IOException {
+        final File directory = Files.createTempDirectory("file-queue").toFile();
+        final HashedTimingWheel timingWheel = new HashedTimingWheel(100, TimeUnit.MILLISECONDS, 512);
+        final byte[] message = "moved".getBytes(Charsets.UTF_8);
+        FileQueue queue = new FileQueue(directory, "localhost", 256, IoMode.STREAM, Durability.NONE, 5, 256);
+        try {
+            queue.appendJournal(JournalEntry.receive("moved", 10, message));
+            queue.appendJournal(JournalEntry.delete("moved"));
+            queue.appendJournal(JournalEntry.receive("moved", 99, message));
+            queue.getReceivedMessages().put("moved", timingWheel.schedule(
+                    new FileQueue.Redelivery(queue, "moved", message, 99), 1, TimeUnit.HOURS));
+            for (int i = 0; i < 20; ++i) {
+                queue.appendJournal(JournalEntry.delay("p" + i, 1000, message));
+                queue.appendJournal(JournalEntry.delayDone("p" + i));
+            }
+
+            final Compactor compactor = new Compactor(1024 * 1024);
+            assertTrue(queue.compact(compactor) > 0);
+            final int receiveBytes = JournalEntry.receive("moved", 99, message).encode().length;
+            assertTrue(compactor.rewrittenBytes() >= receiveBytes);
+            assertTrue(compactor.rewrittenBytes() < 2 * receiveBytes);
+
+            queue.close();
+            queue = new FileQueue(directory, "localhost", 256, IoMode.STREAM, Durability.NONE, 5, 256);
+            assertEquals(1, queue.getRecovered().size());
+            assertEquals(99L, queue.getRecovered().get(0).getDeadlineMillis());
+        } finally {
+            timingWheel.stop();
+            queue.close();
+            FileQueueServiceTest.deleteRecursively(directory);
+        }
+    }
+}
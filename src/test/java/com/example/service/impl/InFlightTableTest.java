@@ -0,0 +1,182 @@
+package com.example.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unit tests for {@link InFlightTable}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class InFlightTableTest {
+
+    /** Object to be tested */
+    private InFlightTable<String> table;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        table = new InFlightTable<>(4);
+    }
+
+    /**
+     * Testing add() and get(): an entry is found by its handle until it is removed.
+     */
+    @Test
+    public final void givenEntry_get_shouldFindItUntilRemoved() {
+        // Given
+        final long handle = table.add("message");
+        // When
+        final String found = table.get(handle);
+        final String removed = table.remove(handle);
+        // Then
+        assertEquals("message", found);
+        assertEquals("message", removed);
+        assertNull(table.get(handle));
+        assertNull(table.remove(handle));
+        assertEquals(0, table.size());
+    }
+
+    /**
+     * Testing get() with the handle of a reused slot: the stale handle does not find the new entry.
+     */
+    @Test
+    public final void givenReusedSlot_get_shouldDetectStaleHandle() {
+        // Given
+        final long stale = table.add("first");
+        table.remove(stale);
+        // When
+        final long handle = table.add("second");
+        // Then
+        assertTrue(stale != handle);
+        assertNull(table.get(stale));
+        assertFalse(table.replace(stale, null, "third"));
+        assertEquals("second", table.get(handle));
+    }
+
+    /**
+     * Testing format() and parse(): a handle survives its string form, and malformed receipt handles are invalid.
+     */
+    @Test
+    public final void givenReceiptHandle_parse_shouldReturnHandle() {
+        // Given
+        final long handle = table.add("message");
+        // When
+        final String receiptHandle = InFlightTable.format(handle);
+        // Then
+        assertEquals(handle, InFlightTable.parse(receiptHandle));
+        assertEquals("message", table.get(InFlightTable.parse(receiptHandle)));
+        assertEquals(InFlightTable.INVALID_HANDLE, InFlightTable.parse("not a handle"));
+        assertEquals(InFlightTable.INVALID_HANDLE, InFlightTable.parse(null));
+        assertNull(table.get(InFlightTable.INVALID_HANDLE));
+        assertNull(table.get(InFlightTable.parse("unknown")));
+        assertNull(table.get(-1L));
+    }
+
+    /**
+     * Testing replace(): an entry is only replaced while it is the expected one.
+     */
+    @Test
+    public final void givenExpectedEntry_replace_shouldReplaceIt() {
+        // Given
+        final long handle = table.add(null);
+        // When
+        final boolean replaced = table.replace(handle, null, "message");
+        // Then
+        assertTrue(replaced);
+        assertFalse(table.replace(handle, null, "other"));
+        assertEquals("message", table.get(handle));
+    }
+
+    /**
+     * Testing discard(): an entry is removed even while it is still null, and only once.
+     */
+    @Test
+    public final void givenNullEntry_discard_shouldRemoveItOnce() {
+        // Given
+        final long handle = table.add(null);
+        // When
+        final boolean discarded = table.discard(handle);
+        // Then
+        assertTrue(discarded);
+        assertFalse(table.discard(handle));
+        assertFalse(table.replace(handle, null, "message"));
+        assertEquals(0, table.size());
+    }
+
+    /**
+     * Testing add() past the initial capacity of a shard: every entry stays reachable.
+     */
+    @Test
+    public final void givenManyEntries_add_shouldGrow() {
+        // Given
+        final List<Long> handles = new ArrayList<>();
+        // When
+        for (int i = 0; i < InFlightTable.INITIAL_SLOTS * 10; ++i) {
+            handles.add(table.add("message " + i));
+        }
+        // Then
+        assertEquals(InFlightTable.INITIAL_SLOTS * 10, table.size());
+        for (int i = 0; i < handles.size(); ++i) {
+            assertEquals("message " + i, table.get(handles.get(i)));
+        }
+    }
+
+    /**
+     * Testing add() and remove() from many threads: handles are unique and every entry is removed once.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenConcurrentThreads_addAndRemove_shouldKeepHandlesUnique() throws Exception {
+        // Given
+        final int threads = 8;
+        final int entries = 10000;
+        final Set<Long> issued = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final Set<Long> duplicates = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final CountDownLatch done = new CountDownLatch(threads);
+        // When
+        for (int t = 0; t < threads; ++t) {
+            new Thread(new Runnable() {
+                public void run() {
+                    final Set<Long> handles = new HashSet<>();
+                    for (int i = 0; i < entries; ++i) {
+                        final long handle = table.add("message");
+                        if (!issued.add(handle)) {
+                            duplicates.add(handle);
+                        }
+                        handles.add(handle);
+                        if (i % 2 == 1) {
+                            for (Long removed : handles) {
+                                if (table.remove(removed) == null) {
+                                    duplicates.add(removed);
+                                }
+                            }
+                            handles.clear();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        // Then
+        assertTrue(duplicates.isEmpty());
+        assertEquals(threads * entries, issued.size());
+        assertEquals(0, table.size());
+    }
+}
@@ -1,16 +1,32 @@
 package com.example.service.impl;
 
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.ChangeVisibilityBatchRequest;
+import com.example.pojo.DeleteBatchRequest;
 import com.example.pojo.DeleteRequest;
 import com.example.pojo.Message;
 import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
 import com.example.pojo.PushRequest;
+import com.example.storage.MessageStorage;
 
 import static org.junit.Assert.*;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Unit tests for {@link InMemoryQueueService}.
@@ -34,7 +50,37 @@ public class InMemoryQueueServiceTest {
      */
     @Before
     public void setUp() throws Exception {
-        this.service = new InMemoryQueueService();
+        this.service = new InMemoryQueueService(storage(), shards());
+        if (queueType() != QueueType.DEQUE) {
+            this.service.createQueue(QUEUE_URL, queueType());
+        }
+    }
+
+    /**
+     * Gets the message storage under test.
+     *
+     * @return the message storage
+     */
+    protected MessageStorage storage() {
+        return MessageStorage.HEAP;
+    }
+
+    /**
+     * Gets the number of shards of every queue under test.
+     *
+     * @return the number of shards
+     */
+    protected int shards() {
+        return 1;
+    }
+
+    /**
+     * Gets the type of the queue under test.
+     *
+     * @return the queue type
+     */
+    protected QueueType queueType() {
+        return QueueType.DEQUE;
     }
 
     /**
@@ -168,6 +214,226 @@ public class InMemoryQueueServiceTest {
         service.delete(null);
     }
 
+    /**
+     * Given a batch, pushBatch() should enqueue the messages in order and return a result per entry.
+     */
+    @Test
+    public final void givenBatch_pushBatch_shouldEnqueueEveryMessage() {
+        final List<PushBatchEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            entries.add(new PushBatchEntry("e" + i, MESSAGE_BODY + i));
+        }
+        final List<BatchResultEntry> results = service.pushBatch(new PushBatchRequest(QUEUE_URL, entries));
+        assertEquals(5, results.size());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals("e" + i, results.get(i).getId());
+            assertTrue(results.get(i).isSuccessful());
+            assertEquals(new Message(MESSAGE_BODY + i).getMd5Body(), results.get(i).getMd5Body());
+        }
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(10);
+        final List<Message> messages = service.pull(request);
+        assertEquals(5, messages.size());
+        assertEquals(MESSAGE_BODY + 0, messages.get(0).getBody());
+        assertEquals(MESSAGE_BODY + 4, messages.get(4).getBody());
+    }
+
+    /**
+     * Delayed entries of a batch should only be enqueued after their delay.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenDelayedEntries_pushBatch_shouldEnqueueThemAfterDelay() throws InterruptedException {
+        final PushBatchEntry delayed = new PushBatchEntry("delayed", MESSAGE_BODY + "delayed");
+        delayed.setDelaySeconds(1);
+        service.pushBatch(new PushBatchRequest(QUEUE_URL,
+                Arrays.asList(new PushBatchEntry("now", MESSAGE_BODY), delayed)));
+        assertEquals(1, service.getQueueInstance(QUEUE_URL).size());
+        Thread.sleep(1500);
+        assertEquals(2, service.getQueueInstance(QUEUE_URL).size());
+    }
+
+    /**
+     * Given duplicate entry ids, the batch request should throw IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void givenDuplicateEntryIds_pushBatch_shouldThrowIllegalArgumentException() {
+        service.pushBatch(new PushBatchRequest(QUEUE_URL,
+                Arrays.asList(new PushBatchEntry("id", MESSAGE_BODY), new PushBatchEntry("id", MESSAGE_BODY))));
+    }
+
+    /**
+     * Given a received and an unknown receipt handle, deleteBatch() should delete the first and report the second
+     * as invalid, and the deleted message should not come back.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenValidAndUnknownHandles_deleteBatch_shouldReturnResultPerHandle()
+            throws InterruptedException {
+        pushDefaultMessage();
+        final PullRequest pullRequest = new PullRequest(QUEUE_URL);
+        pullRequest.setVisibilityTimeout(1);
+        final String receiptHandle = service.pull(pullRequest).get(0).getReceiptHandle();
+        final List<BatchResultEntry> results =
+                service.deleteBatch(new DeleteBatchRequest(QUEUE_URL, Arrays.asList(receiptHandle, "unknown")));
+        assertEquals(2, results.size());
+        assertEquals(receiptHandle, results.get(0).getId());
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals("unknown", results.get(1).getId());
+        assertEquals(BatchResultEntry.RECEIPT_HANDLE_IS_INVALID, results.get(1).getErrorCode());
+        Thread.sleep(1500);
+        assertTrue(service.getQueueInstance(QUEUE_URL).isEmpty());
+    }
+
+    /**
+     * Given a message visible again after its visibility timeout, delete() and deleteBatch() should fail and
+     * leave the message in the queue.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenExpiredVisibilityTimeout_delete_shouldFailAndKeepMessage() throws InterruptedException {
+        pushDefaultMessage();
+        final PullRequest pullRequest = new PullRequest(QUEUE_URL);
+        pullRequest.setVisibilityTimeout(1);
+        final String receiptHandle = service.pull(pullRequest).get(0).getReceiptHandle();
+        Thread.sleep(2000);
+        try {
+            service.delete(new DeleteRequest(QUEUE_URL, receiptHandle));
+            fail("The expired receipt handle should be rejected");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        final List<BatchResultEntry> results =
+                service.deleteBatch(new DeleteBatchRequest(QUEUE_URL, Arrays.asList(receiptHandle)));
+        assertFalse(results.get(0).isSuccessful());
+        assertEquals(1, service.getQueueInstance(QUEUE_URL).size());
+        assertEquals(MESSAGE_BODY, service.getQueueInstance(QUEUE_URL).peek().getBody());
+    }
+
+    /**
+     * Given a visibility timeout of zero, changeVisibilityBatch() should return the messages to the queue
+     * right away, and a deleted receipt handle should be reported as invalid.
+     */
+    @Test
+    public final void givenZeroVisibilityTimeout_changeVisibilityBatch_shouldReturnMessagesToQueue() {
+        pushDefaultMessage();
+        pushDefaultMessage();
+        final PullRequest pullRequest = new PullRequest(QUEUE_URL);
+        pullRequest.setVisibilityTimeout(30);
+        pullRequest.setMaxNumberOfMessages(2);
+        final List<Message> messages = service.pull(pullRequest);
+        assertEquals(2, messages.size());
+        service.delete(new DeleteRequest(QUEUE_URL, messages.get(1).getReceiptHandle()));
+
+        final List<BatchResultEntry> results = service.changeVisibilityBatch(new ChangeVisibilityBatchRequest(
+                QUEUE_URL, Arrays.asList(messages.get(0).getReceiptHandle(), messages.get(1).getReceiptHandle()),
+                0));
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals(BatchResultEntry.RECEIPT_HANDLE_IS_INVALID, results.get(1).getErrorCode());
+        pullRequest.setWaitTimeSeconds(2);
+        final List<Message> redelivered = service.pull(pullRequest);
+        assertEquals(1, redelivered.size());
+        assertEquals(messages.get(0).getId(), redelivered.get(0).getId());
+    }
+
+    /**
+     * Given a longer visibility timeout, changeVisibilityBatch() should keep the message invisible past its
+     * original timeout.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenLongerVisibilityTimeout_changeVisibilityBatch_shouldKeepMessageInvisible()
+            throws InterruptedException {
+        pushDefaultMessage();
+        final PullRequest pullRequest = new PullRequest(QUEUE_URL);
+        pullRequest.setVisibilityTimeout(1);
+        final String receiptHandle = service.pull(pullRequest).get(0).getReceiptHandle();
+        assertTrue(service.changeVisibilityBatch(
+                new ChangeVisibilityBatchRequest(QUEUE_URL, Arrays.asList(receiptHandle), 3)).get(0).isSuccessful());
+        Thread.sleep(1500);
+        assertTrue(service.getQueueInstance(QUEUE_URL).isEmpty());
+        Thread.sleep(2000);
+        assertEquals(1, service.getQueueInstance(QUEUE_URL).size());
+    }
+
+    /**
+     * A parked pull should complete as soon as a message is pushed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void givenParkedPull_pullAsync_shouldCompleteWhenMessageIsPushed() throws Exception {
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setWaitTimeSeconds(5);
+        final ListenableFuture<List<Message>> messages = service.pullAsync(request);
+        assertFalse(messages.isDone());
+        pushDefaultMessage();
+        assertTrue(messages.isDone());
+        assertEquals(MESSAGE_BODY, messages.get().get(0).getBody());
+        assertNotNull(messages.get().get(0).getReceiptHandle());
+        assertTrue(service.getQueueInstance(QUEUE_URL).isEmpty());
+    }
+
+    /**
+     * A parked pull should complete with no message once its wait time has passed.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void givenEmptyQueue_pullAsync_shouldCompleteEmptyAfterWaitTime() throws Exception {
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setWaitTimeSeconds(1);
+        final long start = System.nanoTime();
+        final List<Message> messages = service.pullAsync(request).get(3, TimeUnit.SECONDS);
+        assertTrue(messages.isEmpty());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        pushDefaultMessage();
+        assertEquals(1, service.getQueueInstance(QUEUE_URL).size());
+    }
+
+    /**
+     * Thousands of parked pulls should not take a thread each, and each should get its own message.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void givenThousandsOfParkedPulls_pullAsync_shouldNotUseThreadEach() throws Exception {
+        final int threads = Thread.activeCount();
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setWaitTimeSeconds(20);
+        final List<ListenableFuture<List<Message>>> pulls = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            pulls.add(service.pullAsync(request));
+        }
+        assertTrue(Thread.activeCount() - threads < 5);
+        for (int i = 0; i < 5000; ++i) {
+            service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + i));
+        }
+        for (int i = 0; i < 5000; ++i) {
+            assertEquals(MESSAGE_BODY + i, pulls.get(i).get(1, TimeUnit.SECONDS).get(0).getBody());
+        }
+    }
+
+    /**
+     * Given unknown receipt handle, deleteAsync() should fail its future with IllegalStateException.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenUnknownReceiptHandle_deleteAsync_shouldFailWithIllegalStateException()
+            throws InterruptedException {
+        try {
+            service.deleteAsync(new DeleteRequest(QUEUE_URL, "unknown")).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
     /**
      * Push default message.
      */
@@ -220,4 +486,167 @@ public class InMemoryQueueServiceTest {
         assertEquals(MESSAGE_BODY, service.getQueueInstance(QUEUE_URL).peek().getBody());
     }
 
+    /**
+     * Given a wait time and an empty queue, pull() should block until a message is pushed.
+     *
+     * @throws InterruptedException
+     */
+    @Test(timeout = 10000)
+    public final void givenWaitTime_pull_shouldReturnAsSoonAsMessageIsPushed() throws InterruptedException {
+        // Given
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setWaitTimeSeconds(5);
+        final AtomicReference<List<Message>> pulled = new AtomicReference<>();
+        Thread consumer = new Thread(new Runnable() {
+            public void run() {
+                pulled.set(service.pull(request));
+            }
+        });
+        long start = System.nanoTime();
+        consumer.start();
+        Thread.sleep(200);
+        // When
+        pushDefaultMessage();
+        consumer.join();
+        // Then
+        assertEquals(1, pulled.get().size());
+        assertEquals(MESSAGE_BODY, pulled.get().get(0).getBody());
+        assertTrue(System.nanoTime() - start < 5000000000L);
+    }
+
+    /**
+     * Given a wait time and nothing pushed, pull() should return an empty list once the wait time expires.
+     */
+    @Test(timeout = 10000)
+    public final void givenWaitTimeAndEmptyQueue_pull_shouldReturnEmptyListAfterWaitTime() {
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setWaitTimeSeconds(1);
+        long start = System.nanoTime();
+        List<Message> messages = service.pull(request);
+        assertTrue(messages.isEmpty());
+        assertTrue(System.nanoTime() - start >= 900000000L);
+    }
+
+    /**
+     * Given a negative wait time, pull() should throw IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void givenNegativeWaitTime_pull_shouldThrowIllegalArgumentException() {
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setWaitTimeSeconds(-1);
+        service.pull(request);
+    }
+
+    /**
+     * Given several visible messages, a long poll should fill the batch up to the max number of messages.
+     */
+    @Test(timeout = 10000)
+    public final void givenWaitTimeAndVisibleMessages_pull_shouldFillBatch() {
+        pushDefaultMessage();
+        pushDefaultMessage();
+        pushDefaultMessage();
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setWaitTimeSeconds(5);
+        request.setMaxNumberOfMessages(2);
+        assertEquals(2, service.pull(request).size());
+        assertEquals(1, service.getQueueInstance(QUEUE_URL).size());
+    }
+
+    /**
+     * A message coming back from a visibility timeout should wake up a consumer that is long polling.
+     */
+    @Test(timeout = 10000)
+    public final void givenVisibilityTimeout_pullWithWaitTime_shouldReceiveRequeuedMessage() {
+        // Given
+        pushDefaultMessage();
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setVisibilityTimeout(1);
+        assertEquals(1, service.pull(request).size());
+        // When
+        PullRequest longPoll = new PullRequest(QUEUE_URL);
+        longPoll.setWaitTimeSeconds(5);
+        long start = System.nanoTime();
+        List<Message> messages = service.pull(longPoll);
+        // Then
+        assertEquals(1, messages.size());
+        assertTrue(System.nanoTime() - start < 5000000000L);
+    }
+
+    /**
+     * An idle consumer blocked in a long poll should not burn CPU.
+     *
+     * @throws InterruptedException
+     */
+    @Test(timeout = 10000)
+    public final void givenIdleQueue_pullWithWaitTime_shouldUseAlmostNoCpu() throws InterruptedException {
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        final AtomicLong cpuNanos = new AtomicLong();
+        Thread consumer = new Thread(new Runnable() {
+            public void run() {
+                PullRequest request = new PullRequest(QUEUE_URL);
+                request.setWaitTimeSeconds(2);
+                long before = threadBean.getCurrentThreadCpuTime();
+                service.pull(request);
+                cpuNanos.set(threadBean.getCurrentThreadCpuTime() - before);
+            }
+        });
+        consumer.start();
+        consumer.join();
+        // Two seconds of waiting should cost well under 50ms of CPU
+        assertTrue("CPU time was " + cpuNanos.get() + "ns", cpuNanos.get() < 50000000L);
+    }
+
+    /**
+     * A push should wake up a long polling consumer in well under a millisecond (median of several rounds).
+     *
+     * @throws InterruptedException
+     */
+    @Test(timeout = 30000)
+    public final void givenWaitingConsumer_push_shouldWakeItUpInUnderOneMillisecond() throws InterruptedException {
+        final int rounds = 50;
+        long[] latencies = new long[rounds];
+        for (int i = 0; i < rounds; ++i) {
+            final AtomicLong returnedAt = new AtomicLong();
+            Thread consumer = new Thread(new Runnable() {
+                public void run() {
+                    PullRequest request = new PullRequest(QUEUE_URL);
+                    request.setWaitTimeSeconds(5);
+                    service.pull(request);
+                    returnedAt.set(System.nanoTime());
+                }
+            });
+            consumer.start();
+            while (consumer.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(1);
+            }
+            long pushedAt = System.nanoTime();
+            pushDefaultMessage();
+            consumer.join();
+            latencies[i] = returnedAt.get() - pushedAt;
+        }
+        Arrays.sort(latencies);
+        long median = latencies[rounds / 2];
+        assertTrue("Median wake-up latency was " + median + "ns", median < 1000000L);
+    }
+
+    /**
+     * CreateQueue() should create a queue of the given type once, and refuse to create it again.
+     */
+    @Test
+    public final void givenQueueType_createQueue_shouldCreateItOnce() {
+        // Given
+        final String url = "created";
+        service.createQueue(url, QueueType.RING_BUFFER);
+        // When
+        service.push(new PushRequest(url, MESSAGE_BODY));
+        // Then
+        assertTrue(service.getQueueInstance(url) instanceof RingBufferMessageQueue);
+        assertEquals(MESSAGE_BODY, service.pull(new PullRequest(url)).get(0).getBody());
+        try {
+            service.createQueue(url, QueueType.DEQUE);
+            fail("The queue was created twice");
+        } catch (IllegalStateException e) {
+            assertTrue(service.getQueueInstance(url) instanceof RingBufferMessageQueue);
+        }
+    }
 }
@@ -0,0 +1,106 @@
+package com.example.service.impl;
+
+import com.example.pojo.Message;
+import com.example.pojo.PushRequest;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Heap footprint of a message, and push throughput of the in-memory queue service.
+ * <p>
+ * Not a unit test. The footprint is measured the way a heap layout tool would report the retained size: the
+ * heap used by many messages, past their bodies, divided by their number, before and after their MD5 digest
+ * was read. The throughput is that of producer threads pushing to an in-memory queue that is drained as it
+ * goes. Arguments: number of messages of the footprint (default 1000000), body size in bytes (default 100),
+ * producer threads (default 4) and messages per producer (default 500000).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class MessageFootprintBenchmark {
+
+    private MessageFootprintBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int bodyBytes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final int producers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final int pushes = args.length > 3 ? Integer.parseInt(args[3]) : 500000;
+
+        footprint(messages, bodyBytes);
+        // The first round warms up the JIT, the last one is reported
+        for (int round = 0; round < 2; ++round) {
+            push(producers, pushes, bodyBytes, round == 1);
+        }
+        System.exit(0);
+    }
+
+    private static void footprint(final int count, final int bodyBytes) {
+        final String body = Strings.repeat("x", bodyBytes);
+        final String[] bodies = new String[count];
+        final Message[] messages = new Message[count];
+        for (int i = 0; i < count; ++i) {
+            bodies[i] = new String(body);
+        }
+        final long bodiesOnly = usedHeap();
+        for (int i = 0; i < count; ++i) {
+            messages[i] = new Message(bodies[i]);
+        }
+        final long withMessages = usedHeap();
+        for (Message message : messages) {
+            message.getMd5Body();
+        }
+        final long withDigests = usedHeap();
+        System.out.println(String.format("%-32s %10d", "message bytes past the body", (withMessages - bodiesOnly)
+                / count));
+        System.out.println(String.format("%-32s %10d", "... once the digest was read", (withDigests - bodiesOnly)
+                / count));
+        // Keeps the messages reachable until measured
+        System.out.println(String.format("%-32s %10d", "messages", messages.length));
+    }
+
+    private static void push(final int producers, final int pushes, final int bodyBytes, final boolean report)
+            throws InterruptedException {
+        final InMemoryQueueService service = new InMemoryQueueService();
+        final String body = Strings.repeat("x", bodyBytes);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; ++p) {
+            final String queueUrl = "bench-" + p;
+            new Thread(new Runnable() {
+                public void run() {
+                    Uninterruptibles.awaitUninterruptibly(start);
+                    for (int i = 0; i < pushes; ++i) {
+                        service.push(new PushRequest(queueUrl, body));
+                        if (i % 1000 == 999) {
+                            // Drains the queue so that the heap does not grow with the run
+                            service.getQueueInstance(queueUrl).clear();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long nanos = System.nanoTime() - startNanos;
+        if (report) {
+            System.out.println(String.format("%-32s %10.0f", "push/s", (double) producers * pushes * 1e9 / nanos));
+        }
+    }
+
+    /**
+     * Gets the heap used by reachable objects, after collecting the others.
+     */
+    private static long usedHeap() {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.service.impl;
+
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+import com.example.storage.Durability;
+import com.example.storage.IoMode;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Throughput of {@link FileQueueService} with concurrent clients, all on a single queue or each on a queue of
+ * its own. Every client pushes its messages then pulls them back; with a queue per client the throughput
+ * should scale with the number of cores, as queues share no file and no lock.
+ * <p>
+ * Not a unit test. Arguments: maximum number of clients (default: twice the number of cores), messages per
+ * client (default 200000) and the directory to write to (default: a temporary directory).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class MultiQueueBenchmark {
+
+    private MultiQueueBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int maxClients = args.length > 0 ? Integer.parseInt(args[0])
+                : 2 * Runtime.getRuntime().availableProcessors();
+        final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        final File root = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("multi-queue-bench").toFile();
+
+        System.out.println(String.format("%-8s %8s %14s", "layout", "clients", "msg/s"));
+        // The first round warms up the JIT, the second one is reported
+        for (int round = 0; round < 2; ++round) {
+            for (int clients = 1; clients <= maxClients; clients *= 2) {
+                for (boolean spread : new boolean[] { false, true }) {
+                    final File directory = new File(root, round + "-" + clients + "-" + spread);
+                    final double throughput = run(directory, clients, messages, spread);
+                    if (round == 1) {
+                        System.out.println(String.format("%-8s %8d %14.0f", spread ? "spread" : "shared", clients,
+                                throughput));
+                    }
+                }
+            }
+        }
+    }
+
+    private static double run(final File directory, final int clients, final int messages, final boolean spread)
+            throws InterruptedException {
+        final FileQueueService service = new FileQueueService(directory, IoMode.STREAM, Durability.NONE);
+        final CountDownLatch done = new CountDownLatch(clients);
+        final long start = System.nanoTime();
+        for (int c = 0; c < clients; ++c) {
+            final String queueUrl = spread ? "queue-" + c : "queue";
+            new Thread(new Runnable() {
+                public void run() {
+                    final PushRequest pushRequest = new PushRequest(queueUrl, "multi queue message body");
+                    final PullRequest pullRequest = new PullRequest(queueUrl);
+                    pullRequest.setMaxNumberOfMessages(10);
+                    for (int i = 0; i < messages; ++i) {
+                        service.push(pushRequest);
+                    }
+                    int pulled = 0;
+                    while (pulled < messages) {
+                        final int count = service.pull(pullRequest).size();
+                        if (count == 0) {
+                            // On a shared queue, the other clients took the rest
+                            break;
+                        }
+                        pulled += count;
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        final long nanos = System.nanoTime() - start;
+        service.close();
+        return 2.0 * clients * messages * 1e9 / nanos;
+    }
+}
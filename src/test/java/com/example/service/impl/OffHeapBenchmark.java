@@ -0,0 +1,134 @@
+package com.example.service.impl;
+
+import com.example.pojo.DeleteBatchRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
+import com.example.storage.MessageStorage;
+import com.google.common.base.Strings;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap footprint and garbage collection pauses of an in-memory queue holding many messages, with the messages
+ * kept on the heap against off the heap.
+ * <p>
+ * Not a unit test. A queue is filled with messages, then drained with pulls and deletes; the heap used once
+ * the queue is full, the direct memory reserved, the collections during the fill and the pause of a full
+ * collection with the queue full are reported. Run each storage in its own JVM for the cleanest numbers.
+ * Arguments: storage (heap, off_heap or both, default both), number of messages (default 1000000) and body size
+ * in bytes (default 100).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class OffHeapBenchmark {
+
+    private static final String QUEUE_URL = "bench";
+
+    private static final int BATCH_SIZE = 10;
+
+    private OffHeapBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final String storage = args.length > 0 ? args[0] : "both";
+        final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        final int bodyBytes = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        System.out.println(String.format("%-10s %10s %10s %10s %8s %8s %10s %10s", "storage", "push/s", "heap MB",
+                "direct MB", "gcs", "gc ms", "full gc ms", "pull/s"));
+        if (!storage.equalsIgnoreCase(MessageStorage.OFF_HEAP.name())) {
+            run(MessageStorage.HEAP, messages, bodyBytes);
+        }
+        if (!storage.equalsIgnoreCase(MessageStorage.HEAP.name())) {
+            run(MessageStorage.OFF_HEAP, messages, bodyBytes);
+        }
+        System.exit(0);
+    }
+
+    private static void run(final MessageStorage storage, final int messages, final int bodyBytes) {
+        final InMemoryQueueService service = new InMemoryQueueService(storage);
+        final String body = Strings.repeat("x", bodyBytes);
+        fullGc();
+        final long heapBefore = usedHeap();
+        final long[] gcsBefore = collections();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i += BATCH_SIZE) {
+            final List<PushBatchEntry> entries = new ArrayList<>(BATCH_SIZE);
+            for (int j = i; j < Math.min(messages, i + BATCH_SIZE); ++j) {
+                // Every message has its own body, as messages received from producers do
+                entries.add(new PushBatchEntry(String.valueOf(j - i), new String(body)));
+            }
+            service.pushBatch(new PushBatchRequest(QUEUE_URL, entries));
+        }
+        final long pushNanos = System.nanoTime() - start;
+        final long[] gcsAfter = collections();
+
+        final long fullGcNanos = fullGc();
+        final long heapBytes = usedHeap() - heapBefore;
+        final long directBytes = directMemory();
+
+        start = System.nanoTime();
+        int pulled = 0;
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(BATCH_SIZE);
+        while (pulled < messages) {
+            final List<Message> batch = service.pull(request);
+            if (batch.isEmpty()) {
+                break;
+            }
+            final List<String> receiptHandles = new ArrayList<>(batch.size());
+            for (Message message : batch) {
+                receiptHandles.add(message.getReceiptHandle());
+            }
+            service.deleteBatch(new DeleteBatchRequest(QUEUE_URL, receiptHandles));
+            pulled += batch.size();
+        }
+        final long pullNanos = System.nanoTime() - start;
+
+        System.out.println(String.format("%-10s %10.0f %10d %10d %8d %8d %10.0f %10.0f", storage.name().toLowerCase(),
+                messages * 1e9 / pushNanos, heapBytes >> 20, directBytes >> 20, gcsAfter[0] - gcsBefore[0],
+                gcsAfter[1] - gcsBefore[1], fullGcNanos / 1e6, pulled * 1e9 / pullNanos));
+    }
+
+    /**
+     * Runs a full collection and returns how long it took.
+     */
+    private static long fullGc() {
+        final long start = System.nanoTime();
+        System.gc();
+        return System.nanoTime() - start;
+    }
+
+    private static long usedHeap() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long directMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getTotalCapacity();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the number of collections and their total time in milliseconds, over every collector.
+     */
+    private static long[] collections() {
+        final long[] collections = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections[0] += collector.getCollectionCount();
+            collections[1] += collector.getCollectionTime();
+        }
+        return collections;
+    }
+}
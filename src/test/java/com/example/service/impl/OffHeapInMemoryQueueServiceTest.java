@@ -0,0 +1,17 @@
+package com.example.service.impl;
+
+import com.example.storage.MessageStorage;
+
+/**
+ * Unit tests for {@link InMemoryQueueService} with the queued messages kept off the heap. Runs every test of
+ * {@link InMemoryQueueServiceTest}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class OffHeapInMemoryQueueServiceTest extends InMemoryQueueServiceTest {
+
+    @Override
+    protected MessageStorage storage() {
+        return MessageStorage.OFF_HEAP;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.service.impl;
+
+import com.example.pojo.Message;
+import com.example.storage.SlabArena;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link OffHeapMessageDeque}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class OffHeapMessageDequeTest {
+
+    /** Object to be tested */
+    private OffHeapMessageDeque deque;
+
+    private SlabArena arena;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        arena = new SlabArena(4096);
+        deque = new OffHeapMessageDeque(arena);
+    }
+
+    /**
+     * Testing poll(): messages come out in order, decoded as they went in, and their memory is freed.
+     */
+    @Test
+    public final void givenMessages_poll_shouldReturnThemInOrder() {
+        // Given
+        final Message first = new Message("first");
+        final Message second = new Message("id-2", "second \u00e9\u4e2d");
+        deque.add(first);
+        deque.add(second);
+        deque.addFirst(new Message("zeroth"));
+        // When
+        final Message zeroth = deque.poll();
+        // Then
+        assertEquals("zeroth", zeroth.getBody());
+        assertEquals(2, deque.size());
+        assertEquals(first, deque.poll());
+        assertEquals(second, deque.poll());
+        assertEquals("id-2", second.getId());
+        assertNull(deque.poll());
+        assertTrue(deque.isEmpty());
+        assertEquals(0L, arena.allocatedChunks());
+    }
+
+    /**
+     * Testing drainTo() and addAll(): batches keep their order.
+     */
+    @Test
+    public final void givenBatch_drainTo_shouldReturnAtMostMaxInOrder() {
+        // Given
+        final List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            messages.add(new Message("message " + i));
+        }
+        deque.addAll(messages);
+        final List<Message> drained = new ArrayList<>();
+        // When
+        final int count = deque.drainTo(drained, 4);
+        // Then
+        assertEquals(4, count);
+        assertEquals(messages.subList(0, 4), drained);
+        assertEquals(6, deque.size());
+        assertEquals(messages.get(4), deque.peek());
+        assertEquals(messages.get(9), deque.peekLast());
+        assertEquals(messages.get(9), deque.pollLast());
+    }
+
+    /**
+     * Testing poll() with a timeout on an empty deque: it returns the message offered meanwhile.
+     *
+     * @throws Exception the exception
+     */
+    @Test(timeout = 5000)
+    public final void givenEmptyDeque_poll_shouldWaitForOffer() throws Exception {
+        // Given
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                deque.offer(new Message("late"));
+            }
+        }).start();
+        // When
+        final Message message = deque.poll(5, TimeUnit.SECONDS);
+        // Then
+        assertEquals("late", message.getBody());
+        assertNull(deque.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Testing remove() and clear(): the chunks of removed messages are freed.
+     */
+    @Test
+    public final void givenMessages_remove_shouldUnlinkAndFree() {
+        // Given
+        final Message first = new Message("first");
+        final Message second = new Message("second");
+        final Message third = new Message("third");
+        deque.addAll(Arrays.asList(first, second, third));
+        // When
+        final boolean removed = deque.remove(second);
+        // Then
+        assertTrue(removed);
+        assertFalse(deque.remove(second));
+        assertEquals(Arrays.asList(first, third), new ArrayList<>(deque));
+        assertTrue(deque.contains(third));
+        assertEquals(2L, arena.allocatedChunks());
+        deque.clear();
+        assertEquals(0, deque.size());
+        assertEquals(0L, arena.allocatedChunks());
+    }
+
+    /**
+     * Testing poll(): binary bodies and UUID ids come out as they went in.
+     */
+    @Test
+    public final void givenBinaryMessage_poll_shouldKeepBodyBinary() {
+        // Given
+        final byte[] body = { 0, (byte) 0xff, 42 };
+        final Message binary = new Message(body);
+        final Message empty = new Message("not-a-uuid", new byte[0]);
+        deque.add(binary);
+        deque.add(empty);
+        // When
+        final Message first = deque.poll();
+        final Message second = deque.poll();
+        // Then
+        assertEquals(binary, first);
+        assertTrue(first.isBinary());
+        assertTrue(first.hasUuidId());
+        assertEquals(binary.getId(), first.getId());
+        assertTrue(Arrays.equals(body, first.getBodyBytes()));
+        assertEquals(empty, second);
+        assertTrue(second.isBinary());
+        assertEquals("not-a-uuid", second.getId());
+        assertEquals(0L, arena.allocatedChunks());
+    }
+}
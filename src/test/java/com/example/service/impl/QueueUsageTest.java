@@ -0,0 +1,106 @@
+package com.example.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link QueueUsage} and the {@link MemoryBudget} it shares.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class QueueUsageTest {
+
+    /** Object to be tested */
+    private QueueUsage usage;
+
+    private MemoryBudget budget;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        budget = new MemoryBudget(100);
+        usage = new QueueUsage(3, 50, budget);
+    }
+
+    /**
+     * Testing tryAcquire(): messages past the message or byte limit of the queue are refused, and nothing of a
+     * refused message stays acquired.
+     */
+    @Test
+    public final void givenLimits_tryAcquire_shouldRefusePastThem() {
+        // Given
+        assertTrue(usage.tryAcquire(20));
+        assertTrue(usage.tryAcquire(20));
+        // When
+        final boolean pastBytes = usage.tryAcquire(20);
+        assertTrue(usage.tryAcquire(10));
+        final boolean pastMessages = usage.tryAcquire(0);
+        // Then
+        assertFalse(pastBytes);
+        assertFalse(pastMessages);
+        assertEquals(3, usage.messages());
+        assertEquals(50L, usage.bytes());
+        assertEquals(50L, budget.usedBytes());
+        usage.release(3, 50);
+        assertEquals(0L, usage.bytes());
+        assertEquals(0L, budget.usedBytes());
+        // A message bigger than the limit fits in an empty queue
+        assertTrue(usage.tryAcquire(80));
+    }
+
+    /**
+     * Testing tryAcquire(): the budget shared by the queues refuses a message that fits in its own queue.
+     */
+    @Test
+    public final void givenSharedBudget_tryAcquire_shouldRefusePastBudget() {
+        // Given
+        final QueueUsage other = new QueueUsage(0, 0, budget);
+        assertTrue(other.tryAcquire(70));
+        // When
+        final boolean acquired = usage.tryAcquire(40);
+        // Then
+        assertFalse(acquired);
+        assertEquals(0, usage.messages());
+        assertEquals(0L, usage.bytes());
+        assertEquals(70L, budget.usedBytes());
+        assertTrue(usage.tryAcquire(30));
+    }
+
+    /**
+     * Testing acquire(): a waiting message times out, then fits once another one is released.
+     */
+    @Test
+    public final void givenFullQueue_acquire_shouldWaitForRelease() throws Exception {
+        // Given
+        assertTrue(usage.tryAcquire(50));
+        assertFalse(usage.acquire(10, 50, TimeUnit.MILLISECONDS));
+        final CountDownLatch acquired = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    if (usage.acquire(10, 5, TimeUnit.SECONDS)) {
+                        acquired.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        // When
+        usage.release(1, 50);
+        // Then
+        assertTrue(acquired.await(2, TimeUnit.SECONDS));
+        assertEquals(1, usage.messages());
+        assertEquals(10L, usage.bytes());
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.service.impl;
+
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Startup time of {@link FileQueueService} on a large backlog with many messages in flight. The backlog is
+ * pushed once, part of it is pulled and never deleted, then the service is restarted several times; each
+ * restart replays the journal in parallel and checkpoints it.
+ * <p>
+ * Not a unit test. Arguments: backlog size in MB (default 10240), number of in-flight messages (default
+ * 100000) and the directory to write to (default: a temporary directory, which needs room for the backlog).
+ * In-flight messages are held in memory until deleted, so run it with a heap of a few GB.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class RecoveryBenchmark {
+
+    private static final int BODY_BYTES = 1024;
+
+    private RecoveryBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final long backlogMegabytes = args.length > 0 ? Long.parseLong(args[0]) : 10240;
+        final int inFlight = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        final File directory = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("recovery-bench").toFile();
+        char[] chars = new char[BODY_BYTES];
+        Arrays.fill(chars, 'x');
+        final PushRequest pushRequest = new PushRequest("bench", new String(chars));
+        final long messages = Math.max(backlogMegabytes * 1024 * 1024 / BODY_BYTES, inFlight);
+
+        FileQueueService service = new FileQueueService(directory);
+        long start = System.nanoTime();
+        for (long i = 0; i < messages; ++i) {
+            service.push(pushRequest);
+        }
+        System.out.println(String.format("pushed %d messages (%d MB) in %.1f s", messages,
+                messages * BODY_BYTES / (1024 * 1024), (System.nanoTime() - start) / 1e9));
+        final PullRequest pullRequest = new PullRequest("bench");
+        pullRequest.setMaxNumberOfMessages(10);
+        int pulled = 0;
+        while (pulled < inFlight) {
+            pulled += service.pull(pullRequest).size();
+        }
+        service.close();
+        System.out.println(String.format("%d messages in flight", pulled));
+
+        for (int round = 0; round < 3; ++round) {
+            start = System.nanoTime();
+            service = new FileQueueService(directory);
+            final long startupNanos = System.nanoTime() - start;
+            System.out.println(String.format("startup %d: %.1f ms", round, startupNanos / 1e6));
+            service.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.service.impl;
+
+import com.example.pojo.Message;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency of a message through a contended in-memory queue, from the moment it is pushed to the moment it is
+ * pulled, with a {@link RingBufferMessageQueue} against a {@link LinkedBlockingDeque} of the same capacity.
+ * <p>
+ * Not a unit test. Producers push preallocated messages as fast as the queue takes them, stamping the time of
+ * each push; consumers pull them with a wait time and record their latency. The messages carry their index in
+ * their id bits, so that neither side allocates anything per message. Arguments: producers (default 4),
+ * consumers (default 4), capacity (default 1024) and messages per run (default 2000000).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class RingBufferBenchmark {
+
+    private RingBufferBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final int consumers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+        final int messages = args.length > 3 ? Integer.parseInt(args[3]) : 2000000;
+
+        final Message[] preallocated = new Message[messages];
+        for (int i = 0; i < messages; ++i) {
+            preallocated[i] = new Message(0, i, "ring buffer message body");
+        }
+        System.out.println(String.format("%-12s %12s %10s %10s %10s %10s", "queue", "msg/s", "p50 us", "p99 us",
+                "p99.9 us", "max us"));
+        // The first round warms up the JIT, the second one is reported
+        for (int round = 0; round < 2; ++round) {
+            for (boolean ring : new boolean[] { false, true }) {
+                final BlockingQueue<Message> queue = ring ? new RingBufferMessageQueue(capacity)
+                        : new LinkedBlockingDeque<Message>(capacity);
+                run(ring ? "ring_buffer" : "linked", queue, producers, consumers, preallocated, round == 1);
+            }
+        }
+    }
+
+    private static void run(final String name, final BlockingQueue<Message> queue, final int producers,
+            final int consumers, final Message[] messages, final boolean report) throws InterruptedException {
+        final long[] pushedAt = new long[messages.length];
+        final long[] latencies = new long[messages.length];
+        final AtomicInteger nextPush = new AtomicInteger();
+        final AtomicInteger remaining = new AtomicInteger(messages.length);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers + consumers);
+        for (int p = 0; p < producers; ++p) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        int i;
+                        while ((i = nextPush.getAndIncrement()) < messages.length) {
+                            pushedAt[i] = System.nanoTime();
+                            queue.put(messages[i]);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        for (int c = 0; c < consumers; ++c) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        while (remaining.get() > 0) {
+                            final Message message = queue.poll(10, TimeUnit.MILLISECONDS);
+                            if (message != null) {
+                                final int i = (int) message.getIdLeastSigBits();
+                                // The push stamp is visible: written before the message was put in the queue
+                                latencies[i] = System.nanoTime() - pushedAt[i];
+                                remaining.decrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long nanos = System.nanoTime() - startNanos;
+        if (report) {
+            Arrays.sort(latencies);
+            System.out.println(String.format("%-12s %12.0f %10.1f %10.1f %10.1f %10.1f", name,
+                    messages.length * 1e9 / nanos, percentile(latencies, 0.5), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e3));
+        }
+    }
+
+    /**
+     * Gets a percentile of sorted latencies, in microseconds.
+     */
+    private static double percentile(final long[] sorted, final double fraction) {
+        return sorted[(int) Math.min(sorted.length - 1, fraction * sorted.length)] / 1e3;
+    }
+}
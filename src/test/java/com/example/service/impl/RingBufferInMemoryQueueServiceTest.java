@@ -0,0 +1,15 @@
+package com.example.service.impl;
+
+/**
+ * Unit tests for {@link InMemoryQueueService} with the queue under test on a ring buffer. Runs every test of
+ * {@link InMemoryQueueServiceTest}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class RingBufferInMemoryQueueServiceTest extends InMemoryQueueServiceTest {
+
+    @Override
+    protected QueueType queueType() {
+        return QueueType.RING_BUFFER;
+    }
+}
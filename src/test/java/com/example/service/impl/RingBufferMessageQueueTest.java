@@ -0,0 +1,287 @@
+package com.example.service.impl;
+
+import com.example.pojo.Message;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit tests for {@link RingBufferMessageQueue}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class RingBufferMessageQueueTest {
+
+    private static final int CAPACITY = 8;
+
+    /** Object to be tested */
+    private RingBufferMessageQueue queue;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        queue = new RingBufferMessageQueue(CAPACITY);
+    }
+
+    /**
+     * Testing offer(): messages come out in order, over several laps of the ring, and a full ring refuses more.
+     */
+    @Test
+    public final void givenMessages_offer_shouldWrapAroundAndRefuseWhenFull() {
+        for (int lap = 0; lap < 3; ++lap) {
+            // Given
+            for (int i = 0; i < CAPACITY; ++i) {
+                assertTrue(queue.offer(new Message(lap + "-" + i)));
+            }
+            // When
+            final boolean offered = queue.offer(new Message("overflow"));
+            // Then
+            assertFalse(offered);
+            assertEquals(CAPACITY, queue.size());
+            assertEquals(0, queue.remainingCapacity());
+            assertEquals(lap + "-0", queue.peek().getBody());
+            assertEquals(CAPACITY, snapshotSize());
+            for (int i = 0; i < CAPACITY; ++i) {
+                assertEquals(lap + "-" + i, queue.poll().getBody());
+            }
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    /**
+     * Testing drainTo(): at most the given number of messages are taken, in order.
+     */
+    @Test
+    public final void givenMessages_drainTo_shouldTakeAtMostMax() {
+        // Given
+        for (int i = 0; i < 5; ++i) {
+            queue.add(new Message(String.valueOf(i)));
+        }
+        final List<Message> drained = new ArrayList<>();
+        // When
+        final int count = queue.drainTo(drained, 3);
+        // Then
+        assertEquals(3, count);
+        assertEquals("0", drained.get(0).getBody());
+        assertEquals("2", drained.get(2).getBody());
+        assertEquals(2, queue.size());
+        queue.clear();
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Testing remove(): only the given message is taken, the others stay in order, also through an iterator.
+     */
+    @Test
+    public final void givenMessages_remove_shouldTakeOnlyThatMessage() {
+        // Given
+        final List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            messages.add(new Message(String.valueOf(i)));
+            queue.add(messages.get(i));
+        }
+        // When
+        final boolean removed = queue.remove(messages.get(2));
+        final Iterator<Message> iterator = queue.iterator();
+        iterator.next();
+        iterator.remove();
+        // Then
+        assertTrue(removed);
+        assertFalse(queue.remove(messages.get(2)));
+        assertFalse(queue.remove(new Message("unknown")));
+        assertEquals(3, queue.size());
+        assertEquals("1", queue.poll().getBody());
+        assertEquals("3", queue.poll().getBody());
+        assertEquals("4", queue.poll().getBody());
+        assertNull(queue.poll());
+    }
+
+    /**
+     * Testing put() and poll(): a producer blocked on a full ring and a consumer blocked on an empty one are
+     * woken up by the other side.
+     */
+    @Test
+    public final void givenFullRing_put_shouldWaitForPoll() throws Exception {
+        // Given
+        for (int i = 0; i < CAPACITY; ++i) {
+            queue.put(new Message(String.valueOf(i)));
+        }
+        final CountDownLatch put = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    queue.put(new Message("last"));
+                    put.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).start();
+        // When
+        assertFalse(put.await(100, TimeUnit.MILLISECONDS));
+        queue.poll();
+        // Then
+        assertTrue(put.await(2, TimeUnit.SECONDS));
+        queue.clear();
+        final AtomicLong waitedNanos = new AtomicLong();
+        final Thread consumer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    final long start = System.nanoTime();
+                    if (queue.poll(5, TimeUnit.SECONDS) != null) {
+                        waitedNanos.set(System.nanoTime() - start);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+        queue.offer(new Message("wake up"));
+        consumer.join(2000);
+        assertTrue(waitedNanos.get() > 0);
+        assertTrue(waitedNanos.get() < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    /**
+     * Testing offer() and poll(): concurrent producers and consumers deliver every message exactly once.
+     */
+    @Test
+    public final void givenConcurrentProducersAndConsumers_poll_shouldDeliverEveryMessageOnce() throws Exception {
+        // Given
+        final int threads = 4;
+        final int messages = 20000;
+        final boolean[] delivered = new boolean[threads * messages];
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger received = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(2 * threads);
+        // When
+        for (int t = 0; t < threads; ++t) {
+            final int producer = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < messages; ++i) {
+                            queue.put(new Message(0, producer * messages + i, "body"));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            }).start();
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Message message;
+                        while ((message = queue.poll(500, TimeUnit.MILLISECONDS)) != null) {
+                            synchronized (delivered) {
+                                final int index = (int) message.getIdLeastSigBits();
+                                if (delivered[index]) {
+                                    duplicates.incrementAndGet();
+                                }
+                                delivered[index] = true;
+                            }
+                            received.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        // Then
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, duplicates.get());
+        assertEquals(threads * messages, received.get());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Testing offer() and poll() with a long poll: a producer and a consumer exchange single messages, every
+     * message waking the waiting side up right away rather than at the end of its wait.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenLongPollingConsumer_offer_shouldNeverLoseWakeup() throws Exception {
+        // Given
+        final int rounds = 20000;
+        final long waitMillis = 2000;
+        // A round this slow waited for the end of a poll rather than being woken up
+        final long lateNanos = TimeUnit.MILLISECONDS.toNanos(waitMillis / 2);
+        final RingBufferMessageQueue replies = new RingBufferMessageQueue(CAPACITY);
+        final AtomicInteger lateWakeups = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread consumer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < rounds; ++i) {
+                        final Message message = queue.poll(waitMillis, TimeUnit.MILLISECONDS);
+                        if (message == null) {
+                            lateWakeups.incrementAndGet();
+                            return;
+                        }
+                        replies.offer(message);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        consumer.start();
+        // When
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < rounds; ++i) {
+                        final long start = System.nanoTime();
+                        queue.offer(new Message(0, i, "body"));
+                        final Message reply = replies.poll(waitMillis, TimeUnit.MILLISECONDS);
+                        if (reply == null || System.nanoTime() - start > lateNanos) {
+                            lateWakeups.incrementAndGet();
+                            if (reply == null) {
+                                break;
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        }).start();
+        // Then
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        consumer.join(TimeUnit.SECONDS.toMillis(10));
+        assertEquals(0, lateWakeups.get());
+        assertTrue(queue.isEmpty());
+        assertTrue(replies.isEmpty());
+    }
+
+    private int snapshotSize() {
+        int size = 0;
+        for (Message message : queue) {
+            assertNotNull(message);
+            ++size;
+        }
+        return size;
+    }
+}
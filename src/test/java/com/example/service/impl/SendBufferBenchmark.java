@@ -0,0 +1,128 @@
+package com.example.service.impl;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.example.pojo.PushRequest;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Push throughput of many producer threads pushing single messages to SQS, each push sent on its own against
+ * pushes coalesced by the send buffer.
+ * <p>
+ * Not a unit test. SQS is replaced by a local stand-in answering every request after an injected latency, with
+ * as many concurrent requests as the default connection pool of the SDK client. Arguments: number of producer
+ * threads (default 200), messages per producer (default 100), latency in milliseconds (default 20) and batches
+ * in flight per queue of the send buffer (default 20).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class SendBufferBenchmark {
+
+    private SendBufferBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int producers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int messages = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        final int batchesInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        System.out.println(String.format("%-10s %10s %10s %12s", "mode", "msg/s", "requests", "msg/request"));
+        // The first round warms up the JIT, the last one is reported
+        for (int round = 0; round < 2; ++round) {
+            final boolean report = round == 1;
+            run("single", 0, producers, messages, latencyMillis, report);
+            run("buffered", batchesInFlight, producers, messages, latencyMillis, report);
+        }
+    }
+
+    private static void run(final String mode, final int batchesInFlight, final int producers, final int messages,
+            final long latencyMillis, final boolean report) throws InterruptedException {
+        final LatencySqsClient client = new LatencySqsClient(latencyMillis);
+        final SqsQueueService service = new SqsQueueService(client, 0, 20, 30, batchesInFlight, 5);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; ++p) {
+            new Thread(new Runnable() {
+                public void run() {
+                    Uninterruptibles.awaitUninterruptibly(start);
+                    for (int i = 0; i < messages; ++i) {
+                        service.push(new PushRequest("bench", "message " + i));
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long nanos = System.nanoTime() - startNanos;
+        service.close();
+        if (report) {
+            final long total = (long) producers * messages;
+            System.out.println(String.format("%-10s %10.0f %10d %12.1f", mode, total * 1e9 / nanos,
+                    client.requests.get(), (double) total / client.requests.get()));
+        }
+    }
+
+    /**
+     * Stands in for SQS: answers every send after the latency, holding one of the connections of the default
+     * client pool meanwhile.
+     */
+    private static final class LatencySqsClient extends AmazonSQSClient {
+
+        private final long latencyMillis;
+
+        private final Semaphore connections = new Semaphore(ClientConfiguration.DEFAULT_MAX_CONNECTIONS);
+
+        private final AtomicLong requests = new AtomicLong();
+
+        LatencySqsClient(final long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+        }
+
+        @Override
+        public SendMessageResult sendMessage(final String queueUrl, final String messageBody) {
+            roundTrip();
+            return new SendMessageResult().withMD5OfMessageBody(md5(messageBody));
+        }
+
+        @Override
+        public SendMessageBatchResult sendMessageBatch(final SendMessageBatchRequest request) {
+            roundTrip();
+            final SendMessageBatchResult result = new SendMessageBatchResult();
+            for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+                result.getSuccessful().add(new SendMessageBatchResultEntry().withId(entry.getId())
+                        .withMD5OfMessageBody(md5(entry.getMessageBody())));
+            }
+            return result;
+        }
+
+        private void roundTrip() {
+            connections.acquireUninterruptibly();
+            try {
+                requests.incrementAndGet();
+                Uninterruptibles.sleepUninterruptibly(latencyMillis, TimeUnit.MILLISECONDS);
+            } finally {
+                connections.release();
+            }
+        }
+
+        private static String md5(final String body) {
+            return Hashing.md5().hashString(body, Charsets.UTF_8).toString();
+        }
+    }
+}
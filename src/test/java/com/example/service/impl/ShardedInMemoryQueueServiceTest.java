@@ -0,0 +1,15 @@
+package com.example.service.impl;
+
+/**
+ * Unit tests for {@link InMemoryQueueService} with every queue split into shards. Runs every test of
+ * {@link InMemoryQueueServiceTest}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class ShardedInMemoryQueueServiceTest extends InMemoryQueueServiceTest {
+
+    @Override
+    protected int shards() {
+        return 4;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.service.impl;
+
+import com.example.pojo.Message;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link ShardedMessageDeque}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class ShardedMessageDequeTest {
+
+    private static final int SHARDS = 4;
+
+    /** Object to be tested */
+    private ShardedMessageDeque deque;
+
+    private List<BlockingDeque<Message>> shards;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        shards = new ArrayList<>();
+        for (int i = 0; i < SHARDS; ++i) {
+            shards.add(new LinkedBlockingDeque<Message>());
+        }
+        deque = new ShardedMessageDeque(shards, ShardSelection.THREAD);
+    }
+
+    /**
+     * Testing poll(): the messages pushed by one thread go to one shard and come out in the order pushed.
+     */
+    @Test
+    public final void givenMessagesOfOneThread_poll_shouldKeepTheirOrder() {
+        // Given
+        for (int i = 0; i < 10; ++i) {
+            deque.add(new Message(String.valueOf(i)));
+        }
+        // When
+        final List<String> bodies = new ArrayList<>();
+        Message message;
+        while ((message = deque.poll()) != null) {
+            bodies.add(message.getBody());
+        }
+        // Then
+        assertEquals(10, bodies.size());
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(String.valueOf(i), bodies.get(i));
+        }
+        assertTrue(deque.isEmpty());
+    }
+
+    /**
+     * Testing drainTo(): with round-robin pushes the shards fill evenly, and a consumer steals from every shard.
+     */
+    @Test
+    public final void givenRoundRobin_drainTo_shouldStealFromEveryShard() {
+        // Given
+        deque = new ShardedMessageDeque(shards, ShardSelection.ROUND_ROBIN);
+        for (int i = 0; i < 2 * SHARDS; ++i) {
+            deque.offer(new Message(String.valueOf(i)));
+        }
+        for (BlockingDeque<Message> shard : shards) {
+            assertEquals(2, shard.size());
+        }
+        assertEquals(2 * SHARDS, deque.size());
+        // When
+        final List<Message> drained = new ArrayList<>();
+        final int count = deque.drainTo(drained, 2 * SHARDS - 1);
+        // Then
+        assertEquals(2 * SHARDS - 1, count);
+        assertEquals(2 * SHARDS - 1, drained.size());
+        assertEquals(1, deque.size());
+        assertNotNull(deque.poll());
+        assertTrue(deque.isEmpty());
+        assertNull(deque.poll());
+    }
+
+    /**
+     * Testing poll(): a waiting consumer is woken up by a message added to any shard.
+     */
+    @Test
+    public final void givenEmptyDeque_poll_shouldWaitForOfferToAnyShard() throws Exception {
+        // Given
+        deque = new ShardedMessageDeque(shards, ShardSelection.ROUND_ROBIN);
+        final CountDownLatch received = new CountDownLatch(SHARDS);
+        for (int i = 0; i < SHARDS; ++i) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        if (deque.poll(5, TimeUnit.SECONDS) != null) {
+                            received.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }).start();
+        }
+        Thread.sleep(100);
+        // When
+        for (int i = 0; i < SHARDS; ++i) {
+            deque.offer(new Message(String.valueOf(i)));
+        }
+        // Then
+        assertTrue(received.await(2, TimeUnit.SECONDS));
+        assertTrue(deque.isEmpty());
+        assertNull(deque.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Testing poll(): concurrent producers and consumers deliver every message exactly once.
+     */
+    @Test
+    public final void givenConcurrentProducersAndConsumers_poll_shouldDeliverEveryMessageOnce() throws Exception {
+        // Given
+        final int threads = 8;
+        final int messages = 5000;
+        final Set<String> delivered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(2 * threads);
+        // When
+        for (int t = 0; t < threads; ++t) {
+            final int producer = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < messages; ++i) {
+                        deque.add(new Message(producer + "-" + i));
+                    }
+                    done.countDown();
+                }
+            }).start();
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Message message;
+                        while ((message = deque.poll(500, TimeUnit.MILLISECONDS)) != null) {
+                            if (!delivered.add(message.getBody())) {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        // Then
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, duplicates.get());
+        assertEquals(threads * messages, delivered.size());
+        assertTrue(deque.isEmpty());
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.service.impl;
+
+import com.example.pojo.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of one hot in-memory queue shared by many producers and consumers, as a single deque against a
+ * {@link ShardedMessageDeque}. Producers push their messages one at a time, consumers pull them the way the
+ * in-memory service does: a poll with a wait time, then a drain of up to 9 more.
+ * <p>
+ * Not a unit test. Every run has as many producers as consumers, from 1 each up to the maximum, doubling.
+ * Arguments: maximum number of producers (default 32, so 64 threads), shards (default 16) and messages per run
+ * (default 2000000).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class ShardedQueueBenchmark {
+
+    private static final int BATCH_SIZE = 10;
+
+    private ShardedQueueBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int maxProducers = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final int shards = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int messages = args.length > 2 ? Integer.parseInt(args[2]) : 2000000;
+
+        System.out.println(String.format("%-8s %8s %14s %14s", "threads", "shards", "single msg/s", "sharded msg/s"));
+        // The first round warms up the JIT, the second one is reported
+        for (int round = 0; round < 2; ++round) {
+            for (int producers = 1; producers <= maxProducers; producers *= 2) {
+                final double single = run(new LinkedBlockingDeque<Message>(), producers, messages);
+                final double sharded = run(sharded(shards), producers, messages);
+                if (round == 1) {
+                    System.out.println(String.format("%-8d %8d %14.0f %14.0f", 2 * producers, shards, single,
+                            sharded));
+                }
+            }
+        }
+    }
+
+    private static ShardedMessageDeque sharded(final int shards) {
+        final List<BlockingDeque<Message>> deques = new ArrayList<>(shards);
+        for (int i = 0; i < shards; ++i) {
+            deques.add(new LinkedBlockingDeque<Message>());
+        }
+        return new ShardedMessageDeque(deques, ShardSelection.THREAD);
+    }
+
+    private static double run(final BlockingDeque<Message> queue, final int producers, final int messages)
+            throws InterruptedException {
+        final int perProducer = messages / producers;
+        final AtomicInteger remaining = new AtomicInteger(perProducer * producers);
+        final Message message = new Message("sharded queue message body");
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2 * producers);
+        for (int p = 0; p < producers; ++p) {
+            new Thread(new Runnable() {
+                public void run() {
+                    awaitStart(start);
+                    for (int i = 0; i < perProducer; ++i) {
+                        queue.add(message);
+                    }
+                    done.countDown();
+                }
+            }).start();
+            new Thread(new Runnable() {
+                public void run() {
+                    awaitStart(start);
+                    final List<Message> batch = new ArrayList<>(BATCH_SIZE);
+                    try {
+                        while (remaining.get() > 0) {
+                            final Message first = queue.poll(10, TimeUnit.MILLISECONDS);
+                            if (first != null) {
+                                batch.add(first);
+                                queue.drainTo(batch, BATCH_SIZE - 1);
+                                remaining.addAndGet(-batch.size());
+                                batch.clear();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        return perProducer * producers * 1e9 / (System.nanoTime() - startNanos);
+    }
+
+    private static void awaitStart(final CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
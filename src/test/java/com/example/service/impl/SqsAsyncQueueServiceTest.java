@@ -0,0 +1,188 @@
+package com.example.service.impl;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+import com.example.pojo.DeleteRequest;
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.BDDMockito.*;
+
+/**
+ * Unit tests for {@link SqsAsyncQueueService}.
+ */
+public class SqsAsyncQueueServiceTest {
+
+    /** Object to be tested */
+    private SqsAsyncQueueService sqsService;
+
+    /** Dependency mock */
+    @Mock
+    private AmazonSQSAsync amazonClient;
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "Message Body for Test";
+    private static final String MESSAGE_BODY_MD5 = Hashing.md5().hashString(MESSAGE_BODY, Charsets.UTF_8).toString();
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        sqsService = new SqsAsyncQueueService(amazonClient);
+    }
+
+    /**
+     * Testing pushAsync(): the future completes with the MD5 returned to the callback of the client.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void givenHappyPath_pushAsync_shouldCompleteWithMd5OfBody() throws Exception {
+        // Given
+        given(amazonClient.sendMessageAsync(any(SendMessageRequest.class),
+                this.<SendMessageRequest, SendMessageResult>anyHandler())).willAnswer(respond(
+                new SendMessageResult().withMD5OfMessageBody(MESSAGE_BODY_MD5)));
+        // When
+        ListenableFuture<String> md5Body = sqsService.pushAsync(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        // Then
+        assertTrue(md5Body.isDone());
+        assertEquals(MESSAGE_BODY_MD5, md5Body.get());
+    }
+
+    /**
+     * Testing pullAsync(): the request parameters are passed on and the future completes with the messages.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void givenHappyPath_pullAsync_shouldCompleteWithMessages() throws Exception {
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(10);
+        request.setWaitTimeSeconds(20);
+        // Given
+        given(amazonClient.receiveMessageAsync(any(ReceiveMessageRequest.class),
+                this.<ReceiveMessageRequest, ReceiveMessageResult>anyHandler()))
+                .willAnswer(new Answer<Object>() {
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        ReceiveMessageRequest receiveRequest = (ReceiveMessageRequest) invocation.getArguments()[0];
+                        assertEquals(Integer.valueOf(10), receiveRequest.getMaxNumberOfMessages());
+                        assertEquals(Integer.valueOf(20), receiveRequest.getWaitTimeSeconds());
+                        return respond(new ReceiveMessageResult().withMessages(
+                                sqsMessage(MESSAGE_BODY_MD5))).answer(invocation);
+                    }
+                });
+        // When
+        List<Message> messages = sqsService.pullAsync(request).get();
+        // Then
+        assertEquals(1, messages.size());
+        assertEquals(MESSAGE_BODY, messages.get(0).getBody());
+        assertEquals("handle", messages.get(0).getReceiptHandle());
+    }
+
+    /**
+     * Testing pullAsync() when a body does not match its MD5: the future fails.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenCorruptedBody_pullAsync_shouldFail() throws InterruptedException {
+        // Given
+        given(amazonClient.receiveMessageAsync(any(ReceiveMessageRequest.class),
+                this.<ReceiveMessageRequest, ReceiveMessageResult>anyHandler()))
+                .willAnswer(respond(new ReceiveMessageResult().withMessages(sqsMessage("0123456789abcdef"))));
+        // When
+        try {
+            sqsService.pullAsync(new PullRequest(QUEUE_URL)).get();
+            fail();
+        } catch (ExecutionException e) {
+            // Then
+            assertTrue(e.getCause() instanceof AmazonClientException);
+        }
+    }
+
+    /**
+     * Testing deleteAsync(): an error reported to the callback of the client fails the future.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenServiceError_deleteAsync_shouldFail() throws InterruptedException {
+        // Given
+        given(amazonClient.deleteMessageAsync(any(DeleteMessageRequest.class),
+                this.<DeleteMessageRequest, Void>anyHandler()))
+                .willAnswer(new Answer<Object>() {
+                    @SuppressWarnings("unchecked")
+                    public Object answer(InvocationOnMock invocation) {
+                        ((AsyncHandler<DeleteMessageRequest, Void>) invocation.getArguments()[1])
+                                .onError(new AmazonServiceException("Invalid"));
+                        return null;
+                    }
+                });
+        // When
+        try {
+            sqsService.deleteAsync(new DeleteRequest(QUEUE_URL, "handle")).get();
+            fail();
+        } catch (ExecutionException e) {
+            // Then
+            assertTrue(e.getCause() instanceof AmazonServiceException);
+        }
+    }
+
+    /**
+     * Matches any callback of an asynchronous call, typed for the stubbed method.
+     */
+    @SuppressWarnings("unchecked")
+    private <Q extends AmazonWebServiceRequest, R> AsyncHandler<Q, R> anyHandler() {
+        return any(AsyncHandler.class);
+    }
+
+    /**
+     * Answers an asynchronous call by passing the response to its callback.
+     */
+    private static Answer<Object> respond(final Object response) {
+        return new Answer<Object>() {
+            @SuppressWarnings({ "unchecked", "rawtypes" })
+            public Object answer(InvocationOnMock invocation) {
+                ((AsyncHandler) invocation.getArguments()[1]).onSuccess(
+                        (AmazonWebServiceRequest) invocation.getArguments()[0], response);
+                return null;
+            }
+        };
+    }
+
+    private static com.amazonaws.services.sqs.model.Message sqsMessage(final String md5OfBody) {
+        return new com.amazonaws.services.sqs.model.Message().withMessageId(UUID.randomUUID().toString())
+                .withReceiptHandle("handle").withBody(MESSAGE_BODY).withMD5OfBody(md5OfBody);
+    }
+}
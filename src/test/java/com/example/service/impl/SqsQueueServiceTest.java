@@ -1,17 +1,38 @@
 package com.example.service.impl;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageResult;
 
+import com.example.pojo.BatchResultEntry;
+import com.example.pojo.ChangeVisibilityBatchRequest;
+import com.example.pojo.DeleteBatchRequest;
 import com.example.pojo.DeleteRequest;
 import com.example.pojo.Message;
 import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
 import com.example.pojo.PushRequest;
 
 import com.google.common.base.Charsets;
@@ -19,9 +40,11 @@ import com.google.common.hash.Hashing;
 
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.junit.Assert.*;
 import static org.mockito.BDDMockito.*;
@@ -32,7 +55,6 @@ import static org.mockito.BDDMockito.*;
 public class SqsQueueServiceTest {
 
     /** Object to be tested */
-    @InjectMocks
     private SqsQueueService sqsService;
 
     /** Dependency mock */
@@ -52,6 +74,7 @@ public class SqsQueueServiceTest {
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        sqsService = new SqsQueueService(amazonClient, 0, 20, 30);
     }
 
     /**
@@ -71,27 +94,285 @@ public class SqsQueueServiceTest {
         verify(amazonClient).sendMessage(anyString(), anyString());
     }
 
-        /**
-     * Testing pull()
+    /**
+     * Testing push() with retries: a throttled push is sent again.
+     */
+    @Test
+    public final void givenThrottledPush_push_shouldRetry() {
+        SendMessageResult result = new SendMessageResult();
+        result.setMD5OfMessageBody(MESSAGE_BODY_MD5);
+        AmazonServiceException throttling = new AmazonServiceException("Rate exceeded");
+        throttling.setErrorCode("RequestThrottled");
+        // Given
+        given(amazonClient.sendMessage(QUEUE_URL, MESSAGE_BODY)).willThrow(throttling).willReturn(result);
+        sqsService = new SqsQueueService(amazonClient, 0, 20, 30, 0, 0, new SqsRetryer(3, 1, 10, 0.1, 0));
+        // When
+        String md5Body = sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        // Then
+        assertEquals(MESSAGE_BODY_MD5, md5Body);
+        verify(amazonClient, times(2)).sendMessage(QUEUE_URL, MESSAGE_BODY);
+    }
+
+    /**
+     * Testing push() with send buffering: the message is sent with sendMessageBatch.
+     */
+    @Test
+    public final void givenSendBuffering_push_shouldSendMessageInBatch() {
+        // Given
+        given(amazonClient.sendMessageBatch(any(SendMessageBatchRequest.class))).willReturn(
+                new SendMessageBatchResult().withSuccessful(
+                        new SendMessageBatchResultEntry().withId("0").withMD5OfMessageBody(MESSAGE_BODY_MD5)));
+        sqsService = new SqsQueueService(amazonClient, 0, 20, 30, 2, 0);
+        // When
+        String md5Body = sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        sqsService.close();
+        // Then
+        assertEquals(MESSAGE_BODY_MD5, md5Body);
+        verify(amazonClient, never()).sendMessage(anyString(), anyString());
+    }
+
+    /**
+     * Testing pushBatch(): entries are split into requests of at most 10, and every entry gets its own result.
+     */
+    @Test
+    public final void givenLargeBatch_pushBatch_shouldSplitIntoSqsBatches() {
+        final List<PushBatchEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 25; ++i) {
+            entries.add(new PushBatchEntry("entry-" + i, i == 12 ? "rejected" : MESSAGE_BODY));
+        }
+        // Given
+        given(amazonClient.sendMessageBatch(any(SendMessageBatchRequest.class))).willAnswer(
+                new Answer<SendMessageBatchResult>() {
+                    public SendMessageBatchResult answer(InvocationOnMock invocation) {
+                        SendMessageBatchRequest request = (SendMessageBatchRequest) invocation.getArguments()[0];
+                        assertEquals(QUEUE_URL, request.getQueueUrl());
+                        assertTrue(request.getEntries().size() <= 10);
+                        SendMessageBatchResult result = new SendMessageBatchResult();
+                        for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+                            if ("rejected".equals(entry.getMessageBody())) {
+                                result.getFailed().add(new BatchResultErrorEntry().withId(entry.getId())
+                                        .withCode("InvalidMessageContents").withSenderFault(true));
+                            } else {
+                                result.getSuccessful().add(new SendMessageBatchResultEntry().withId(entry.getId())
+                                        .withMD5OfMessageBody(MESSAGE_BODY_MD5));
+                            }
+                        }
+                        return result;
+                    }
+                });
+        // When
+        List<BatchResultEntry> results = sqsService.pushBatch(new PushBatchRequest(QUEUE_URL, entries));
+        // Then
+        verify(amazonClient, times(3)).sendMessageBatch(any(SendMessageBatchRequest.class));
+        assertEquals(25, results.size());
+        for (int i = 0; i < 25; ++i) {
+            assertEquals("entry-" + i, results.get(i).getId());
+            assertEquals(i != 12, results.get(i).isSuccessful());
+        }
+        assertEquals(MESSAGE_BODY_MD5, results.get(24).getMd5Body());
+        assertEquals("InvalidMessageContents", results.get(12).getErrorCode());
+    }
+
+    /**
+     * Testing pushBatch() when SQS rejects a whole request: each of its entries fails.
+     */
+    @Test
+    public final void givenRejectedRequest_pushBatch_shouldFailEveryEntry() {
+        AmazonServiceException exception = new AmazonServiceException("Too long");
+        exception.setErrorCode("AWS.SimpleQueueService.BatchRequestTooLong");
+        // Given
+        given(amazonClient.sendMessageBatch(any(SendMessageBatchRequest.class))).willThrow(exception);
+        // When
+        List<BatchResultEntry> results = sqsService.pushBatch(new PushBatchRequest(QUEUE_URL,
+                Arrays.asList(new PushBatchEntry("a", MESSAGE_BODY), new PushBatchEntry("b", MESSAGE_BODY))));
+        // Then
+        assertEquals(2, results.size());
+        assertFalse(results.get(1).isSuccessful());
+        assertEquals("AWS.SimpleQueueService.BatchRequestTooLong", results.get(1).getErrorCode());
+    }
+
+    /**
+     * Testing pushBatch() when SQS rejects a whole request with no error code: each of its entries fails with the
+     * HTTP status, or a generic code without one.
+     */
+    @Test
+    public final void givenRejectedRequestWithoutErrorCode_pushBatch_shouldFailWithFallbackCode() {
+        AmazonServiceException exception = new AmazonServiceException("Unparseable error");
+        exception.setStatusCode(413);
+        AmazonServiceException unknown = new AmazonServiceException("Unknown error");
+        // Given
+        given(amazonClient.sendMessageBatch(any(SendMessageBatchRequest.class))).willThrow(exception)
+                .willThrow(unknown);
+        // When
+        List<BatchResultEntry> results = sqsService.pushBatch(new PushBatchRequest(QUEUE_URL,
+                Arrays.asList(new PushBatchEntry("a", MESSAGE_BODY), new PushBatchEntry("b", MESSAGE_BODY))));
+        List<BatchResultEntry> unknownResults = sqsService.pushBatch(new PushBatchRequest(QUEUE_URL,
+                Arrays.asList(new PushBatchEntry("a", MESSAGE_BODY))));
+        // Then
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).isSuccessful());
+        assertEquals("413", results.get(0).getErrorCode());
+        assertEquals(SqsQueueService.INTERNAL_ERROR, unknownResults.get(0).getErrorCode());
+    }
+
+    /**
+     * Testing deleteBatch(): receipt handles are split into requests of at most 10, and a failed one is reported
+     * under its receipt handle.
+     */
+    @Test
+    public final void givenLargeBatch_deleteBatch_shouldSplitIntoSqsBatches() {
+        final List<String> receiptHandles = new ArrayList<>();
+        for (int i = 0; i < 15; ++i) {
+            receiptHandles.add("handle-" + i);
+        }
+        // Given
+        given(amazonClient.deleteMessageBatch(any(DeleteMessageBatchRequest.class))).willAnswer(
+                new Answer<DeleteMessageBatchResult>() {
+                    public DeleteMessageBatchResult answer(InvocationOnMock invocation) {
+                        DeleteMessageBatchRequest request = (DeleteMessageBatchRequest) invocation.getArguments()[0];
+                        assertTrue(request.getEntries().size() <= 10);
+                        DeleteMessageBatchResult result = new DeleteMessageBatchResult();
+                        for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+                            if ("handle-3".equals(entry.getReceiptHandle())) {
+                                result.getFailed().add(new BatchResultErrorEntry().withId(entry.getId())
+                                        .withCode(BatchResultEntry.RECEIPT_HANDLE_IS_INVALID));
+                            } else {
+                                result.getSuccessful().add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+                            }
+                        }
+                        return result;
+                    }
+                });
+        // When
+        List<BatchResultEntry> results = sqsService.deleteBatch(new DeleteBatchRequest(QUEUE_URL, receiptHandles));
+        // Then
+        verify(amazonClient, times(2)).deleteMessageBatch(any(DeleteMessageBatchRequest.class));
+        assertEquals(15, results.size());
+        for (int i = 0; i < 15; ++i) {
+            assertEquals("handle-" + i, results.get(i).getId());
+            assertEquals(i != 3, results.get(i).isSuccessful());
+        }
+        assertEquals(BatchResultEntry.RECEIPT_HANDLE_IS_INVALID, results.get(3).getErrorCode());
+    }
+
+    /**
+     * Testing changeVisibilityBatch(): every entry carries the new visibility timeout.
+     */
+    @Test
+    public final void givenHappyPath_changeVisibilityBatch_shouldSetTimeoutOfEveryEntry() {
+        // Given
+        given(amazonClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class))).willAnswer(
+                new Answer<ChangeMessageVisibilityBatchResult>() {
+                    public ChangeMessageVisibilityBatchResult answer(InvocationOnMock invocation) {
+                        ChangeMessageVisibilityBatchRequest request =
+                                (ChangeMessageVisibilityBatchRequest) invocation.getArguments()[0];
+                        assertEquals(QUEUE_URL, request.getQueueUrl());
+                        ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult();
+                        for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+                            assertEquals(Integer.valueOf(42), entry.getVisibilityTimeout());
+                            result.getSuccessful().add(
+                                    new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+                        }
+                        return result;
+                    }
+                });
+        // When
+        List<BatchResultEntry> results = sqsService.changeVisibilityBatch(
+                new ChangeVisibilityBatchRequest(QUEUE_URL, Arrays.asList("a", "b"), 42));
+        // Then
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isSuccessful());
+        assertEquals("b", results.get(1).getId());
+        assertTrue(results.get(1).isSuccessful());
+    }
+
+    /**
+     * Testing pull(): the request parameters are passed on to SQS and the receipt handles are kept.
      */
     @Test
     public final void givenHappyPath_pull_shouldReturnListOfMessages() {
         PullRequest request = new PullRequest(QUEUE_URL);
-        Collection<com.amazonaws.services.sqs.model.Message> sqsMessages = new ArrayList<>();
-        com.amazonaws.services.sqs.model.Message message = new com.amazonaws.services.sqs.model.Message();
-        message.setMessageId(UUID.randomUUID().toString());
-        message.setBody(MESSAGE_BODY);
-        sqsMessages.add(message);
-        ReceiveMessageResult result = new ReceiveMessageResult();
-        result.setMessages(sqsMessages);
+        request.setMaxNumberOfMessages(5);
+        request.setWaitTimeSeconds(3);
+        request.setVisibilityTimeout(30);
+        com.amazonaws.services.sqs.model.Message sqsMessage = sqsMessage(MESSAGE_BODY_MD5);
+        ReceiveMessageResult result = new ReceiveMessageResult().withMessages(sqsMessage);
         // Given
-        given(amazonClient.receiveMessage(QUEUE_URL)).willReturn(result);
+        given(amazonClient.receiveMessage(any(ReceiveMessageRequest.class))).willReturn(result);
         // When
         List<Message> messages = sqsService.pull(request);
         // Then
         assertEquals(MESSAGE_BODY, messages.get(0).getBody());
-        verify(amazonClient).receiveMessage(QUEUE_URL);
+        assertEquals(sqsMessage.getReceiptHandle(), messages.get(0).getReceiptHandle());
+        assertEquals(MESSAGE_BODY_MD5, messages.get(0).getMd5Body());
+        ArgumentCaptor<ReceiveMessageRequest> captor = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+        verify(amazonClient).receiveMessage(captor.capture());
+        assertEquals(QUEUE_URL, captor.getValue().getQueueUrl());
+        assertEquals(Integer.valueOf(5), captor.getValue().getMaxNumberOfMessages());
+        assertEquals(Integer.valueOf(3), captor.getValue().getWaitTimeSeconds());
+        assertEquals(Integer.valueOf(30), captor.getValue().getVisibilityTimeout());
+    }
+
+    /**
+     * Testing pull() when the MD5 computed by SQS does not match the body received.
+     */
+    @Test(expected = AmazonClientException.class)
+    public final void givenCorruptedBody_pull_shouldThrowAmazonClientException() {
+        // Given
+        given(amazonClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .willReturn(new ReceiveMessageResult().withMessages(sqsMessage("0123456789abcdef")));
+        // When
+        sqsService.pull(new PullRequest(QUEUE_URL));
+    }
+
+    /**
+     * Testing pull() asking for more messages than SQS returns at once.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void givenMaxMessagesExceeded_pull_shouldThrowIllegalArgumentException() {
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(11);
+        sqsService.pull(request);
+    }
 
+    /**
+     * Testing pull() with prefetching: messages come from the receive buffer, and closing the service makes the
+     * ones still prefetched visible again.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenPrefetching_pull_shouldReturnPrefetchedMessages() throws InterruptedException {
+        // Given
+        given(amazonClient.receiveMessage(any(ReceiveMessageRequest.class))).willAnswer(
+                new Answer<ReceiveMessageResult>() {
+                    public ReceiveMessageResult answer(InvocationOnMock invocation) {
+                        ReceiveMessageRequest request = (ReceiveMessageRequest) invocation.getArguments()[0];
+                        assertEquals(Integer.valueOf(45), request.getVisibilityTimeout());
+                        ReceiveMessageResult result = new ReceiveMessageResult();
+                        for (int i = 0; i < request.getMaxNumberOfMessages(); ++i) {
+                            result.getMessages().add(sqsMessage(MESSAGE_BODY_MD5));
+                        }
+                        return result;
+                    }
+                });
+        given(amazonClient.changeMessageVisibilityBatch(any(ChangeMessageVisibilityBatchRequest.class)))
+                .willReturn(new ChangeMessageVisibilityBatchResult());
+        sqsService = new SqsQueueService(amazonClient, 4, 20, 45);
+        PullRequest request = new PullRequest(QUEUE_URL);
+        request.setWaitTimeSeconds(5);
+        // When
+        List<Message> messages = sqsService.pull(request);
+        // Then
+        assertEquals(1, messages.size());
+        assertNotNull(messages.get(0).getReceiptHandle());
+        Thread.sleep(200);
+        sqsService.close();
+        ArgumentCaptor<ChangeMessageVisibilityBatchRequest> captor =
+                ArgumentCaptor.forClass(ChangeMessageVisibilityBatchRequest.class);
+        verify(amazonClient).changeMessageVisibilityBatch(captor.capture());
+        assertEquals(4, captor.getValue().getEntries().size());
+        assertEquals(Integer.valueOf(0), captor.getValue().getEntries().get(0).getVisibilityTimeout());
     }
 
     /**
@@ -103,7 +384,7 @@ public class SqsQueueServiceTest {
         try {
             sqsService.pull(null);
         } finally {
-            verify(amazonClient, never()).receiveMessage(anyString());
+            verify(amazonClient, never()).receiveMessage(any(ReceiveMessageRequest.class));
 
         }
     }
@@ -150,4 +431,9 @@ public class SqsQueueServiceTest {
 
         }
     }
+
+    private static com.amazonaws.services.sqs.model.Message sqsMessage(final String md5OfBody) {
+        return new com.amazonaws.services.sqs.model.Message().withMessageId(UUID.randomUUID().toString())
+                .withReceiptHandle(UUID.randomUUID().toString()).withBody(MESSAGE_BODY).withMD5OfBody(md5OfBody);
+    }
 }
@@ -0,0 +1,152 @@
+package com.example.service.impl;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+
+import com.example.pojo.Message;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.BDDMockito.*;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link SqsReceiveBuffer}.
+ */
+public class SqsReceiveBufferTest {
+
+    /** Object to be tested */
+    private SqsReceiveBuffer buffer;
+
+    /** Dependency mock */
+    @Mock
+    private AmazonSQSClient amazonClient;
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "Message Body for Test";
+    private static final String MESSAGE_BODY_MD5 = Hashing.md5().hashString(MESSAGE_BODY, Charsets.UTF_8).toString();
+
+    /** Messages returned by the mock so far */
+    private final AtomicInteger received = new AtomicInteger();
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    /**
+     * The fetcher should fill the stash up to its capacity and no further, then refill what pulls take.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenIdleConsumer_pull_shouldNotPrefetchMoreThanCapacity() throws InterruptedException {
+        // Given
+        given(amazonClient.receiveMessage(any(ReceiveMessageRequest.class))).willAnswer(messages(Integer.MAX_VALUE));
+        buffer = new SqsReceiveBuffer(amazonClient, 15, 20, 60);
+        // When
+        final int pulled = buffer.pull(QUEUE_URL, 3, 5, TimeUnit.SECONDS).size();
+        waitForStash(15);
+        Thread.sleep(100);
+        // Then
+        assertTrue(pulled > 0);
+        assertEquals(15, buffer.stashed(QUEUE_URL));
+        assertEquals(15 + pulled, received.get());
+        final List<Message> messages = buffer.pull(QUEUE_URL, 10, 0, TimeUnit.SECONDS);
+        assertEquals(10, messages.size());
+        assertNotNull(messages.get(0).getReceiptHandle());
+        waitForStash(15);
+        assertEquals(25 + pulled, received.get());
+    }
+
+    /**
+     * Messages kept in the stash for more than half of their visibility timeout should not be handed out.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenStaleMessages_pull_shouldDropThem() throws InterruptedException {
+        // Given
+        given(amazonClient.receiveMessage(any(ReceiveMessageRequest.class))).willAnswer(messages(2));
+        buffer = new SqsReceiveBuffer(amazonClient, 2, 20, 1);
+        buffer.pull(QUEUE_URL, 1, 0, TimeUnit.SECONDS);
+        waitForStash(2);
+        // When
+        Thread.sleep(700);
+        // Then
+        assertTrue(buffer.pull(QUEUE_URL, 2, 0, TimeUnit.SECONDS).isEmpty());
+        assertEquals(0, buffer.stashed(QUEUE_URL));
+    }
+
+    /**
+     * A failed receive should be reported by the next pull that returns nothing.
+     */
+    @Test(expected = AmazonClientException.class)
+    public final void givenFailingReceive_pull_shouldThrowFailure() {
+        // Given
+        given(amazonClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .willThrow(new AmazonServiceException("Unavailable"));
+        buffer = new SqsReceiveBuffer(amazonClient, 10, 20, 60);
+        // When
+        buffer.pull(QUEUE_URL, 1, 500, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Answers receives with as many messages as requested, until the given total was returned, then with no
+     * message after a short long poll.
+     */
+    private Answer<ReceiveMessageResult> messages(final int total) {
+        return new Answer<ReceiveMessageResult>() {
+            public ReceiveMessageResult answer(InvocationOnMock invocation) throws InterruptedException {
+                ReceiveMessageRequest request = (ReceiveMessageRequest) invocation.getArguments()[0];
+                ReceiveMessageResult result = new ReceiveMessageResult();
+                for (int i = 0; i < request.getMaxNumberOfMessages() && received.get() < total; ++i) {
+                    received.incrementAndGet();
+                    result.getMessages().add(new com.amazonaws.services.sqs.model.Message()
+                            .withMessageId(UUID.randomUUID().toString()).withReceiptHandle(UUID.randomUUID().toString())
+                            .withBody(MESSAGE_BODY).withMD5OfBody(MESSAGE_BODY_MD5));
+                }
+                if (result.getMessages().isEmpty()) {
+                    Thread.sleep(50);
+                }
+                return result;
+            }
+        };
+    }
+
+    private void waitForStash(final int messages) throws InterruptedException {
+        for (int i = 0; i < 100 && buffer.stashed(QUEUE_URL) < messages; ++i) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.service.impl;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link SqsRetryer}.
+ */
+public class SqsRetryerTest {
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+
+    /**
+     * Testing call() on throttled attempts: the call is retried until it succeeds.
+     */
+    @Test
+    public final void givenThrottledAttempts_call_shouldRetryUntilSuccess() {
+        // Given
+        final SqsRetryer retryer = new SqsRetryer(5, 1, 10, 0.1, 0);
+        final FailingCall call = new FailingCall(2, throttling());
+        // When
+        String result = retryer.call(QUEUE_URL, call);
+        // Then
+        assertEquals("OK", result);
+        assertEquals(3, call.attempts.get());
+    }
+
+    /**
+     * Testing call() on a client error: the call is not retried.
+     */
+    @Test
+    public final void givenClientError_call_shouldNotRetry() {
+        // Given
+        final SqsRetryer retryer = new SqsRetryer(5, 1, 10, 0.1, 0);
+        final AmazonServiceException invalid = new AmazonServiceException("Invalid");
+        invalid.setErrorCode("InvalidParameterValue");
+        invalid.setStatusCode(400);
+        final FailingCall call = new FailingCall(1, invalid);
+        // When
+        try {
+            retryer.call(QUEUE_URL, call);
+            fail("The client error should be thrown");
+        } catch (AmazonServiceException e) {
+            // Then
+            assertSame(invalid, e);
+        }
+        assertEquals(1, call.attempts.get());
+    }
+
+    /**
+     * Testing call() on a server failing every attempt: the call stops at the most attempts.
+     */
+    @Test
+    public final void givenPersistentServerError_call_shouldStopAtMaxAttempts() {
+        // Given
+        final SqsRetryer retryer = new SqsRetryer(3, 1, 10, 0.1, 0);
+        final AmazonServiceException unavailable = new AmazonServiceException("Unavailable");
+        unavailable.setStatusCode(503);
+        final FailingCall call = new FailingCall(Integer.MAX_VALUE, unavailable);
+        // When
+        try {
+            retryer.call(QUEUE_URL, call);
+            fail("The server error should be thrown");
+        } catch (AmazonServiceException e) {
+            // Then
+            assertSame(unavailable, e);
+        }
+        assertEquals(3, call.attempts.get());
+    }
+
+    /**
+     * Testing call() once the retry budget is spent: later calls are not retried.
+     */
+    @Test
+    public final void givenSpentBudget_call_shouldNotRetry() {
+        // Given
+        final SqsRetryer retryer = new SqsRetryer(100, 0, 0, 0, 0);
+        final FailingCall call = new FailingCall(Integer.MAX_VALUE, new AmazonClientException("Connection reset"));
+        // When
+        for (int i = 0; i < 3; ++i) {
+            try {
+                retryer.call(QUEUE_URL, call);
+                fail("The client error should be thrown");
+            } catch (AmazonClientException e) {
+                // Expected
+            }
+        }
+        // Then the initial reserve of retries, and maybe one more credited since
+        final int attempts = call.attempts.get();
+        assertTrue(attempts + " attempts", attempts >= 3 + (int) SqsRetryer.MIN_RETRIES_PER_SECOND);
+        assertTrue(attempts + " attempts", attempts <= 4 + (int) SqsRetryer.MIN_RETRIES_PER_SECOND);
+    }
+
+    /**
+     * Testing call() on throttling: the rate of the queue is halved, then raised back by successful calls.
+     */
+    @Test
+    public final void givenThrottling_call_shouldHalveRateThenRaiseIt() {
+        // Given
+        final SqsRetryer retryer = new SqsRetryer(1, 0, 0, 0.1, 100);
+        // When
+        try {
+            retryer.call(QUEUE_URL, new FailingCall(1, throttling()));
+            fail("The throttling should be thrown");
+        } catch (AmazonServiceException e) {
+            // Expected
+        }
+        final double throttledRate = retryer.rate(QUEUE_URL);
+        for (int i = 0; i < 10; ++i) {
+            retryer.call(QUEUE_URL, new FailingCall(0, throttling()));
+        }
+        // Then
+        assertEquals(50, throttledRate, 0.001);
+        assertEquals(51, retryer.rate(QUEUE_URL), 0.05);
+        assertEquals(100, retryer.rate("other"), 0.001);
+    }
+
+    /**
+     * Testing call() from concurrent callers against a server accepting fewer calls than they make: the rate
+     * settles near the capacity of the server, so that most attempts are accepted.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenOverloadedServer_call_shouldAdaptRateToCapacity() throws Exception {
+        // Given
+        final SqsRetryer retryer = new SqsRetryer(5, 10, 100, 0.1, 1000);
+        final CapacityCall call = new CapacityCall(200);
+        final ExecutorService callers = Executors.newFixedThreadPool(4);
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        final List<Future<Integer>> failures = new ArrayList<>();
+        // When
+        for (int i = 0; i < 4; ++i) {
+            failures.add(callers.submit(new Callable<Integer>() {
+                public Integer call() {
+                    int failed = 0;
+                    while (System.nanoTime() - end < 0) {
+                        try {
+                            retryer.call(QUEUE_URL, call);
+                        } catch (AmazonServiceException e) {
+                            ++failed;
+                        }
+                    }
+                    return failed;
+                }
+            }));
+        }
+        callers.shutdown();
+        int failed = 0;
+        for (Future<Integer> future : failures) {
+            failed += future.get();
+        }
+        // Then
+        final int attempts = call.attempts.get();
+        final int throttled = call.throttled.get();
+        assertTrue(retryer.rate(QUEUE_URL) + " per second", retryer.rate(QUEUE_URL) < 500);
+        assertTrue(throttled + " of " + attempts + " throttled", throttled * 2 < attempts);
+        assertTrue(failed + " failed", failed * 10 < attempts);
+    }
+
+    private static AmazonServiceException throttling() {
+        final AmazonServiceException throttling = new AmazonServiceException("Rate exceeded");
+        throttling.setErrorCode("RequestThrottled");
+        throttling.setStatusCode(403);
+        return throttling;
+    }
+
+    /**
+     * A call failing its first attempts.
+     */
+    private static final class FailingCall implements SqsRetryer.Call<String> {
+
+        private final int failures;
+
+        private final AmazonClientException failure;
+
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        FailingCall(final int failures, final AmazonClientException failure) {
+            this.failures = failures;
+            this.failure = failure;
+        }
+
+        public String call() {
+            if (attempts.incrementAndGet() <= failures) {
+                throw failure;
+            }
+            return "OK";
+        }
+    }
+
+    /**
+     * A call to a server accepting a number of calls per tenth of a second, and throttling the others.
+     */
+    private static final class CapacityCall implements SqsRetryer.Call<String> {
+
+        private final int callsPerWindow;
+
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        private final AtomicInteger throttled = new AtomicInteger();
+
+        private long window;
+
+        private int accepted;
+
+        CapacityCall(final int callsPerSecond) {
+            this.callsPerWindow = callsPerSecond / 10;
+        }
+
+        public String call() {
+            attempts.incrementAndGet();
+            synchronized (this) {
+                final long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) / 100;
+                if (now != window) {
+                    window = now;
+                    accepted = 0;
+                }
+                if (accepted < callsPerWindow) {
+                    ++accepted;
+                    return "OK";
+                }
+            }
+            throttled.incrementAndGet();
+            throw throttling();
+        }
+    }
+}
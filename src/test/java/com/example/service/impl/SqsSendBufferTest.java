@@ -0,0 +1,177 @@
+package com.example.service.impl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.BDDMockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for {@link SqsSendBuffer}.
+ */
+public class SqsSendBufferTest {
+
+    /** Object to be tested */
+    private SqsSendBuffer buffer;
+
+    /** Dependency mock */
+    @Mock
+    private AmazonSQSClient amazonClient;
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "Message Body for Test";
+
+    /** Size of every batch sent to the mock, in order */
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    private ExecutorService producers;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        given(amazonClient.sendMessageBatch(any(SendMessageBatchRequest.class))).willAnswer(
+                new Answer<SendMessageBatchResult>() {
+                    public SendMessageBatchResult answer(InvocationOnMock invocation) throws InterruptedException {
+                        SendMessageBatchRequest request = (SendMessageBatchRequest) invocation.getArguments()[0];
+                        batchSizes.add(request.getEntries().size());
+                        SendMessageBatchResult result = new SendMessageBatchResult();
+                        for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+                            if (entry.getMessageBody().startsWith("rejected")) {
+                                result.getFailed().add(new BatchResultErrorEntry().withId(entry.getId())
+                                        .withCode("InvalidMessageContents").withSenderFault(true));
+                            } else {
+                                result.getSuccessful().add(new SendMessageBatchResultEntry().withId(entry.getId())
+                                        .withMD5OfMessageBody(md5(entry.getMessageBody())));
+                            }
+                        }
+                        Thread.sleep(50);
+                        return result;
+                    }
+                });
+        producers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        producers.shutdownNow();
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Concurrent pushes should be sent in full batches of 10, each caller getting the MD5 of its own body.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void givenConcurrentPushes_push_shouldSendFullBatches() throws Exception {
+        buffer = new SqsSendBuffer(amazonClient, 1, TimeUnit.SECONDS, 1);
+        final List<Future<String>> md5s = pushConcurrently(20, MESSAGE_BODY);
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(md5(MESSAGE_BODY + i), md5s.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, batchSizes.size());
+        assertEquals(Integer.valueOf(10), batchSizes.get(0));
+        assertEquals(Integer.valueOf(10), batchSizes.get(1));
+    }
+
+    /**
+     * A lone push should be sent on its own once the linger time has passed.
+     */
+    @Test
+    public final void givenSinglePush_push_shouldReturnAfterLingerTime() {
+        buffer = new SqsSendBuffer(amazonClient, 100, TimeUnit.MILLISECONDS, 4);
+        final long start = System.nanoTime();
+        assertEquals(md5(MESSAGE_BODY), buffer.push(QUEUE_URL, MESSAGE_BODY, null));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, batchSizes.size());
+    }
+
+    /**
+     * Bodies that would take a batch over 256 KB should start a new batch.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void givenLargeBodies_push_shouldSplitBatchesAtSizeLimit() throws Exception {
+        buffer = new SqsSendBuffer(amazonClient, 200, TimeUnit.MILLISECONDS, 4);
+        final List<Future<String>> md5s = pushConcurrently(3, Strings.repeat("x", 100 * 1024));
+        for (Future<String> md5 : md5s) {
+            assertNotNull(md5.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, batchSizes.size());
+        assertEquals(3, batchSizes.get(0) + batchSizes.get(1));
+    }
+
+    /**
+     * A message failed by SQS should fail its own push only.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void givenFailedEntry_push_shouldThrowForThatMessageOnly() throws Exception {
+        buffer = new SqsSendBuffer(amazonClient, 100, TimeUnit.MILLISECONDS, 1);
+        final List<Future<String>> accepted = pushConcurrently(1, MESSAGE_BODY);
+        try {
+            buffer.push(QUEUE_URL, "rejected", null);
+            fail();
+        } catch (AmazonServiceException e) {
+            assertEquals("InvalidMessageContents", e.getErrorCode());
+        }
+        assertEquals(md5(MESSAGE_BODY + 0), accepted.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals(1, batchSizes.size());
+    }
+
+    /**
+     * Starts the given number of pushes at once, each with the body followed by its index.
+     */
+    private List<Future<String>> pushConcurrently(final int pushes, final String body) {
+        final List<Future<String>> md5s = new ArrayList<>(pushes);
+        for (int i = 0; i < pushes; ++i) {
+            final String messageBody = body + i;
+            md5s.add(producers.submit(new Callable<String>() {
+                public String call() {
+                    return buffer.push(QUEUE_URL, messageBody, null);
+                }
+            }));
+        }
+        return md5s;
+    }
+
+    private static String md5(final String body) {
+        return Hashing.md5().hashString(body, Charsets.UTF_8).toString();
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.service.impl;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+import com.example.pojo.PushRequest;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link SqsSpillover}, against a local stand-in for SQS switched between healthy, slow and
+ * failing.
+ */
+public class SqsSpilloverTest {
+
+    /** Object to be tested */
+    private SqsSpillover spillover;
+
+    private SqsQueueService sqsService;
+
+    private StandInSqsClient sqsClient;
+
+    private File directory;
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "Message Body for Test";
+    private static final String MESSAGE_BODY_MD5 = Hashing.md5().hashString(MESSAGE_BODY, Charsets.UTF_8).toString();
+    private static final long LATENCY_SLO_MILLIS = 200;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("sqs-spill").toFile();
+        sqsClient = new StandInSqsClient();
+        open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sqsService.close();
+        deleteRecursively(directory);
+    }
+
+    /**
+     * Testing push() on a healthy SQS: the message is sent to SQS, not spilled.
+     */
+    @Test
+    public final void givenHealthySqs_push_shouldSendToSqs() {
+        // When
+        String md5Body = sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        // Then
+        assertEquals(MESSAGE_BODY_MD5, md5Body);
+        assertEquals(1, sqsClient.received.size());
+        assertEquals(0L, spillover.spilledCount());
+        assertFalse(spillover.isSpilling());
+    }
+
+    /**
+     * Testing push() on a failing SQS: the messages are spilled, then replayed in batches once SQS is healthy.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenFailingSqs_push_shouldSpillThenReplayOnceHealthy() throws Exception {
+        // Given
+        sqsClient.mode = Mode.FAILING;
+        final List<String> bodies = new ArrayList<>();
+        // When
+        for (int i = 0; i < 25; ++i) {
+            bodies.add(MESSAGE_BODY + " " + i);
+            final long start = System.nanoTime();
+            sqsService.push(new PushRequest(QUEUE_URL, bodies.get(i)));
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(LATENCY_SLO_MILLIS * 5));
+        }
+        assertEquals(25L, spillover.spilledCount());
+        assertTrue(spillover.isSpilling());
+        assertTrue(sqsClient.received.isEmpty());
+        sqsClient.mode = Mode.HEALTHY;
+        // Then
+        awaitReplayed(25);
+        assertEquals(new HashSet<>(bodies), new HashSet<>(sqsClient.received));
+        assertTrue(sqsClient.batches.get() >= 3);
+        awaitNotSpilling();
+        sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        assertEquals(25L, spillover.spilledCount());
+    }
+
+    /**
+     * Testing push() on a slow SQS: the message is spilled once the latency SLO is exceeded, and is delivered at
+     * least once.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenSlowSqs_push_shouldSpillAtLatencySlo() throws Exception {
+        // Given
+        sqsClient.mode = Mode.SLOW;
+        // When
+        final long start = System.nanoTime();
+        String md5Body = sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // Then
+        assertEquals(MESSAGE_BODY_MD5, md5Body);
+        assertTrue(elapsedMillis + " ms", elapsedMillis >= LATENCY_SLO_MILLIS);
+        assertTrue(elapsedMillis + " ms", elapsedMillis < StandInSqsClient.SLOW_MILLIS);
+        assertEquals(1L, spillover.spilledCount());
+        sqsClient.mode = Mode.HEALTHY;
+        awaitReplayed(1);
+        assertTrue(sqsClient.received.contains(MESSAGE_BODY));
+    }
+
+    /**
+     * Testing push() of a message SQS rejects for good: the push fails instead of being spilled.
+     */
+    @Test
+    public final void givenRejectedMessage_push_shouldFailWithoutSpilling() {
+        // Given
+        sqsClient.mode = Mode.REJECTING;
+        // When
+        try {
+            sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+            fail("The rejection should be thrown");
+        } catch (AmazonServiceException e) {
+            // Then
+            assertEquals("InvalidMessageContents", e.getErrorCode());
+        }
+        assertEquals(0L, spillover.spilledCount());
+        assertFalse(spillover.isSpilling());
+    }
+
+    /**
+     * Testing the replay of pushes spilled before a restart: they are sent once the spill log is opened again.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenPushesSpilledBeforeRestart_replay_shouldSendThem() throws Exception {
+        // Given
+        sqsClient.mode = Mode.FAILING;
+        for (int i = 0; i < 3; ++i) {
+            sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + " " + i));
+        }
+        sqsService.close();
+        // When
+        sqsClient = new StandInSqsClient();
+        open();
+        // Then
+        awaitReplayed(3);
+        assertEquals(3, sqsClient.received.size());
+    }
+
+    /**
+     * Testing the replay of entries SQS failed in a batch: entries failed by SQS itself are replayed again,
+     * entries failed by the sender are dropped, with the same rule as a failed push.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenFailedEntries_replay_shouldRetryServerFaultsAndDropSenderFaults() throws Exception {
+        // Given
+        sqsClient.mode = Mode.FAILING;
+        sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        // When
+        sqsClient.mode = Mode.FAILING_ENTRIES;
+        awaitBatches(1);
+        sqsClient.mode = Mode.HEALTHY;
+        // Then
+        awaitReplayed(1);
+        assertEquals(0L, spillover.droppedCount());
+
+        // Given
+        sqsClient.mode = Mode.FAILING;
+        sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        // When
+        sqsClient.mode = Mode.REJECTING_ENTRIES;
+        // Then
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (spillover.droppedCount() == 0 && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(1L, spillover.droppedCount());
+        assertEquals(1L, spillover.replayedCount());
+        awaitNotSpilling();
+    }
+
+    /**
+     * Testing the replay when sending a batch fails for an unexpected reason: the failure is counted and the
+     * replayer keeps going once SQS is healthy.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenUnexpectedFailure_replay_shouldCountItAndKeepReplaying() throws Exception {
+        // Given
+        sqsClient.mode = Mode.FAILING;
+        sqsService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        // When
+        sqsClient.mode = Mode.CRASHING;
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (spillover.replayFailureCount() == 0 && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(spillover.replayFailureCount() > 0);
+        sqsClient.mode = Mode.HEALTHY;
+        // Then
+        awaitReplayed(1);
+        assertTrue(sqsClient.received.contains(MESSAGE_BODY));
+        awaitNotSpilling();
+    }
+
+    private void open() throws Exception {
+        spillover = new SqsSpillover(sqsClient, SqsRetryer.noRetries(), directory, 1024 * 1024,
+                LATENCY_SLO_MILLIS, TimeUnit.MILLISECONDS);
+        sqsService = new SqsQueueService(sqsClient, 0, 20, 30, 0, 0, SqsRetryer.noRetries(), spillover);
+    }
+
+    private void awaitReplayed(final long count) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (spillover.replayedCount() < count && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(count, spillover.replayedCount());
+    }
+
+    private void awaitBatches(final int count) {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sqsClient.batches.get() < count && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(sqsClient.batches.get() >= count);
+    }
+
+    private void awaitNotSpilling() {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (spillover.isSpilling() && System.nanoTime() - deadline < 0) {
+            Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+        }
+        assertFalse(spillover.isSpilling());
+    }
+
+    private static void deleteRecursively(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The behaviour of the stand-in for SQS.
+     */
+    private enum Mode {
+
+        /** Sends answer right away */
+        HEALTHY,
+
+        /** Sends answer after a long time */
+        SLOW,
+
+        /** Sends fail as SQS does when it is unavailable */
+        FAILING,
+
+        /** Sends fail as SQS does for an invalid message */
+        REJECTING,
+
+        /** Batches fail every entry as SQS does for its own internal error */
+        FAILING_ENTRIES,
+
+        /** Batches fail every entry as SQS does for an invalid message */
+        REJECTING_ENTRIES,
+
+        /** Sends fail with an error that is not an SQS error */
+        CRASHING
+    }
+
+    /**
+     * Stands in for SQS, keeping the bodies of the messages it accepted.
+     */
+    private static final class StandInSqsClient extends AmazonSQSClient {
+
+        private static final long SLOW_MILLIS = 2000;
+
+        private volatile Mode mode = Mode.HEALTHY;
+
+        private final List<String> received = new CopyOnWriteArrayList<>();
+
+        private final AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public SendMessageResult sendMessage(final String queueUrl, final String messageBody) {
+            answer();
+            received.add(messageBody);
+            return new SendMessageResult().withMD5OfMessageBody(md5(messageBody));
+        }
+
+        @Override
+        public SendMessageBatchResult sendMessageBatch(final SendMessageBatchRequest request) {
+            answer();
+            batches.incrementAndGet();
+            final SendMessageBatchResult result = new SendMessageBatchResult();
+            for (SendMessageBatchRequestEntry entry : request.getEntries()) {
+                if (mode == Mode.FAILING_ENTRIES || mode == Mode.REJECTING_ENTRIES) {
+                    final boolean senderFault = mode == Mode.REJECTING_ENTRIES;
+                    result.getFailed().add(new BatchResultErrorEntry().withId(entry.getId())
+                            .withCode(senderFault ? "InvalidMessageContents" : "UnexpectedFailure")
+                            .withSenderFault(senderFault));
+                    continue;
+                }
+                received.add(entry.getMessageBody());
+                result.getSuccessful().add(new SendMessageBatchResultEntry().withId(entry.getId())
+                        .withMD5OfMessageBody(md5(entry.getMessageBody())));
+            }
+            return result;
+        }
+
+        private void answer() {
+            switch (mode) {
+            case SLOW:
+                Uninterruptibles.sleepUninterruptibly(SLOW_MILLIS, TimeUnit.MILLISECONDS);
+                break;
+            case FAILING:
+                final AmazonServiceException unavailable = new AmazonServiceException("Service Unavailable");
+                unavailable.setErrorCode("ServiceUnavailable");
+                unavailable.setStatusCode(503);
+                throw unavailable;
+            case REJECTING:
+                final AmazonServiceException invalid = new AmazonServiceException("Invalid characters");
+                invalid.setErrorCode("InvalidMessageContents");
+                invalid.setStatusCode(400);
+                throw invalid;
+            case CRASHING:
+                throw new IllegalStateException("Unexpected failure");
+            default:
+                break;
+            }
+        }
+
+        private static String md5(final String body) {
+            return Hashing.md5().hashString(body, Charsets.UTF_8).toString();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.service.impl;
+
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushRequest;
+import com.example.service.QueueService;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Push and pull throughput of a backlog bigger than the memory tier of a {@link TieredQueueService}, against an
+ * unbounded {@link InMemoryQueueService} holding all of it, for page-in watermarks from 100% (the disk tier is
+ * paged in as soon as a pull makes room) down to 0% (only once the memory tier is empty).
+ * <p>
+ * Not a unit test. The backlog is pushed first, then pulled 10 at a time. Arguments: number of messages (default
+ * 1000000), messages in the memory tier (default a tenth of them) and the directory to write to (default: a
+ * temporary directory, which should be on the disk being measured).
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class TieredQueueBenchmark {
+
+    private static final String BODY_PADDING = "tiered queue message body padded to about a hundred bytes "
+            + "................................. ";
+
+    private TieredQueueBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int memoryMessages = args.length > 1 ? Integer.parseInt(args[1]) : messages / 10;
+        final File root = args.length > 2 ? new File(args[2]) : Files.createTempDirectory("tiered-bench").toFile();
+
+        System.out.println(String.format("%-10s %8s %14s %14s", "backend", "page-in", "push msg/s", "pull msg/s"));
+        // The first round warms up the JIT, the last one is reported
+        for (int round = 0; round < 2; ++round) {
+            final boolean report = round == 1;
+            run("memory", "-", new InMemoryQueueService(), messages, report);
+            for (int pageInPercent : new int[] { 100, 50, 0 }) {
+                final TieredQueueService tiered = new TieredQueueService(
+                        new File(root, "tiered-" + pageInPercent + "-" + round), memoryMessages, 0, pageInPercent);
+                run("tiered", pageInPercent + "%", tiered, messages, report);
+                tiered.close();
+            }
+        }
+    }
+
+    private static void run(final String backend, final String pageIn, final QueueService service,
+            final int messages, final boolean report) {
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; ++i) {
+            service.push(new PushRequest("bench", BODY_PADDING + i));
+        }
+        final long pushNanos = System.nanoTime() - start;
+
+        final PullRequest request = new PullRequest("bench");
+        request.setMaxNumberOfMessages(10);
+        // Long enough for nothing to be redelivered during the run
+        request.setVisibilityTimeout(3600);
+        int pulled = 0;
+        start = System.nanoTime();
+        while (pulled < messages) {
+            final int count = service.pull(request).size();
+            if (count == 0) {
+                throw new IllegalStateException("Lost " + (messages - pulled) + " messages");
+            }
+            pulled += count;
+        }
+        final long pullNanos = System.nanoTime() - start;
+        if (report) {
+            System.out.println(String.format("%-10s %8s %14.0f %14.0f", backend, pageIn, messages * 1e9 / pushNanos,
+                    messages * 1e9 / pullNanos));
+        }
+    }
+}
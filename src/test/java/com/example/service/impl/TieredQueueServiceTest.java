@@ -0,0 +1,203 @@
+package com.example.service.impl;
+
+import com.example.pojo.Message;
+import com.example.pojo.PullRequest;
+import com.example.pojo.PushBatchEntry;
+import com.example.pojo.PushBatchRequest;
+import com.example.pojo.PushRequest;
+
+import com.google.common.util.concurrent.ForwardingBlockingQueue;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Unit tests for {@link TieredQueueService}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class TieredQueueServiceTest {
+
+    /** Object to be tested */
+    private TieredQueueService service;
+
+    private File directory;
+
+    /** Utility constants */
+    private static final String QUEUE_URL = "localhost";
+    private static final String MESSAGE_BODY = "Message Body for Test";
+    private static final int MEMORY_MESSAGES = 10;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("tiered-queue").toFile();
+        service = new TieredQueueService(directory, MEMORY_MESSAGES, 0, 50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.close();
+        FileQueueServiceTest.deleteRecursively(directory);
+    }
+
+    /**
+     * Given a backlog past the watermark of the memory tier, pull() should return every message in push order,
+     * from memory then from disk.
+     */
+    @Test
+    public final void givenBacklogPastWatermark_pull_shouldKeepOrderAcrossTiers() {
+        // Given
+        for (int i = 0; i < 50; ++i) {
+            service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + i));
+        }
+        final List<PushBatchEntry> entries = new ArrayList<>();
+        for (int i = 50; i < 100; ++i) {
+            entries.add(new PushBatchEntry("e" + i, MESSAGE_BODY + i));
+        }
+        service.pushBatch(new PushBatchRequest(QUEUE_URL, entries));
+        assertEquals(MEMORY_MESSAGES, service.getQueueInstance(QUEUE_URL).size());
+        assertTrue(service.getSpilledBytes(QUEUE_URL) > 0);
+        // When
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(3);
+        final List<String> bodies = new ArrayList<>();
+        List<Message> messages;
+        while (!(messages = service.pull(request)).isEmpty()) {
+            for (Message message : messages) {
+                bodies.add(message.getBody());
+            }
+        }
+        // Then
+        assertEquals(100, bodies.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(MESSAGE_BODY + i, bodies.get(i));
+        }
+        assertEquals(0L, service.getSpilledBytes(QUEUE_URL));
+        // Drained, the queue keeps new messages in memory again
+        service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY));
+        assertEquals(1, service.getQueueInstance(QUEUE_URL).size());
+        assertEquals(0L, service.getSpilledBytes(QUEUE_URL));
+    }
+
+    /**
+     * Given a push from another thread while a pull reads the disk tier back, pull() should return the pushed
+     * message after the ones read back: the push must not overtake them once the disk tier looks empty.
+     *
+     * @throws Exception the exception
+     */
+    @Test
+    public final void givenPushDuringRefill_pull_shouldKeepPushOrder() throws Exception {
+        // Given
+        final RacingQueueService racingService = new RacingQueueService(new File(directory, "racing"));
+        try {
+            for (int i = 0; i < MEMORY_MESSAGES + 2; ++i) {
+                racingService.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + i));
+            }
+            final PullRequest request = new PullRequest(QUEUE_URL);
+            request.setMaxNumberOfMessages(3);
+            final List<String> bodies = new ArrayList<>();
+            for (Message message : racingService.pull(request)) {
+                bodies.add(message.getBody());
+            }
+            // When
+            racingService.armed.set(true);
+            List<Message> messages;
+            while (!(messages = racingService.pull(request)).isEmpty()) {
+                for (Message message : messages) {
+                    bodies.add(message.getBody());
+                }
+                racingService.racingPush.join();
+            }
+            // Then
+            assertFalse(racingService.armed.get());
+            assertEquals(MEMORY_MESSAGES + 3, bodies.size());
+            for (int i = 0; i < MEMORY_MESSAGES + 2; ++i) {
+                assertEquals(MESSAGE_BODY + i, bodies.get(i));
+            }
+            assertEquals(RacingQueueService.RACING_BODY, bodies.get(MEMORY_MESSAGES + 2));
+        } finally {
+            racingService.close();
+        }
+    }
+
+    /**
+     * Given a backlog on disk, pull() should page it in only once the memory tier drained below the page-in
+     * watermark, then up to the watermark of the memory tier.
+     */
+    @Test
+    public final void givenBacklogOnDisk_pull_shouldPageInBelowWatermark() {
+        // Given
+        for (int i = 0; i < 3 * MEMORY_MESSAGES; ++i) {
+            service.push(new PushRequest(QUEUE_URL, MESSAGE_BODY + i));
+        }
+        final PullRequest request = new PullRequest(QUEUE_URL);
+        request.setMaxNumberOfMessages(3);
+        // When
+        assertEquals(3, service.pull(request).size());
+        // Then
+        assertEquals(MEMORY_MESSAGES - 3, service.getQueueInstance(QUEUE_URL).size());
+        assertEquals(3, service.pull(request).size());
+        assertEquals(MEMORY_MESSAGES, service.getQueueInstance(QUEUE_URL).size());
+        assertEquals(MEMORY_MESSAGES, service.getQueueUsage(QUEUE_URL).messages());
+    }
+
+    /**
+     * Pushes a message from another thread when armed, right before the next message is queued: when a pull reads
+     * the disk tier back, the moment a push could overtake the messages being read back.
+     */
+    private static final class RacingQueueService extends TieredQueueService {
+
+        private static final String RACING_BODY = "Racing push";
+
+        private final AtomicBoolean armed = new AtomicBoolean();
+
+        private volatile Thread racingPush;
+
+        RacingQueueService(final File directory) {
+            super(directory, MEMORY_MESSAGES, 0, 50);
+        }
+
+        @Override
+        protected BlockingQueue<Message> getQueueInstance(final String url) {
+            final BlockingQueue<Message> queue = super.getQueueInstance(url);
+            return new ForwardingBlockingQueue<Message>() {
+                @Override
+                protected BlockingQueue<Message> delegate() {
+                    return queue;
+                }
+
+                @Override
+                public boolean offer(final Message message) {
+                    if (armed.compareAndSet(true, false)) {
+                        racingPush = new Thread(new Runnable() {
+                            public void run() {
+                                push(new PushRequest(url, RACING_BODY));
+                            }
+                        });
+                        racingPush.start();
+                        // A push that has to wait for the pull to finish reading back is in order
+                        Uninterruptibles.joinUninterruptibly(racingPush, 200, TimeUnit.MILLISECONDS);
+                    }
+                    return super.offer(message);
+                }
+            };
+        }
+    }
+}
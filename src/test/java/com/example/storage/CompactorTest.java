@@ -0,0 +1,191 @@
+package com.example.storage;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Predicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link Compactor}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class CompactorTest {
+
+    /** Small segments, so that a few records fill many segments */
+    private static final long SEGMENT_BYTES = 128;
+
+    /** Object to be tested */
+    private final Compactor compactor = new Compactor(100 * 1024 * 1024);
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("compactor").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SegmentedLogTest.deleteRecursively(directory);
+    }
+
+    /**
+     * Segments the cursor moved past should be deleted, and the log should still read and reopen normally.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenReadSegments_deleteReadSegments_shouldDeleteThem() throws IOException {
+        SegmentedLog log = new SegmentedLog(directory, SEGMENT_BYTES);
+        for (int i = 0; i < 40; ++i) {
+            log.append(bytes("record " + i));
+        }
+        for (int i = 0; i < 30; ++i) {
+            log.poll();
+        }
+        final int segments = log.segmentCount();
+        final long lagBytes = log.readSegmentBytes();
+        assertTrue(lagBytes > 0);
+
+        assertEquals(lagBytes, compactor.deleteReadSegments(log));
+        assertTrue(log.segmentCount() < segments);
+        assertEquals(0L, log.readSegmentBytes());
+        assertEquals(lagBytes, compactor.reclaimedBytes());
+        assertEquals("record 30", string(log.poll()));
+        log.close();
+
+        log = new SegmentedLog(directory, SEGMENT_BYTES);
+        for (int i = 31; i < 40; ++i) {
+            assertEquals("record " + i, string(log.poll()));
+        }
+        assertNull(log.poll());
+        log.close();
+    }
+
+    /**
+     * Journal segments holding mostly closed entries should be deleted, their live entries moved to the end of
+     * the journal so that a recovery still finds them.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenSparseJournal_compactJournal_shouldKeepLiveEntries() throws IOException {
+        final SegmentedLog journal = new SegmentedLog(directory, SEGMENT_BYTES);
+        for (int i = 0; i < 50; ++i) {
+            journal.append(JournalEntry.receive("r" + i, 1000 + i, bytes("body " + i)).encode());
+        }
+        final Set<String> live = new HashSet<>(Arrays.asList("r7", "r42"));
+        for (int i = 0; i < 50; ++i) {
+            if (!live.contains("r" + i)) {
+                journal.append(JournalEntry.delete("r" + i).encode());
+            }
+        }
+        final long closedBytes = journal.closedSegmentBytes();
+
+        assertTrue(compactor.compactJournal(journal, liveKeys(live)) > 0);
+        assertTrue(journal.closedSegmentBytes() < closedBytes / 4);
+        journal.close();
+
+        final List<JournalEntry> recovered = JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.STREAM);
+        assertEquals(2, recovered.size());
+        final Set<String> keys = new HashSet<>();
+        for (JournalEntry entry : recovered) {
+            keys.add(entry.getKey());
+            assertEquals("body " + entry.getKey().substring(1), string(entry.getMessage()));
+        }
+        assertEquals(live, keys);
+    }
+
+    /**
+     * A journal segment holding mostly live entries should be left alone.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenMostlyLiveJournal_compactJournal_shouldNotReclaimAnything() throws IOException {
+        final SegmentedLog journal = new SegmentedLog(directory, SEGMENT_BYTES);
+        final Set<String> live = new HashSet<>();
+        for (int i = 0; i < 20; ++i) {
+            journal.append(JournalEntry.receive("r" + i, 1000, bytes("body")).encode());
+            live.add("r" + i);
+        }
+        final int segments = journal.segmentCount();
+
+        assertEquals(0L, compactor.compactJournal(journal, liveKeys(live)));
+        assertEquals(segments, journal.segmentCount());
+        assertEquals(0L, compactor.rewrittenBytes());
+        journal.close();
+    }
+
+    /**
+     * An entry closed while the compactor moves it should stay closed, even though its closing entry was
+     * appended before the copy.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenEntryClosedDuringCompaction_recover_shouldNotReopenIt() throws IOException {
+        final SegmentedLog journal = new SegmentedLog(directory, SEGMENT_BYTES);
+        journal.append(JournalEntry.receive("racing", 1000, bytes("body")).encode());
+        for (int i = 0; i < 20; ++i) {
+            journal.append(JournalEntry.delay("p" + i, 1000, bytes("body")).encode());
+            journal.append(JournalEntry.delayDone("p" + i).encode());
+        }
+        final Set<String> live = new HashSet<>(Arrays.asList("racing"));
+        final Predicate<JournalEntry> closing = new Predicate<JournalEntry>() {
+            public boolean apply(final JournalEntry entry) {
+                if (!live.remove(entry.getKey())) {
+                    return false;
+                }
+                // Closed by a consumer right after the compactor found it live
+                try {
+                    journal.append(entry.closing().encode());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return true;
+            }
+        };
+
+        assertTrue(compactor.compactJournal(journal, closing) > 0);
+        journal.close();
+        assertTrue(JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.STREAM).isEmpty());
+    }
+
+    /**
+     * Given a rate of zero bytes per second, the constructor should throw IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void givenZeroRate_constructor_shouldThrowIllegalArgumentException() {
+        new Compactor(0);
+    }
+
+    private static Predicate<JournalEntry> liveKeys(final Set<String> keys) {
+        return new Predicate<JournalEntry>() {
+            public boolean apply(final JournalEntry entry) {
+                return keys.contains(entry.getKey());
+            }
+        };
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+
+    private static String string(final byte[] value) {
+        return new String(value, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.storage;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for {@link Crc32c}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class Crc32cTest {
+
+    /**
+     * The checksum should match the CRC-32C check values (RFC 3720).
+     */
+    @Test
+    public final void givenKnownVectors_getValue_shouldMatchCheckValues() {
+        assertEquals(0xE3069283L, crc("123456789".getBytes(Charsets.US_ASCII)));
+        assertEquals(0x8A9136AAL, crc(new byte[32]));
+        final byte[] ones = new byte[32];
+        Arrays.fill(ones, (byte) 0xff);
+        assertEquals(0x62A8AB43L, crc(ones));
+        assertEquals(0L, crc(new byte[0]));
+    }
+
+    /**
+     * Arrays, heap buffers and direct buffers of any length and alignment should give the same checksum as
+     * byte by byte updates.
+     */
+    @Test
+    public final void givenAnyInput_update_shouldMatchByteByByteChecksum() {
+        final Random random = new Random(42);
+        for (int length = 0; length < 100; ++length) {
+            final byte[] bytes = new byte[length + 3];
+            random.nextBytes(bytes);
+            final Crc32c expected = new Crc32c();
+            for (int i = 3; i < bytes.length; ++i) {
+                expected.update(bytes[i]);
+            }
+            final Crc32c array = new Crc32c();
+            array.update(bytes, 3, length);
+            assertEquals(expected.getValue(), array.getValue());
+
+            final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes);
+            direct.position(3);
+            final Crc32c buffer = new Crc32c();
+            buffer.update(direct);
+            assertEquals(expected.getValue(), buffer.getValue());
+            assertEquals(3, direct.position());
+        }
+    }
+
+    private static long crc(final byte[] bytes) {
+        final Crc32c crc = new Crc32c();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.storage;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for {@link GroupCommitter}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class GroupCommitterTest {
+
+    private static final byte[] RECORD = "record".getBytes(Charsets.UTF_8);
+
+    /** Object to be tested */
+    private GroupCommitter committer;
+
+    private SegmentedLog log;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("group-commit").toFile();
+        log = new SegmentedLog(directory, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (committer != null) {
+            committer.close();
+        }
+        log.close();
+        SegmentedLogTest.deleteRecursively(directory);
+    }
+
+    /**
+     * A commit should return once its record is durable, no later than the configured delay.
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 5000)
+    public final void givenSingleRecord_commit_shouldReturnOnceDurable() throws Exception {
+        committer = new GroupCommitter(log, 20, TimeUnit.MILLISECONDS, 100);
+        final long offset = log.append(RECORD);
+        final long start = System.nanoTime();
+        committer.commit(offset);
+        assertTrue(log.durableOffset() >= offset);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1L, log.syncCount());
+    }
+
+    /**
+     * Concurrent producers should share forces: far fewer forces than records, and every commit returning
+     * with its record durable.
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 20000)
+    public final void givenConcurrentProducers_commit_shouldShareForces() throws Exception {
+        committer = new GroupCommitter(log, 10, TimeUnit.MILLISECONDS, 16);
+        final int threads = 16;
+        final int recordsPerThread = 50;
+        final AtomicInteger notDurable = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < recordsPerThread; ++i) {
+                            final long offset = log.append(RECORD);
+                            committer.commit(offset);
+                            if (log.durableOffset() < offset) {
+                                notDurable.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        notDurable.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(0, notDurable.get());
+        assertTrue(log.syncCount() < threads * recordsPerThread / 4);
+    }
+
+    /**
+     * Closing should force the records still waiting and release their producers.
+     *
+     * @throws Exception
+     */
+    @Test(timeout = 5000)
+    public final void givenPendingRecord_close_shouldForceIt() throws Exception {
+        committer = new GroupCommitter(log, 1, TimeUnit.HOURS, 100);
+        final long offset = log.append(RECORD);
+        final CountDownLatch committed = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    committer.commit(offset);
+                    committed.countDown();
+                } catch (Exception e) {
+                    // The latch is never released
+                }
+            }
+        }).start();
+        Thread.sleep(100);
+        assertEquals(1L, committed.getCount());
+        committer.close();
+        committed.await();
+        assertEquals(offset, log.durableOffset());
+    }
+
+    /**
+     * Committing on a closed committer should throw IllegalStateException.
+     *
+     * @throws Exception
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void givenClosedCommitter_commit_shouldThrowIllegalStateException() throws Exception {
+        committer = new GroupCommitter(log, 1, TimeUnit.MILLISECONDS, 1);
+        committer.close();
+        committer.commit(log.append(RECORD));
+    }
+}
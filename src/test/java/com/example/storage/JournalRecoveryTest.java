@@ -0,0 +1,202 @@
+package com.example.storage;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Unit tests for {@link JournalRecovery}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class JournalRecoveryTest {
+
+    /** Small segments, so that entries are spread over many segments replayed in parallel */
+    private static final long SEGMENT_BYTES = 128;
+
+    private File root;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("journal").toFile();
+        directory = new File(root, "journal");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SegmentedLogTest.deleteRecursively(root);
+    }
+
+    /**
+     * Only the receives and delays never closed should be recovered, in journal order, even when they are
+     * closed many segments later.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenEntriesAcrossSegments_recover_shouldReturnLiveEntriesInOrder() throws IOException {
+        SegmentedLog journal = new SegmentedLog(directory, SEGMENT_BYTES);
+        for (int i = 0; i < 100; ++i) {
+            journal.append(JournalEntry.receive("r" + i, 1000 + i, bytes("id" + i + "$body " + i)).encode());
+        }
+        journal.append(JournalEntry.delay("p1", 5000, bytes("id$delayed")).encode());
+        for (int i = 0; i < 100; ++i) {
+            if (i % 10 != 3) {
+                journal.append(JournalEntry.delete("r" + i).encode());
+            }
+        }
+        journal.append(JournalEntry.delay("p2", 6000, bytes("id$done")).encode());
+        journal.append(JournalEntry.delayDone("p2").encode());
+        // A close without its open, e.g. a delete racing with a redelivery, is ignored
+        journal.append(JournalEntry.delete("unknown").encode());
+        assertTrue(journal.segmentCount() > 10);
+        journal.close();
+
+        List<JournalEntry> live = JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.STREAM);
+        assertEquals(11, live.size());
+        for (int i = 0; i < 10; ++i) {
+            assertEquals(JournalEntry.Type.RECEIVE, live.get(i).getType());
+            assertEquals("r" + (i * 10 + 3), live.get(i).getKey());
+            assertEquals(1000L + i * 10 + 3, live.get(i).getDeadlineMillis());
+            assertEquals("id" + (i * 10 + 3) + "$body " + (i * 10 + 3), string(live.get(i).getMessage()));
+        }
+        assertEquals(JournalEntry.Type.DELAY, live.get(10).getType());
+        assertEquals("id$delayed", string(live.get(10).getMessage()));
+    }
+
+    /**
+     * A visibility change is journaled as a delete followed by a receive of the same key: across segments the
+     * key should be live again with its new deadline, until a later delete closes it.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenReceiveJournaledAgainAfterDelete_recover_shouldKeepNewDeadline() throws IOException {
+        SegmentedLog journal = new SegmentedLog(directory, SEGMENT_BYTES, IoMode.STREAM);
+        journal.append(JournalEntry.receive("moved", 10, bytes("id$moved")).encode());
+        journal.append(JournalEntry.receive("closed", 10, bytes("id$closed")).encode());
+        for (int i = 0; i < 20; ++i) {
+            journal.append(JournalEntry.delayDone("filler" + i).encode());
+        }
+        journal.append(JournalEntry.delete("moved").encode());
+        journal.append(JournalEntry.delete("closed").encode());
+        for (int i = 0; i < 20; ++i) {
+            journal.append(JournalEntry.delayDone("filler" + i).encode());
+        }
+        journal.append(JournalEntry.receive("moved", 99, bytes("id$moved")).encode());
+        journal.append(JournalEntry.receive("closed", 99, bytes("id$closed")).encode());
+        for (int i = 0; i < 20; ++i) {
+            journal.append(JournalEntry.delayDone("filler" + i).encode());
+        }
+        journal.append(JournalEntry.delete("closed").encode());
+        assertTrue(journal.segmentCount() > 3);
+        journal.close();
+
+        List<JournalEntry> live = JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.STREAM);
+        assertEquals(1, live.size());
+        assertEquals("moved", live.get(0).getKey());
+        assertEquals(99L, live.get(0).getDeadlineMillis());
+    }
+
+    /**
+     * A key received in one segment, then received again and deleted in a later segment, should stay closed:
+     * the delete cancels the first receive too.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenReceiveReopenedAndDeletedInLaterSegment_recover_shouldNotReturnKey() throws IOException {
+        SegmentedLog journal = new SegmentedLog(directory, SEGMENT_BYTES, IoMode.STREAM);
+        journal.append(JournalEntry.receive("deleted", 10, bytes("id$deleted")).encode());
+        journal.append(JournalEntry.receive("kept", 10, bytes("id$kept")).encode());
+        // Up to the first entry of a new segment
+        for (int i = 0; journal.segmentCount() == 1; ++i) {
+            journal.append(JournalEntry.delayDone("filler" + i).encode());
+        }
+        journal.append(JournalEntry.receive("deleted", 99, bytes("id$deleted")).encode());
+        journal.append(JournalEntry.delete("deleted").encode());
+        // Both in the same segment
+        assertEquals(2, journal.segmentCount());
+        journal.close();
+
+        List<JournalEntry> live = JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.STREAM);
+        assertEquals(1, live.size());
+        assertEquals("kept", live.get(0).getKey());
+    }
+
+    /**
+     * Recovery should rewrite the journal with the live entries only, and recovering it again should give
+     * the same entries.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenRecoveredJournal_recover_shouldHaveCheckpointedLiveEntries() throws IOException {
+        SegmentedLog journal = new SegmentedLog(directory, SEGMENT_BYTES, IoMode.MMAP);
+        for (int i = 0; i < 50; ++i) {
+            journal.append(JournalEntry.receive("r" + i, i, bytes("id$body")).encode());
+            journal.append(JournalEntry.delete("r" + i).encode());
+        }
+        journal.append(JournalEntry.receive("live", 42, bytes("id$live")).encode());
+        journal.close();
+
+        assertEquals(1, JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.MMAP).size());
+        journal = new SegmentedLog(directory, SEGMENT_BYTES, IoMode.MMAP);
+        assertEquals(1, journal.segmentCount());
+        journal.close();
+        List<JournalEntry> live = JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.MMAP);
+        assertEquals(1, live.size());
+        assertEquals("live", live.get(0).getKey());
+        assertEquals(42L, live.get(0).getDeadlineMillis());
+    }
+
+    /**
+     * A crash after the checkpoint was written, while the old journal was being replaced, should recover the
+     * checkpoint.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenInterruptedCheckpointSwap_recover_shouldUseCheckpoint() throws IOException {
+        SegmentedLog checkpoint =
+                new SegmentedLog(new File(root, "journal" + JournalRecovery.CHECKPOINT_SUFFIX), SEGMENT_BYTES);
+        checkpoint.append(JournalEntry.delay("p", 7, bytes("id$body")).encode());
+        checkpoint.close();
+        new File(root, "journal" + JournalRecovery.REPLACED_SUFFIX).mkdirs();
+
+        List<JournalEntry> live = JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.STREAM);
+        assertEquals(1, live.size());
+        assertEquals("p", live.get(0).getKey());
+        assertFalse(new File(root, "journal" + JournalRecovery.CHECKPOINT_SUFFIX).exists());
+        assertFalse(new File(root, "journal" + JournalRecovery.REPLACED_SUFFIX).exists());
+    }
+
+    /**
+     * Recovering a journal that does not exist yet should return nothing.
+     *
+     * @throws IOException
+     */
+    @Test
+    public final void givenNoJournal_recover_shouldReturnNoEntries() throws IOException {
+        assertTrue(JournalRecovery.recover(directory, SEGMENT_BYTES, IoMode.STREAM).isEmpty());
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+
+    private static String string(final byte[] value) {
+        return new String(value, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.storage;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for {@link SegmentedLog} with memory-mapped segments. Runs every test of {@link SegmentedLogTest}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class MappedSegmentedLogTest extends SegmentedLogTest {
+
+    @Override
+    protected IoMode ioMode() {
+        return IoMode.MMAP;
+    }
+
+    /**
+     * Appends should resume right after the last record of a preallocated segment, overwriting a record that
+     * was not completely written.
+     */
+    @Test
+    public final void givenReopenedMappedLog_append_shouldOverwriteIncompleteRecord() throws IOException {
+        File directory = java.nio.file.Files.createTempDirectory("mapped-log").toFile();
+        try {
+            SegmentedLog mapped = new SegmentedLog(directory, 1024, IoMode.MMAP);
+            mapped.append("complete".getBytes(Charsets.UTF_8));
+            mapped.close();
+            assertEquals(1024L, new File(directory, Segment.fileName(0)).length());
+            RandomAccessFile output = new RandomAccessFile(new File(directory, Segment.fileName(0)), "rw");
+            output.seek(Segment.HEADER_BYTES + "complete".length());
+            output.write(new byte[] { Segment.FORMAT_VERSION, 0, 0, 0, 0, 100 });
+            output.write("a much longer incomplete record".getBytes(Charsets.UTF_8));
+            output.close();
+
+            mapped = new SegmentedLog(directory, 1024, IoMode.MMAP);
+            mapped.append("next".getBytes(Charsets.UTF_8));
+            mapped.close();
+            mapped = new SegmentedLog(directory, 1024, IoMode.MMAP);
+            assertEquals("complete", new String(mapped.poll(), Charsets.UTF_8));
+            assertEquals("next", new String(mapped.poll(), Charsets.UTF_8));
+            assertNull(mapped.poll());
+            mapped.close();
+        } finally {
+            deleteRecursively(directory);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.storage;
+
+import static org.junit.Assert.*;
+
+import com.example.pojo.Message;
+import com.google.common.base.Charsets;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Unit tests for {@link MessageRecordReader} and {@link MessageRecordWriter}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class MessageRecordReaderTest {
+
+    /** Object to be tested */
+    private final MessageRecordReader reader = new MessageRecordReader();
+
+    /**
+     * A written message should be read back with the same id, body and timestamp, whatever its body holds.
+     */
+    @Test
+    public final void givenWrittenMessage_read_shouldReturnSameMessage() {
+        final UUID id = UUID.randomUUID();
+        final String body = "line one\nline two $ with separators \u00e9\u4e2d";
+        final byte[] record = MessageRecordWriter.write(id, 1234567890123L, body);
+        assertEquals(MessageRecordWriter.HEADER_BYTES + body.getBytes(Charsets.UTF_8).length,
+                record.length);
+        final Message message = reader.read(ByteBuffer.wrap(record));
+        assertEquals(id.toString(), message.getId());
+        assertEquals(body, message.getBody());
+        assertEquals(1234567890123L, MessageRecordReader.enqueueTimestamp(ByteBuffer.wrap(record)));
+    }
+
+    /**
+     * Records should be decoded in place from a view of a larger direct buffer, as handed out by mapped
+     * segments.
+     */
+    @Test
+    public final void givenViewOfDirectBuffer_read_shouldDecodeInPlace() {
+        final UUID id = UUID.randomUUID();
+        final byte[] record = MessageRecordWriter.write(id, 0, "body");
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(record.length + 20);
+        buffer.position(10);
+        buffer.put(record);
+        buffer.limit(10 + record.length);
+        buffer.position(10);
+        final Message message = reader.read(buffer);
+        assertEquals(id.toString(), message.getId());
+        assertEquals("body", message.getBody());
+    }
+
+    /**
+     * Given a record shorter than the message header, read() should throw IllegalStateException.
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void givenTruncatedRecord_read_shouldThrowIllegalStateException() {
+        reader.read(ByteBuffer.wrap(new byte[10]));
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.storage;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Charsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link SegmentedLog}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class SegmentedLogTest {
+
+    /** Object to be tested */
+    private SegmentedLog log;
+
+    private File directory;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("segmented-log").toFile();
+        log = new SegmentedLog(directory, 1024, ioMode());
+    }
+
+    /**
+     * Gets the I/O mode under test.
+     *
+     * @return the I/O mode
+     */
+    protected IoMode ioMode() {
+        return IoMode.STREAM;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+        deleteRecursively(directory);
+    }
+
+    /**
+     * Records should be read back in the order they were appended.
+     */
+    @Test
+    public final void givenHappyPath_poll_shouldReturnRecordsInOrder() throws IOException {
+        log.append(bytes("first"));
+        log.append(bytes("second"));
+        assertEquals("first", string(log.poll()));
+        assertEquals("second", string(log.poll()));
+        assertNull(log.poll());
+        assertTrue(log.isEmpty());
+    }
+
+    /**
+     * Peeked records should stay at the cursor until skipped, across segments.
+     */
+    @Test
+    public final void givenPeekedRecords_skip_shouldMoveCursorPastThem() throws IOException {
+        final List<String> appended = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            appended.add("record " + i + " of a log rolling its small segments");
+            log.append(bytes(appended.get(i)));
+        }
+        final RecordReader<String> reader = new RecordReader<String>() {
+            public String read(final ByteBuffer record) {
+                final byte[] bytes = new byte[record.remaining()];
+                record.get(bytes);
+                return string(bytes);
+            }
+        };
+        assertTrue(log.segmentCount() > 1);
+        assertEquals(appended.subList(0, 25), log.peek(reader, 25));
+        assertEquals(appended.subList(0, 25), log.peek(reader, 25));
+        assertEquals(25, log.skip(25));
+        assertEquals(appended.subList(25, 40), log.peek(reader, 25));
+        assertEquals(15, log.skip(25));
+        assertTrue(log.peek(reader, 25).isEmpty());
+        assertTrue(log.isEmpty());
+    }
+
+    /**
+     * Reading should resume at the persisted cursor once the log is opened again.
+     */
+    @Test
+    public final void givenReopenedLog_poll_shouldResumeAtPersistedCursor() throws IOException {
+        log.append(bytes("first"));
+        log.append(bytes("second"));
+        log.append(bytes("third"));
+        assertEquals("first", string(log.poll()));
+        log.close();
+        log = new SegmentedLog(directory, 1024, ioMode());
+        assertEquals("second", string(log.poll()));
+        log.append(bytes("fourth"));
+        assertEquals("third", string(log.poll()));
+        assertEquals("fourth", string(log.poll()));
+        assertNull(log.poll());
+    }
+
+    /**
+     * Appending past the segment size should start new segments, and reading should go through all of them.
+     */
+    @Test
+    public final void givenSmallSegments_append_shouldRollSegments() throws IOException {
+        log.close();
+        log = new SegmentedLog(directory, 32, ioMode());
+        for (int i = 0; i < 20; ++i) {
+            log.append(bytes("record-" + i));
+        }
+        assertTrue(log.segmentCount() > 1);
+        for (int i = 0; i < 20; ++i) {
+            assertEquals("record-" + i, string(log.poll()));
+        }
+        assertNull(log.poll());
+        assertEquals(0L, log.pendingBytes());
+    }
+
+    /**
+     * Records appended together should be read back in order, including when they span several segments.
+     */
+    @Test
+    public final void givenRecordsAppendedTogether_poll_shouldReturnThemInOrder() throws IOException {
+        log.close();
+        log = new SegmentedLog(directory, 64, ioMode());
+        final List<byte[]> records = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            records.add(bytes("record-" + i));
+        }
+        assertEquals(log.pendingBytes() + 20 * (Segment.HEADER_BYTES + "record-0".length()) + 10,
+                log.appendAll(records));
+        assertTrue(log.segmentCount() > 1);
+        log.close();
+        log = new SegmentedLog(directory, 64, ioMode());
+        for (int i = 0; i < 20; ++i) {
+            assertEquals("record-" + i, string(log.poll()));
+        }
+        assertNull(log.poll());
+    }
+
+    /**
+     * Records larger than the read-ahead buffer should be read back entirely.
+     */
+    @Test
+    public final void givenRecordLargerThanReadBuffer_poll_shouldReturnWholeRecord() throws IOException {
+        char[] chars = new char[200 * 1024];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+        log.append(bytes("small"));
+        log.append(bytes(large));
+        log.append(bytes("last"));
+        assertEquals("small", string(log.poll()));
+        assertEquals(large, string(log.poll()));
+        assertEquals("last", string(log.poll()));
+    }
+
+    /**
+     * Records appended after the reader caught up should be read.
+     */
+    @Test
+    public final void givenInterleavedAppends_poll_shouldSeeNewRecords() throws IOException {
+        for (int i = 0; i < 100; ++i) {
+            log.append(bytes("record-" + i));
+            assertEquals("record-" + i, string(log.poll()));
+            assertNull(log.poll());
+        }
+    }
+
+    /**
+     * A record that was not completely written should be cut off when the log is opened, and overwritten by
+     * the next append.
+     */
+    @Test
+    public final void givenTornRecord_poll_shouldReturnNull() throws IOException {
+        log.append(bytes("complete"));
+        log.append(bytes("a much longer record, torn by a crash"));
+        log.close();
+        RandomAccessFile output = new RandomAccessFile(new File(directory, Segment.fileName(0)), "rw");
+        if (ioMode() == IoMode.STREAM) {
+            output.setLength(Segment.HEADER_BYTES + "complete".length() + Segment.HEADER_BYTES + 5);
+        } else {
+            output.seek(Segment.HEADER_BYTES + "complete".length() + Segment.HEADER_BYTES + 5);
+            output.write(new byte[40]);
+        }
+        output.close();
+
+        log = new SegmentedLog(directory, 1024, ioMode());
+        log.append(bytes("next"));
+        log.close();
+        log = new SegmentedLog(directory, 1024, ioMode());
+        assertEquals("complete", string(log.poll()));
+        assertEquals("next", string(log.poll()));
+        assertNull(log.poll());
+    }
+
+    /**
+     * A record not matching its checksum should be cut off, with every record after it, when the log is
+     * opened.
+     */
+    @Test
+    public final void givenCorruptedRecord_poll_shouldStopBeforeIt() throws IOException {
+        log.append(bytes("first"));
+        log.append(bytes("second"));
+        log.append(bytes("third"));
+        log.close();
+        RandomAccessFile output = new RandomAccessFile(new File(directory, Segment.fileName(0)), "rw");
+        output.seek(Segment.HEADER_BYTES + "first".length() + Segment.HEADER_BYTES + 2);
+        output.write('X');
+        output.close();
+
+        log = new SegmentedLog(directory, 1024, ioMode());
+        assertEquals("first", string(log.poll()));
+        assertNull(log.poll());
+        assertEquals(0L, log.pendingBytes());
+    }
+
+    /**
+     * Syncing should make every record appended so far durable, and syncing again up to a durable offset
+     * should not force the log.
+     */
+    @Test
+    public final void givenSyncedOffset_sync_shouldNotForceAgain() throws IOException {
+        final long first = log.append(bytes("first"));
+        final long second = log.append(bytes("second"));
+        assertTrue(second > first);
+        log.sync(first);
+        assertEquals(second, log.durableOffset());
+        assertEquals(1L, log.syncCount());
+        log.sync(second);
+        assertEquals(1L, log.syncCount());
+        // Across a segment roll, both segments are forced
+        for (int i = 0; i < 100; ++i) {
+            log.append(bytes("record" + i));
+        }
+        final long last = log.append(bytes("last"));
+        log.sync(last);
+        assertEquals(last, log.durableOffset());
+        assertEquals(2L, log.syncCount());
+    }
+
+    /**
+     * Records are length-prefixed, so any byte, new lines and zeros included, should be read back untouched.
+     */
+    @Test
+    public final void givenBinaryRecord_poll_shouldReturnSameBytes() throws IOException {
+        final byte[] binary = new byte[] { 0, '\n', '$', 0, -1, '\n' };
+        log.append(binary);
+        log.append(new byte[0]);
+        log.close();
+        log = new SegmentedLog(directory, 1024, ioMode());
+        assertTrue(Arrays.equals(binary, log.poll()));
+        assertEquals(0, log.poll().length);
+        assertNull(log.poll());
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+
+    private static String string(final byte[] value) {
+        return value == null ? null : new String(value, Charsets.UTF_8);
+    }
+
+    static void deleteRecursively(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.storage;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link SlabArena}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class SlabArenaTest {
+
+    /** Object to be tested */
+    private SlabArena arena;
+
+    /**
+     * Cleaning the target on each test.
+     *
+     * @throws Exception the exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        arena = new SlabArena(1024);
+    }
+
+    /**
+     * Testing allocate(): a chunk of the smallest fitting size class is returned, distinct from the others.
+     */
+    @Test
+    public final void givenSizes_allocate_shouldReturnChunksOfFittingClass() {
+        // Given
+        final Set<Long> addresses = new HashSet<>();
+        // When
+        for (int i = 0; i < 100; ++i) {
+            final long address = arena.allocate(33);
+            // Then
+            assertTrue(address != SlabArena.NIL);
+            assertTrue(addresses.add(address));
+            assertEquals(64, arena.chunkBytes(address));
+        }
+        assertEquals(32, arena.chunkBytes(arena.allocate(1)));
+        assertEquals(4096, arena.chunkBytes(arena.allocate(4000)));
+        assertEquals(102L, arena.allocatedChunks());
+        assertEquals(100L * 64 + 32 + 4096, arena.allocatedBytes());
+    }
+
+    /**
+     * Testing free(): a freed chunk is reused by the next allocation of its size class.
+     */
+    @Test
+    public final void givenFreedChunk_allocate_shouldReuseIt() {
+        // Given
+        final long address = arena.allocate(100);
+        arena.allocate(100);
+        final long reserved = arena.reservedBytes();
+        // When
+        arena.free(address);
+        // Then
+        assertEquals(address, arena.allocate(120));
+        assertEquals(reserved, arena.reservedBytes());
+        assertEquals(2L, arena.allocatedChunks());
+    }
+
+    /**
+     * Testing put() and get(): values written to a chunk are read back, without touching the other chunks.
+     */
+    @Test
+    public final void givenWrittenChunk_get_shouldReadValuesBack() {
+        // Given
+        final long first = arena.allocate(48);
+        final long second = arena.allocate(48);
+        // When
+        arena.putLong(first, 0, Long.MAX_VALUE);
+        arena.putInt(first, 8, 42);
+        arena.put(first, 12, "payload".getBytes());
+        arena.putLong(second, 0, -1L);
+        // Then
+        assertEquals(Long.MAX_VALUE, arena.getLong(first, 0));
+        assertEquals(42, arena.getInt(first, 8));
+        final byte[] payload = new byte[7];
+        arena.get(first, 12, payload);
+        assertEquals("payload", new String(payload));
+        assertEquals(-1L, arena.getLong(second, 0));
+    }
+
+    /**
+     * Testing classOf(): sizes map to the smallest power of two class fitting them.
+     */
+    @Test
+    public final void givenSizes_classOf_shouldReturnSmallestFittingClass() {
+        assertEquals(0, SlabArena.classOf(1));
+        assertEquals(0, SlabArena.classOf(SlabArena.MIN_CHUNK_BYTES));
+        assertEquals(1, SlabArena.classOf(SlabArena.MIN_CHUNK_BYTES + 1));
+        assertEquals(SlabArena.MAX_CHUNK_BYTES, SlabArena.chunkBytes(SlabArena.classOf(SlabArena.MAX_CHUNK_BYTES)));
+    }
+}
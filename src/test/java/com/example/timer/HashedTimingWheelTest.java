@@ -0,0 +1,196 @@
+package com.example.timer;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unit tests for {@link HashedTimingWheel}.
+ *
+ * @author Swarn Avinash Kumar
+ */
+public class HashedTimingWheelTest {
+
+    /** Object to be tested */
+    private HashedTimingWheel wheel;
+
+    /**
+     * Small wheel so that timeouts of a few hundred milliseconds go through every level.
+     */
+    @Before
+    public void setUp() throws Exception {
+        wheel = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        wheel.stop();
+    }
+
+    /**
+     * A scheduled task should run after its delay and never before.
+     *
+     * @throws InterruptedException
+     */
+    @Test(timeout = 5000)
+    public final void givenHappyPath_schedule_shouldRunTaskAfterDelay() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong ranAt = new AtomicLong();
+        long start = System.nanoTime();
+        HashedTimingWheel.Timeout timeout = wheel.schedule(new Runnable() {
+            public void run() {
+                ranAt.set(System.nanoTime());
+                latch.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        latch.await();
+        assertTrue(ranAt.get() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(timeout.isExpired());
+        assertEquals(0L, wheel.activeTimeouts());
+    }
+
+    /**
+     * Timeouts far beyond the first level should cascade down and expire on time.
+     *
+     * @throws InterruptedException
+     */
+    @Test(timeout = 5000)
+    public final void givenDelayBeyondFirstLevel_schedule_shouldCascadeAndRunTask() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final long start = System.nanoTime();
+        final AtomicInteger early = new AtomicInteger();
+        for (final long delay : new long[] { 70, 300, 700 }) {
+            wheel.schedule(new Runnable() {
+                public void run() {
+                    if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        early.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        latch.await();
+        assertEquals(0, early.get());
+    }
+
+    /**
+     * A cancelled task should never run.
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public final void givenCancelledTimeout_schedule_shouldNotRunTask() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        HashedTimingWheel.Timeout timeout = wheel.schedule(new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertEquals(0L, wheel.activeTimeouts());
+        Thread.sleep(200);
+        assertEquals(0, runs.get());
+    }
+
+    /**
+     * Many timeouts on the same tick should all expire, and cancelled ones should be skipped.
+     *
+     * @throws InterruptedException
+     */
+    @Test(timeout = 5000)
+    public final void givenManyTimeouts_schedule_shouldExpireThemInBatch() throws InterruptedException {
+        final int count = 10000;
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(count / 2);
+        Runnable task = new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+                latch.countDown();
+            }
+        };
+        HashedTimingWheel.Timeout[] timeouts = new HashedTimingWheel.Timeout[count];
+        for (int i = 0; i < count; ++i) {
+            timeouts[i] = wheel.schedule(task, 100, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < count; i += 2) {
+            timeouts[i].cancel();
+        }
+        latch.await();
+        Thread.sleep(50);
+        assertEquals(count / 2, runs.get());
+    }
+
+    /**
+     * Scheduling on a stopped wheel should throw IllegalStateException.
+     */
+    @Test(expected = IllegalStateException.class)
+    public final void givenStoppedWheel_schedule_shouldThrowIllegalStateException() {
+        wheel.stop();
+        wheel.schedule(new Runnable() {
+            public void run() {
+            }
+        }, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Given null task, schedule() should throw IllegalArgumentException.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public final void givenNullTask_schedule_shouldThrowIllegalArgumentException() {
+        wheel.schedule(null, 1, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * A task that throws should be counted as failed without stopping the wheel, and a task rejected by the
+     * executor should still run, on the worker.
+     *
+     * @throws InterruptedException
+     */
+    @Test(timeout = 5000)
+    public final void givenFailingOrRejectedTask_schedule_shouldCountOrRunIt() throws InterruptedException {
+        wheel.schedule(new Runnable() {
+            public void run() {
+                throw new IllegalStateException("Failing task");
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        final CountDownLatch ran = new CountDownLatch(1);
+        wheel.schedule(new Runnable() {
+            public void run() {
+                ran.countDown();
+            }
+        }, 30, TimeUnit.MILLISECONDS);
+        ran.await();
+        assertEquals(1L, wheel.failedTasks());
+
+        final HashedTimingWheel rejecting = new HashedTimingWheel(10, TimeUnit.MILLISECONDS, 4,
+                HashedTimingWheel.DEFAULT_LEVELS, new Executor() {
+                    public void execute(Runnable command) {
+                        throw new RejectedExecutionException();
+                    }
+                });
+        final CountDownLatch rejected = new CountDownLatch(1);
+        rejecting.schedule(new Runnable() {
+            public void run() {
+                rejected.countDown();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        try {
+            rejected.await();
+            assertEquals(0L, rejecting.failedTasks());
+        } finally {
+            rejecting.stop();
+        }
+    }
+}
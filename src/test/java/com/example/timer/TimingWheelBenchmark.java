@@ -0,0 +1,108 @@
+package com.example.timer;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link HashedTimingWheel} with the ScheduledExecutorService it replaced for visibility timeouts.
+ * Every round schedules N timeouts with the prod visibility timeout (4200 seconds), as if N messages were in
+ * flight, then cancels all of them, as if every message was deleted.
+ * <p>
+ * Not a unit test. Run it with a large heap, e.g. for the default sizes (10k, 1M and 10M in-flight messages):
+ *
+ * <pre>
+ * java -Xmx8g -cp target/classes:target/test-classes:... com.example.timer.TimingWheelBenchmark 10000 1000000 10000000
+ * </pre>
+ *
+ * @author Swarn Avinash Kumar
+ */
+public final class TimingWheelBenchmark {
+
+    private static final long VISIBILITY_TIMEOUT_SECONDS = 4200;
+
+    private static final Runnable NOOP = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private TimingWheelBenchmark() {
+
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int[] sizes;
+        if (args.length == 0) {
+            sizes = new int[] { 10000, 1000000, 10000000 };
+        } else {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; ++i) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println(String.format("%-10s %12s %14s %14s %16s", "backend", "in-flight", "schedule ns/op",
+                "cancel ns/op", "heap bytes/op"));
+        for (int size : sizes) {
+            // First pass warms up the JIT, second one is reported
+            executorRound(Math.min(size, 100000), false);
+            executorRound(size, true);
+            wheelRound(Math.min(size, 100000), false);
+            wheelRound(size, true);
+        }
+    }
+
+    private static void executorRound(final int size, final boolean report) {
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        final ScheduledFuture<?>[] futures = new ScheduledFuture<?>[size];
+        final long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            futures[i] = executor.schedule(NOOP, VISIBILITY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        final long scheduleNanos = System.nanoTime() - start;
+        final long heapAfter = usedHeap();
+        start = System.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            futures[i].cancel(true);
+        }
+        final long cancelNanos = System.nanoTime() - start;
+        executor.shutdownNow();
+        if (report) {
+            print("executor", size, scheduleNanos, cancelNanos, heapAfter - heapBefore);
+        }
+    }
+
+    private static void wheelRound(final int size, final boolean report) throws InterruptedException {
+        final HashedTimingWheel wheel = new HashedTimingWheel(100, TimeUnit.MILLISECONDS, 512);
+        final HashedTimingWheel.Timeout[] timeouts = new HashedTimingWheel.Timeout[size];
+        final long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            timeouts[i] = wheel.schedule(NOOP, VISIBILITY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        final long scheduleNanos = System.nanoTime() - start;
+        final long heapAfter = usedHeap();
+        start = System.nanoTime();
+        for (int i = 0; i < size; ++i) {
+            timeouts[i].cancel();
+        }
+        final long cancelNanos = System.nanoTime() - start;
+        wheel.stop();
+        if (report) {
+            print("wheel", size, scheduleNanos, cancelNanos, heapAfter - heapBefore);
+        }
+    }
+
+    private static void print(String backend, int size, long scheduleNanos, long cancelNanos, long heapBytes) {
+        System.out.println(String.format("%-10s %12d %14.1f %14.1f %16.1f", backend, size,
+                (double) scheduleNanos / size, (double) cancelNanos / size, (double) heapBytes / size));
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}